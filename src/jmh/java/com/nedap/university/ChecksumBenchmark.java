@@ -0,0 +1,58 @@
+package com.nedap.university;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the throughput of the checksum that adds the data word by word with a carry check per word (as
+ * DataIntegrityProtocol used to do) with the checksum that adds eight bytes at a time. Run with: ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({"1500", "1048577"})
+    public int length;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new byte[length];
+        new Random(1).nextBytes(data);
+    }
+
+    @Benchmark
+    public int checksumWordByWord() {
+        int checksum = 0;
+        int length = data.length;
+        int i = 0;
+        while (length > 1) {
+            checksum = checksum + (((data[i] & 0xff) << 8) | (data[i + 1] & 0xff));
+            if ((checksum & 0xffff0000) > 0) {
+                checksum = checksum & 0xffff;
+                checksum++;
+            }
+            i = i + 2;
+            length = length - 2;
+        }
+        if (length == 1) {
+            checksum = checksum + (data[i] << 8);
+            if ((checksum & 0xffff0000) > 0) {
+                checksum = checksum & 0xffff;
+                checksum++;
+            }
+        }
+        return (~checksum & 0xffff);
+    }
+
+    @Benchmark
+    public int checksumEightBytesAtATime() {
+        return DataIntegrityProtocol.calculateChecksum(data);
+    }
+}
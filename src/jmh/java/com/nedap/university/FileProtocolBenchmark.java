@@ -0,0 +1,88 @@
+package com.nedap.university;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the throughput of reading and writing the example files byte by byte (as FileProtocol used to do) with the
+ * bulk reads and writes via a FileChannel. Run with: ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileProtocolBenchmark {
+    @Param({"tiny.pdf", "medium.pdf"})
+    public String fileName;
+
+    @Param({"NONE", "DATA"})
+    public FsyncPolicy fsyncPolicy;
+
+    private String exampleFilesPath;
+    private String outputPath;
+    private byte[] fileInBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        exampleFilesPath = System.getProperty("exampleFiles", "example_files") + File.separator;
+        outputPath = Files.createTempDirectory("file-protocol-benchmark").toString() + File.separator;
+        fileInBytes = FileProtocol.fileToBytes(exampleFilesPath, fileName);
+        if (fileInBytes == null) {
+            throw new IOException("Could not read " + exampleFilesPath + fileName + ".");
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeWrittenFile() {
+        new File(outputPath + fileName).delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void removeOutputPath() {
+        new File(outputPath).delete();
+    }
+
+    @Benchmark
+    public byte[] readByteByByte() throws IOException {
+        File file = FileProtocol.getFile(exampleFilesPath, fileName);
+        try (FileInputStream fileInputStream = new FileInputStream(file)) {
+            byte[] fileInByteArray = new byte[(int) file.length()];
+            for (int i = 0; i < fileInByteArray.length; i++) {
+                fileInByteArray[i] = (byte) fileInputStream.read();
+            }
+            return fileInByteArray;
+        }
+    }
+
+    @Benchmark
+    public byte[] readBulk() {
+        return FileProtocol.fileToBytes(exampleFilesPath, fileName);
+    }
+
+    @Benchmark
+    public File writeByteByByte() throws IOException {
+        File file = new File(outputPath + fileName);
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            for (byte byteOfFileData : fileInBytes) {
+                fileOutputStream.write(byteOfFileData);
+            }
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                fileOutputStream.getFD().sync();
+            }
+        }
+        return file;
+    }
+
+    @Benchmark
+    public File writeBulk() {
+        return FileProtocol.bytesToFile(outputPath, fileName, fileInBytes, fsyncPolicy);
+    }
+}
@@ -0,0 +1,85 @@
+package com.nedap.university;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the number of packets per second of a Selective Repeat transfer over the loopback address between blocking
+ * DatagramSockets, which receive one packet per call (as before), and non-blocking DatagramChannels, via which the
+ * waiting packets and acknowledgements are handled in batches. Run with: ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransferBenchmark {
+    private static final int NUMBER_OF_PACKETS = 2000;
+
+    @Param({"DatagramSocket", "DatagramChannel"})
+    public String socketType;
+
+    private byte[] fileInBytes;
+    private PacketSocket receiverSocket;
+    private PacketSocket senderSocket;
+    private TransferContext receiverContext;
+    private TransferContext senderContext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fileInBytes = new byte[NUMBER_OF_PACKETS * SelectiveRepeatProtocol.getPayloadSize(PacketProtocol.CURRENT_HEADER_VERSION)];
+        new Random(1).nextBytes(fileInBytes);
+    }
+
+    /**
+     * Open a new pair of sockets for every transfer, so no late packet of the previous transfer can arrive.
+     */
+    @Setup(Level.Invocation)
+    public void openSockets() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        int receiverPort;
+        int senderPort;
+        if (socketType.equals("DatagramChannel")) {
+            ChannelPacketSocket receiverChannel = ChannelPacketSocket.open();
+            ChannelPacketSocket senderChannel = ChannelPacketSocket.open();
+            receiverPort = receiverChannel.getLocalPort();
+            senderPort = senderChannel.getLocalPort();
+            receiverSocket = receiverChannel;
+            senderSocket = senderChannel;
+        } else {
+            DatagramSocket receiverDatagramSocket = new DatagramSocket(0, loopback);
+            DatagramSocket senderDatagramSocket = new DatagramSocket(0, loopback);
+            receiverPort = receiverDatagramSocket.getLocalPort();
+            senderPort = senderDatagramSocket.getLocalPort();
+            receiverSocket = new UdpPacketSocket(receiverDatagramSocket);
+            senderSocket = new UdpPacketSocket(senderDatagramSocket);
+        }
+        receiverContext = new TransferContext(receiverSocket, loopback, senderPort, new RttEstimator());
+        senderContext = new TransferContext(senderSocket, loopback, receiverPort, new RttEstimator());
+        receiverContext.setOptions(PacketProtocol.OPTION_SACK);
+        senderContext.setOptions(PacketProtocol.OPTION_SACK);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeSockets() {
+        receiverSocket.close();
+        senderSocket.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUMBER_OF_PACKETS)
+    public byte[] transfer() throws InterruptedException {
+        ByteArrayFragmentSink sink = new ByteArrayFragmentSink(fileInBytes.length);
+        Thread receiver = new Thread(() -> SelectiveRepeatProtocol.receiveFile(receiverContext, fileInBytes.length, 99, sink, new ChecksumAccumulator()));
+        receiver.start();
+        SelectiveRepeatProtocol.sendFile(new ByteArrayFragmentSource(fileInBytes), 7, 99, senderContext, SelectiveRepeatProtocol.DEFAULT_WINDOW_SIZE, new ChecksumAccumulator());
+        receiver.join();
+        return sink.getData();
+    }
+}
@@ -2,15 +2,14 @@ package com.nedap.university;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 
 /**
  * Represents the protocol for creating, sending and receiving acknowledgements.
  */
 public final class AcknowledgementProtocol {
-    static byte[] lastReceivedAcknowledgement;
-    static byte[] lastSentAcknowledgement;
 
 
 //          --- CREATE ACKNOWLEDGEMENT PACKETS ---
@@ -21,7 +20,7 @@ public final class AcknowledgementProtocol {
      * @return an empty DatagramPacket which can be filled with the byte representation of the acknowledgement.
      */
     public static DatagramPacket createAckPacketToReceive() {
-        byte[] acknowledgement = new byte[PacketProtocol.HEADER_SIZE];
+        byte[] acknowledgement = new byte[PacketProtocol.MAX_HEADER_SIZE];
         return new DatagramPacket(acknowledgement, acknowledgement.length);
     }
 
@@ -41,37 +40,77 @@ public final class AcknowledgementProtocol {
      *
      * @param optionalExtraFlag is an optional extra flag that can be set (in addition to the standard ACK flag).
      * @param totalFileSize     is the size of the total file that needs to be transmitted.
+     * @param offset            is the offset from which the file is transmitted (only in version 2, see ResumeProtocol).
      * @param lastReceivedSeqNr is the last sequence number received.
      * @param message           is the message that needs to be transmitted.
+     * @param headerVersion     is the version of the header that is used by the connection.
+     * @param options           is the options that the server accepts for the connection.
      * @param address           is the address to which the acknowledgement needs to be sent.
      * @param port              is the port to which the acknowledgement needs to be sent.
      * @return the initial acknowledgement as response to the request of the client.
      */
-    public static DatagramPacket createInitialAckToSend(int optionalExtraFlag, int totalFileSize, int lastReceivedSeqNr, String message, InetAddress address, int port) {
+    public static DatagramPacket createInitialAckToSend(int optionalExtraFlag, long totalFileSize, long offset, int lastReceivedSeqNr, String message, int headerVersion, int options, InetAddress address, int port) {
         // as this is the first message from the server to the client, the sequence number can be randomly generated:
         int sequenceNumber = PacketProtocol.generateRandomSequenceNumber();
         int acknowledgementNumber = lastReceivedSeqNr;
-        byte[] acknowledgement = PacketProtocol.createPacketWithHeader(totalFileSize, sequenceNumber, acknowledgementNumber, (PacketProtocol.ACK + optionalExtraFlag), message.getBytes());
-        setLastSentAcknowledgement(acknowledgement);
+        byte[] acknowledgement = PacketProtocol.createPacketWithHeader(headerVersion, totalFileSize, offset, sequenceNumber, acknowledgementNumber, (PacketProtocol.ACK + optionalExtraFlag), options, message.getBytes());
         return new DatagramPacket(acknowledgement, acknowledgement.length, address, port);
     }
 
     /**
-     * Create an acknowledgement to send as a response to a message from the client/server.
+     * Create an acknowledgement to send as a response to a message from the client/server. The acknowledgement is
+     * encoded in the acknowledgement buffer of the context, so no memory is allocated for it.
      *
      * @param optionalExtraFlag is an optional extra flag that can be set (in addition to the standard ACK flag).
      * @param lastReceivedSeqNr is the last sequence number received.
      * @param lastReceivedAckNr is the last acknowledgement number received.
-     * @param address           is the address to which the acknowledgement needs to be sent.
-     * @param port              is the port to which the acknowledgement needs to be sent.
+     * @param context           is the context of the connection between the client and server.
      * @return is the acknowledgement as response to a previous message of the client or server.
      */
-    public static DatagramPacket createAckToSend(int optionalExtraFlag, int lastReceivedSeqNr, int lastReceivedAckNr, InetAddress address, int port) {
+    public static DatagramPacket createAckToSend(int optionalExtraFlag, int lastReceivedSeqNr, int lastReceivedAckNr, TransferContext context) {
         int sequenceNumber = lastReceivedAckNr + 1;
         int acknowledgementNumber = lastReceivedSeqNr;
-        byte[] acknowledgement = PacketProtocol.createHeader(0, sequenceNumber, acknowledgementNumber, (PacketProtocol.ACK + optionalExtraFlag), 0);
-        setLastSentAcknowledgement(acknowledgement);
-        return new DatagramPacket(acknowledgement, acknowledgement.length, address, port);
+        ByteBuffer acknowledgement = context.getAcknowledgementBuffer();
+        PacketCodec.encodeHeader(acknowledgement, context.getHeaderVersion(), 0, 0, sequenceNumber, acknowledgementNumber, (PacketProtocol.ACK + optionalExtraFlag), 0, 0);
+        DatagramPacket ackPacket = context.getAcknowledgementPacket();
+        PacketCodec.toDatagram(acknowledgement, ackPacket);
+        return ackPacket;
+    }
+
+    /**
+     * Create a selective acknowledgement, which acknowledges all packets of a file before the first missing packet and
+     * carries the ranges of packets that are received after it (as far as they fit). The acknowledgement is encoded in
+     * the acknowledgement buffer of the context and ends with a CRC32C, as a corrupted range would acknowledge packets
+     * that are not received.
+     *
+     * @param lastReceivedAckNr    is the last acknowledgement number received.
+     * @param firstSequenceNumber  is the sequence number of the first packet of the file.
+     * @param receivedPackets      is whether every packet of the file is received (position = packet number).
+     * @param firstMissingPacket   is the first packet of the file that is not received yet.
+     * @param totalNumberOfPackets is the total number of packets in which the file is sent.
+     * @param context              is the context of the connection between the client and server.
+     * @return the selective acknowledgement.
+     */
+    public static DatagramPacket createSelectiveAckToSend(int lastReceivedAckNr, int firstSequenceNumber, BitSet receivedPackets, int firstMissingPacket, int totalNumberOfPackets, TransferContext context) {
+        int sequenceNumber = lastReceivedAckNr + 1;
+        int acknowledgementNumber = firstSequenceNumber + firstMissingPacket - 1;
+        ByteBuffer acknowledgement = context.getAcknowledgementBuffer();
+        // the header is encoded last, as its checksum covers the length of the ranges:
+        int position = PacketProtocol.HEADER_SIZE_V2;
+        int rangeStart = receivedPackets.nextSetBit(firstMissingPacket);
+        for (int range = 0; range < PacketProtocol.MAX_SACK_RANGES && rangeStart >= 0 && rangeStart < totalNumberOfPackets; range++) {
+            int rangeEnd = Math.min(receivedPackets.nextClearBit(rangeStart), totalNumberOfPackets);
+            acknowledgement.putInt(position, firstSequenceNumber + rangeStart);
+            acknowledgement.putInt(position + 4, firstSequenceNumber + rangeEnd);
+            position = position + PacketProtocol.SACK_RANGE_SIZE;
+            rangeStart = receivedPackets.nextSetBit(rangeEnd);
+        }
+        PacketCodec.encodeHeader(acknowledgement, PacketProtocol.HEADER_VERSION_2, 0, 0, sequenceNumber, acknowledgementNumber, PacketProtocol.ACK, PacketProtocol.OPTION_SACK, position - PacketProtocol.HEADER_SIZE_V2);
+        acknowledgement.position(position);
+        PacketCodec.appendCrc32c(acknowledgement);
+        DatagramPacket ackPacket = context.getAcknowledgementPacket();
+        PacketCodec.toDatagram(acknowledgement, ackPacket);
+        return ackPacket;
     }
 
 
@@ -84,17 +123,26 @@ public final class AcknowledgementProtocol {
      * @param totalFileSize     is the size of the total file that needs to be transmitted.
      * @param lastReceivedSeqNr is the last sequence number received.
      * @param message           is the message that needs to be transmitted.
-     * @param socket            is the socket via which the client and server are connected.
-     * @param address           is the address to which the acknowledgement needs to be sent.
-     * @param port              is the port to which the acknowledgement needs to be sent.
+     * @param context           is the context of the connection between the client and server.
      */
-    public static void sendInitialAcknowledgementWithMessage(int optionalExtraFlag, int totalFileSize, int lastReceivedSeqNr, String message, DatagramSocket socket, InetAddress address, int port) {
-        DatagramPacket initialAckWithMessagePacket = createInitialAckToSend(optionalExtraFlag, totalFileSize, lastReceivedSeqNr, message, address, port);
-        try {
-            socket.send(initialAckWithMessagePacket);
-        } catch (IOException e) {
-            System.out.println("Check the destination address input, as the destination could not be found.");
-        }
+    public static void sendInitialAcknowledgementWithMessage(int optionalExtraFlag, long totalFileSize, int lastReceivedSeqNr, String message, TransferContext context) {
+        sendInitialAcknowledgementWithMessage(optionalExtraFlag, totalFileSize, 0, lastReceivedSeqNr, message, context);
+    }
+
+    /**
+     * Send the initial acknowledgement to the request of the client with a message, including the offset from which the
+     * file is transmitted (to continue an interrupted upload).
+     *
+     * @param optionalExtraFlag is an optional extra flag that can be set (in addition to the standard ACK flag).
+     * @param totalFileSize     is the size of the total file that needs to be transmitted.
+     * @param offset            is the offset from which the file is transmitted.
+     * @param lastReceivedSeqNr is the last sequence number received.
+     * @param message           is the message that needs to be transmitted.
+     * @param context           is the context of the connection between the client and server.
+     */
+    public static void sendInitialAcknowledgementWithMessage(int optionalExtraFlag, long totalFileSize, long offset, int lastReceivedSeqNr, String message, TransferContext context) {
+        DatagramPacket initialAckWithMessagePacket = createInitialAckToSend(optionalExtraFlag, totalFileSize, offset, lastReceivedSeqNr, message, context.getHeaderVersion(), context.getOptions(), context.getAddress(), context.getPort());
+        send(initialAckWithMessagePacket, context);
     }
 
     /**
@@ -103,35 +151,54 @@ public final class AcknowledgementProtocol {
      * @param optionalExtraFlag is an optional extra flag that can be set (in addition to the standard ACK flag).
      * @param lastReceivedSeqNr is the last sequence number received.
      * @param lastReceivedAckNr is the last acknowledgement number received.
-     * @param socket            is the socket via which the client and server are connected.
-     * @param address           is the address to which the acknowledgement needs to be sent.
-     * @param port              is the port to which the acknowledgement needs to be sent.
+     * @param context           is the context of the connection between the client and server.
      */
-    public static void sendAcknowledgement(int optionalExtraFlag, int lastReceivedSeqNr, int lastReceivedAckNr, DatagramSocket socket, InetAddress address, int port) {
-        DatagramPacket ackPacket = createAckToSend(optionalExtraFlag, lastReceivedSeqNr, lastReceivedAckNr, address, port);
-        try {
-            socket.send(ackPacket);
-        } catch (IOException e) {
-            System.out.println("Check the destination address input, as the destination could not be found.");
-        }
+    public static void sendAcknowledgement(int optionalExtraFlag, int lastReceivedSeqNr, int lastReceivedAckNr, TransferContext context) {
+        DatagramPacket ackPacket = createAckToSend(optionalExtraFlag, lastReceivedSeqNr, lastReceivedAckNr, context);
+        send(ackPacket, context);
+    }
+
+    /**
+     * Respond with a selective acknowledgement to the packets of a file that are received (see
+     * createSelectiveAckToSend).
+     *
+     * @param lastReceivedAckNr    is the last acknowledgement number received.
+     * @param firstSequenceNumber  is the sequence number of the first packet of the file.
+     * @param receivedPackets      is whether every packet of the file is received (position = packet number).
+     * @param firstMissingPacket   is the first packet of the file that is not received yet.
+     * @param totalNumberOfPackets is the total number of packets in which the file is sent.
+     * @param context              is the context of the connection between the client and server.
+     */
+    public static void sendSelectiveAcknowledgement(int lastReceivedAckNr, int firstSequenceNumber, BitSet receivedPackets, int firstMissingPacket, int totalNumberOfPackets, TransferContext context) {
+        DatagramPacket ackPacket = createSelectiveAckToSend(lastReceivedAckNr, firstSequenceNumber, receivedPackets, firstMissingPacket, totalNumberOfPackets, context);
+        send(ackPacket, context);
     }
 
     /**
-     * Send last acknowledgement again as it is not received yet.
+     * Send the last acknowledgement again as it is not received yet.
      *
-     * @param lastSentAcknowledgement is the byte representation of the last acknowledgement that is sent.
-     * @param socket                  is the socket via which the client and server are connected.
-     * @param address                 is the address to which the acknowledgement needs to be sent.
-     * @param port                    is the port to which the acknowledgement needs to be sent.
+     * @param context is the context of the connection between the client and server, which holds the last
+     *                acknowledgement that is sent.
      */
-    public static void resendAcknowledgement(byte[] lastSentAcknowledgement, DatagramSocket socket, InetAddress address, int port) {
+    public static void resendAcknowledgement(TransferContext context) {
+        DatagramPacket lastSentAcknowledgement = context.getLastSentAcknowledgement();
         if (lastSentAcknowledgement != null) {
-            DatagramPacket ackPacket = new DatagramPacket(lastSentAcknowledgement, lastSentAcknowledgement.length, address, port);
-            try {
-                socket.send(ackPacket);
-            } catch (IOException e) {
-                System.out.println("Check the destination address input, as the destination could not be found.");
-            }
+            send(lastSentAcknowledgement, context);
+        }
+    }
+
+    /**
+     * Send an acknowledgement and store it in the context, in order to be able to send it again.
+     *
+     * @param ackPacket is the acknowledgement packet to send.
+     * @param context   is the context of the connection between the client and server.
+     */
+    private static void send(DatagramPacket ackPacket, TransferContext context) {
+        context.setLastSentAcknowledgement(ackPacket);
+        try {
+            context.getSocket().send(ackPacket);
+        } catch (IOException e) {
+            System.out.println("Check the destination address input, as the destination could not be found.");
         }
     }
 
@@ -140,32 +207,37 @@ public final class AcknowledgementProtocol {
 
     /**
      * Try to send a packet and to receive an acknowledgement before the timer expires. Resend the packet to be
-     * transmitted if the acknowledgement is not received in time.
+     * transmitted if the acknowledgement is not received in time. The round trip time estimator of the context
+     * provides the time-out and is updated with the measured round trip time.
      *
-     * @param socket       is the socket via which the client and server are connected.
+     * @param context      is the context of the connection between the client and server.
      * @param ackPacket    is the acknowledgement packet that needs to be received.
      * @param packetToSend is the packet that the server or client tries to send and to which an acknowledgement is
      *                     expected.
      */
-    public static void sendPacketAndReceiveAck(DatagramSocket socket, DatagramPacket ackPacket, DatagramPacket packetToSend) {
+    public static void sendPacketAndReceiveAck(TransferContext context, DatagramPacket ackPacket, DatagramPacket packetToSend) {
+        PacketSocket socket = context.getSocket();
+        RttEstimator rttEstimator = context.getRttEstimator();
         boolean isAckReceived = false;
-        // The time-out time is set on (2*round trip time) by default. Every time a packet is not received, this round
-        // trip time is doubled, for a larger chance of receiving the fragment in time.
-        int timeOutTime = PacketProtocol.TIMEOUT;
-        while (!isAckReceived) {
+        boolean isRetransmitted = false;
+        while (!isAckReceived && !socket.isClosed()) {
             try {
+                long timeSent = System.nanoTime();
                 socket.send(packetToSend);
-                socket.setSoTimeout(timeOutTime);
                 // set timeOut -- socket will try to receive ack for this period of time. if timer expires without receiving an ACK, method continues.
                 // as long as there is no data received, stay in the loop and try receiving the ack. if timer has expired, resend the last packet sent.
+                socket.setSoTimeout(rttEstimator.getTimeout());
                 socket.receive(ackPacket);
+                rttEstimator.addSample(System.nanoTime() - timeSent, isRetransmitted);
                 byte[] acknowledgement = ackPacket.getData();
-                setLastReceivedAcknowledgement(acknowledgement);
+                context.setLastReceivedAcknowledgement(acknowledgement);
                 isAckReceived = true;
                 socket.setSoTimeout(0);
             } catch (IOException e) {
-                // if acknowledgement is not received in time, the value of time-out will be doubled here:
-                timeOutTime = timeOutTime*2;
+                // if acknowledgement is not received in time, the time-out will be doubled here (up to the maximum
+                // time-out of the estimator):
+                rttEstimator.backOff();
+                isRetransmitted = true;
             }
         }
     }
@@ -174,26 +246,40 @@ public final class AcknowledgementProtocol {
      * Send a request and try to receive an acknowledgement before the timer expires. If that does not happen, resend
      * the request.
      *
-     * @param socket        is the socket via which the client and server are connected.
+     * @param context       is the context of the connection between the client and server.
      * @param requestPacket is the request that needs to be transmitted.
      */
-    public static void sendRequestAndReceiveAckWithMessage(DatagramSocket socket, DatagramPacket requestPacket) {
+    public static void sendRequestAndReceiveAckWithMessage(TransferContext context, DatagramPacket requestPacket) {
         DatagramPacket ackPacketWithMessage = createAckWithMessagePacketToReceive();
-        sendPacketAndReceiveAck(socket, ackPacketWithMessage, requestPacket);
+        sendPacketAndReceiveAck(context, ackPacketWithMessage, requestPacket);
     }
 
     /**
      * Send the checksum and try to receive an acknowledgement. This acknowledgement can carry the additional flag
      * 'INCORRECT', indicating that the total checksum was not correct.
      *
-     * @param socket         is the socket via which the client and server are connected.
+     * @param context        is the context of the connection between the client and server.
      * @param checksumPacket is the packet with the checksum of the total original file.
      * @return true if the checksum was received correctly, false if not.
      */
-    public static boolean sendChecksumAndReceiveAck(DatagramSocket socket, DatagramPacket checksumPacket) {
+    public static boolean sendChecksumAndReceiveAck(TransferContext context, DatagramPacket checksumPacket) {
+        PacketSocket socket = context.getSocket();
+        int checksumSequenceNumber = PacketProtocol.getSequenceNumber(checksumPacket.getData());
         DatagramPacket ackPacket = createAckPacketToReceive();
-        sendPacketAndReceiveAck(socket, ackPacket, checksumPacket);
-        byte[] ackReceived = getLastReceivedAcknowledgement();
+        sendPacketAndReceiveAck(context, ackPacket, checksumPacket);
+        // (negative) acknowledgements of packets with file data can still arrive, so only the acknowledgement of the
+        // checksum packet itself counts. Keep receiving until it arrives, and resend the checksum if the timer expires:
+        while (PacketProtocol.getAcknowledgementNumber(ackPacket.getData()) != checksumSequenceNumber && !socket.isClosed()) {
+            try {
+                socket.setSoTimeout(context.getRttEstimator().getTimeout());
+                socket.receive(ackPacket);
+                context.setLastReceivedAcknowledgement(ackPacket.getData());
+                socket.setSoTimeout(0);
+            } catch (IOException e) {
+                sendPacketAndReceiveAck(context, ackPacket, checksumPacket);
+            }
+        }
+        byte[] ackReceived = context.getLastReceivedAcknowledgement();
         int flag = PacketProtocol.getFlag(ackReceived);
         return flag == PacketProtocol.ACK;
     }
@@ -206,52 +292,28 @@ public final class AcknowledgementProtocol {
      * @param totalFileSize     is the size of the total file that needs to be transmitted.
      * @param lastReceivedSeqNr is the last sequence number received.
      * @param message           is the message that needs to be transmitted.
-     * @param address           is the address to which the acknowledgement needs to be sent.
-     * @param port              is the port to which the acknowledgement needs to be sent.
-     * @param socket            is the socket via which the client and server are connected.
+     * @param context           is the context of the connection between the client and server.
      */
-    public static void sendAckWithFileSizeAndReceiveAck(int optionalExtraFlag, int totalFileSize, int lastReceivedSeqNr, String message, InetAddress address, int port, DatagramSocket socket) {
-        DatagramPacket initialAckPacketWithFileSize = createInitialAckToSend(optionalExtraFlag, totalFileSize, lastReceivedSeqNr, message, address, port);
-        DatagramPacket ackToReceive = createAckPacketToReceive();
-        sendPacketAndReceiveAck(socket, ackToReceive, initialAckPacketWithFileSize);
+    public static void sendAckWithFileSizeAndReceiveAck(int optionalExtraFlag, long totalFileSize, int lastReceivedSeqNr, String message, TransferContext context) {
+        sendAckWithFileSizeAndReceiveAck(optionalExtraFlag, totalFileSize, 0, lastReceivedSeqNr, message, context);
     }
 
-
-//          --- GETTERS AND SETTERS ---
-
     /**
-     * Get the byte representation of the last received acknowledgement packet.
+     * Send an acknowledgement that also carries the total file size and the offset from which the file is transmitted
+     * (to continue an interrupted download), and try to receive an acknowledgement before the timer expires. If that
+     * does not happen, resend the request.
      *
-     * @return the byte representation of the last received acknowledgement packet.
-     */
-    public static byte[] getLastReceivedAcknowledgement() {
-        return lastReceivedAcknowledgement;
-    }
-
-    /**
-     * Set the byte representation of the last received acknowledgement packet to be able to reuse this information in other classes.
-     *
-     * @param acknowledgement is the byte representation of the last received acknowledgement packet.
-     */
-    public static void setLastReceivedAcknowledgement(byte[] acknowledgement) {
-        AcknowledgementProtocol.lastReceivedAcknowledgement = acknowledgement;
-    }
-
-    /**
-     * Get the byte representation of the last sent acknowledgement packet.
-     *
-     * @return the byte representation of the last sent acknowledgement packet.
-     */
-    public static byte[] getLastSentAcknowledgement() {
-        return lastSentAcknowledgement;
-    }
-
-    /**
-     * Set the byte representation of the last sent acknowledgement packet to be able to reuse this information in other classes.
-     *
-     * @param acknowledgement is the byte representation of the last sent acknowledgement packet.
+     * @param optionalExtraFlag is an optional extra flag that can be set (in addition to the standard ACK flag).
+     * @param totalFileSize     is the size of the total file that needs to be transmitted.
+     * @param offset            is the offset from which the file is transmitted.
+     * @param lastReceivedSeqNr is the last sequence number received.
+     * @param message           is the message that needs to be transmitted.
+     * @param context           is the context of the connection between the client and server.
      */
-    public static void setLastSentAcknowledgement(byte[] acknowledgement) {
-        AcknowledgementProtocol.lastSentAcknowledgement = acknowledgement;
+    public static void sendAckWithFileSizeAndReceiveAck(int optionalExtraFlag, long totalFileSize, long offset, int lastReceivedSeqNr, String message, TransferContext context) {
+        DatagramPacket initialAckPacketWithFileSize = createInitialAckToSend(optionalExtraFlag, totalFileSize, offset, lastReceivedSeqNr, message, context.getHeaderVersion(), context.getOptions(), context.getAddress(), context.getPort());
+        context.setLastSentAcknowledgement(initialAckPacketWithFileSize);
+        DatagramPacket ackToReceive = createAckPacketToReceive();
+        sendPacketAndReceiveAck(context, ackToReceive, initialAckPacketWithFileSize);
     }
 }
@@ -0,0 +1,192 @@
+package com.nedap.university;
+
+import java.io.IOException;
+
+/**
+ * Represents the protocol for uploading or downloading a batch of files in one session, so the files do not need a
+ * request and acknowledgement of their own. The request is the usual upload or download request with OPTION_BATCH (see
+ * PacketProtocol), which carries the length of the manifest instead of the size of a file. After the acknowledgement,
+ * three transfers follow (using the Selective Repeat protocol, with sequence numbers that continue after the request):
+ * 1. the client sends the manifest: the names of the files and, for an upload, their sizes (see FileBatch);
+ * 2. the server replies with the size of every file that is transferred, or -1 for a file that is refused (as it
+ * already exists for an upload, or does not exist for a download);
+ * 3. the data of all transferred files is sent after each other as if it is one file (so small files share packets),
+ * followed by the digest of that data.
+ * The receiver writes the data to a temporary file and only stores the files under their actual names once the digest
+ * is correct.
+ */
+public final class BatchProtocol {
+    public static final String BATCH_FILE_NAME = "batch"; // which is the name of the temporary file of received data.
+    public static final int MAX_MANIFEST_LENGTH = 1 << 24; // 16 MB.
+
+
+//          --- SEQUENCE NUMBERS ---
+
+    /**
+     * Get the sequence number after which the reply to the manifest follows.
+     *
+     * @param context               is the context of the connection between the client and server.
+     * @param requestSequenceNumber is the sequence number of the request.
+     * @param manifestLength        is the length of the manifest in bytes.
+     * @return the sequence number before the first packet of the reply.
+     */
+    public static int getReplySequenceNumber(TransferContext context, int requestSequenceNumber, int manifestLength) {
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(context.getHeaderVersion(), context.getOptions());
+        return requestSequenceNumber + SelectiveRepeatProtocol.getNumberOfPackets(manifestLength, payloadSize);
+    }
+
+    /**
+     * Get the sequence number after which the data of the files follows.
+     *
+     * @param context               is the context of the connection between the client and server.
+     * @param requestSequenceNumber is the sequence number of the request.
+     * @param manifestLength        is the length of the manifest in bytes.
+     * @param numberOfFiles         is the number of files in the batch.
+     * @return the sequence number before the first packet of the data.
+     */
+    public static int getDataSequenceNumber(TransferContext context, int requestSequenceNumber, int manifestLength, int numberOfFiles) {
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(context.getHeaderVersion(), context.getOptions());
+        int replyLength = numberOfFiles * FileBatch.SIZE_LENGTH;
+        return getReplySequenceNumber(context, requestSequenceNumber, manifestLength) + SelectiveRepeatProtocol.getNumberOfPackets(replyLength, payloadSize);
+    }
+
+
+//          --- CLIENT ---
+
+    /**
+     * Send the manifest of a batch to the server and receive the reply.
+     *
+     * @param context           is the context of the connection between the client and server.
+     * @param batch             is the batch that the client wants to transfer.
+     * @param lastReceivedSeqNr is the last sequence number received from the server.
+     * @param lastReceivedAckNr is the last acknowledgement number received from the server (the sequence number of the
+     *                          request).
+     * @return the batch with the sizes of the server, or null if the manifest or reply could not be transferred.
+     */
+    public static FileBatch sendManifestAndReceiveReply(TransferContext context, FileBatch batch, int lastReceivedSeqNr, int lastReceivedAckNr) {
+        byte[] manifest = batch.toManifest();
+        if (!SelectiveRepeatProtocol.sendFile(manifest, lastReceivedSeqNr, lastReceivedAckNr, context)) {
+            return null;
+        }
+        int replySequenceNumber = getReplySequenceNumber(context, lastReceivedAckNr, manifest.length);
+        if (!SelectiveRepeatProtocol.receiveFile(context, batch.getNumberOfFiles() * FileBatch.SIZE_LENGTH, replySequenceNumber)) {
+            return null;
+        }
+        return batch.withSizes(FileBatch.fromReply(context.getFileInBytes()));
+    }
+
+
+//          --- SERVER ---
+
+    /**
+     * Receive the manifest of a batch from the client.
+     *
+     * @param context           is the context of the connection between the client and server.
+     * @param manifestLength    is the length of the manifest (as given in the request).
+     * @param lastReceivedSeqNr is the sequence number of the request.
+     * @return the batch, or null if the manifest could not be received or is not correct.
+     */
+    public static FileBatch receiveManifest(TransferContext context, int manifestLength, int lastReceivedSeqNr) {
+        if (!SelectiveRepeatProtocol.receiveFile(context, manifestLength, lastReceivedSeqNr)) {
+            return null;
+        }
+        return FileBatch.fromManifest(context.getFileInBytes());
+    }
+
+    /**
+     * Send the reply to the manifest of a batch to the client.
+     *
+     * @param context               is the context of the connection between the client and server.
+     * @param reply                 is the batch with the size of every file that is transferred, or -1 if it is not.
+     * @param requestSequenceNumber is the sequence number of the request.
+     * @param manifestLength        is the length of the manifest in bytes.
+     * @return true if the client received the reply, false if not.
+     */
+    public static boolean sendReply(TransferContext context, FileBatch reply, int requestSequenceNumber, int manifestLength) {
+        int replySequenceNumber = getReplySequenceNumber(context, requestSequenceNumber, manifestLength);
+        return SelectiveRepeatProtocol.sendFile(reply.toReply(), replySequenceNumber, replySequenceNumber, context);
+    }
+
+
+//          --- DATA ---
+
+    /**
+     * Send the data of all files of a batch that are transferred, followed by the digest of that data.
+     *
+     * @param context            is the context of the connection between the client and server.
+     * @param filePath           is the path where the files are stored.
+     * @param batch              is the batch, in which the files that are not sent have size -1.
+     * @param dataSequenceNumber is the sequence number after which the data follows.
+     * @return true if the other side received the data and its digest was correct, false if not.
+     */
+    public static boolean sendFiles(TransferContext context, String filePath, FileBatch batch, int dataSequenceNumber) {
+        try (FileBatchSource source = new FileBatchSource(filePath, batch)) {
+            FileDigest digest = context.createFileDigest();
+            return SelectiveRepeatProtocol.sendFile(source, dataSequenceNumber, dataSequenceNumber, context, SelectiveRepeatProtocol.DEFAULT_WINDOW_SIZE, digest)
+                    && ChunkRepairProtocol.sendDigestAndRepair(context, source, digest);
+        } catch (IOException e) {
+            System.out.println("Could not read the files of the batch: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Receive the data of all files of a batch that are transferred, followed by the digest of that data. If the
+     * digest is correct, every file is stored under its actual name.
+     *
+     * @param context            is the context of the connection between the client and server.
+     * @param filePath           is the path where the files need to be stored.
+     * @param batch              is the batch, in which the files that are not received have size -1.
+     * @param dataSequenceNumber is the sequence number after which the data follows.
+     * @return true if the data is received, its digest was correct and all files are stored, false if not.
+     */
+    public static boolean receiveFiles(TransferContext context, String filePath, FileBatch batch, int dataSequenceNumber) {
+        FileFragmentSink receivedData = FileProtocol.createFileToReceive(filePath, BATCH_FILE_NAME, batch.getTotalSize());
+        if (receivedData == null) {
+            return false;
+        }
+        // the temporary file with the received data is removed when it is closed:
+        try (FileFragmentSink data = receivedData) {
+            FileDigest digest = context.createFileDigest();
+            return SelectiveRepeatProtocol.receiveFile(context, batch.getTotalSize(), dataSequenceNumber, data, digest)
+                    && ChunkRepairProtocol.receiveDigestAndRepair(context, data, digest)
+                    && storeFiles(filePath, batch, data);
+        }
+    }
+
+    /**
+     * Store every file of a batch that is received under its actual name, by copying its data from the received data.
+     *
+     * @param filePath is the path where the files need to be stored.
+     * @param batch    is the batch, in which the files that are not received have size -1.
+     * @param data     is the received data of the batch.
+     * @return true if all files are stored, false if not.
+     */
+    private static boolean storeFiles(String filePath, FileBatch batch, FragmentSource data) {
+        byte[] buffer = new byte[ChunkRepairProtocol.CHUNK_SIZE / 16];
+        boolean areAllFilesStored = true;
+        for (int i = 0; i < batch.getNumberOfFiles(); i++) {
+            long size = batch.getSize(i);
+            if (size < 0) {
+                continue;
+            }
+            FileFragmentSink file = FileProtocol.createFileToReceive(filePath, batch.getFileName(i), size);
+            if (file == null) {
+                areAllFilesStored = false;
+                continue;
+            }
+            try (FileFragmentSink storedFile = file) {
+                for (long position = 0; position < size; position = position + buffer.length) {
+                    int length = (int) Math.min(buffer.length, size - position);
+                    data.read(batch.getOffset(i) + position, buffer, 0, length);
+                    storedFile.write(position, buffer, 0, length);
+                }
+                storedFile.commit();
+            } catch (IOException e) {
+                System.out.println("Could not store " + batch.getFileName(i) + ": " + e.getMessage());
+                areAllFilesStored = false;
+            }
+        }
+        return areAllFilesStored;
+    }
+}
@@ -0,0 +1,47 @@
+package com.nedap.university;
+
+/**
+ * Represents a destination in memory, for data that is small enough to keep in memory completely. The received data
+ * can be read again (for example to calculate its checksum).
+ */
+public class ByteArrayFragmentSink implements FragmentSink, FragmentSource {
+    private final byte[] data;
+
+    /**
+     * Create a destination for data of the given size.
+     *
+     * @param size is the total size of the data that is received.
+     */
+    public ByteArrayFragmentSink(int size) {
+        this.data = new byte[size];
+    }
+
+    @Override
+    public void write(long position, byte[] source, int offset, int length) {
+        System.arraycopy(source, offset, data, (int) position, length);
+    }
+
+    @Override
+    public long getSize() {
+        return data.length;
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) {
+        System.arraycopy(data, (int) position, destination, offset, length);
+    }
+
+    /**
+     * Get the byte representation of the received data. The data is not copied.
+     *
+     * @return the byte representation of the received data.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close, as the data is in memory.
+    }
+}
@@ -0,0 +1,32 @@
+package com.nedap.university;
+
+/**
+ * Represents data that is already available in memory (for example the list of files on the server).
+ */
+public class ByteArrayFragmentSource implements FragmentSource {
+    private final byte[] data;
+
+    /**
+     * Create a source for the given data. The data is not copied.
+     *
+     * @param data is the byte representation of the data to send.
+     */
+    public ByteArrayFragmentSource(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public long getSize() {
+        return data.length;
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) {
+        System.arraycopy(data, (int) position, destination, offset, length);
+    }
+
+    @Override
+    public void close() {
+        // nothing to close, as the data is in memory.
+    }
+}
@@ -0,0 +1,177 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents a packet socket that sends and receives packets via its own non-blocking DatagramChannel. Packets are read
+ * from and written to direct buffers, and waiting for a packet (with the time-out) is done with a Selector, so setting
+ * the time-out does not need a system call. As the channel is non-blocking, the packets that are already waiting can be
+ * received without blocking (see receiveIfAvailable), which lets the protocols handle a whole batch of packets at once.
+ * The packets are sent with the DF bit set where Java supports it (from Java 19 onwards), so probes of the path MTU are
+ * not fragmented.
+ */
+public class ChannelPacketSocket implements PacketSocket {
+    public static final int SEND_RETRIES = 100; // the number of times a packet is offered to a full send buffer.
+    public static final long SEND_RETRY_INTERVAL = 100000L; // in ns (0.1 ms).
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(PacketProtocol.MAX_PACKET_SIZE);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(PacketProtocol.MAX_PACKET_SIZE);
+    private final boolean isDontFragmentSet;
+    private volatile int timeout;
+
+    /**
+     * Create a packet socket that uses the given channel, which is made non-blocking.
+     *
+     * @param channel is the channel via which packets are sent and received.
+     * @throws IOException if the channel could not be made non-blocking.
+     */
+    public ChannelPacketSocket(DatagramChannel channel) throws IOException {
+        this.channel = channel;
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+        this.isDontFragmentSet = setDontFragment(channel);
+    }
+
+    /**
+     * Ask the operating system not to fragment the packets that are sent via a channel. This option is only available
+     * from Java 19 onwards, so it is looked up at runtime and left unset if it is not available (the probes of the path
+     * MTU then do not go beyond the size that fits in the MTU of Ethernet, see PathMtuProtocol).
+     *
+     * @param channel is the channel of which the packets are not fragmented.
+     * @return true if the option is set, false if the packets can be fragmented.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean setDontFragment(DatagramChannel channel) {
+        try {
+            Class<?> extendedSocketOptions = Class.forName("jdk.net.ExtendedSocketOptions");
+            SocketOption<Boolean> dontFragment = (SocketOption<Boolean>) extendedSocketOptions.getField("IP_DONTFRAGMENT").get(null);
+            if (channel.supportedOptions().contains(dontFragment)) {
+                channel.setOption(dontFragment, true);
+                return true;
+            }
+        } catch (ReflectiveOperationException | IOException e) {
+            // the packets can be fragmented.
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isDontFragmentSet() {
+        return isDontFragmentSet;
+    }
+
+    /**
+     * Create a packet socket with a new channel, which is bound to any free port.
+     *
+     * @return the packet socket.
+     * @throws IOException if the channel could not be opened.
+     */
+    public static ChannelPacketSocket open() throws IOException {
+        return new ChannelPacketSocket(DatagramChannel.open().bind(null));
+    }
+
+    /**
+     * Get the port to which the channel is bound.
+     *
+     * @return the local port, or -1 if the channel is not bound.
+     * @throws IOException if the channel is closed.
+     */
+    public int getLocalPort() throws IOException {
+        SocketAddress localAddress = channel.getLocalAddress();
+        return (localAddress instanceof InetSocketAddress) ? ((InetSocketAddress) localAddress).getPort() : -1;
+    }
+
+    /**
+     * Send a packet. If the send buffer of the operating system is full, the packet is offered again after a short pause,
+     * and dropped after SEND_RETRIES attempts (just like a full buffer in the network would).
+     *
+     * @param packet is the packet to send.
+     * @throws IOException if the packet could not be sent.
+     */
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            sendBuffer.put(packet.getData(), packet.getOffset(), packet.getLength());
+            sendBuffer.flip();
+            SocketAddress destination = packet.getSocketAddress();
+            for (int attempt = 0; attempt < SEND_RETRIES && channel.send(sendBuffer, destination) == 0; attempt++) {
+                LockSupport.parkNanos(SEND_RETRY_INTERVAL);
+            }
+        }
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        synchronized (receiveBuffer) {
+            long deadline = System.nanoTime() + timeout * 1000000L;
+            while (!receiveIfAvailable(packet)) {
+                long remainingTime = (timeout == 0) ? 0 : (deadline - System.nanoTime() + 999999L) / 1000000L;
+                if (timeout != 0 && remainingTime <= 0) {
+                    throw new SocketTimeoutException("Receive timed out");
+                }
+                try {
+                    selector.select(remainingTime);
+                    selector.selectedKeys().clear();
+                } catch (ClosedSelectorException e) {
+                    throw new SocketException("Socket is closed");
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean receiveIfAvailable(DatagramPacket packet) throws IOException {
+        synchronized (receiveBuffer) {
+            if (!channel.isOpen()) {
+                throw new SocketException("Socket is closed");
+            }
+            receiveBuffer.clear();
+            SocketAddress sender = channel.receive(receiveBuffer);
+            if (sender == null) {
+                return false;
+            }
+            receiveBuffer.flip();
+            // like a DatagramSocket, the part of the packet that does not fit in the buffer of the packet is lost:
+            int length = Math.min(receiveBuffer.remaining(), packet.getData().length - packet.getOffset());
+            receiveBuffer.get(packet.getData(), packet.getOffset(), length);
+            packet.setLength(length);
+            packet.setSocketAddress(sender);
+            return true;
+        }
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            System.out.println("Could not close the socket: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.nedap.university;
+
+/**
+ * Represents the checksum of a file that is calculated while the file is sent or received, so the file does not need
+ * to be read a second time (or be in memory completely) to calculate its checksum afterwards. The data is added part
+ * by part; the result is the same as the checksum over the complete byte representation of the data. As the checksum
+ * adds the data per two bytes, parts that start at an even position in the file and have an even length can be added
+ * in any order. Only a part with an odd length must be the last part that is added.
+ */
+public class ChecksumAccumulator implements FileDigest {
+    private int checksum;
+    // the last byte of a part with an odd length, which is paired with the first byte of the next part:
+    private final byte[] pendingByte = new byte[1];
+    private boolean hasPendingByte;
+
+    /**
+     * Add a part of the data to the checksum.
+     *
+     * @param data   is the array that holds the part.
+     * @param offset is the position of the first byte of the part in the array.
+     * @param length is the length of the part.
+     */
+    public void update(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (hasPendingByte) {
+            checksum = DataIntegrityProtocol.addWordToChecksum(checksum, ((pendingByte[0] & 0xff) << 8) | (data[offset] & 0xff));
+            hasPendingByte = false;
+            offset++;
+            length--;
+        }
+        int evenLength = length & ~1;
+        checksum = DataIntegrityProtocol.addToChecksum(checksum, data, offset, evenLength);
+        if (evenLength < length) {
+            pendingByte[0] = data[offset + evenLength];
+            hasPendingByte = true;
+        }
+    }
+
+    /**
+     * Get the checksum of all data that is added so far.
+     *
+     * @return the inverse result of the checksum.
+     */
+    public int finish() {
+        // the last byte of data with an odd length is added in the same way as DataIntegrityProtocol does:
+        int result = hasPendingByte ? DataIntegrityProtocol.addToChecksum(checksum, pendingByte, 0, 1) : checksum;
+        return (~result & 0xffff);
+    }
+
+    @Override
+    public byte[] digest() {
+        return DataIntegrityProtocol.checksumOfTotalFileInBytes(finish());
+    }
+
+    /**
+     * Remove all data from the checksum.
+     */
+    public void reset() {
+        checksum = 0;
+        hasPendingByte = false;
+    }
+}
@@ -0,0 +1,121 @@
+package com.nedap.university;
+
+import java.io.IOException;
+
+/**
+ * Represents the destination of the chunks of a file that the chunk store of the server does not have (see
+ * DeduplicationProtocol). The chunks are received one after the other in a temporary file, and every chunk is verified
+ * and stored (see ChunkStore) as soon as all its data is received, instead of after the complete transfer. An upload
+ * that is interrupted therefore keeps the chunks that were complete, and uploading the file again only sends the chunks
+ * that the store still does not have.
+ */
+public class ChunkFragmentSink implements FragmentSink, FragmentSource {
+    private final ChunkStore store;
+    private final byte[] chunkIds;
+    private final FileFragmentSink receivedChunks;
+    // the number of the chunk in the file and the length that is not received yet, for every chunk that is received:
+    private final int[] chunkNumbers;
+    private final int[] remainingLengths;
+    private final byte[] chunk;
+    private boolean areChunksCorrect = true;
+
+    /**
+     * Create the destination of the missing chunks of a file.
+     *
+     * @param store          is the chunk store in which the chunks are stored.
+     * @param chunkIds       is the ids of all chunks of the file.
+     * @param fileSize       is the size of the file.
+     * @param missingChunks  is a bit for every chunk of the file, which is set if the chunk is received.
+     * @param receivedChunks is the temporary file to which the received chunks are written one after the other.
+     */
+    public ChunkFragmentSink(ChunkStore store, byte[] chunkIds, long fileSize, byte[] missingChunks, FileFragmentSink receivedChunks) {
+        this.store = store;
+        this.chunkIds = chunkIds;
+        this.receivedChunks = receivedChunks;
+        int numberOfChunks = MerkleTreeDigest.getNumberOfChunks(fileSize, ChunkStore.CHUNK_SIZE);
+        int numberOfMissingChunks = 0;
+        for (int chunkNumber = 0; chunkNumber < numberOfChunks; chunkNumber++) {
+            if (ChunkStore.isSelected(missingChunks, chunkNumber)) {
+                numberOfMissingChunks++;
+            }
+        }
+        this.chunkNumbers = new int[numberOfMissingChunks];
+        this.remainingLengths = new int[numberOfMissingChunks];
+        int index = 0;
+        for (int chunkNumber = 0; chunkNumber < numberOfChunks; chunkNumber++) {
+            if (ChunkStore.isSelected(missingChunks, chunkNumber)) {
+                chunkNumbers[index] = chunkNumber;
+                remainingLengths[index] = ChunkStore.getChunkLength(fileSize, chunkNumber);
+                index++;
+            }
+        }
+        this.chunk = new byte[(numberOfMissingChunks > 0) ? ChunkStore.CHUNK_SIZE : 0];
+        // the chunks are stored before the manifest refers to them, so they are kept until the upload is finished:
+        store.startReceiving(chunkIds);
+    }
+
+    /**
+     * Write a fragment of the received chunks, and store every chunk of which this was the last data that was missing.
+     * Only the last chunk of the file is shorter than CHUNK_SIZE, so every received chunk starts at a multiple of
+     * CHUNK_SIZE. Every fragment is written once, as the receiver does not write a packet that it received before.
+     *
+     * @param position is the position in the received chunks at which the fragment is written.
+     * @param source   is the buffer that holds the fragment.
+     * @param offset   is the position of the fragment in the buffer.
+     * @param length   is the length of the fragment.
+     * @throws IOException if the fragment could not be written, or a chunk could not be stored.
+     */
+    @Override
+    public void write(long position, byte[] source, int offset, int length) throws IOException {
+        receivedChunks.write(position, source, offset, length);
+        while (length > 0) {
+            int index = (int) (position / ChunkStore.CHUNK_SIZE);
+            int lengthInChunk = (int) Math.min(length, (long) (index + 1) * ChunkStore.CHUNK_SIZE - position);
+            remainingLengths[index] = remainingLengths[index] - lengthInChunk;
+            if (remainingLengths[index] == 0) {
+                storeChunk(index);
+            }
+            position = position + lengthInChunk;
+            length = length - lengthInChunk;
+        }
+    }
+
+    /**
+     * Read a chunk that is received completely back from the temporary file, and store it if it matches its id.
+     *
+     * @param index is the index of the chunk in the received chunks.
+     * @throws IOException if the chunk could not be read or stored.
+     */
+    private void storeChunk(int index) throws IOException {
+        int chunkLength = (int) Math.min(ChunkStore.CHUNK_SIZE, receivedChunks.getSize() - (long) index * ChunkStore.CHUNK_SIZE);
+        receivedChunks.read((long) index * ChunkStore.CHUNK_SIZE, chunk, 0, chunkLength);
+        if (!store.storeReceivedChunk(chunkIds, chunkNumbers[index], chunk, chunkLength)) {
+            areChunksCorrect = false;
+        }
+    }
+
+    /**
+     * Check whether every chunk that is received matched its id (and is stored).
+     *
+     * @return true if all received chunks are stored, false if a chunk did not match its id.
+     */
+    public boolean areChunksCorrect() {
+        return areChunksCorrect;
+    }
+
+    @Override
+    public long getSize() {
+        return receivedChunks.getSize();
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) throws IOException {
+        receivedChunks.read(position, destination, offset, length);
+    }
+
+    @Override
+    public void close() {
+        receivedChunks.close();
+        store.finishReceiving(chunkIds);
+    }
+}
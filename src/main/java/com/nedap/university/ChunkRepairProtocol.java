@@ -0,0 +1,175 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+/**
+ * Represents the protocol for checking the digest of the total file and, if the connection repairs chunks, for sending
+ * only the chunks of the file that differ when that digest is incorrect. Both sides calculate a Merkle tree over the
+ * chunks of the file (see MerkleTreeDigest), and the root of the tree is the digest of the total file. If the receiver
+ * answers the digest with INCORRECT, three transfers follow (using the Selective Repeat protocol, with sequence numbers
+ * that continue after the packet with the digest):
+ * 1. the sender sends the leaves of its tree (the digests of all chunks);
+ * 2. the receiver compares them with its own leaves and sends a bit for every chunk, which is set if the chunk differs;
+ * 3. the sender sends the chunks of which the bit is set, and the receiver writes them at their place in the file.
+ * Afterwards, the sender sends the digest of the total file again. This is repeated at most MAX_REPAIR_ROUNDS times, so
+ * a single corrupted chunk of a large file costs one chunk instead of the total file.
+ */
+public final class ChunkRepairProtocol {
+    public static final int CHUNK_SIZE = 1 << 20; // 1 MB.
+    public static final int MAX_REPAIR_ROUNDS = 3;
+
+
+//          --- SENDER ---
+
+    /**
+     * Send the digest of the total file and try to receive an acknowledgement. If the digest is incorrect and the
+     * connection repairs chunks, send the chunks that differ and send the digest again.
+     *
+     * @param context is the context of the connection between the client and server.
+     * @param source  is the source from which the data of the file is read.
+     * @param digest  is the digest of the file, which is calculated while the file was sent.
+     * @return true if the receiver has the same file, false if not.
+     */
+    public static boolean sendDigestAndRepair(TransferContext context, FragmentSource source, FileDigest digest) {
+        int round = 0;
+        while (!sendDigest(context, digest)) {
+            if (!(digest instanceof MerkleTreeDigest) || round >= MAX_REPAIR_ROUNDS || context.getSocket().isClosed()) {
+                return false;
+            }
+            System.out.println("The file that is sent is not correct, the chunks that differ are sent again.");
+            if (!sendChangedChunks(context, source, (MerkleTreeDigest) digest)) {
+                return false;
+            }
+            round++;
+        }
+        return true;
+    }
+
+    /**
+     * Create a packet with the digest of the total file, send it and try to receive an acknowledgement.
+     *
+     * @param context is the context of the connection between the client and server.
+     * @param digest  is the digest of the file.
+     * @return true if the digest was correct, false if not.
+     */
+    static boolean sendDigest(TransferContext context, FileDigest digest) {
+        DatagramPacket digestToSend = DataIntegrityProtocol.createDigestPacket(digest.digest(), context.getLastReceivedSeqNr(), context.getLastReceivedAckNr(), context.getHeaderVersion(), context.getAddress(), context.getPort());
+        return AcknowledgementProtocol.sendChecksumAndReceiveAck(context, digestToSend);
+    }
+
+    /**
+     * Send the leaves of the tree, receive which chunks differ and send these chunks. Afterwards, the sequence number of
+     * the last chunk packet is stored in the context, so the digest that follows continues after it.
+     *
+     * @param context is the context of the connection between the client and server.
+     * @param source  is the source from which the data of the file is read.
+     * @param digest  is the Merkle tree of the file.
+     * @return true if the chunks are sent, false if the repair could not be completed.
+     */
+    private static boolean sendChangedChunks(TransferContext context, FragmentSource source, MerkleTreeDigest digest) {
+        // the sequence number of the packet with the digest, after which the packets of the repair follow:
+        int digestSequenceNumber = context.getLastReceivedAckNr() + 1;
+        int lastReceivedSeqNr = PacketProtocol.getSequenceNumber(context.getLastReceivedAcknowledgement());
+        byte[] leafDigests = digest.getLeafDigests();
+        if (!SelectiveRepeatProtocol.sendFile(leafDigests, lastReceivedSeqNr, digestSequenceNumber, context)) {
+            return false;
+        }
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(context.getHeaderVersion(), context.getOptions());
+        int bitmapSequenceNumber = digestSequenceNumber + SelectiveRepeatProtocol.getNumberOfPackets(leafDigests.length, payloadSize);
+        int bitmapLength = getBitmapLength(source.getSize());
+        if (!SelectiveRepeatProtocol.receiveFile(context, bitmapLength, bitmapSequenceNumber)) {
+            return false;
+        }
+        ChunkSelection changedChunks = new ChunkSelection(source, null, CHUNK_SIZE, context.getFileInBytes());
+        int chunksSequenceNumber = bitmapSequenceNumber + SelectiveRepeatProtocol.getNumberOfPackets(bitmapLength, payloadSize);
+        System.out.println("Sending " + changedChunks.getSelectedChunks().length + " chunk(s) again.");
+        return SelectiveRepeatProtocol.sendFile(changedChunks, bitmapSequenceNumber, chunksSequenceNumber, context);
+    }
+
+
+//          --- RECEIVER ---
+
+    /**
+     * Receive the digest of the original file, compare it with the digest of the received file and send an
+     * acknowledgement. If the digest is incorrect and the connection repairs chunks, receive the chunks that differ
+     * (and write them to the received file) and receive the digest again.
+     *
+     * @param <S>     is the type of the received file, from which the received data can also be read.
+     * @param context is the context of the connection between the client and server.
+     * @param file    is the received file.
+     * @param digest  is the digest of the received file, which is calculated while the file was received.
+     * @return true if the received file is the same as the original file, false if not.
+     */
+    public static <S extends FragmentSink & FragmentSource> boolean receiveDigestAndRepair(TransferContext context, S file, FileDigest digest) {
+        int round = 0;
+        while (!DataIntegrityProtocol.receiveAndPerformTotalChecksum(context, digest.digest())) {
+            if (!(digest instanceof MerkleTreeDigest) || round >= MAX_REPAIR_ROUNDS || context.getSocket().isClosed()) {
+                return false;
+            }
+            System.out.println("The received file is not correct, the chunks that differ are requested again.");
+            try {
+                if (!receiveChangedChunks(context, file, (MerkleTreeDigest) digest)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                System.out.println("Could not repair the received file: " + e.getMessage());
+                return false;
+            }
+            round++;
+        }
+        return true;
+    }
+
+    /**
+     * Receive the leaves of the tree of the original file, send which chunks differ and receive these chunks. The
+     * leaves of the chunks that are received again are calculated again from the file.
+     *
+     * @param <S>     is the type of the received file, from which the received data can also be read.
+     * @param context is the context of the connection between the client and server.
+     * @param file    is the received file.
+     * @param digest  is the Merkle tree of the received file.
+     * @return true if the chunks are received, false if the repair could not be completed.
+     * @throws IOException if the received chunks could not be read again.
+     */
+    private static <S extends FragmentSink & FragmentSource> boolean receiveChangedChunks(TransferContext context, S file, MerkleTreeDigest digest) throws IOException {
+        // the sequence number of the packet with the digest, after which the packets of the repair follow:
+        int digestSequenceNumber = context.getLastReceivedSeqNr();
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(context.getHeaderVersion(), context.getOptions());
+        int leavesLength = MerkleTreeDigest.getNumberOfChunks(file.getSize(), CHUNK_SIZE) * context.getDigestAlgorithm().getDigestLength();
+        if (!SelectiveRepeatProtocol.receiveFile(context, leavesLength, digestSequenceNumber)) {
+            return false;
+        }
+        byte[] changedChunksInBits = digest.getDifferentChunks(context.getFileInBytes());
+        int bitmapSequenceNumber = digestSequenceNumber + SelectiveRepeatProtocol.getNumberOfPackets(leavesLength, payloadSize);
+        if (!SelectiveRepeatProtocol.sendFile(changedChunksInBits, digestSequenceNumber, bitmapSequenceNumber, context)) {
+            return false;
+        }
+        ChunkSelection changedChunks = new ChunkSelection(file, file, CHUNK_SIZE, changedChunksInBits);
+        int chunksSequenceNumber = bitmapSequenceNumber + SelectiveRepeatProtocol.getNumberOfPackets(changedChunksInBits.length, payloadSize);
+        // the leaves of the received chunks are calculated below, so the received data is not added to a digest on
+        // the way:
+        if (!SelectiveRepeatProtocol.receiveFile(context, changedChunks.getSize(), chunksSequenceNumber, changedChunks, null)) {
+            return false;
+        }
+        // calculate the leaves of the chunks that are received again:
+        byte[] buffer = new byte[PacketProtocol.MAX_PACKET_SIZE];
+        for (int chunkNumber : changedChunks.getSelectedChunks()) {
+            digest.updateLeaf(file, chunkNumber, buffer);
+        }
+        return true;
+    }
+
+
+//          --- SIZES ---
+
+    /**
+     * Get the length of the bits that indicate which chunks of a file differ.
+     *
+     * @param totalFileSize is the total size of the file.
+     * @return the length in bytes.
+     */
+    public static int getBitmapLength(long totalFileSize) {
+        return (MerkleTreeDigest.getNumberOfChunks(totalFileSize, CHUNK_SIZE) + 7) / 8;
+    }
+}
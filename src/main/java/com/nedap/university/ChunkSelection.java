@@ -0,0 +1,138 @@
+package com.nedap.university;
+
+import java.io.IOException;
+
+/**
+ * Represents a selection of chunks of a file, which are sent again one after the other as if they are one file. A
+ * position in the selection is mapped to the position in the file of the chunk it belongs to, so the selected chunks
+ * can be read from the original file (by the sender) and written directly at their place in the received file (by the
+ * receiver).
+ */
+public class ChunkSelection implements FragmentSink, FragmentSource {
+    private final FragmentSource file;
+    private final FragmentSink fileSink;
+    private final int chunkSize;
+    private final int[] selectedChunks;
+    private final long size;
+
+    /**
+     * Create a selection of chunks of a file.
+     *
+     * @param file           is the data of the file.
+     * @param fileSink       is the destination of the file, or null if the selection is only read.
+     * @param chunkSize      is the size of every chunk (except the last one) in bytes.
+     * @param selectedChunks is a bit for every chunk of the file, which is set if the chunk is selected.
+     */
+    public ChunkSelection(FragmentSource file, FragmentSink fileSink, int chunkSize, byte[] selectedChunks) {
+        this.file = file;
+        this.fileSink = fileSink;
+        this.chunkSize = chunkSize;
+        int numberOfChunks = MerkleTreeDigest.getNumberOfChunks(file.getSize(), chunkSize);
+        int numberOfSelectedChunks = 0;
+        for (int chunkNumber = 0; chunkNumber < numberOfChunks; chunkNumber++) {
+            if (isSelected(selectedChunks, chunkNumber)) {
+                numberOfSelectedChunks++;
+            }
+        }
+        this.selectedChunks = new int[numberOfSelectedChunks];
+        long selectionSize = 0;
+        int i = 0;
+        for (int chunkNumber = 0; chunkNumber < numberOfChunks; chunkNumber++) {
+            if (isSelected(selectedChunks, chunkNumber)) {
+                this.selectedChunks[i] = chunkNumber;
+                selectionSize = selectionSize + getChunkLength(chunkNumber);
+                i++;
+            }
+        }
+        this.size = selectionSize;
+    }
+
+    /**
+     * Get the numbers of the selected chunks.
+     *
+     * @return the numbers of the selected chunks, in ascending order.
+     */
+    public int[] getSelectedChunks() {
+        return selectedChunks;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) throws IOException {
+        while (length > 0) {
+            int lengthInChunk = getLengthInChunk(position, length);
+            file.read(getPositionInFile(position), destination, offset, lengthInChunk);
+            position = position + lengthInChunk;
+            offset = offset + lengthInChunk;
+            length = length - lengthInChunk;
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] source, int offset, int length) throws IOException {
+        if (fileSink == null) {
+            throw new IOException("This selection of chunks can only be read.");
+        }
+        while (length > 0) {
+            int lengthInChunk = getLengthInChunk(position, length);
+            fileSink.write(getPositionInFile(position), source, offset, lengthInChunk);
+            position = position + lengthInChunk;
+            offset = offset + lengthInChunk;
+            length = length - lengthInChunk;
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing to close, the file itself is closed by its owner.
+    }
+
+    /**
+     * Get the position in the file of a position in the selection. Only the last chunk of the file can be shorter than
+     * the chunk size, and that chunk is always the last chunk of the selection, so every chunk before the chunk of the
+     * position has the full chunk size.
+     *
+     * @param position is the position in the selection.
+     * @return the position in the file.
+     */
+    private long getPositionInFile(long position) {
+        int i = (int) (position / chunkSize);
+        return ((long) selectedChunks[i] * chunkSize) + (position % chunkSize);
+    }
+
+    /**
+     * Get the number of bytes from a position in the selection until the end of its chunk (at most length).
+     *
+     * @param position is the position in the selection.
+     * @param length   is the maximum number of bytes.
+     * @return the number of bytes in the same chunk.
+     */
+    private int getLengthInChunk(long position, int length) {
+        return (int) Math.min(length, chunkSize - (position % chunkSize));
+    }
+
+    /**
+     * Get the length of a chunk of the file.
+     *
+     * @param chunkNumber is the number of the chunk.
+     * @return the length of the chunk in bytes.
+     */
+    private long getChunkLength(int chunkNumber) {
+        return Math.min(chunkSize, file.getSize() - ((long) chunkNumber * chunkSize));
+    }
+
+    /**
+     * Check whether a chunk is selected.
+     *
+     * @param selectedChunks is a bit for every chunk of the file.
+     * @param chunkNumber    is the number of the chunk.
+     * @return true if the chunk is selected, false if not.
+     */
+    private static boolean isSelected(byte[] selectedChunks, int chunkNumber) {
+        return (chunkNumber / 8) < selectedChunks.length && (selectedChunks[chunkNumber / 8] & (1 << (chunkNumber % 8))) != 0;
+    }
+}
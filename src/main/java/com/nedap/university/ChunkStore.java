@@ -0,0 +1,472 @@
+package com.nedap.university;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Represents the content-addressed storage of the files on the server that are uploaded with deduplication (see
+ * DeduplicationProtocol). A file is divided in chunks of CHUNK_SIZE, and every chunk is stored once in the chunk folder
+ * under its SHA-256 digest (its id), however many files contain it. The file itself is stored as a manifest: a hidden
+ * file next to the other stored files that holds the size of the file and the ids of its chunks. When a file is
+ * removed, its chunks are removed as well, unless another manifest still refers to them. Manifests and chunks are only
+ * added and removed while holding the lock of the store, so a manifest never refers to a chunk that is removed. The
+ * chunks of an upload are stored as soon as they are received, before the manifest of the file exists. A chunk to which
+ * no manifest refers is kept as long as an upload that has it is being received, and for UNUSED_CHUNK_AGE after it was
+ * written, so an interrupted upload that is started again soon only sends the chunks that are still missing. Older
+ * unused chunks (of uploads that failed or were never finished) are removed when a file is removed and when the server
+ * starts.
+ */
+public class ChunkStore {
+    public static final int CHUNK_SIZE = 1 << 18; // 256 KB, so a change in a file only costs the chunks around it.
+    public static final int CHUNK_ID_LENGTH = Sha256Digest.DIGEST_LENGTH;
+    public static final String CHUNK_FOLDER_NAME = ".chunks";
+    private static final int FILE_SIZE_LENGTH = 8; // the manifest starts with the size of the file.
+    public static final long UNUSED_CHUNK_AGE = 2L * PacketProtocol.MAX_TIMEOUT; // in ms, the session time-out of the server.
+    private static final Object LOCK = new Object();
+    // the ids of the chunks of the uploads that are being received, of which the chunks are in use without a manifest:
+    private static final List<byte[]> CHUNKS_BEING_RECEIVED = new ArrayList<>();
+    private final File filePath;
+    private final Path chunkFolder;
+
+    /**
+     * Create the chunk store of a folder with stored files.
+     *
+     * @param filePath is the path with folder in which the files are stored.
+     */
+    public ChunkStore(String filePath) {
+        this.filePath = FileProtocol.createFilePath(filePath);
+        this.chunkFolder = this.filePath.toPath().toAbsolutePath().resolve(CHUNK_FOLDER_NAME);
+    }
+
+    /**
+     * Get the manifest of a stored file. The name starts with a dot and ends with the manifest file extension, so it is
+     * not listed as a stored file itself.
+     *
+     * @param file is the stored file.
+     * @return the manifest.
+     */
+    public static Path getManifestFile(File file) {
+        return file.toPath().toAbsolutePath().resolveSibling("." + file.getName() + FileProtocol.MANIFEST_FILE_EXTENSION);
+    }
+
+    /**
+     * Check whether a file is stored as chunks.
+     *
+     * @param fileName is the name of the file.
+     * @return true if the file has a manifest, false if not (or the name is not a valid name for a stored file).
+     */
+    public boolean isStored(String fileName) {
+        return FileProtocol.isValidFileName(fileName) && Files.isRegularFile(getManifestFile(new File(filePath, fileName)));
+    }
+
+    /**
+     * Get the size of a file that is stored as chunks.
+     *
+     * @param fileName is the name of the file.
+     * @return the size of the file, or -1 if it has no (readable) manifest.
+     */
+    public long getFileSize(String fileName) {
+        byte[] manifest = readManifest(fileName);
+        return (manifest != null) ? ByteBuffer.wrap(manifest).getLong() : -1;
+    }
+
+    /**
+     * Open a file that is stored as chunks, to be able to send its fragments.
+     *
+     * @param fileName is the name of the file.
+     * @return the source from which the fragments of the file are read.
+     * @throws IOException if the file has no (readable) manifest.
+     */
+    public FragmentSource openFile(String fileName) throws IOException {
+        byte[] manifest = readManifest(fileName);
+        if (manifest == null) {
+            throw new IOException("The manifest of " + fileName + " could not be read.");
+        }
+        return new ChunkedFileSource(this, ByteBuffer.wrap(manifest).getLong(), Arrays.copyOfRange(manifest, FILE_SIZE_LENGTH, manifest.length));
+    }
+
+    /**
+     * Get which chunks of a file the store does not have yet.
+     *
+     * @param chunkIds is the ids of all chunks of the file, one after the other.
+     * @return a bit for every chunk of the file, which is set if the chunk is missing (and did not occur before).
+     */
+    public byte[] getMissingChunks(byte[] chunkIds) {
+        int numberOfChunks = chunkIds.length / CHUNK_ID_LENGTH;
+        byte[] missingChunks = new byte[(numberOfChunks + 7) / 8];
+        // a chunk that occurs more than once in the file is only sent the first time, and read from the store
+        // afterwards:
+        Set<Path> chunksToReceive = new HashSet<>();
+        for (int chunkNumber = 0; chunkNumber < numberOfChunks; chunkNumber++) {
+            Path chunkFile = getChunkFile(chunkIds, chunkNumber);
+            if (!Files.isRegularFile(chunkFile) && chunksToReceive.add(chunkFile)) {
+                missingChunks[chunkNumber / 8] |= (byte) (1 << (chunkNumber % 8));
+            }
+        }
+        return missingChunks;
+    }
+
+    /**
+     * Create the temporary file to which the missing chunks of a file are written one after the other while they are
+     * received (see ChunkFragmentSink). It is kept in the chunk folder, so it is never listed as a stored file.
+     *
+     * @param fileName is the name of the file of which the chunks are received.
+     * @param length   is the total length of the missing chunks.
+     * @return the destination to which the received chunks are written, which is removed when it is closed.
+     * @throws IOException if the name is not a valid name for a stored file, or the temporary file could not be
+     *                     created.
+     */
+    public FileFragmentSink createChunksToReceive(String fileName, long length) throws IOException {
+        checkFileName(fileName);
+        Files.createDirectories(chunkFolder);
+        return new FileFragmentSink(chunkFolder.resolve(fileName).toFile(), length, FsyncPolicy.NONE);
+    }
+
+    /**
+     * Store a chunk of a file that is received, if its SHA-256 digest is the id that the client sent for it.
+     *
+     * @param chunkIds    is the ids of all chunks of the file.
+     * @param chunkNumber is the number of the chunk in the file.
+     * @param chunk       is the data of the chunk.
+     * @param length      is the length of the chunk.
+     * @return true if the chunk matched its id, false if not.
+     * @throws IOException if the chunk could not be stored.
+     */
+    public boolean storeReceivedChunk(byte[] chunkIds, int chunkNumber, byte[] chunk, int length) throws IOException {
+        Sha256Digest chunkDigest = new Sha256Digest();
+        chunkDigest.update(chunk, 0, length);
+        if (!Arrays.equals(chunkDigest.digest(), 0, CHUNK_ID_LENGTH, chunkIds, chunkNumber * CHUNK_ID_LENGTH, (chunkNumber + 1) * CHUNK_ID_LENGTH)) {
+            return false;
+        }
+        storeChunk(chunkIds, chunkNumber, chunk, length);
+        return true;
+    }
+
+    /**
+     * Add every chunk of a file to the digest of the total file in order, as the chunks are stored.
+     *
+     * @param chunkIds is the ids of all chunks of the file.
+     * @param fileSize is the size of the file.
+     * @param digest   is the (empty) digest of the total file.
+     * @throws IOException if a chunk could not be read (for example as it is not stored).
+     */
+    public void addFileToDigest(byte[] chunkIds, long fileSize, FileDigest digest) throws IOException {
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, Math.max(1, fileSize))];
+        for (int chunkNumber = 0; chunkNumber < MerkleTreeDigest.getNumberOfChunks(fileSize, CHUNK_SIZE); chunkNumber++) {
+            int chunkLength = getChunkLength(fileSize, chunkNumber);
+            readChunk(chunkIds, chunkNumber, 0, chunk, 0, chunkLength);
+            digest.update(chunk, 0, chunkLength);
+        }
+    }
+
+    /**
+     * Store the manifest of a file, after checking that the store has all its chunks.
+     *
+     * @param fileName is the name of the file.
+     * @param fileSize is the size of the file.
+     * @param chunkIds is the ids of all chunks of the file.
+     * @return true if the manifest is stored, false if a chunk is missing (as it was removed in the meantime).
+     * @throws IOException if the name is not a valid name for a stored file, or the manifest could not be written.
+     */
+    public boolean storeManifest(String fileName, long fileSize, byte[] chunkIds) throws IOException {
+        checkFileName(fileName);
+        ByteBuffer manifest = ByteBuffer.allocate(FILE_SIZE_LENGTH + chunkIds.length);
+        manifest.putLong(fileSize);
+        manifest.put(chunkIds);
+        synchronized (LOCK) {
+            for (int chunkNumber = 0; chunkNumber < chunkIds.length / CHUNK_ID_LENGTH; chunkNumber++) {
+                if (!Files.isRegularFile(getChunkFile(chunkIds, chunkNumber))) {
+                    return false;
+                }
+            }
+            writeAtomically(getManifestFile(new File(filePath, fileName)), manifest.array(), manifest.capacity());
+            return true;
+        }
+    }
+
+    /**
+     * Remove a file that is stored as chunks: its manifest, and the chunks to which no other manifest refers.
+     *
+     * @param fileName is the name of the file.
+     * @return true if the file existed and is removed, false if not (or the name is not a valid name for a stored
+     * file).
+     */
+    public boolean removeFile(String fileName) {
+        if (!FileProtocol.isValidFileName(fileName)) {
+            return false;
+        }
+        synchronized (LOCK) {
+            byte[] manifest = readManifest(fileName);
+            try {
+                if (!Files.deleteIfExists(getManifestFile(new File(filePath, fileName)))) {
+                    return false;
+                }
+                if (manifest == null) {
+                    return true;
+                }
+                Set<String> chunksInUse = getChunksInUse();
+                for (int position = FILE_SIZE_LENGTH; position < manifest.length; position = position + CHUNK_ID_LENGTH) {
+                    String chunkName = HexFormat.of().formatHex(manifest, position, position + CHUNK_ID_LENGTH);
+                    if (!chunksInUse.contains(chunkName)) {
+                        Files.deleteIfExists(chunkFolder.resolve(chunkName));
+                    }
+                }
+                removeUnusedChunks(UNUSED_CHUNK_AGE);
+                return true;
+            } catch (IOException e) {
+                System.out.println("Could not remove the chunks of " + fileName + ": " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the chunks to which no manifest refers, that are not part of an upload that is being received and that
+     * were written longer than a minimum age ago (see the retention of unused chunks above).
+     *
+     * @param minimumAge is the minimum age in ms of a chunk that is removed.
+     * @return the number of chunks that are removed.
+     */
+    public int removeUnusedChunks(long minimumAge) {
+        synchronized (LOCK) {
+            File[] chunkFiles = chunkFolder.toFile().listFiles((directory, name) -> name.length() == 2 * CHUNK_ID_LENGTH && name.chars().allMatch(HexFormat::isHexDigit));
+            if (chunkFiles == null) {
+                return 0;
+            }
+            Set<String> chunksInUse = getChunksInUse();
+            long lastRemovedTime = System.currentTimeMillis() - minimumAge;
+            int numberOfRemovedChunks = 0;
+            for (File chunkFile : chunkFiles) {
+                if (!chunksInUse.contains(chunkFile.getName()) && chunkFile.lastModified() < lastRemovedTime && chunkFile.delete()) {
+                    numberOfRemovedChunks++;
+                }
+            }
+            return numberOfRemovedChunks;
+        }
+    }
+
+    /**
+     * Mark the chunks of an upload as in use while the upload is being received, so they are not removed before the
+     * manifest of the file refers to them (see ChunkFragmentSink).
+     *
+     * @param chunkIds is the ids of all chunks of the file.
+     */
+    void startReceiving(byte[] chunkIds) {
+        synchronized (LOCK) {
+            CHUNKS_BEING_RECEIVED.add(chunkIds);
+        }
+    }
+
+    /**
+     * Mark the chunks of an upload as no longer being received, as the upload is finished (or interrupted).
+     *
+     * @param chunkIds is the ids of all chunks of the file, as given to startReceiving.
+     */
+    void finishReceiving(byte[] chunkIds) {
+        synchronized (LOCK) {
+            CHUNKS_BEING_RECEIVED.removeIf(ids -> ids == chunkIds);
+        }
+    }
+
+    /**
+     * Read (a part of) a chunk from the store.
+     *
+     * @param chunkIds    is the ids of the chunks of a file.
+     * @param chunkNumber is the number of the chunk in the file.
+     * @param position    is the position in the chunk from which the data is read.
+     * @param destination is the array to which the data is copied.
+     * @param offset      is the position in the array to which the data is copied.
+     * @param length      is the length of the data.
+     * @throws IOException if the chunk could not be read.
+     */
+    void readChunk(byte[] chunkIds, int chunkNumber, long position, byte[] destination, int offset, int length) throws IOException {
+        try (FileChannel chunkChannel = FileChannel.open(getChunkFile(chunkIds, chunkNumber), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(destination, offset, length);
+            while (buffer.hasRemaining()) {
+                if (chunkChannel.read(buffer, position + (buffer.position() - offset)) < 0) {
+                    throw new IOException("Chunk " + chunkNumber + " ended before all data could be read.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the length of a chunk of a file.
+     *
+     * @param fileSize    is the size of the file.
+     * @param chunkNumber is the number of the chunk.
+     * @return the length of the chunk in bytes.
+     */
+    public static int getChunkLength(long fileSize, int chunkNumber) {
+        return (int) Math.min(CHUNK_SIZE, fileSize - ((long) chunkNumber * CHUNK_SIZE));
+    }
+
+    /**
+     * Get the total length of the selected chunks of a file.
+     *
+     * @param fileSize       is the size of the file.
+     * @param selectedChunks is a bit for every chunk of the file, which is set if the chunk is selected.
+     * @return the length in bytes.
+     */
+    public static long getLengthOfChunks(long fileSize, byte[] selectedChunks) {
+        long length = 0;
+        for (int chunkNumber = 0; chunkNumber < MerkleTreeDigest.getNumberOfChunks(fileSize, CHUNK_SIZE); chunkNumber++) {
+            if (isSelected(selectedChunks, chunkNumber)) {
+                length = length + getChunkLength(fileSize, chunkNumber);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Read the manifest of a file and check whether its length matches the size of the file.
+     *
+     * @param fileName is the name of the file.
+     * @return the byte representation of the manifest, or null if there is no (readable) manifest.
+     */
+    private byte[] readManifest(String fileName) {
+        Path manifestFile = getManifestFile(new File(filePath, fileName));
+        if (!Files.isRegularFile(manifestFile)) {
+            return null;
+        }
+        try {
+            byte[] manifest = Files.readAllBytes(manifestFile);
+            if (manifest.length < FILE_SIZE_LENGTH) {
+                return null;
+            }
+            long fileSize = ByteBuffer.wrap(manifest).getLong();
+            if (fileSize < 0 || manifest.length != FILE_SIZE_LENGTH + (long) MerkleTreeDigest.getNumberOfChunks(fileSize, CHUNK_SIZE) * CHUNK_ID_LENGTH) {
+                return null;
+            }
+            return manifest;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the names of the chunks to which the manifests of all stored files refer, and of the chunks of the uploads
+     * that are being received.
+     *
+     * @return the names of the chunks.
+     */
+    private Set<String> getChunksInUse() {
+        Set<String> chunksInUse = new HashSet<>();
+        for (byte[] chunkIds : CHUNKS_BEING_RECEIVED) {
+            for (int position = 0; position + CHUNK_ID_LENGTH <= chunkIds.length; position = position + CHUNK_ID_LENGTH) {
+                chunksInUse.add(HexFormat.of().formatHex(chunkIds, position, position + CHUNK_ID_LENGTH));
+            }
+        }
+        File[] manifestFiles = filePath.listFiles((directory, name) -> name.startsWith(".") && name.endsWith(FileProtocol.MANIFEST_FILE_EXTENSION));
+        if (manifestFiles == null) {
+            return chunksInUse;
+        }
+        for (File manifestFile : manifestFiles) {
+            try {
+                byte[] manifest = Files.readAllBytes(manifestFile.toPath());
+                for (int position = FILE_SIZE_LENGTH; position + CHUNK_ID_LENGTH <= manifest.length; position = position + CHUNK_ID_LENGTH) {
+                    chunksInUse.add(HexFormat.of().formatHex(manifest, position, position + CHUNK_ID_LENGTH));
+                }
+            } catch (IOException e) {
+                System.out.println("Could not read manifest " + manifestFile.getName() + ": " + e.getMessage());
+            }
+        }
+        return chunksInUse;
+    }
+
+    /**
+     * Store a chunk under its id, unless the store already has it. The chunk is written to a temporary file first, so a
+     * chunk under its id is always complete.
+     *
+     * @param chunkIds    is the ids of the chunks of a file.
+     * @param chunkNumber is the number of the chunk in the file.
+     * @param chunk       is the data of the chunk.
+     * @param length      is the length of the chunk.
+     * @throws IOException if the chunk could not be written.
+     */
+    private void storeChunk(byte[] chunkIds, int chunkNumber, byte[] chunk, int length) throws IOException {
+        Path chunkFile = getChunkFile(chunkIds, chunkNumber);
+        synchronized (LOCK) {
+            if (!Files.isRegularFile(chunkFile)) {
+                writeAtomically(chunkFile, chunk, length);
+            }
+        }
+    }
+
+    /**
+     * Write data to a temporary file in the same folder, flush it (according to the default fsync policy) and rename
+     * it to the actual file.
+     *
+     * @param file   is the actual file.
+     * @param data   is the data to write.
+     * @param length is the length of the data.
+     * @throws IOException if the file could not be written.
+     */
+    private static void writeAtomically(Path file, byte[] data, int length) throws IOException {
+        Path temporaryFile = Files.createTempFile(file.getParent(), "." + file.getFileName() + ".", FileProtocol.PARTIAL_FILE_EXTENSION);
+        try {
+            try (FileChannel fileChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+                FileProtocol.DEFAULT_FSYNC_POLICY.apply(fileChannel);
+            }
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Get the file in which a chunk is stored, which is named after the hexadecimal representation of its id.
+     *
+     * @param chunkIds    is the ids of the chunks of a file.
+     * @param chunkNumber is the number of the chunk in the file.
+     * @return the file of the chunk.
+     */
+    private Path getChunkFile(byte[] chunkIds, int chunkNumber) {
+        return chunkFolder.resolve(HexFormat.of().formatHex(chunkIds, chunkNumber * CHUNK_ID_LENGTH, (chunkNumber + 1) * CHUNK_ID_LENGTH));
+    }
+
+    /**
+     * Check whether a chunk is selected.
+     *
+     * @param selectedChunks is a bit for every chunk of the file.
+     * @param chunkNumber    is the number of the chunk.
+     * @return true if the chunk is selected, false if not.
+     */
+    static boolean isSelected(byte[] selectedChunks, int chunkNumber) {
+        return (chunkNumber / 8) < selectedChunks.length && (selectedChunks[chunkNumber / 8] & (1 << (chunkNumber % 8))) != 0;
+    }
+
+    /**
+     * Check whether the name of a file that is received can be used in the store, so that neither the temporary file
+     * nor the manifest ends up outside the folder of the store.
+     *
+     * @param fileName is the name of the file.
+     * @throws IOException if the name is not a valid name for a stored file.
+     */
+    private static void checkFileName(String fileName) throws IOException {
+        if (!FileProtocol.isValidFileName(fileName)) {
+            throw new IOException(fileName + " is not a valid name for a stored file.");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.nedap.university;
+
+import java.io.IOException;
+
+/**
+ * Represents a file that is stored as chunks in the chunk store of the server (see ChunkStore). A position in the file
+ * is mapped to the chunk it belongs to, of which the data is read from the chunk store, so the file can be sent like
+ * any other stored file.
+ */
+public class ChunkedFileSource implements FragmentSource {
+    private final ChunkStore store;
+    private final long size;
+    private final byte[] chunkIds;
+
+    /**
+     * Create the source of a file that is stored as chunks.
+     *
+     * @param store    is the chunk store in which the chunks are stored.
+     * @param size     is the size of the file.
+     * @param chunkIds is the ids of all chunks of the file, from its manifest.
+     */
+    public ChunkedFileSource(ChunkStore store, long size, byte[] chunkIds) {
+        this.store = store;
+        this.size = size;
+        this.chunkIds = chunkIds;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) throws IOException {
+        while (length > 0) {
+            int chunkNumber = (int) (position / ChunkStore.CHUNK_SIZE);
+            long positionInChunk = position % ChunkStore.CHUNK_SIZE;
+            int lengthInChunk = (int) Math.min(length, ChunkStore.CHUNK_SIZE - positionInChunk);
+            store.readChunk(chunkIds, chunkNumber, positionInChunk, destination, offset, lengthInChunk);
+            position = position + lengthInChunk;
+            offset = offset + lengthInChunk;
+            length = length - lengthInChunk;
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing to close, every chunk is only opened while it is read.
+    }
+}
@@ -0,0 +1,28 @@
+package com.nedap.university;
+
+/**
+ * Represents the algorithms with which the congestion window of a sender can be controlled (see CongestionController).
+ * Every transfer that is sent with the Selective Repeat protocol uses a new controller of the algorithm of its
+ * connection.
+ */
+public enum CongestionAlgorithm {
+    RENO, // grows the window with one packet per round trip, and halves it after a loss.
+    CUBIC; // grows the window as a cubic function of the time since the last loss, so it recovers faster on fast links.
+
+    public static final int INITIAL_WINDOW = 10; // in packets, as used by TCP (RFC 6928).
+
+    /**
+     * Create a new controller that uses this algorithm.
+     *
+     * @param maxWindow is the maximum congestion window in packets (the window size of the sender).
+     * @return the controller.
+     */
+    public CongestionController createController(int maxWindow) {
+        switch (this) {
+            case RENO:
+                return new RenoController(maxWindow);
+            default:
+                return new CubicController(maxWindow);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.nedap.university;
+
+/**
+ * Represents the congestion control of a sender that sends a window of packets (see SelectiveRepeatProtocol). The
+ * congestion window limits the number of packets in flight, so the sender does not flood the link (and the receiver)
+ * on a slow connection, while it can still use all of a fast link. The window starts small and grows with every
+ * acknowledgement: exponentially in slow start (below the slow start threshold), and more slowly in congestion
+ * avoidance. A lost packet is a sign of congestion, so the window is reduced:
+ * - if the loss is detected by acknowledgements of later packets (fast recovery), to a part of the window;
+ * - if the loss is detected by an expired timer, to one packet (and the sender starts in slow start again).
+ */
+public interface CongestionController {
+
+    /**
+     * Get the congestion window.
+     *
+     * @return the maximum number of packets in flight (at least 1).
+     */
+    int getCongestionWindow();
+
+    /**
+     * Get the slow start threshold, below which the congestion window grows exponentially.
+     *
+     * @return the slow start threshold in packets.
+     */
+    int getSlowStartThreshold();
+
+    /**
+     * Grow the congestion window, as a packet is acknowledged.
+     *
+     * @param now        is the current time in ns.
+     * @param rttInNanos is the smoothed round trip time of the connection in ns.
+     */
+    void onAcknowledgement(long now, long rttInNanos);
+
+    /**
+     * Reduce the congestion window, as a packet is lost while later packets are acknowledged. This is called at most
+     * once per window of packets.
+     *
+     * @param now is the current time in ns.
+     */
+    void onPacketLoss(long now);
+
+    /**
+     * Reduce the congestion window to one packet, as the timer of a packet expired.
+     *
+     * @param now is the current time in ns.
+     */
+    void onTimeout(long now);
+}
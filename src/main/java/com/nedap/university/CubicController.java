@@ -0,0 +1,100 @@
+package com.nedap.university;
+
+/**
+ * Represents congestion control following CUBIC (RFC 9438). After a loss, the window is reduced to BETA times the
+ * window at the loss (W_max), and grows again as a cubic function of the time since the loss: fast while it is far
+ * below W_max, slowly around W_max and fast again above it. The growth does not depend on the round trip time, so a
+ * connection with a long round trip recovers as fast as one with a short round trip. The window never grows slower
+ * than it would with Reno (the Reno-friendly region). Slow start is the same as in Reno.
+ */
+public class CubicController implements CongestionController {
+    private static final double C = 0.4; // scaling constant of the cubic function.
+    private static final double BETA = 0.7; // factor with which the window is reduced after a loss.
+    private static final double ALPHA = 3 * (1 - BETA) / (1 + BETA); // growth per round trip in the Reno-friendly region.
+    private static final double NANOS_PER_SECOND = 1e9;
+    private final int maxWindow;
+    private double congestionWindow;
+    private int slowStartThreshold;
+    private double windowAtLastLoss; // W_max.
+    private double windowBeforeLastLoss; // W_max of the loss before, to release bandwidth faster (fast convergence).
+    private double renoFriendlyWindow; // W_est.
+    private long epochStart = -1; // time at which the current congestion avoidance started, or -1 if not started.
+    private double timeToWindowAtLastLoss; // K, in seconds.
+
+    /**
+     * Create a controller that starts in slow start with the initial window.
+     *
+     * @param maxWindow is the maximum congestion window in packets.
+     */
+    public CubicController(int maxWindow) {
+        this.maxWindow = Math.max(1, maxWindow);
+        this.congestionWindow = Math.min(CongestionAlgorithm.INITIAL_WINDOW, this.maxWindow);
+        this.slowStartThreshold = this.maxWindow;
+    }
+
+    @Override
+    public int getCongestionWindow() {
+        return Math.max(1, (int) congestionWindow);
+    }
+
+    @Override
+    public int getSlowStartThreshold() {
+        return slowStartThreshold;
+    }
+
+    @Override
+    public void onAcknowledgement(long now, long rttInNanos) {
+        if (congestionWindow < slowStartThreshold) {
+            congestionWindow = Math.min(congestionWindow + 1, maxWindow);
+            return;
+        }
+        // the first acknowledgement in congestion avoidance starts a new epoch of the cubic function:
+        if (epochStart < 0) {
+            epochStart = now;
+            windowAtLastLoss = Math.max(windowAtLastLoss, congestionWindow);
+            timeToWindowAtLastLoss = Math.cbrt((windowAtLastLoss - congestionWindow) / C);
+            renoFriendlyWindow = congestionWindow;
+        }
+        // the target is the window of the cubic function one round trip from now, which is at most 1.5 times the
+        // current window:
+        double time = (double) (now - epochStart + rttInNanos) / NANOS_PER_SECOND;
+        double target = (C * Math.pow(time - timeToWindowAtLastLoss, 3)) + windowAtLastLoss;
+        target = Math.max(congestionWindow, Math.min(target, 1.5 * congestionWindow));
+        renoFriendlyWindow = renoFriendlyWindow + (ALPHA / congestionWindow);
+        if (target < renoFriendlyWindow) {
+            congestionWindow = renoFriendlyWindow;
+        } else {
+            congestionWindow = congestionWindow + ((target - congestionWindow) / congestionWindow);
+        }
+        congestionWindow = Math.min(congestionWindow, maxWindow);
+    }
+
+    @Override
+    public void onPacketLoss(long now) {
+        reduceWindow();
+        congestionWindow = slowStartThreshold;
+    }
+
+    @Override
+    public void onTimeout(long now) {
+        reduceWindow();
+        congestionWindow = 1;
+    }
+
+    /**
+     * Remember the window at the loss and reduce the slow start threshold. If the window did not grow back to the
+     * window at the loss before, another connection probably needs the bandwidth, so the window at the loss is
+     * remembered a bit lower.
+     */
+    private void reduceWindow() {
+        if (congestionWindow < windowBeforeLastLoss) {
+            windowBeforeLastLoss = congestionWindow;
+            windowAtLastLoss = congestionWindow * (1 + BETA) / 2;
+        } else {
+            windowBeforeLastLoss = congestionWindow;
+            windowAtLastLoss = congestionWindow;
+        }
+        slowStartThreshold = Math.max(2, (int) (congestionWindow * BETA));
+        epochStart = -1;
+    }
+}
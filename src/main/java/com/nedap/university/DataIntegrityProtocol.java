@@ -1,35 +1,66 @@
 package com.nedap.university;
 
-import java.io.File;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
 
 /**
  * Represents the functions for checking whether the received file is the same as the file that is sent.
  */
 public final class DataIntegrityProtocol {
     public final static int CHECKSUM_LENGTH = 2;
+    public final static int MAX_DIGEST_LENGTH = Sha256Digest.DIGEST_LENGTH;
+    public final static int CHECKSUM_CHUNK_SIZE = 64 * 1024; // which is even, so every chunk except the last one has an even length.
+    // reads eight bytes of a byte array at any position as one long, in network byte order:
+    private final static VarHandle LONG_BIG_ENDIAN = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    // the JVM calculates CRC32C with the CRC instructions of the processor. Every thread reuses its own instance:
+    private final static ThreadLocal<CRC32C> CRC32C_PER_THREAD = ThreadLocal.withInitial(CRC32C::new);
 
     /**
      * Get the input that is needed to calculate the checksum (which is the total header without the two bytes that
-     * include the checksum result).
+     * include the checksum result, followed by the payload length and the header size). For a header of version 2, the
+     * fields that follow the checksum are included as well.
      *
      * @param packetHeader  is the header of the packet of interest.
      * @param payloadLength is the total length of the data that is being transmitted in the packet.
      * @return the byte representation of all the checksum input.
      */
     public static byte[] getChecksumInput(byte[] packetHeader, int payloadLength) {
-        byte[] totalChecksumInput = new byte[(PacketProtocol.HEADER_SIZE + 2)];
+        int headerSize = PacketProtocol.getHeaderSize(packetHeader);
+        byte[] totalChecksumInput = new byte[(headerSize + 2)];
         System.arraycopy(packetHeader, 0, totalChecksumInput, 0, (PacketProtocol.HEADER_SIZE - 2));
-        totalChecksumInput[PacketProtocol.HEADER_SIZE - 2] = (byte) (payloadLength >> 8);
-        totalChecksumInput[PacketProtocol.HEADER_SIZE - 1] = (byte) (payloadLength & 0xff);
-        totalChecksumInput[PacketProtocol.HEADER_SIZE] = (byte) (PacketProtocol.HEADER_SIZE >> 8);
-        totalChecksumInput[PacketProtocol.HEADER_SIZE + 1] = (byte) (PacketProtocol.HEADER_SIZE & 0xff);
+        System.arraycopy(packetHeader, PacketProtocol.HEADER_SIZE, totalChecksumInput, (PacketProtocol.HEADER_SIZE - 2), (headerSize - PacketProtocol.HEADER_SIZE));
+        totalChecksumInput[headerSize - 2] = (byte) (payloadLength >> 8);
+        totalChecksumInput[headerSize - 1] = (byte) (payloadLength & 0xff);
+        totalChecksumInput[headerSize] = (byte) (headerSize >> 8);
+        totalChecksumInput[headerSize + 1] = (byte) (headerSize & 0xff);
         return totalChecksumInput;
     }
 
+    /**
+     * Calculate the checksum of the header of a packet directly over the packet. The result is the same as the checksum
+     * over the input of getChecksumInput, but the input does not need to be copied into a new array first.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @param payloadLength    is the total length of the data that is being transmitted in the packet.
+     * @return the inverse result of the checksum.
+     */
+    public static int calculateHeaderChecksum(byte[] packetWithHeader, int payloadLength) {
+        int headerSize = PacketProtocol.getHeaderSize(packetWithHeader);
+        // all parts start at an even position, so they can be added one after the other (skipping the checksum itself):
+        int checksum = addToChecksum(0, packetWithHeader, 0, (PacketProtocol.HEADER_SIZE - 2));
+        checksum = addToChecksum(checksum, packetWithHeader, PacketProtocol.HEADER_SIZE, (headerSize - PacketProtocol.HEADER_SIZE));
+        checksum = addWordToChecksum(checksum, payloadLength & 0xffff);
+        checksum = addWordToChecksum(checksum, headerSize);
+        return (~checksum & 0xffff);
+    }
+
     /**
      * Calculate the checksum.
      *
@@ -37,26 +68,87 @@ public final class DataIntegrityProtocol {
      * @return the inverse result of the checksum.
      */
     public static int calculateChecksum(byte[] checksumInput) {
+        int checksum = addToChecksum(0, checksumInput, 0, checksumInput.length);
+        return (~checksum & 0xffff);
+    }
+
+    /**
+     * Calculate the checksum of data that is read from a source in chunks, so the data does not need to be in memory
+     * completely. The result is the same as the checksum over the complete byte representation of the data.
+     *
+     * @param source is the source from which the data is read.
+     * @return the inverse result of the checksum.
+     * @throws IOException if the data could not be read.
+     */
+    public static int calculateChecksum(FragmentSource source) throws IOException {
+        byte[] chunk = new byte[CHECKSUM_CHUNK_SIZE];
         int checksum = 0;
-        int length = checksumInput.length;
-        int i = 0;
+        for (long position = 0; position < source.getSize(); position = position + CHECKSUM_CHUNK_SIZE) {
+            int length = (int) Math.min(CHECKSUM_CHUNK_SIZE, source.getSize() - position);
+            source.read(position, chunk, 0, length);
+            checksum = addToChecksum(checksum, chunk, 0, length);
+        }
+        return (~checksum & 0xffff);
+    }
+
+    /**
+     * Add data to a (not yet inverted) checksum. As the data is added per two bytes, all parts of the data except the
+     * last one should have an even length. The data is read eight bytes at a time and the four words of every eight
+     * bytes are added as two 32-bit halves in a 64-bit sum, of which the carries are only wrapped around at the end.
+     * This gives the same result as adding the words one by one, because 2^16 and 2^32 both equal 1 modulo 0xffff.
+     *
+     * @param checksum is the checksum of the data that is added before.
+     * @param data     is the data to add.
+     * @param offset   is the position of the first byte to add.
+     * @param length   is the number of bytes to add.
+     * @return the checksum including the added data.
+     */
+    static int addToChecksum(int checksum, byte[] data, int offset, int length) {
+        int i = offset;
+        // the sum cannot overflow: an array holds less than 2^28 longs, so less than 2^29 halves of less than 2^32:
+        long sum = checksum;
+        while (length >= 8) {
+            long eightBytes = (long) LONG_BIG_ENDIAN.get(data, i);
+            sum = sum + (eightBytes >>> 32) + (eightBytes & 0xffffffffL);
+            i = i + 8;
+            length = length - 8;
+        }
+        // wrap the carries around (a sum that is not zero never becomes zero, just like when adding word by word):
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        checksum = (int) sum;
         while (length > 1) {
-            checksum = checksum + (((checksumInput[i] & 0xff) << 8) | (checksumInput[i + 1] & 0xff));
-            if ((checksum & 0xffff0000) > 0) {
-                checksum = checksum & 0xffff;
-                checksum++;
-            }
+            checksum = addWordToChecksum(checksum, ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff));
             i = i + 2;
             length = length - 2;
         }
         if (length == 1) {
-            checksum = checksum + (checksumInput[i] << 8);
+            // the last byte is added as a signed value, so a byte of 0x80 or more is added without wrapping the carry
+            // around. This is kept, so checksums stay the same as the ones of earlier versions:
+            checksum = checksum + (data[i] << 8);
             if ((checksum & 0xffff0000) > 0) {
                 checksum = checksum & 0xffff;
                 checksum++;
             }
         }
-        return (~checksum & 0xffff);
+        return checksum;
+    }
+
+    /**
+     * Add two bytes to a (not yet inverted) checksum, and wrap the carry around.
+     *
+     * @param checksum is the checksum of the data that is added before.
+     * @param word     is the value of the two bytes to add.
+     * @return the checksum including the added bytes.
+     */
+    static int addWordToChecksum(int checksum, int word) {
+        checksum = checksum + word;
+        if ((checksum & 0xffff0000) > 0) {
+            checksum = checksum & 0xffff;
+            checksum++;
+        }
+        return checksum;
     }
 
     /**
@@ -69,11 +161,43 @@ public final class DataIntegrityProtocol {
      */
     public static boolean isChecksumCorrect(byte[] packetWithHeader, int payloadLength) {
         int checksumSent = PacketProtocol.getChecksum(packetWithHeader);
-        byte[] checksumInput = getChecksumInput(packetWithHeader, payloadLength);
-        int checksumCalculated = calculateChecksum(checksumInput);
+        int checksumCalculated = calculateHeaderChecksum(packetWithHeader, payloadLength);
         return checksumSent == checksumCalculated;
     }
 
+    /**
+     * Calculate the CRC32C of a part of a packet.
+     *
+     * @param data   is the packet of interest.
+     * @param offset is the position of the first byte of the part.
+     * @param length is the length of the part.
+     * @return the CRC32C of the part.
+     */
+    public static int calculateCrc32c(byte[] data, int offset, int length) {
+        CRC32C crc32c = CRC32C_PER_THREAD.get();
+        crc32c.reset();
+        crc32c.update(data, offset, length);
+        return (int) crc32c.getValue();
+    }
+
+    /**
+     * Check if the CRC32C at the end of a packet is correct. Unlike the checksum in the header, the CRC32C covers both
+     * the header and the payload, so it also detects a corrupted payload.
+     *
+     * @param packetWithCrc32c is the total packet, including header and CRC32C.
+     * @param packetLength     is the length of the total packet, including the CRC32C.
+     * @return true if the CRC32C is the same, false if not (or if the packet is too short to carry one).
+     */
+    public static boolean isCrc32cCorrect(byte[] packetWithCrc32c, int packetLength) {
+        int crc32cLength = packetLength - PacketProtocol.CRC32C_LENGTH;
+        if (crc32cLength < PacketProtocol.getHeaderSize(packetWithCrc32c)) {
+            return false;
+        }
+        int crc32cSent = ((packetWithCrc32c[crc32cLength] & 0xff) << 24) | ((packetWithCrc32c[crc32cLength + 1] & 0xff) << 16)
+                | ((packetWithCrc32c[crc32cLength + 2] & 0xff) << 8) | (packetWithCrc32c[crc32cLength + 3] & 0xff);
+        return crc32cSent == calculateCrc32c(packetWithCrc32c, 0, crc32cLength);
+    }
+
     /**
      * Get the checksum of the total file which is sent in a separate packet.
      *
@@ -83,21 +207,34 @@ public final class DataIntegrityProtocol {
     public static int getChecksum(DatagramPacket packetWithChecksum) {
         byte[] checksumPacketData = packetWithChecksum.getData();
         byte[] checksum = new byte[CHECKSUM_LENGTH];
-        System.arraycopy(checksumPacketData, PacketProtocol.HEADER_SIZE, checksum, 0, CHECKSUM_LENGTH);
+        System.arraycopy(checksumPacketData, PacketProtocol.getHeaderSize(checksumPacketData), checksum, 0, CHECKSUM_LENGTH);
         return (((checksum[0] & 0xff) << 8) | (checksum[1] & 0xff));
     }
 
+    /**
+     * Get the digest of the total file which is sent in a separate packet.
+     *
+     * @param packetWithDigest is the packet that includes the digest.
+     * @return the byte representation of the digest that is sent.
+     */
+    public static byte[] getDigest(DatagramPacket packetWithDigest) {
+        byte[] digestPacketData = packetWithDigest.getData();
+        int headerSize = PacketProtocol.getHeaderSize(digestPacketData);
+        return Arrays.copyOfRange(digestPacketData, headerSize, Math.max(headerSize, packetWithDigest.getLength()));
+    }
+
     /**
      * Try to receive the packet that includes the checksum of the total file.
      *
-     * @param socket is the socket via which the client and server are connected.
+     * @param context is the context of the connection between the client and server.
      * @return the packet that carries the checksum.
      */
-    public static DatagramPacket receiveChecksum(DatagramSocket socket) {
+    public static DatagramPacket receiveChecksum(TransferContext context) {
+        PacketSocket socket = context.getSocket();
         boolean received = false;
-        byte[] receivedChecksumInBytes = new byte[DataIntegrityProtocol.CHECKSUM_LENGTH + PacketProtocol.HEADER_SIZE];
+        byte[] receivedChecksumInBytes = new byte[MAX_DIGEST_LENGTH + PacketProtocol.MAX_HEADER_SIZE];
         DatagramPacket packetWithChecksum = new DatagramPacket(receivedChecksumInBytes, receivedChecksumInBytes.length);
-        while (!received) {
+        while (!received && !socket.isClosed()) {
             try {
                 socket.receive(packetWithChecksum);
                 received = true;
@@ -127,16 +264,31 @@ public final class DataIntegrityProtocol {
      * @param checksumOfTotalFile   is the checksum of the total file.
      * @param lastReceivedSeqNumber is the last received sequence number.
      * @param lastReceivedAckNumber is the last received acknowledgement number.
+     * @param headerVersion         is the version of the header that is used by the connection.
      * @param address               is the address to which the packet needs to be sent.
      * @param port                  is the port to which the packet needs to be sent.
      * @return the packet that includes the checksum to send.
      */
-    public static DatagramPacket createChecksumPacket(int checksumOfTotalFile, int lastReceivedSeqNumber, int lastReceivedAckNumber, InetAddress address, int port) {
+    public static DatagramPacket createChecksumPacket(int checksumOfTotalFile, int lastReceivedSeqNumber, int lastReceivedAckNumber, int headerVersion, InetAddress address, int port) {
+        return createDigestPacket(checksumOfTotalFileInBytes(checksumOfTotalFile), lastReceivedSeqNumber, lastReceivedAckNumber, headerVersion, address, port);
+    }
+
+    /**
+     * Create a datagram packet that includes the digest of the total file (of the algorithm that the connection uses).
+     *
+     * @param digestOfTotalFile     is the byte representation of the digest of the total file.
+     * @param lastReceivedSeqNumber is the last received sequence number.
+     * @param lastReceivedAckNumber is the last received acknowledgement number.
+     * @param headerVersion         is the version of the header that is used by the connection.
+     * @param address               is the address to which the packet needs to be sent.
+     * @param port                  is the port to which the packet needs to be sent.
+     * @return the packet that includes the digest to send.
+     */
+    public static DatagramPacket createDigestPacket(byte[] digestOfTotalFile, int lastReceivedSeqNumber, int lastReceivedAckNumber, int headerVersion, InetAddress address, int port) {
         int sequenceNumber = lastReceivedAckNumber + 1;
         int acknowledgementNumber = lastReceivedSeqNumber;
-        byte[] checksumInBytes = checksumOfTotalFileInBytes(checksumOfTotalFile);
-        byte[] checksumFullPacket = PacketProtocol.createPacketWithHeader(CHECKSUM_LENGTH, sequenceNumber, acknowledgementNumber, PacketProtocol.CHECK, checksumInBytes);
-        return new DatagramPacket(checksumFullPacket, checksumFullPacket.length, address, port);
+        byte[] digestFullPacket = PacketProtocol.createPacketWithHeader(headerVersion, digestOfTotalFile.length, 0, sequenceNumber, acknowledgementNumber, PacketProtocol.CHECK, 0, digestOfTotalFile);
+        return new DatagramPacket(digestFullPacket, digestFullPacket.length, address, port);
     }
 
     /**
@@ -151,47 +303,91 @@ public final class DataIntegrityProtocol {
     }
 
     /**
-     * Receive the checksum of the original file, calculate the checksum of the received file, compare the results and
-     * send an acknowledgement to the source.
+     * Receive the checksum of the original file, compare it with the checksum of the received file and send an
+     * acknowledgement to the source.
      *
-     * @param socket       is the socket via which the client and server are connected.
-     * @param inetAddress  is the address to which the acknowledgement needs to be sent.
-     * @param port         is the port to which the acknowledgement needs to be sent.
-     * @param receivedFile is the file that is received.
+     * @param context                is the context of the connection between the client and server.
+     * @param checksumOfReceivedFile is the checksum of the file that is received.
      * @return true if the checksum is correct, false if not.
      */
-    public static boolean receiveAndPerformTotalChecksum(DatagramSocket socket, InetAddress inetAddress, int port, File receivedFile) {
-        boolean correctlyReceived = false;
-        while (!correctlyReceived) {
+    public static boolean receiveAndPerformTotalChecksum(TransferContext context, int checksumOfReceivedFile) {
+        return receiveAndPerformTotalChecksum(context, checksumOfTotalFileInBytes(checksumOfReceivedFile));
+    }
+
+    /**
+     * Receive the digest of the original file, compare it with the digest of the received file and send an
+     * acknowledgement to the source. The digest of the received file is calculated while the file is received, so the
+     * received file does not need to be read again (or be in memory). The sequence number of the packet with the
+     * digest is stored in the context, as the packets that repair the file (see ChunkRepairProtocol) follow it.
+     *
+     * @param context              is the context of the connection between the client and server.
+     * @param digestOfReceivedFile is the byte representation of the digest of the file that is received.
+     * @return true if the digest is correct, false if not.
+     */
+    public static boolean receiveAndPerformTotalChecksum(TransferContext context, byte[] digestOfReceivedFile) {
+        DatagramPacket packetWithDigest = receiveDigestPacket(context);
+        if (packetWithDigest == null) {
+            return false;
+        }
+        boolean isDigestCorrect = isDigestCorrect(packetWithDigest, digestOfReceivedFile);
+        sendDigestAcknowledgement(packetWithDigest, isDigestCorrect, context);
+        return isDigestCorrect;
+    }
+
+    /**
+     * Receive the packet with the digest of the original file, without acknowledging it yet, so the receiver can first
+     * store the file (see DeduplicationProtocol). The sequence number of the packet with the digest is stored in the
+     * context, as the packets that repair the file (see ChunkRepairProtocol) follow it.
+     *
+     * @param context is the context of the connection between the client and server.
+     * @return the packet with the digest, or null if the socket was closed before it was received.
+     */
+    public static DatagramPacket receiveDigestPacket(TransferContext context) {
+        PacketSocket socket = context.getSocket();
+        while (!socket.isClosed()) {
             // receive the checksum of the original file from the client:
-            DatagramPacket packetWithChecksum = DataIntegrityProtocol.receiveChecksum(socket);
+            DatagramPacket packetWithChecksum = DataIntegrityProtocol.receiveChecksum(context);
             int receivedFlag = PacketProtocol.getFlag(packetWithChecksum.getData());
-            // if you did not receive a packet with the CHECK flag, wait for a new packet. Otherwise, the checksum
-            // can be performed.
-            if (receivedFlag != PacketProtocol.CHECK) {
+            // a packet with file data can still arrive if the acknowledgement to that packet was lost. Acknowledge it
+            // again, so the sender can finish sending the file and send the checksum:
+            if (receivedFlag == PacketProtocol.MOREFRAGMENTS || receivedFlag == PacketProtocol.LAST) {
+                int seqNrOfFileData = PacketProtocol.getSequenceNumber(packetWithChecksum.getData());
+                int ackNrOfFileData = PacketProtocol.getAcknowledgementNumber(packetWithChecksum.getData());
+                AcknowledgementProtocol.sendAcknowledgement(0, seqNrOfFileData, ackNrOfFileData, context);
                 continue;
             }
-            correctlyReceived = true;
-            int lastReceivedSeqNr = PacketProtocol.getSequenceNumber(packetWithChecksum.getData());
-            int lastReceivedAckNr = PacketProtocol.getAcknowledgementNumber(packetWithChecksum.getData());
-            int receivedChecksum = DataIntegrityProtocol.getChecksum(packetWithChecksum);
-            // calculate the checksum of the received file:
-            byte[] receivedFileInBytes = StopAndWaitProtocol.getFileInBytes();
-            int checksumOfReceivedFile = DataIntegrityProtocol.calculateChecksum(receivedFileInBytes);
-            if (DataIntegrityProtocol.areChecksumOfTwoFilesTheSame(receivedChecksum, checksumOfReceivedFile)) {
-                // if the two checksums are the same, send an acknowledgement
-                AcknowledgementProtocol.sendAcknowledgement(0, lastReceivedSeqNr, lastReceivedAckNr, socket, inetAddress, port);
-                return true;
-            } else {
-                // if the two checksums are not the same, a mistake has occurred during transmission. The
-                // downloaded file will be removed (as it is not the same as the original one) and an
-                // INCORRECT flag will be sent to the server.
-                if (receivedFile != null && receivedFile.delete()) {
-                    AcknowledgementProtocol.sendAcknowledgement(PacketProtocol.INCORRECT, lastReceivedSeqNr, lastReceivedAckNr, socket, inetAddress, port);
-                    return false;
-                }
+            // if you did not receive a packet with the CHECK flag, wait for a new packet. Otherwise, the checksum
+            // can be performed.
+            if (receivedFlag == PacketProtocol.CHECK) {
+                context.setLastReceivedSeqNr(PacketProtocol.getSequenceNumber(packetWithChecksum.getData()));
+                return packetWithChecksum;
             }
         }
-        return false;
+        return null;
+    }
+
+    /**
+     * Check if the digest in a received packet is the same as the digest of the received file.
+     *
+     * @param packetWithDigest     is the packet with the digest of the original file.
+     * @param digestOfReceivedFile is the byte representation of the digest of the file that is received.
+     * @return true if the two digests are the same, false if not.
+     */
+    public static boolean isDigestCorrect(DatagramPacket packetWithDigest, byte[] digestOfReceivedFile) {
+        return MessageDigest.isEqual(DataIntegrityProtocol.getDigest(packetWithDigest), digestOfReceivedFile);
+    }
+
+    /**
+     * Acknowledge the packet with the digest of the original file. If the file is not correct (or could not be stored),
+     * a mistake has occurred, so an INCORRECT flag is sent to the source, and the received file should not be kept.
+     *
+     * @param packetWithDigest is the packet with the digest of the original file.
+     * @param isCorrect        is true if the received file is correct (and stored), false if not.
+     * @param context          is the context of the connection between the client and server.
+     */
+    public static void sendDigestAcknowledgement(DatagramPacket packetWithDigest, boolean isCorrect, TransferContext context) {
+        int lastReceivedSeqNr = PacketProtocol.getSequenceNumber(packetWithDigest.getData());
+        int lastReceivedAckNr = PacketProtocol.getAcknowledgementNumber(packetWithDigest.getData());
+        AcknowledgementProtocol.sendAcknowledgement(isCorrect ? 0 : PacketProtocol.INCORRECT, lastReceivedSeqNr, lastReceivedAckNr, context);
     }
 }
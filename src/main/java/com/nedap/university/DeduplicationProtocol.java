@@ -0,0 +1,181 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+/**
+ * Represents the protocol for uploading a file to the chunk store of the server (see ChunkStore), for connections that
+ * use OPTION_DEDUPLICATION. After the server acknowledged the upload request, three transfers follow (using the
+ * Selective Repeat protocol, with sequence numbers that continue after each other, like the repair of
+ * ChunkRepairProtocol):
+ * 1. the client sends the ids (SHA-256 digests) of all chunks of the file;
+ * 2. the server sends a bit for every chunk, which is set if it does not store that chunk yet;
+ * 3. the client sends the chunks of which the bit is set, one after the other, and the server stores every chunk as
+ * soon as it is complete (see ChunkFragmentSink).
+ * Afterwards, the client sends the digest of the total file, which the server checks over the file as it is assembled
+ * from the received and the stored chunks. The server only acknowledges the digest once the manifest of the file is
+ * stored, so the client never reports a file as uploaded that the server does not have. Uploading a file that the
+ * server already stores (under another name), or a file of which only a few chunks changed, therefore costs the ids of
+ * its chunks instead of the total file. Such an upload is never continued from an offset (RESUME): an interrupted
+ * upload keeps the chunks that were complete instead (for the time that ChunkStore keeps unused chunks), so uploading
+ * the file again only sends the chunks that the server still does not have.
+ */
+public final class DeduplicationProtocol {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+
+//          --- SENDER ---
+
+    /**
+     * Send the ids of the chunks of a file, receive which chunks the server does not have and send these chunks,
+     * followed by the digest of the total file.
+     *
+     * @param context           is the context of the connection between the client and server.
+     * @param source            is the source from which the data of the file is read.
+     * @param lastReceivedSeqNr is the last sequence number received from the server.
+     * @param lastReceivedAckNr is the last acknowledgement number received from the server.
+     * @return true if the server stored the file and its digest was correct, false if not.
+     * @throws IOException if the file could not be read.
+     */
+    public static boolean sendFile(TransferContext context, FragmentSource source, int lastReceivedSeqNr, int lastReceivedAckNr) throws IOException {
+        // one pass over the file calculates both the ids of the chunks and the digest of the total file:
+        MerkleTreeDigest chunkDigests = new MerkleTreeDigest(DigestAlgorithm.SHA256, ChunkStore.CHUNK_SIZE);
+        FileDigest digest = context.createFileDigest();
+        addFileToDigests(source, chunkDigests, digest);
+        chunkDigests.digest();
+        byte[] chunkIds = chunkDigests.getLeafDigests();
+        if (!SelectiveRepeatProtocol.sendFile(chunkIds, lastReceivedSeqNr, lastReceivedAckNr, context)) {
+            return false;
+        }
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(context.getHeaderVersion(), context.getOptions());
+        int bitmapSequenceNumber = lastReceivedAckNr + SelectiveRepeatProtocol.getNumberOfPackets(chunkIds.length, payloadSize);
+        int bitmapLength = getBitmapLength(source.getSize());
+        if (!SelectiveRepeatProtocol.receiveFile(context, bitmapLength, bitmapSequenceNumber)) {
+            return false;
+        }
+        ChunkSelection missingChunks = new ChunkSelection(source, null, ChunkStore.CHUNK_SIZE, context.getFileInBytes());
+        int numberOfChunks = chunkIds.length / ChunkStore.CHUNK_ID_LENGTH;
+        System.out.println("The server already stores " + (numberOfChunks - missingChunks.getSelectedChunks().length) + " of the " + numberOfChunks + " chunk(s) of the file.");
+        int chunksSequenceNumber = bitmapSequenceNumber + SelectiveRepeatProtocol.getNumberOfPackets(bitmapLength, payloadSize);
+        if (!SelectiveRepeatProtocol.sendFile(missingChunks, bitmapSequenceNumber, chunksSequenceNumber, context)) {
+            return false;
+        }
+        // the server checks the file as it is assembled from its chunks, so it does not repair chunks afterwards:
+        return ChunkRepairProtocol.sendDigest(context, digest);
+    }
+
+    /**
+     * Add all data of a file to two digests at once.
+     *
+     * @param file         is the data of the file.
+     * @param chunkDigests is the tree of which the leaves become the ids of the chunks.
+     * @param digest       is the (empty) digest of the total file.
+     * @throws IOException if the data could not be read.
+     */
+    private static void addFileToDigests(FragmentSource file, FileDigest chunkDigests, FileDigest digest) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, file.getSize()))];
+        for (long position = 0; position < file.getSize(); position = position + buffer.length) {
+            int length = (int) Math.min(buffer.length, file.getSize() - position);
+            file.read(position, buffer, 0, length);
+            chunkDigests.update(buffer, 0, length);
+            digest.update(buffer, 0, length);
+        }
+    }
+
+
+//          --- RECEIVER ---
+
+    /**
+     * Receive the ids of the chunks of a file, send which chunks the store does not have and receive these chunks. The
+     * received chunks are stored, and the manifest of the file is stored if the digest of the total file is correct.
+     * Only then the digest is acknowledged: if a chunk does not match its id, the digest is incorrect or the manifest
+     * could not be stored, the client receives INCORRECT.
+     *
+     * @param context           is the context of the connection between the client and server.
+     * @param store             is the chunk store in which the file is stored.
+     * @param fileName          is the name of the file.
+     * @param totalFileSize     is the total size of the file.
+     * @param lastReceivedSeqNr is the last sequence number received from the client (the sequence number of the
+     *                          request).
+     * @return true if the file is stored, false if not.
+     */
+    public static boolean receiveFile(TransferContext context, ChunkStore store, String fileName, long totalFileSize, int lastReceivedSeqNr) {
+        if (!FileProtocol.isValidFileName(fileName)) {
+            System.out.println(fileName + " is not a valid name for a stored file.");
+            return false;
+        }
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(context.getHeaderVersion(), context.getOptions());
+        int chunkIdsLength = MerkleTreeDigest.getNumberOfChunks(totalFileSize, ChunkStore.CHUNK_SIZE) * ChunkStore.CHUNK_ID_LENGTH;
+        if (!SelectiveRepeatProtocol.receiveFile(context, chunkIdsLength, lastReceivedSeqNr)) {
+            return false;
+        }
+        byte[] chunkIds = context.getFileInBytes();
+        byte[] missingChunks = store.getMissingChunks(chunkIds);
+        int bitmapSequenceNumber = lastReceivedSeqNr + SelectiveRepeatProtocol.getNumberOfPackets(chunkIdsLength, payloadSize);
+        if (!SelectiveRepeatProtocol.sendFile(missingChunks, lastReceivedSeqNr, bitmapSequenceNumber, context)) {
+            return false;
+        }
+        long lengthOfMissingChunks = ChunkStore.getLengthOfChunks(totalFileSize, missingChunks);
+        int chunksSequenceNumber = bitmapSequenceNumber + SelectiveRepeatProtocol.getNumberOfPackets(missingChunks.length, payloadSize);
+        try (ChunkFragmentSink receivedChunks = new ChunkFragmentSink(store, chunkIds, totalFileSize, missingChunks, store.createChunksToReceive(fileName, lengthOfMissingChunks))) {
+            // every chunk is checked against its id, and the file afterwards over the stored chunks, so the received
+            // data is not added to a digest on the way:
+            if (!SelectiveRepeatProtocol.receiveFile(context, lengthOfMissingChunks, chunksSequenceNumber, receivedChunks, null)) {
+                return false;
+            }
+            // the digest of the total file is calculated over the stored chunks, so it shows that the store has them:
+            FileDigest digest = context.createFileDigest();
+            boolean areChunksCorrect = receivedChunks.areChunksCorrect();
+            try {
+                if (areChunksCorrect) {
+                    store.addFileToDigest(chunkIds, totalFileSize, digest);
+                }
+            } catch (IOException e) {
+                System.out.println("Could not read the chunks of " + fileName + ": " + e.getMessage());
+                areChunksCorrect = false;
+            }
+            DatagramPacket packetWithDigest = DataIntegrityProtocol.receiveDigestPacket(context);
+            if (packetWithDigest == null) {
+                return false;
+            }
+            boolean isStored = areChunksCorrect && DataIntegrityProtocol.isDigestCorrect(packetWithDigest, digest.digest())
+                    && storeManifest(store, fileName, totalFileSize, chunkIds);
+            DataIntegrityProtocol.sendDigestAcknowledgement(packetWithDigest, isStored, context);
+            return isStored;
+        } catch (IOException e) {
+            System.out.println("Could not store the chunks of " + fileName + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Store the manifest of a file of which all chunks are stored.
+     *
+     * @param store         is the chunk store in which the file is stored.
+     * @param fileName      is the name of the file.
+     * @param totalFileSize is the total size of the file.
+     * @param chunkIds      is the ids of all chunks of the file.
+     * @return true if the manifest is stored, false if not.
+     */
+    private static boolean storeManifest(ChunkStore store, String fileName, long totalFileSize, byte[] chunkIds) {
+        try {
+            return store.storeManifest(fileName, totalFileSize, chunkIds);
+        } catch (IOException e) {
+            System.out.println("Could not store the manifest of " + fileName + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+
+//          --- SIZES ---
+
+    /**
+     * Get the length of the bits that indicate which chunks of a file the server does not have.
+     *
+     * @param totalFileSize is the total size of the file.
+     * @return the length in bytes.
+     */
+    public static int getBitmapLength(long totalFileSize) {
+        return (MerkleTreeDigest.getNumberOfChunks(totalFileSize, ChunkStore.CHUNK_SIZE) + 7) / 8;
+    }
+}
@@ -0,0 +1,69 @@
+package com.nedap.university;
+
+/**
+ * Represents the algorithms with which the digest of a total file can be calculated. The client asks for an algorithm
+ * in the options of its request (headers of version 2 only) and the server responds with the algorithm it accepts; a
+ * connection that did not agree on an algorithm uses the 16-bit checksum.
+ */
+public enum DigestAlgorithm {
+    CHECKSUM(0, DataIntegrityProtocol.CHECKSUM_LENGTH), // fast, but one in 65536 corrupted files is not detected.
+    XXHASH64(1, XxHash64Digest.DIGEST_LENGTH), // fast 64-bit hash, which detects practically all corruption.
+    SHA256(2, Sha256Digest.DIGEST_LENGTH); // slower, but also detects deliberate changes.
+
+    private final int id;
+    private final int digestLength;
+
+    DigestAlgorithm(int id, int digestLength) {
+        this.id = id;
+        this.digestLength = digestLength;
+    }
+
+    /**
+     * Get the id of the algorithm, which is sent in the options of the header.
+     *
+     * @return the id.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the length of the digest that the algorithm calculates.
+     *
+     * @return the length in bytes.
+     */
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /**
+     * Create a new (empty) digest that uses this algorithm.
+     *
+     * @return the digest.
+     */
+    public FileDigest createDigest() {
+        switch (this) {
+            case XXHASH64:
+                return new XxHash64Digest();
+            case SHA256:
+                return new Sha256Digest();
+            default:
+                return new ChecksumAccumulator();
+        }
+    }
+
+    /**
+     * Get the algorithm with a certain id.
+     *
+     * @param id is the id of the algorithm.
+     * @return the algorithm, or null if this id is not known.
+     */
+    public static DigestAlgorithm fromId(int id) {
+        for (DigestAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+}
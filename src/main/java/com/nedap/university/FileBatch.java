@@ -0,0 +1,210 @@
+package com.nedap.university;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Represents a batch of files that is uploaded or downloaded in one session (see BatchProtocol): the names of the files
+ * and their sizes, in the order in which their data follows each other. A file with size -1 is not part of the data
+ * (as the other side refused it, or it does not exist).
+ */
+public class FileBatch {
+    public static final int SIZE_LENGTH = 8; // which is the length of a size in the manifest and in the reply.
+    private final String[] fileNames;
+    private final long[] sizes;
+    private final long[] offsets;
+
+    /**
+     * Create a batch of files.
+     *
+     * @param fileNames is the names of the files.
+     * @param sizes     is the size of every file, or -1 if the file is not part of the data.
+     */
+    public FileBatch(String[] fileNames, long[] sizes) {
+        this.fileNames = fileNames;
+        this.sizes = sizes;
+        // the data of every file starts where the data of the file before it ends:
+        this.offsets = new long[fileNames.length + 1];
+        for (int i = 0; i < fileNames.length; i++) {
+            offsets[i + 1] = offsets[i] + Math.max(0, sizes[i]);
+        }
+    }
+
+    /**
+     * Get the number of files in the batch (including the files that are not part of the data).
+     *
+     * @return the number of files.
+     */
+    public int getNumberOfFiles() {
+        return fileNames.length;
+    }
+
+    /**
+     * Get the number of files of which the data is transferred.
+     *
+     * @return the number of files with a size.
+     */
+    public int getNumberOfTransferredFiles() {
+        int numberOfTransferredFiles = 0;
+        for (long size : sizes) {
+            if (size >= 0) {
+                numberOfTransferredFiles++;
+            }
+        }
+        return numberOfTransferredFiles;
+    }
+
+    /**
+     * Get the name of a file.
+     *
+     * @param index is the index of the file in the batch.
+     * @return the name of the file.
+     */
+    public String getFileName(int index) {
+        return fileNames[index];
+    }
+
+    /**
+     * Get the size of a file.
+     *
+     * @param index is the index of the file in the batch.
+     * @return the size of the file, or -1 if the file is not part of the data.
+     */
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * Get the position in the data of the batch at which the data of a file starts.
+     *
+     * @param index is the index of the file in the batch.
+     * @return the position of the file.
+     */
+    public long getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Get the total size of the data of all files that are transferred.
+     *
+     * @return the total size in bytes.
+     */
+    public long getTotalSize() {
+        return offsets[fileNames.length];
+    }
+
+    /**
+     * Get the file to which a position in the data of the batch belongs.
+     *
+     * @param position is the position in the data of the batch (smaller than the total size).
+     * @return the index of the file in the batch.
+     */
+    public int getFileIndex(long position) {
+        // the last file of which the data starts at or before the position is the file with the data (empty files and
+        // files that are not transferred start at the same position as the file after them):
+        int low = 0;
+        int high = fileNames.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (offsets[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Create a batch with the same files, but with other sizes (for example the reply of the other side).
+     *
+     * @param sizes is the size of every file, or -1 if the file is not part of the data.
+     * @return the batch with the other sizes.
+     */
+    public FileBatch withSizes(long[] sizes) {
+        return new FileBatch(fileNames, sizes);
+    }
+
+
+//          --- MANIFEST ---
+
+    /**
+     * Create the manifest of the batch, which starts with the number of files, followed by the size, the length of the
+     * name and the name (in UTF-8) of every file.
+     *
+     * @return the manifest in bytes.
+     */
+    public byte[] toManifest() {
+        byte[][] namesInBytes = new byte[fileNames.length][];
+        int manifestLength = Integer.BYTES;
+        for (int i = 0; i < fileNames.length; i++) {
+            namesInBytes[i] = fileNames[i].getBytes(StandardCharsets.UTF_8);
+            manifestLength = manifestLength + SIZE_LENGTH + Short.BYTES + namesInBytes[i].length;
+        }
+        ByteBuffer manifest = ByteBuffer.allocate(manifestLength);
+        manifest.putInt(fileNames.length);
+        for (int i = 0; i < fileNames.length; i++) {
+            manifest.putLong(sizes[i]);
+            manifest.putShort((short) namesInBytes[i].length);
+            manifest.put(namesInBytes[i]);
+        }
+        return manifest.array();
+    }
+
+    /**
+     * Create a batch from its manifest.
+     *
+     * @param manifest is the manifest in bytes.
+     * @return the batch, or null if the manifest is not complete.
+     */
+    public static FileBatch fromManifest(byte[] manifest) {
+        ByteBuffer buffer = ByteBuffer.wrap(manifest);
+        try {
+            int numberOfFiles = buffer.getInt();
+            // every file needs at least its size and the length of its name:
+            if (numberOfFiles < 0 || numberOfFiles > buffer.remaining() / (SIZE_LENGTH + Short.BYTES)) {
+                return null;
+            }
+            String[] fileNames = new String[numberOfFiles];
+            long[] sizes = new long[numberOfFiles];
+            for (int i = 0; i < numberOfFiles; i++) {
+                sizes[i] = buffer.getLong();
+                byte[] nameInBytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+                buffer.get(nameInBytes);
+                fileNames[i] = new String(nameInBytes, StandardCharsets.UTF_8);
+            }
+            return new FileBatch(fileNames, sizes);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Create the reply to a manifest, which is the size of every file in the batch (or -1 if it is not transferred).
+     *
+     * @return the reply in bytes.
+     */
+    public byte[] toReply() {
+        ByteBuffer reply = ByteBuffer.allocate(fileNames.length * SIZE_LENGTH);
+        for (long size : sizes) {
+            reply.putLong(size);
+        }
+        return reply.array();
+    }
+
+    /**
+     * Get the sizes from the reply to a manifest.
+     *
+     * @param reply is the reply in bytes.
+     * @return the size of every file in the batch, or -1 if it is not transferred.
+     */
+    public static long[] fromReply(byte[] reply) {
+        ByteBuffer buffer = ByteBuffer.wrap(reply);
+        long[] sizes = new long[reply.length / SIZE_LENGTH];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = buffer.getLong();
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,72 @@
+package com.nedap.university;
+
+import java.io.IOException;
+
+/**
+ * Represents the data of a batch of files that is sent as if it is one file: the data of every file follows the data of
+ * the file before it, so small files share packets. A position in the batch is mapped to the position in the file it
+ * belongs to. Only one file is open at a time, so a batch of many files does not keep all of them open.
+ */
+public class FileBatchSource implements FragmentSource {
+    private final String filePath;
+    private final FileBatch batch;
+    private FileFragmentSource openFile;
+    private int openFileIndex = -1;
+
+    /**
+     * Create the source of a batch of files.
+     *
+     * @param filePath is the path where the files are stored.
+     * @param batch    is the batch, in which the files that are not sent have size -1.
+     */
+    public FileBatchSource(String filePath, FileBatch batch) {
+        this.filePath = filePath;
+        this.batch = batch;
+    }
+
+    @Override
+    public long getSize() {
+        return batch.getTotalSize();
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) throws IOException {
+        while (length > 0) {
+            int fileIndex = batch.getFileIndex(position);
+            long positionInFile = position - batch.getOffset(fileIndex);
+            int lengthInFile = (int) Math.min(length, batch.getSize(fileIndex) - positionInFile);
+            getFile(fileIndex).read(positionInFile, destination, offset, lengthInFile);
+            position = position + lengthInFile;
+            offset = offset + lengthInFile;
+            length = length - lengthInFile;
+        }
+    }
+
+    /**
+     * Get a file of the batch, which is opened (and the file that was open before is closed) if it is not open yet.
+     *
+     * @param fileIndex is the index of the file in the batch.
+     * @return the file.
+     * @throws IOException if the file could not be opened or its size changed.
+     */
+    private FileFragmentSource getFile(int fileIndex) throws IOException {
+        if (fileIndex != openFileIndex) {
+            close();
+            openFile = new FileFragmentSource(FileProtocol.getFile(filePath, batch.getFileName(fileIndex)));
+            openFileIndex = fileIndex;
+            if (openFile.getSize() != batch.getSize(fileIndex)) {
+                throw new IOException(batch.getFileName(fileIndex) + " changed after the batch was created.");
+            }
+        }
+        return openFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (openFile != null) {
+            openFile.close();
+            openFile = null;
+            openFileIndex = -1;
+        }
+    }
+}
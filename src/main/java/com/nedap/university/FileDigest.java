@@ -0,0 +1,24 @@
+package com.nedap.university;
+
+/**
+ * Represents the digest of a file that is calculated while the file is sent or received, so the file does not need to
+ * be read a second time (or be in memory completely) to check whether it is received correctly. The data of the file is
+ * added part by part and in order; the result is sent to the receiver in the packet with the CHECK flag.
+ */
+public interface FileDigest {
+    /**
+     * Add a part of the data of the file to the digest.
+     *
+     * @param data   is the array that holds the part.
+     * @param offset is the position of the first byte of the part in the array.
+     * @param length is the length of the part.
+     */
+    void update(byte[] data, int offset, int length);
+
+    /**
+     * Get the digest of all data that is added. Afterwards, no more data should be added.
+     *
+     * @return the byte representation of the digest.
+     */
+    byte[] digest();
+}
@@ -0,0 +1,296 @@
+package com.nedap.university;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Represents a file that is being received. The fragments are written directly to a temporary file at their own
+ * position, using positional writes on a FileChannel. Only when the transfer is complete and verified, the temporary
+ * file is renamed to the actual file (in one atomic step), so a file with the actual name is always complete. The
+ * received data can be read again (for example to calculate its checksum). A file that is received in its partial file
+ * (see openPartial) is kept if the transfer is interrupted, together with the length of the data that was received
+ * without gaps, so the transfer can be continued from there.
+ */
+public class FileFragmentSink implements FragmentSink, FragmentSource {
+    public static final long CHECKPOINT_INTERVAL = 1 << 20; // the received length is stored after every 1 MB.
+    private static final int LOCK_ATTEMPTS = 10;
+    private static final int LOCK_RETRY_INTERVAL = 100; // in ms.
+    private final Path temporaryFile;
+    private final File destination;
+    private final FileChannel fileChannel;
+    private final long size;
+    private final FsyncPolicy fsyncPolicy;
+    private final boolean isResumable;
+    // the length of the data that is received without gaps, and the ranges (start and end) that are received after a gap:
+    private long receivedLength;
+    private final TreeMap<Long, Long> rangesAfterGap = new TreeMap<>();
+    private long lastCheckpoint;
+
+    /**
+     * Create a temporary file (with the given size) in the same folder as the destination.
+     *
+     * @param destination is the file in which the received data should eventually be stored.
+     * @param size        is the total size of the data that is received.
+     * @param fsyncPolicy is the policy that determines whether the file is flushed to the storage device before it is
+     *                    renamed to the actual file.
+     * @throws IOException if the temporary file could not be created.
+     */
+    public FileFragmentSink(File destination, long size, FsyncPolicy fsyncPolicy) throws IOException {
+        this.destination = destination;
+        this.size = size;
+        this.fsyncPolicy = fsyncPolicy;
+        this.isResumable = false;
+        this.temporaryFile = Files.createTempFile(destination.toPath().toAbsolutePath().getParent(), "." + destination.getName() + ".", FileProtocol.PARTIAL_FILE_EXTENSION);
+        this.fileChannel = FileChannel.open(temporaryFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        reserveSize();
+    }
+
+    /**
+     * Use the (locked) partial file of the destination. The data that is received before is kept if the stored
+     * metadata belongs to a file of the same size; otherwise, the partial file starts empty.
+     *
+     * @param destination is the file in which the received data should eventually be stored.
+     * @param partialFile is the partial file of the destination.
+     * @param fileChannel is the channel of the partial file, which holds the lock on it.
+     * @param size        is the total size of the data that is received.
+     * @param fsyncPolicy is the policy that determines whether the file is flushed to the storage device before it is
+     *                    renamed to the actual file (and before the received length is stored).
+     * @throws IOException if the partial file could not be prepared.
+     */
+    private FileFragmentSink(File destination, Path partialFile, FileChannel fileChannel, long size, FsyncPolicy fsyncPolicy) throws IOException {
+        this.destination = destination;
+        this.size = size;
+        this.fsyncPolicy = fsyncPolicy;
+        this.isResumable = true;
+        this.temporaryFile = partialFile;
+        this.fileChannel = fileChannel;
+        PartialTransfer partialTransfer = PartialTransfer.read(destination);
+        if (partialTransfer != null && partialTransfer.getSize() == size && fileChannel.size() == size) {
+            receivedLength = partialTransfer.getReceivedLength();
+        } else {
+            fileChannel.truncate(0);
+            reserveSize();
+        }
+        lastCheckpoint = receivedLength;
+    }
+
+    /**
+     * Open the partial file of the destination (with the given size), in which a previous transfer of the same file
+     * might have been interrupted. If the partial file is still in use by another transfer (for example because that
+     * transfer did not notice the interruption yet), a temporary file of its own is used instead.
+     *
+     * @param destination is the file in which the received data should eventually be stored.
+     * @param size        is the total size of the data that is received.
+     * @param fsyncPolicy is the policy that determines whether the file is flushed to the storage device before it is
+     *                    renamed to the actual file (and before the received length is stored).
+     * @return the destination to which the fragments of the file can be written.
+     * @throws IOException if the partial (or temporary) file could not be created.
+     */
+    public static FileFragmentSink openPartial(File destination, long size, FsyncPolicy fsyncPolicy) throws IOException {
+        Path partialFile = PartialTransfer.getPartialFile(destination);
+        FileChannel fileChannel = FileChannel.open(partialFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (!tryLock(fileChannel)) {
+            fileChannel.close();
+            return new FileFragmentSink(destination, size, fsyncPolicy);
+        }
+        try {
+            return new FileFragmentSink(destination, partialFile, fileChannel, size, fsyncPolicy);
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Try to lock a partial file, waiting a short while if another transfer still holds the lock.
+     *
+     * @param fileChannel is the channel of the partial file.
+     * @return true if the file is locked, false if not.
+     * @throws IOException if the file could not be locked for another reason.
+     */
+    private static boolean tryLock(FileChannel fileChannel) throws IOException {
+        for (int attempt = 0; attempt < LOCK_ATTEMPTS; attempt++) {
+            try {
+                if (fileChannel.tryLock() != null) {
+                    return true;
+                }
+            } catch (OverlappingFileLockException e) {
+                // the lock is held by another transfer in this process.
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reserve the total size of the file at once, by writing its last byte.
+     *
+     * @throws IOException if the byte could not be written.
+     */
+    private void reserveSize() throws IOException {
+        if (size > 0) {
+            fileChannel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] source, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(source, offset, length);
+        // a positional write can write less bytes than requested, so keep writing until the buffer is empty:
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer, position + (buffer.position() - offset));
+        }
+        // positional writes can take place at the same time, but the received ranges are shared by the streams of a
+        // file that is transferred over several streams (see ParallelTransferProtocol):
+        synchronized (this) {
+            addReceivedRange(position, position + length);
+            if (isResumable && receivedLength - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                storeReceivedLength();
+            }
+        }
+    }
+
+    /**
+     * Get the length of the data that is received without gaps from the start of the file (including the data of a
+     * previous transfer of the partial file), which is the offset from which an interrupted transfer can be continued.
+     *
+     * @return the received length in bytes.
+     */
+    public synchronized long getReceivedLength() {
+        return receivedLength;
+    }
+
+    /**
+     * Continue receiving from an earlier offset than the received length (for example because the sender starts over),
+     * so all data after that offset counts as not received.
+     *
+     * @param offset is the offset from which the data is received again.
+     */
+    public void resumeFrom(long offset) {
+        receivedLength = Math.min(receivedLength, offset);
+        rangesAfterGap.clear();
+        lastCheckpoint = receivedLength;
+    }
+
+    /**
+     * Add a range of received data. If it continues the data that is received without gaps, the ranges that were
+     * received after the gap and now follow without gaps are added as well.
+     *
+     * @param start is the position of the first byte of the range.
+     * @param end   is the position after the last byte of the range.
+     */
+    private void addReceivedRange(long start, long end) {
+        if (start > receivedLength) {
+            rangesAfterGap.merge(start, end, Math::max);
+            return;
+        }
+        receivedLength = Math.max(receivedLength, end);
+        Map.Entry<Long, Long> nextRange = rangesAfterGap.firstEntry();
+        while (nextRange != null && nextRange.getKey() <= receivedLength) {
+            receivedLength = Math.max(receivedLength, nextRange.getValue());
+            rangesAfterGap.pollFirstEntry();
+            nextRange = rangesAfterGap.firstEntry();
+        }
+    }
+
+    /**
+     * Store the received length in the metadata of the partial transfer. The data is flushed first (according to the
+     * fsync policy), so the metadata never refers to data that is not stored yet.
+     *
+     * @throws IOException if the data could not be flushed or the metadata could not be written.
+     */
+    private void storeReceivedLength() throws IOException {
+        fsyncPolicy.apply(fileChannel);
+        new PartialTransfer(size, receivedLength).write(destination);
+        lastCheckpoint = receivedLength;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(destination, offset, length);
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, position + (buffer.position() - offset)) < 0) {
+                throw new IOException("Received file ended before all data could be read.");
+            }
+        }
+    }
+
+    /**
+     * Close the temporary file and rename it to the actual file, as the complete file is received and verified. The
+     * file is flushed (according to the fsync policy) before it is renamed, so the actual file never refers to data that
+     * is not stored yet.
+     *
+     * @return the actual file.
+     * @throws IOException if the temporary file could not be flushed or renamed.
+     */
+    public File commit() throws IOException {
+        fsyncPolicy.apply(fileChannel);
+        fileChannel.close();
+        try {
+            Files.move(temporaryFile, destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (isResumable) {
+            PartialTransfer.delete(destination);
+        }
+        return destination;
+    }
+
+    /**
+     * Close and remove the temporary file (and the metadata of a partial transfer), as the file is not received
+     * correctly.
+     */
+    public void abort() {
+        try {
+            fileChannel.close();
+            Files.deleteIfExists(temporaryFile);
+            if (isResumable) {
+                PartialTransfer.delete(destination);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not remove temporary file " + temporaryFile + ".");
+        }
+    }
+
+    /**
+     * Remove the temporary file if it is not renamed to the actual file yet. A partial file is kept instead, and the
+     * received length is stored, so the transfer can be continued later.
+     */
+    @Override
+    public void close() {
+        if (!Files.exists(temporaryFile)) {
+            return;
+        }
+        if (isResumable && fileChannel.isOpen()) {
+            try {
+                storeReceivedLength();
+                fileChannel.close();
+                return;
+            } catch (IOException e) {
+                System.out.println("Could not keep partial file " + temporaryFile + ": " + e.getMessage());
+            }
+        }
+        abort();
+    }
+}
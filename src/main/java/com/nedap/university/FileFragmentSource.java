@@ -0,0 +1,50 @@
+package com.nedap.university;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Represents a file of which the fragments are read from disk on demand, using positional reads on a FileChannel. Only
+ * the fragments that are being sent are in memory, so the memory use does not depend on the size of the file.
+ */
+public class FileFragmentSource implements FragmentSource {
+    private final FileChannel fileChannel;
+    private final long size;
+
+    /**
+     * Open a file to send its fragments.
+     *
+     * @param file is the file to send.
+     * @throws IOException if the file could not be opened.
+     */
+    public FileFragmentSource(File file) throws IOException {
+        this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = fileChannel.size();
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(destination, offset, length);
+        // a positional read can return less bytes than requested, so keep reading until the buffer is full:
+        while (buffer.hasRemaining()) {
+            int bytesRead = fileChannel.read(buffer, position + (buffer.position() - offset));
+            if (bytesRead < 0) {
+                throw new EOFException("File ended before all data could be read.");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+}
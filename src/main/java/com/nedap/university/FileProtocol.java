@@ -1,6 +1,12 @@
 package com.nedap.university;
 
-import java.io.*;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Represents the protocol for creating packet input from files and the other way around for the transmission between
@@ -11,6 +17,11 @@ public final class FileProtocol {
     public static final String CLIENT_FILEPATH = "/Users/arjonne.laar/Documents/module2/FinalProjectM2Arjonne/example_files/";
     public static final String SERVER_FILEPATH = "/home/pi/Files/";
 //    public static final String SERVER_FILEPATH = "/Users/arjonne.laar/Documents/module2/FinalProjectM2Arjonne/localserver/";
+    public static final String PARTIAL_FILE_EXTENSION = ".part"; // extension of files that are still being received.
+    public static final String RESUME_FILE_EXTENSION = ".resume"; // extension of the metadata of interrupted transfers.
+    public static final String MANIFEST_FILE_EXTENSION = ".manifest"; // extension of the files that are stored as chunks.
+    public static final FsyncPolicy DEFAULT_FSYNC_POLICY = FsyncPolicy.DATA; // so a stored file is complete, also after a power failure.
+    public static final int MAX_FILE_SIZE_IN_MEMORY = Integer.MAX_VALUE - 8; // which is the largest array most JVMs can allocate.
 
     /**
      * Get the actual file.
@@ -34,22 +45,28 @@ public final class FileProtocol {
     }
 
     /**
-     * Create the byte representation of a file.
+     * Create the byte representation of a file. The file is read in bulk via a FileChannel.
      *
      * @param filePath is the path where the file of interest is stored.
      * @param fileName is the name of the file of interest.
-     * @return the byte representation of the file.
+     * @return the byte representation of the file, or null if the file could not be read.
      */
     public static byte[] fileToBytes(String filePath, String fileName) {
         File file = getFile(filePath, fileName);
-        try {
-            FileInputStream fileInputStream = new FileInputStream(file);
-            byte[] fileInByteArray = new byte[(int) file.length()];
-            for (int i = 0; i < fileInByteArray.length; i++) {
-                byte nextByte = (byte) fileInputStream.read();
-                fileInByteArray[i] = nextByte;
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+            if (fileSize > MAX_FILE_SIZE_IN_MEMORY) {
+                System.out.println(fileName + " is too large to load into memory.");
+                return null;
+            }
+            byte[] fileInByteArray = new byte[(int) fileSize];
+            ByteBuffer buffer = ByteBuffer.wrap(fileInByteArray);
+            // a read can return less bytes than requested, so keep reading until the buffer is full:
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer) < 0) {
+                    throw new EOFException(fileName + " ended before all data could be read.");
+                }
             }
-            fileInputStream.close();
             return fileInByteArray;
         } catch (IOException e) {
             System.out.println("Could not copy byte representation of file into a new byte array.");
@@ -58,7 +75,7 @@ public final class FileProtocol {
     }
 
     /**
-     * Create a file from the byte array that is sent.
+     * Create a file from the byte array that is sent, using the default fsync policy.
      *
      * @param filePathDestination is the file path where the file needs to be stored.
      * @param fileName            is the name of the transmitted file.
@@ -66,14 +83,30 @@ public final class FileProtocol {
      * @return the actual file.
      */
     public static File bytesToFile(String filePathDestination, String fileName, byte[] fileData) {
+        return bytesToFile(filePathDestination, fileName, fileData, DEFAULT_FSYNC_POLICY);
+    }
+
+    /**
+     * Create a file from the byte array that is sent. The data is written in bulk via a FileChannel. If the file
+     * already exists, it is not overwritten.
+     *
+     * @param filePathDestination is the file path where the file needs to be stored.
+     * @param fileName            is the name of the transmitted file.
+     * @param fileData            is the data of the file in bytes.
+     * @param fsyncPolicy         is the policy that determines whether the file is flushed to the storage device.
+     * @return the actual file, or null if the file could not be written.
+     */
+    public static File bytesToFile(String filePathDestination, String fileName, byte[] fileData, FsyncPolicy fsyncPolicy) {
         File file = new File(filePathDestination + fileName);
-        try {
-            if (file.createNewFile()) {
-                FileOutputStream fileOutputStream = new FileOutputStream(file);
-                for (byte byteOfFileData : fileData) {
-                    fileOutputStream.write(byteOfFileData);
-                }
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(fileData);
+            // a write can write less bytes than requested, so keep writing until the buffer is empty:
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer);
             }
+            fsyncPolicy.apply(fileChannel);
+        } catch (FileAlreadyExistsException e) {
+            return file;
         } catch (IOException e) {
             System.out.println("Could not write byte representation of file to actual file.");
             return null;
@@ -82,19 +115,111 @@ public final class FileProtocol {
     }
 
     /**
-     * Get the file size of the file to be transmitted.
+     * Get the file size of the file to be transmitted. The size is taken from the file system (or from the manifest of
+     * a file that is stored as chunks), so the file itself does not need to be read.
      *
      * @param filePath is the path where the file of interest is stored.
      * @param fileName is the name of the file of interest.
-     * @return the size of the file of interest.
+     * @return the size of the file of interest, or -1 if the file does not exist.
      */
-    public static int getFileSize(String filePath, String fileName) {
-        byte[] fileToSendInBytes = fileToBytes(filePath, fileName);
-        if (fileToSendInBytes != null) {
-            return fileToSendInBytes.length;
+    public static long getFileSize(String filePath, String fileName) {
+        File file = getFile(filePath, fileName);
+        if (file.isFile()) {
+            return file.length();
         } else {
-            return -1;
+            return new ChunkStore(filePath).getFileSize(fileName);
+        }
+    }
+
+    /**
+     * Open a file to be able to send its fragments, without loading the complete file into memory.
+     *
+     * @param filePath is the path where the file of interest is stored.
+     * @param fileName is the name of the file of interest.
+     * @return the source from which the fragments of the file can be read, or null if the file could not be opened.
+     */
+    public static FragmentSource openFileToSend(String filePath, String fileName) {
+        try {
+            ChunkStore chunkStore = new ChunkStore(filePath);
+            if (!getFile(filePath, fileName).isFile() && chunkStore.isStored(fileName)) {
+                return chunkStore.openFile(fileName);
+            }
+            return new FileFragmentSource(getFile(filePath, fileName));
+        } catch (IOException e) {
+            System.out.println("Could not open " + fileName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Create a temporary file to which a file that is received can be written, without keeping the complete file in
+     * memory.
+     *
+     * @param filePath is the path where the received file needs to be stored.
+     * @param fileName is the name of the received file.
+     * @param fileSize is the size of the received file.
+     * @return the destination to which the fragments of the file can be written, or null if it could not be created.
+     */
+    public static FileFragmentSink createFileToReceive(String filePath, String fileName, long fileSize) {
+        try {
+            return new FileFragmentSink(getFile(filePath, fileName), fileSize, DEFAULT_FSYNC_POLICY);
+        } catch (IOException e) {
+            System.out.println("Could not create a file to receive " + fileName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Open the partial file to which a file that is received can be written, in which a previous (interrupted) transfer
+     * of the same file can be continued. The data that the partial file already holds is kept if it belongs to a file
+     * of the same size.
+     *
+     * @param filePath is the path where the received file needs to be stored.
+     * @param fileName is the name of the received file.
+     * @param fileSize is the size of the received file.
+     * @return the destination to which the fragments of the file can be written, or null if it could not be opened.
+     */
+    public static FileFragmentSink openFileToResume(String filePath, String fileName, long fileSize) {
+        try {
+            return FileFragmentSink.openPartial(getFile(filePath, fileName), fileSize, DEFAULT_FSYNC_POLICY);
+        } catch (IOException e) {
+            System.out.println("Could not open a file to receive " + fileName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Get the metadata of an interrupted transfer of a file.
+     *
+     * @param filePath is the path where the received file needs to be stored.
+     * @param fileName is the name of the received file.
+     * @return the metadata, or null if no transfer of this file was interrupted.
+     */
+    public static PartialTransfer getPartialTransfer(String filePath, String fileName) {
+        return PartialTransfer.read(getFile(filePath, fileName));
+    }
+
+    /**
+     * Get all files that are completely stored in the folder of interest (so without the files that are still being
+     * received, the metadata of interrupted transfers and the chunk folder). A file that is stored as chunks is listed
+     * under its own name instead of the name of its manifest.
+     *
+     * @param filePath is the path with folder in which the files are stored.
+     * @return the stored files.
+     */
+    public static File[] getStoredFiles(File filePath) {
+        File[] listOfFiles = filePath.listFiles((directory, fileName) -> !fileName.endsWith(PARTIAL_FILE_EXTENSION) && !fileName.endsWith(RESUME_FILE_EXTENSION)
+                && !fileName.equals(ChunkStore.CHUNK_FOLDER_NAME));
+        if (listOfFiles == null) {
+            return new File[0];
         }
+        for (int i = 0; i < listOfFiles.length; i++) {
+            String fileName = listOfFiles[i].getName();
+            if (fileName.startsWith(".") && fileName.endsWith(MANIFEST_FILE_EXTENSION)) {
+                listOfFiles[i] = new File(filePath, fileName.substring(1, fileName.length() - MANIFEST_FILE_EXTENSION.length()));
+            }
+        }
+        return listOfFiles;
     }
 
     /**
@@ -104,7 +229,7 @@ public final class FileProtocol {
      * @return true if any files are stored, false if not.
      */
     public static boolean areFilesStoredOnServer(File filePath) {
-        File[] listOfFiles = filePath.listFiles();
+        File[] listOfFiles = getStoredFiles(filePath);
         return listOfFiles.length != 0;
     }
 
@@ -115,7 +240,7 @@ public final class FileProtocol {
      * @return the list of filenames, or null if no files are stored.
      */
     public static String createListOfFileNames(File filePath) {
-        File[] listOfFiles = filePath.listFiles();
+        File[] listOfFiles = getStoredFiles(filePath);
         String listedFiles = "\nThe following files are stored on the server: \n";
         for (File file : listOfFiles) {
             String fileName = file.getName();
@@ -132,7 +257,7 @@ public final class FileProtocol {
      * @return true if file already exists, false if not.
      */
     public static boolean doesFileExist(String fileNameToCheck, File filePath) {
-        File[] listOfFiles = filePath.listFiles();
+        File[] listOfFiles = getStoredFiles(filePath);
         if (areFilesStoredOnServer(filePath)) {
             for (File file : listOfFiles) {
                 String fileName = file.getName();
@@ -143,4 +268,17 @@ public final class FileProtocol {
         }
         return false;
     }
+
+    /**
+     * Check whether a name that is received from the other side can be used as name of a stored file: it should not
+     * refer to another folder, and should not be the name of a file that is still being received, the metadata of an
+     * interrupted transfer or the manifest of a file that is stored as chunks.
+     *
+     * @param fileName is the name of the file.
+     * @return true if the name can be used, false if not.
+     */
+    public static boolean isValidFileName(String fileName) {
+        return !fileName.isEmpty() && !fileName.startsWith(".") && !fileName.contains("/") && !fileName.contains("\\")
+                && !fileName.endsWith(PARTIAL_FILE_EXTENSION) && !fileName.endsWith(RESUME_FILE_EXTENSION) && !fileName.endsWith(MANIFEST_FILE_EXTENSION);
+    }
 }
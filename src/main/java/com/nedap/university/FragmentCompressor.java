@@ -0,0 +1,131 @@
+package com.nedap.university;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Represents the compression of the data packets of one file, for connections that use OPTION_COMPRESSION. The payload
+ * of every packet is compressed on its own (with raw Deflate), so every packet can be decompressed independently and in
+ * any order by the receiver. A compressed packet carries OPTION_COMPRESSED, and its header still carries the original
+ * file size and offset, from which the receiver knows the original length of the payload. A packet of which the payload
+ * does not get smaller is sent as is. The first SAMPLE_BLOCKS payloads of a file are always compressed; if they do not
+ * save at least MIN_SAVING_PERCENT, the file is probably compressed already (such as PNG and PDF files), so the other
+ * payloads of the file are sent as is without trying.
+ */
+public class FragmentCompressor {
+    public static final int SAMPLE_BLOCKS = 8;
+    public static final int MIN_SAVING_PERCENT = 10;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final ByteBuffer compressedPacket = ByteBuffer.allocate(PacketProtocol.MAX_PACKET_SIZE);
+    private int numberOfSampledBlocks;
+    private boolean isSkipped;
+    private long originalLength;
+    private long compressedLength;
+
+    /**
+     * Compress the payload of a packet that is encoded in a buffer (with a header of version 2). The compressed packet
+     * is encoded in a buffer of the compressor, so the original payload stays in the buffer of the packet.
+     *
+     * @param packet        is the buffer in which the packet is encoded, which ends at the end of the payload.
+     * @param headerSize    is the size of the header of the packet.
+     * @param payloadLength is the length of the payload of the packet.
+     * @return the buffer with the compressed packet (which ends at its position), or the buffer of the packet if the
+     * payload is not compressed.
+     */
+    public ByteBuffer compress(ByteBuffer packet, int headerSize, int payloadLength) {
+        originalLength = originalLength + payloadLength;
+        if (isSkipped) {
+            compressedLength = compressedLength + payloadLength;
+            return packet;
+        }
+        byte[] compressed = compressedPacket.array();
+        deflater.reset();
+        deflater.setInput(packet.array(), headerSize, payloadLength);
+        deflater.finish();
+        // the compressed payload needs to be smaller than the original payload, otherwise the deflater is not finished:
+        int length = deflater.deflate(compressed, headerSize, Math.max(0, payloadLength - 1));
+        boolean isCompressed = deflater.finished();
+        compressedLength = compressedLength + (isCompressed ? length : payloadLength);
+        if (numberOfSampledBlocks < SAMPLE_BLOCKS) {
+            numberOfSampledBlocks++;
+            isSkipped = numberOfSampledBlocks == SAMPLE_BLOCKS && compressedLength * 100 > originalLength * (100 - MIN_SAVING_PERCENT);
+        }
+        if (!isCompressed) {
+            return packet;
+        }
+        // the header is the same, apart from the option that marks the payload as compressed and the checksum (which
+        // covers the length of the payload):
+        System.arraycopy(packet.array(), 0, compressed, 0, headerSize);
+        compressedPacket.clear();
+        compressedPacket.putInt(32, PacketProtocol.getOptions(compressed) | PacketProtocol.OPTION_COMPRESSED);
+        compressedPacket.putShort(14, (short) DataIntegrityProtocol.calculateHeaderChecksum(compressed, length));
+        compressedPacket.position(headerSize + length);
+        return compressedPacket;
+    }
+
+    /**
+     * Decompress the payload of a packet that carries OPTION_COMPRESSED.
+     *
+     * @param inflater         is the inflater of the receiver, which is reused for every packet.
+     * @param packetWithHeader is the packet that includes the header.
+     * @param headerSize       is the size of the header of the packet.
+     * @param payloadLength    is the length of the compressed payload.
+     * @param block            is the array to which the original payload is written (from position 0).
+     * @param originalLength   is the length of the original payload.
+     * @return true if the payload is decompressed to its original length, false if it is corrupted.
+     */
+    public static boolean decompress(Inflater inflater, byte[] packetWithHeader, int headerSize, int payloadLength, byte[] block, int originalLength) {
+        inflater.reset();
+        inflater.setInput(packetWithHeader, headerSize, payloadLength);
+        try {
+            return inflater.inflate(block, 0, originalLength) == originalLength && inflater.finished();
+        } catch (DataFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create the inflater with which a receiver decompresses the packets that the compressor compressed.
+     *
+     * @return the inflater.
+     */
+    public static Inflater createInflater() {
+        return new Inflater(true);
+    }
+
+    /**
+     * Get the total length of the payloads that are offered to the compressor (including retransmissions).
+     *
+     * @return the original length in bytes.
+     */
+    public long getOriginalLength() {
+        return originalLength;
+    }
+
+    /**
+     * Get the total length of the payloads as they are sent.
+     *
+     * @return the compressed length in bytes.
+     */
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    /**
+     * Check whether the compressor stopped compressing, as the sampled payloads did not get smaller enough.
+     *
+     * @return true if the payloads are sent as is, false if they are compressed.
+     */
+    public boolean isSkipped() {
+        return isSkipped;
+    }
+
+    /**
+     * Release the memory of the deflater.
+     */
+    public void close() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,65 @@
+package com.nedap.university;
+
+import java.io.IOException;
+
+/**
+ * Represents a part of a file from an offset, which is sent as if it is a file of its own (for example to continue an
+ * interrupted transfer, or as one of the streams of a file that is transferred over several streams). A position in the
+ * range is mapped to the same position after the offset in the file, so the data is read from the original file (by the
+ * sender) and written directly at its place in the received file (by the receiver).
+ */
+public class FragmentRange implements FragmentSink, FragmentSource {
+    private final FragmentSource file;
+    private final FragmentSink fileSink;
+    private final long offset;
+    private final long length;
+
+    /**
+     * Create the range of a file from an offset until its end.
+     *
+     * @param file     is the data of the file.
+     * @param fileSink is the destination of the file, or null if the range is only read.
+     * @param offset   is the position in the file at which the range starts.
+     */
+    public FragmentRange(FragmentSource file, FragmentSink fileSink, long offset) {
+        this(file, fileSink, offset, file.getSize() - offset);
+    }
+
+    /**
+     * Create the range of a file with a given length from an offset.
+     *
+     * @param file     is the data of the file.
+     * @param fileSink is the destination of the file, or null if the range is only read.
+     * @param offset   is the position in the file at which the range starts.
+     * @param length   is the length of the range in bytes.
+     */
+    public FragmentRange(FragmentSource file, FragmentSink fileSink, long offset, long length) {
+        this.file = file;
+        this.fileSink = fileSink;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public long getSize() {
+        return length;
+    }
+
+    @Override
+    public void read(long position, byte[] destination, int offset, int length) throws IOException {
+        file.read(this.offset + position, destination, offset, length);
+    }
+
+    @Override
+    public void write(long position, byte[] source, int offset, int length) throws IOException {
+        if (fileSink == null) {
+            throw new IOException("This range of the file can only be read.");
+        }
+        fileSink.write(this.offset + position, source, offset, length);
+    }
+
+    @Override
+    public void close() {
+        // nothing to close, the file itself is closed by its owner.
+    }
+}
@@ -0,0 +1,23 @@
+package com.nedap.university;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Represents the destination of a file that is being received. Every fragment is written at its own position as soon
+ * as it is received, so fragments that arrive out of order do not need to be buffered and the file never needs to be in
+ * memory completely.
+ */
+public interface FragmentSink extends Closeable {
+
+    /**
+     * Write a fragment of the data at its position.
+     *
+     * @param position is the position in the data at which the fragment is written.
+     * @param source   is the buffer that holds the fragment.
+     * @param offset   is the position of the fragment in the buffer.
+     * @param length   is the length of the fragment.
+     * @throws IOException if the fragment could not be written.
+     */
+    void write(long position, byte[] source, int offset, int length) throws IOException;
+}
@@ -0,0 +1,29 @@
+package com.nedap.university;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Represents the data of a file that is being sent. The sender reads the data of a fragment only when that fragment is
+ * sent, so the file never needs to be loaded into memory completely.
+ */
+public interface FragmentSource extends Closeable {
+
+    /**
+     * Get the total size of the data.
+     *
+     * @return the size in bytes.
+     */
+    long getSize();
+
+    /**
+     * Read a part of the data into a buffer.
+     *
+     * @param position    is the position in the data from which to read.
+     * @param destination is the buffer in which the data is stored.
+     * @param offset      is the position in the buffer at which the data is stored.
+     * @param length      is the number of bytes to read.
+     * @throws IOException if the data could not be read.
+     */
+    void read(long position, byte[] destination, int offset, int length) throws IOException;
+}
@@ -0,0 +1,37 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Represents how strictly a written file is flushed to the storage device before it is considered to be stored.
+ */
+public enum FsyncPolicy {
+    /**
+     * Do not flush: the operating system writes the file to the storage device when it sees fit. This is the fastest
+     * option, but the file can be lost or incomplete after a power failure.
+     */
+    NONE,
+    /**
+     * Flush the content of the file (fdatasync). After a power failure the content of a stored file is complete.
+     */
+    DATA,
+    /**
+     * Flush the content and the metadata (such as the modification time) of the file (fsync).
+     */
+    ALL;
+
+    /**
+     * Flush a file that is written via the given channel according to this policy.
+     *
+     * @param fileChannel is the channel via which the file is written.
+     * @throws IOException if the file could not be flushed.
+     */
+    public void apply(FileChannel fileChannel) throws IOException {
+        if (this == DATA) {
+            fileChannel.force(false);
+        } else if (this == ALL) {
+            fileChannel.force(true);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents the digest of a file as the root of a Merkle tree. The file is divided in chunks of a fixed size, and the
+ * digest of every chunk is a leaf of the tree. Every node above the leaves is the digest of its two children (a node
+ * without a sibling moves up unchanged), and the root is the digest of the total file. If the root of the received file
+ * is not the same as the root of the original file, comparing the leaves shows which chunks need to be sent again.
+ * All digests use the same algorithm.
+ */
+public class MerkleTreeDigest implements FileDigest {
+    private final DigestAlgorithm algorithm;
+    private final int chunkSize;
+    private final List<byte[]> leafDigests = new ArrayList<>();
+    private FileDigest chunkDigest;
+    private int lengthInChunk;
+
+    /**
+     * Create an empty Merkle tree.
+     *
+     * @param algorithm is the algorithm of the digests of the chunks and nodes.
+     * @param chunkSize is the size of every chunk (except the last one) in bytes.
+     */
+    public MerkleTreeDigest(DigestAlgorithm algorithm, int chunkSize) {
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.chunkDigest = algorithm.createDigest();
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int lengthToAdd = Math.min(length, chunkSize - lengthInChunk);
+            chunkDigest.update(data, offset, lengthToAdd);
+            lengthInChunk = lengthInChunk + lengthToAdd;
+            offset = offset + lengthToAdd;
+            length = length - lengthToAdd;
+            // a chunk is complete, so its digest becomes a leaf:
+            if (lengthInChunk == chunkSize) {
+                leafDigests.add(chunkDigest.digest());
+                chunkDigest = algorithm.createDigest();
+                lengthInChunk = 0;
+            }
+        }
+    }
+
+    /**
+     * Get the root of the tree. The last (incomplete) chunk becomes a leaf first; a file without any data has one
+     * (empty) chunk. The root can be requested again after leaves are replaced.
+     *
+     * @return the byte representation of the root.
+     */
+    @Override
+    public byte[] digest() {
+        if (lengthInChunk > 0 || leafDigests.isEmpty()) {
+            leafDigests.add(chunkDigest.digest());
+            chunkDigest = algorithm.createDigest();
+            lengthInChunk = 0;
+        }
+        List<byte[]> level = leafDigests;
+        while (level.size() > 1) {
+            List<byte[]> parentLevel = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i = i + 2) {
+                if (i + 1 < level.size()) {
+                    FileDigest nodeDigest = algorithm.createDigest();
+                    nodeDigest.update(level.get(i), 0, level.get(i).length);
+                    nodeDigest.update(level.get(i + 1), 0, level.get(i + 1).length);
+                    parentLevel.add(nodeDigest.digest());
+                } else {
+                    parentLevel.add(level.get(i));
+                }
+            }
+            level = parentLevel;
+        }
+        return level.get(0);
+    }
+
+    /**
+     * Get the digests of all chunks one after the other, so they can be sent to the other side. Only complete after the
+     * root is requested.
+     *
+     * @return the byte representation of the leaves.
+     */
+    public byte[] getLeafDigests() {
+        int digestLength = algorithm.getDigestLength();
+        byte[] leaves = new byte[leafDigests.size() * digestLength];
+        for (int i = 0; i < leafDigests.size(); i++) {
+            System.arraycopy(leafDigests.get(i), 0, leaves, i * digestLength, digestLength);
+        }
+        return leaves;
+    }
+
+    /**
+     * Get the numbers of the chunks of which the digest differs from the digest in the leaves of another tree.
+     *
+     * @param otherLeafDigests is the byte representation of the leaves of the other tree.
+     * @return a bit for every chunk, which is set if the chunk differs.
+     */
+    public byte[] getDifferentChunks(byte[] otherLeafDigests) {
+        int digestLength = algorithm.getDigestLength();
+        byte[] differentChunks = new byte[(leafDigests.size() + 7) / 8];
+        for (int i = 0; i < leafDigests.size(); i++) {
+            byte[] leaf = leafDigests.get(i);
+            for (int j = 0; j < digestLength; j++) {
+                if (leaf[j] != otherLeafDigests[(i * digestLength) + j]) {
+                    differentChunks[i / 8] |= (byte) (1 << (i % 8));
+                    break;
+                }
+            }
+        }
+        return differentChunks;
+    }
+
+    /**
+     * Calculate the digest of a chunk again from the data of the file (for example after the chunk is received again)
+     * and replace its leaf.
+     *
+     * @param file        is the data of the file.
+     * @param chunkNumber is the number of the chunk (starting at 0).
+     * @param buffer      is a buffer in which the data of the chunk is read part by part.
+     * @throws IOException if the data could not be read.
+     */
+    public void updateLeaf(FragmentSource file, int chunkNumber, byte[] buffer) throws IOException {
+        FileDigest newChunkDigest = algorithm.createDigest();
+        long chunkStart = (long) chunkNumber * chunkSize;
+        long chunkEnd = Math.min(chunkStart + chunkSize, file.getSize());
+        for (long position = chunkStart; position < chunkEnd; position = position + buffer.length) {
+            int length = (int) Math.min(buffer.length, chunkEnd - position);
+            file.read(position, buffer, 0, length);
+            newChunkDigest.update(buffer, 0, length);
+        }
+        leafDigests.set(chunkNumber, newChunkDigest.digest());
+    }
+
+    /**
+     * Get the number of chunks of a file.
+     *
+     * @param totalFileSize is the total size of the file.
+     * @param chunkSize     is the size of every chunk (except the last one) in bytes.
+     * @return the number of chunks, which is at least one.
+     */
+    public static int getNumberOfChunks(long totalFileSize, int chunkSize) {
+        return (int) Math.max(1, (totalFileSize + chunkSize - 1) / chunkSize);
+    }
+}
@@ -0,0 +1,62 @@
+package com.nedap.university;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Represents a bounded pool of packet buffers that can be reused, so sending and receiving packets does not allocate a
+ * new buffer for every packet. The pool can be shared by multiple threads. If the pool is empty, a new buffer is
+ * allocated; if the pool is full, a returned buffer is left to the garbage collector, so the pool never holds more than
+ * its capacity.
+ */
+public class PacketBufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+    private final int bufferSize;
+
+    /**
+     * Create a pool of buffers.
+     *
+     * @param capacity   is the maximum number of buffers that the pool keeps.
+     * @param bufferSize is the size of every buffer in bytes.
+     */
+    public PacketBufferPool(int capacity, int bufferSize) {
+        this.buffers = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Take a buffer from the pool, or allocate a new one if the pool is empty. The buffer is cleared, so it can be
+     * filled from the start.
+     *
+     * @return the buffer.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            // the buffers are on the heap, as the data of a DatagramPacket is a byte array:
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool, so it can be used again. The buffer should not be used anymore afterwards.
+     *
+     * @param buffer is the buffer to return.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Get the number of buffers that are available in the pool.
+     *
+     * @return the number of available buffers.
+     */
+    public int getAvailable() {
+        return buffers.size();
+    }
+}
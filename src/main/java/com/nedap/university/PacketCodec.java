@@ -0,0 +1,113 @@
+package com.nedap.university;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the encoding of packets in place, in a buffer that is reused for every packet. The header is written at the
+ * start of the buffer and its checksum is calculated directly over the buffer, so encoding a packet does not allocate
+ * any memory. The buffers are backed by a byte array that starts at the start of the buffer (as the buffers of the pool
+ * are). That array is sent and received by a DatagramPacket that is reused as well, and decoding reads the fields
+ * directly from the array (using the getters of the PacketProtocol). The buffers for packets of up to the legacy
+ * fragment size come from BUFFER_POOL, and only connections that negotiated a larger fragment size (jumbo frames or the
+ * loopback interface) use the buffers of about 64 KB of LARGE_BUFFER_POOL.
+ */
+public final class PacketCodec {
+    public static final int POOL_CAPACITY = 64; // which is enough for the transfers that run at the same time.
+    public static final int LARGE_POOL_CAPACITY = 8; // as only a few connections use fragments larger than the MTU of Ethernet.
+    public static final PacketBufferPool BUFFER_POOL = new PacketBufferPool(POOL_CAPACITY, PacketProtocol.LEGACY_FRAGMENT_SIZE);
+    public static final PacketBufferPool LARGE_BUFFER_POOL = new PacketBufferPool(LARGE_POOL_CAPACITY, PacketProtocol.MAX_PACKET_SIZE);
+
+    /**
+     * Take a buffer from the pool of the buffers that fit a packet of the given size.
+     *
+     * @param packetSize is the size of the largest packet that is encoded in (or received into) the buffer.
+     * @return the buffer, which is at least as large as the packet.
+     */
+    public static ByteBuffer acquireBuffer(int packetSize) {
+        return (packetSize <= PacketProtocol.LEGACY_FRAGMENT_SIZE) ? BUFFER_POOL.acquire() : LARGE_BUFFER_POOL.acquire();
+    }
+
+    /**
+     * Return a buffer that was taken with acquireBuffer to the pool that it belongs to.
+     *
+     * @param buffer is the buffer to return.
+     */
+    public static void releaseBuffer(ByteBuffer buffer) {
+        BUFFER_POOL.release(buffer);
+        LARGE_BUFFER_POOL.release(buffer);
+    }
+
+    /**
+     * Return the array of a buffer that was taken with acquireBuffer to the pool that it belongs to, for a packet that
+     * only kept the array of its buffer (like a DatagramPacket does).
+     *
+     * @param array is the array of the buffer to return.
+     */
+    public static void releaseBuffer(byte[] array) {
+        releaseBuffer(ByteBuffer.wrap(array));
+    }
+
+    /**
+     * Write a header at the start of a buffer. Afterwards, the position of the buffer is at the start of the payload, so
+     * the payload can be put directly after the header. The packet ends at the position of the buffer.
+     *
+     * @param packet                is the buffer (backed by a byte array) in which the packet is encoded.
+     * @param headerVersion         is the version of the header.
+     * @param totalFileSize         is the total size of the actual file (without header) that needs to be transmitted.
+     * @param offset                is the position in the file of the data this packet carries (only in version 2).
+     * @param sequenceNumber        is the sequence number of the packet.
+     * @param acknowledgementNumber is acknowledgement number of the packet (= sequence number of received packet).
+     * @param flag                  is the flag that this packet carries.
+     * @param options               is the options field of the packet (only in version 2).
+     * @param payloadLength         is the length of the data this packet carries.
+     * @return the size of the header.
+     * @throws IllegalArgumentException if the file size does not fit in a header of version 1.
+     */
+    public static int encodeHeader(ByteBuffer packet, int headerVersion, long totalFileSize, long offset, int sequenceNumber, int acknowledgementNumber, int flag, int options, int payloadLength) {
+        if (headerVersion == PacketProtocol.HEADER_VERSION_1 && totalFileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A file of " + totalFileSize + " bytes does not fit in a header of version 1.");
+        }
+        int headerSize = PacketProtocol.getHeaderSize(headerVersion);
+        packet.clear();
+        // four bytes for size of the total file (without header), which is truncated in version 2 as the complete size
+        // is added below:
+        packet.putInt(0, (int) totalFileSize);
+        // four bytes for the sequence number and four bytes for the acknowledgement number:
+        packet.putInt(4, sequenceNumber);
+        packet.putInt(8, acknowledgementNumber);
+        // two bytes for the flag(s), of which the two highest bits carry the version:
+        packet.putShort(12, (short) ((flag & ~PacketProtocol.VERSION_MASK) | ((headerVersion - 1) << PacketProtocol.VERSION_SHIFT)));
+        if (headerVersion == PacketProtocol.HEADER_VERSION_2) {
+            // eight bytes for the size of the total file, eight bytes for the offset and four bytes for the options:
+            packet.putLong(16, totalFileSize);
+            packet.putLong(24, offset);
+            packet.putInt(32, options);
+        }
+        // two bytes for checksum, which is calculated over the header in the buffer itself:
+        packet.putShort(14, (short) DataIntegrityProtocol.calculateHeaderChecksum(packet.array(), payloadLength));
+        packet.position(headerSize);
+        return headerSize;
+    }
+
+    /**
+     * Add a CRC32C over the complete packet (header and payload) that is encoded in a buffer, directly after the
+     * payload. Afterwards, the packet ends after the CRC32C.
+     *
+     * @param packet is the buffer in which the packet is encoded, which ends at the position of the buffer.
+     */
+    public static void appendCrc32c(ByteBuffer packet) {
+        packet.putInt(DataIntegrityProtocol.calculateCrc32c(packet.array(), 0, packet.position()));
+    }
+
+    /**
+     * Let a (reused) datagram packet refer to the packet that is encoded in a buffer, which ends at the position of the
+     * buffer.
+     *
+     * @param packet   is the buffer in which the packet is encoded.
+     * @param datagram is the datagram packet via which the packet is sent.
+     */
+    public static void toDatagram(ByteBuffer packet, DatagramPacket datagram) {
+        datagram.setData(packet.array(), 0, packet.position());
+    }
+}
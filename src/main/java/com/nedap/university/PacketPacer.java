@@ -0,0 +1,70 @@
+package com.nedap.university;
+
+/**
+ * Represents the pacing of the packets of a sender: instead of sending the congestion window in one burst (which can
+ * overflow the receive buffer of the other side), the packets are spread evenly over the round trip time. The pacing
+ * rate is the congestion window per smoothed round trip time, times a gain so the window can still grow: SLOW_START_GAIN
+ * in slow start and CONGESTION_AVOIDANCE_GAIN afterwards (as used by Linux). If the connection has a rate limiter (see
+ * TransferContext), the packets are also paced to its rate. Until the first round trip time is measured, only the rate
+ * limiter paces the packets.
+ */
+public class PacketPacer {
+    public static final double SLOW_START_GAIN = 2.0;
+    public static final double CONGESTION_AVOIDANCE_GAIN = 1.25;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private final TokenBucket windowPacing;
+    private final TokenBucket rateLimiter;
+
+    /**
+     * Create the pacer of a transfer.
+     *
+     * @param rateLimiter is the token bucket that limits the rate of the connection, or null if it is not limited.
+     */
+    public PacketPacer(TokenBucket rateLimiter) {
+        this.windowPacing = new TokenBucket(0);
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Update the pacing rate to the current congestion window and round trip time.
+     *
+     * @param congestionController is the congestion controller of the transfer.
+     * @param smoothedRttInNanos   is the smoothed round trip time in ns, or 0 if it is not measured yet.
+     * @param packetSize           is the size of a full packet in bytes.
+     */
+    public void update(CongestionController congestionController, long smoothedRttInNanos, int packetSize) {
+        if (smoothedRttInNanos <= 0) {
+            return;
+        }
+        int congestionWindow = congestionController.getCongestionWindow();
+        double gain = (congestionWindow < congestionController.getSlowStartThreshold()) ? SLOW_START_GAIN : CONGESTION_AVOIDANCE_GAIN;
+        windowPacing.setRate(gain * congestionWindow * packetSize * NANOS_PER_SECOND / smoothedRttInNanos);
+    }
+
+    /**
+     * Get the time until the next packet may be sent.
+     *
+     * @param now is the current time in ns.
+     * @return the time to wait in ns, or 0 if a packet may be sent right away.
+     */
+    public long getWaitTimeInNanos(long now) {
+        long waitTime = windowPacing.getWaitTimeInNanos(now);
+        if (rateLimiter != null) {
+            waitTime = Math.max(waitTime, rateLimiter.getWaitTimeInNanos(now));
+        }
+        return waitTime;
+    }
+
+    /**
+     * Take a packet that is sent (or retransmitted) into account for the pacing of the next packets.
+     *
+     * @param length is the length of the packet in bytes.
+     * @param now    is the current time in ns.
+     */
+    public void onPacketSent(int length, long now) {
+        windowPacing.consume(length, now);
+        if (rateLimiter != null) {
+            rateLimiter.consume(length, now);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.nedap.university;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 /**
@@ -12,11 +13,78 @@ public final class PacketProtocol {
     public static final int PI_PORT = 9090;
 
 //          --- SIZES ---
-    public static final int MAX_PACKET_SIZE = 1500; // which is the MTU.
+    public static final int IP_UDP_HEADER_SIZE = 28; // which is the size of the IPv4 and UDP headers of a datagram.
+    public static final int MAX_PACKET_SIZE = 65535 - IP_UDP_HEADER_SIZE; // which is the largest UDP payload (over loopback) and the size of the packet buffers.
+    public static final int LEGACY_FRAGMENT_SIZE = 1500; // which is the size of the packets of connections that did not negotiate a fragment size.
+    public static final int MIN_FRAGMENT_SIZE = 1280 - 48; // which fits in the minimum MTU of IPv6 (with the IPv6 and UDP headers).
+    public static final int DEFAULT_FRAGMENT_SIZE = 1500 - IP_UDP_HEADER_SIZE; // which fits in the MTU of Ethernet without IP fragmentation.
     public static final int PACKET_WITH_MESSAGE_SIZE = 256; // which is big enough to receive the messages that are being sent.
-    public static final int HEADER_SIZE = 16;
-    public static final int RTT = 3000; // which is the mean RTT as calculated over a stable network.
-    public static final int TIMEOUT = 2*RTT; // which is the default time-out time.
+    public static final int HEADER_SIZE = 16; // which is the size of a header of version 1.
+    public static final int HEADER_SIZE_V2 = 36; // which is the size of a header of version 2.
+    public static final int MAX_HEADER_SIZE = HEADER_SIZE_V2;
+
+//          --- HEADER VERSIONS ---
+    // version 1 has a 32-bit file size and is used by older clients. Version 2 adds a 64-bit file size, the 64-bit
+    // offset of the data of the packet in the file and 32 bits for options. The version is stored in the two highest
+    // bits of the flag field (which are 0 in a header of version 1), and the server answers in the version of the
+    // request.
+    public static final int HEADER_VERSION_1 = 1;
+    public static final int HEADER_VERSION_2 = 2;
+    public static final int CURRENT_HEADER_VERSION = HEADER_VERSION_2;
+    static final int VERSION_SHIFT = 14;
+    static final int VERSION_MASK = 0xc000;
+
+//          --- OPTIONS (only in version 2) ---
+    // the client asks for options in its request and the server responds with the options it accepts. Data packets of
+    // a connection that uses OPTION_CRC32C carry this option as well, and end with a CRC32C over the header and payload.
+    // A connection that uses OPTION_CHUNK_REPAIR sends only the chunks of a file that differ if the digest of the total
+    // file is incorrect (see ChunkRepairProtocol). OPTION_BATCH is only asked for in an upload or download request of a
+    // batch of files, which are then transferred in the same session (see BatchProtocol). The receiver of a connection
+    // that uses OPTION_SACK acknowledges the data packets with selective acknowledgements, which carry this option too.
+    // The sender of a connection that uses OPTION_COMPRESSION compresses the payload of every data packet on its own (see
+    // FragmentCompressor); a data packet of which the payload is compressed carries OPTION_COMPRESSED as well. A client
+    // that uses OPTION_DEDUPLICATION uploads only the chunks of a file that the server does not store yet (see
+    // DeduplicationProtocol and ChunkStore).
+    public static final int OPTION_CRC32C = 1;
+    public static final int OPTION_CHUNK_REPAIR = 2;
+    public static final int OPTION_BATCH = 4;
+    public static final int OPTION_SACK = 8;
+    public static final int OPTION_COMPRESSION = 0x1000;
+    public static final int OPTION_COMPRESSED = 0x2000;
+    public static final int OPTION_DEDUPLICATION = 0x4000;
+    public static final int SUPPORTED_OPTIONS = OPTION_CRC32C | OPTION_CHUNK_REPAIR | OPTION_BATCH | OPTION_SACK | OPTION_COMPRESSION | OPTION_DEDUPLICATION;
+    public static final int CRC32C_LENGTH = 4;
+    // a selective acknowledgement acknowledges all packets up to its acknowledgement number, and carries after the
+    // header ranges of packets that are received after a missing packet: for every range the sequence number of the
+    // first packet and the sequence number after the last packet. The ranges are followed by a CRC32C, and fit in a
+    // packet of PACKET_WITH_MESSAGE_SIZE:
+    public static final int SACK_RANGE_SIZE = 8;
+    public static final int MAX_SACK_RANGES = (PACKET_WITH_MESSAGE_SIZE - HEADER_SIZE_V2 - CRC32C_LENGTH) / SACK_RANGE_SIZE;
+    // bits 8 to 11 of the options carry the id of the algorithm of the digest of the total file (see DigestAlgorithm):
+    public static final int DIGEST_SHIFT = 8;
+    public static final int DIGEST_MASK = 0x0f00;
+    public static final int REQUESTED_OPTIONS = OPTION_CRC32C | OPTION_CHUNK_REPAIR | OPTION_SACK | OPTION_COMPRESSION | OPTION_DEDUPLICATION | (DigestAlgorithm.XXHASH64.getId() << DIGEST_SHIFT);
+    // if a file is transferred over several streams at the same time (see ParallelTransferProtocol), bits 16 to 23 of
+    // the options carry the index of the stream and bits 24 to 31 the number of streams. The server responds with the
+    // same bits, so the client knows that the server only sends or receives the range of the file of that stream:
+    public static final int STREAM_INDEX_SHIFT = 16;
+    public static final int STREAM_COUNT_SHIFT = 24;
+    public static final int STREAM_MASK = 0xffff0000;
+    // bits 4 to 6 of the options carry the fragment size of a connection: the index in FRAGMENT_SIZES of the size of its
+    // data packets (header, payload and CRC32C). The client asks for the size that it found by probing the path (see
+    // PathMtuProtocol) and the server responds with the same bits. A connection without a fragment size (index 0) uses
+    // packets of LEGACY_FRAGMENT_SIZE, as older clients do. The probes and their replies carry OPTION_PMTU_PROBE, which
+    // is never accepted as an option of a connection:
+    public static final int FRAGMENT_SIZE_SHIFT = 4;
+    public static final int FRAGMENT_SIZE_MASK = 0x70;
+    public static final int OPTION_PMTU_PROBE = 0x80;
+    static final int[] FRAGMENT_SIZES = {LEGACY_FRAGMENT_SIZE, MIN_FRAGMENT_SIZE, DEFAULT_FRAGMENT_SIZE, 4352 - IP_UDP_HEADER_SIZE,
+            9000 - IP_UDP_HEADER_SIZE, 16384 - IP_UDP_HEADER_SIZE, 32768 - IP_UDP_HEADER_SIZE, MAX_PACKET_SIZE};
+
+//          --- TIME-OUTS (in ms) ---
+    public static final int INITIAL_TIMEOUT = 1000; // which is used until the first round trip time is measured.
+    public static final int MIN_TIMEOUT = 50; // which prevents spurious retransmissions on very fast links.
+    public static final int MAX_TIMEOUT = 60000; // which limits the time-out after repeatedly doubling it.
 
 //          --- FLAGS ---
     public static final int ACK = 1;
@@ -32,10 +100,13 @@ public final class PacketProtocol {
     public static final int LAST = 1024;
     public static final int CHECK = 2048;
     public static final int INCORRECT = 4096;
+    // added to an UPLOAD or DOWNLOAD request (only in version 2) to continue an interrupted transfer. The offset field of
+    // the request (download) or of the response (upload) carries the length of the data that the receiver already has:
+    public static final int RESUME = 8192;
 
     /**
-     * Create a header for the datagram packet to be able to use sequence numbers and acknowledgements for checking
-     * packets, flags for the correct statement and checksum to check for correct data transmission.
+     * Create a header (of version 1) for the datagram packet to be able to use sequence numbers and acknowledgements for
+     * checking packets, flags for the correct statement and checksum to check for correct data transmission.
      *
      * @param totalFileSize         is the total size of the actual file (without header) that needs to be transmitted.
      * @param sequenceNumber        is the sequence number of the packet.
@@ -45,35 +116,31 @@ public final class PacketProtocol {
      * @return the header of the packet.
      */
     public static byte[] createHeader(int totalFileSize, int sequenceNumber, int acknowledgementNumber, int flag, int payloadLength) {
-        byte[] header = new byte[HEADER_SIZE];
-        // four bytes for size of the total file (without header):
-        header[0] = (byte) (totalFileSize >> 24);
-        header[1] = (byte) ((totalFileSize >> 16) & 0xff);
-        header[2] = (byte) ((totalFileSize >> 8) & 0xff);
-        header[3] = (byte) (totalFileSize & 0xff);
-        // four bytes for the sequence number:
-        header[4] = (byte) (sequenceNumber >> 24);
-        header[5] = (byte) ((sequenceNumber >> 16) & 0xff);
-        header[6] = (byte) ((sequenceNumber >> 8) & 0xff);
-        header[7] = (byte) (sequenceNumber & 0xff);
-        // four bytes for the acknowledgement number:
-        header[8] = (byte) (acknowledgementNumber >> 24);
-        header[9] = (byte) ((acknowledgementNumber >> 16) & 0xff);
-        header[10] = (byte) ((acknowledgementNumber >> 8) & 0xff);
-        header[11] = (byte) (acknowledgementNumber & 0xff);
-        // two bytes for the flag(s):
-        header[12] = (byte) (flag >> 8); // room for 3 more flags if necessary
-        header[13] = (byte) (flag & 0xff);
-        // create a new byte array with all information that is needed for the checksum:
-        byte[] checksumInput = DataIntegrityProtocol.getChecksumInput(header, payloadLength);
-        // two bytes for checksum:
-        header[14] = (byte) (DataIntegrityProtocol.calculateChecksum(checksumInput) >> 8);
-        header[15] = (byte) (DataIntegrityProtocol.calculateChecksum(checksumInput) & 0xff);
+        return createHeader(HEADER_VERSION_1, totalFileSize, 0, sequenceNumber, acknowledgementNumber, flag, 0, payloadLength);
+    }
+
+    /**
+     * Create a header of the given version for the datagram packet.
+     *
+     * @param headerVersion         is the version of the header.
+     * @param totalFileSize         is the total size of the actual file (without header) that needs to be transmitted.
+     * @param offset                is the position in the file of the data this packet carries (only in version 2).
+     * @param sequenceNumber        is the sequence number of the packet.
+     * @param acknowledgementNumber is acknowledgement number of the packet (= sequence number of received packet).
+     * @param flag                  is the flag that this packet carries.
+     * @param options               is the options field of the packet (only in version 2).
+     * @param payloadLength         is the length of the data this packet carries.
+     * @return the header of the packet.
+     * @throws IllegalArgumentException if the file size does not fit in a header of version 1.
+     */
+    public static byte[] createHeader(int headerVersion, long totalFileSize, long offset, int sequenceNumber, int acknowledgementNumber, int flag, int options, int payloadLength) {
+        byte[] header = new byte[getHeaderSize(headerVersion)];
+        PacketCodec.encodeHeader(ByteBuffer.wrap(header), headerVersion, totalFileSize, offset, sequenceNumber, acknowledgementNumber, flag, options, payloadLength);
         return header;
     }
 
     /**
-     * Create a new byte array in which the header and actual data to be sent are combined.
+     * Create a new byte array in which the header (of version 1) and actual data to be sent are combined.
      *
      * @param totalFileSize  is the size of the total file that needs to be transmitted.
      * @param sequenceNumber is the sequence number of the packet.
@@ -83,16 +150,71 @@ public final class PacketProtocol {
      * @return the total packet with header.
      */
     public static byte[] createPacketWithHeader(int totalFileSize, int sequenceNumber, int ackNumber, int flag, byte[] fileData) {
-        int totalPacketSize = HEADER_SIZE + fileData.length;
-        byte[] header = createHeader(totalFileSize, sequenceNumber, ackNumber, flag, fileData.length);
-        byte[] totalPacket = new byte[totalPacketSize];
+        return createPacketWithHeader(HEADER_VERSION_1, totalFileSize, 0, sequenceNumber, ackNumber, flag, 0, fileData);
+    }
+
+    /**
+     * Create a new byte array in which the header of the version (and with the options) that is used by the connection
+     * and actual data to be sent are combined.
+     *
+     * @param context        is the context of the connection, which holds the header version and options.
+     * @param totalFileSize  is the size of the total file that needs to be transmitted.
+     * @param offset         is the position in the file of the data this packet carries.
+     * @param sequenceNumber is the sequence number of the packet.
+     * @param ackNumber      is the acknowledgement number of the packet.
+     * @param flag           is the flag that this packet carries.
+     * @param fileData       is the byte representation of the actual data this packet carries.
+     * @return the total packet with header.
+     */
+    public static byte[] createPacketWithHeader(TransferContext context, long totalFileSize, long offset, int sequenceNumber, int ackNumber, int flag, byte[] fileData) {
+        return createPacketWithHeader(context.getHeaderVersion(), totalFileSize, offset, sequenceNumber, ackNumber, flag, context.getOptions(), fileData);
+    }
+
+    /**
+     * Create a new byte array in which the header of the given version and actual data to be sent are combined.
+     *
+     * @param headerVersion  is the version of the header.
+     * @param totalFileSize  is the size of the total file that needs to be transmitted.
+     * @param offset         is the position in the file of the data this packet carries.
+     * @param sequenceNumber is the sequence number of the packet.
+     * @param ackNumber      is the acknowledgement number of the packet.
+     * @param flag           is the flag that this packet carries.
+     * @param options        is the options field of the packet (only in version 2).
+     * @param fileData       is the byte representation of the actual data this packet carries.
+     * @return the total packet with header.
+     */
+    public static byte[] createPacketWithHeader(int headerVersion, long totalFileSize, long offset, int sequenceNumber, int ackNumber, int flag, int options, byte[] fileData) {
+        byte[] header = createHeader(headerVersion, totalFileSize, offset, sequenceNumber, ackNumber, flag, options, fileData.length);
+        byte[] totalPacket = new byte[header.length + fileData.length];
         // copy header into total packet:
-        System.arraycopy(header, 0, totalPacket, 0, HEADER_SIZE);
+        System.arraycopy(header, 0, totalPacket, 0, header.length);
         // copy data of file into total packet:
-        System.arraycopy(fileData, 0, totalPacket, HEADER_SIZE, (totalPacketSize - HEADER_SIZE));
+        System.arraycopy(fileData, 0, totalPacket, header.length, fileData.length);
         return totalPacket;
     }
 
+    /**
+     * Read four bytes in big-endian order.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @param position         is the position of the first byte.
+     * @return the value that is read.
+     */
+    private static int getInt(byte[] packetWithHeader, int position) {
+        return (((packetWithHeader[position] & 0xff) << 24) | ((packetWithHeader[position + 1] & 0xff) << 16) | ((packetWithHeader[position + 2] & 0xff) << 8) | (packetWithHeader[position + 3] & 0xff));
+    }
+
+    /**
+     * Read eight bytes in big-endian order.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @param position         is the position of the first byte.
+     * @return the value that is read.
+     */
+    private static long getLong(byte[] packetWithHeader, int position) {
+        return ((long) getInt(packetWithHeader, position) << 32) | (getInt(packetWithHeader, position + 4) & 0xffffffffL);
+    }
+
     /**
      * Generate random sequence number as every sequence of transmissions starts with a random, unique sequence number
      * and counts up from that point.
@@ -109,14 +231,292 @@ public final class PacketProtocol {
 
 //          --- GETTERS ---
 
+    /**
+     * Get the version of the header.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @return the version of the header.
+     */
+    public static int getHeaderVersion(byte[] packetWithHeader) {
+        return ((packetWithHeader[12] & 0xff) >> (VERSION_SHIFT - 8)) + 1;
+    }
+
+    /**
+     * Get the size of a header of the given version.
+     *
+     * @param headerVersion is the version of the header.
+     * @return the size of the header.
+     */
+    public static int getHeaderSize(int headerVersion) {
+        return (headerVersion == HEADER_VERSION_2) ? HEADER_SIZE_V2 : HEADER_SIZE;
+    }
+
+    /**
+     * Get the size of the header of a packet (which is the position at which the data of the packet starts).
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @return the size of the header.
+     */
+    public static int getHeaderSize(byte[] packetWithHeader) {
+        return getHeaderSize(getHeaderVersion(packetWithHeader));
+    }
+
     /**
      * Get the information on total file size from the header.
      *
      * @param packetWithHeader is the packet that includes the header.
      * @return the total file size.
      */
-    public static int getFileSizeInPacket(byte[] packetWithHeader) {
-        return (((packetWithHeader[0] & 0xff) << 24) | ((packetWithHeader[1] & 0xff) << 16) | ((packetWithHeader[2] & 0xff) << 8) | (packetWithHeader[3] & 0xff));
+    public static long getFileSizeInPacket(byte[] packetWithHeader) {
+        if (getHeaderVersion(packetWithHeader) == HEADER_VERSION_2) {
+            return getLong(packetWithHeader, 16);
+        }
+        return getInt(packetWithHeader, 0);
+    }
+
+    /**
+     * Get the position in the file of the data that the packet carries from the header.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @return the offset, or -1 if the header (of version 1) does not carry the offset.
+     */
+    public static long getOffset(byte[] packetWithHeader) {
+        if (getHeaderVersion(packetWithHeader) == HEADER_VERSION_2) {
+            return getLong(packetWithHeader, 24);
+        }
+        return -1;
+    }
+
+    /**
+     * Get the options from the header.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @return the options, or 0 if the header (of version 1) does not carry options.
+     */
+    public static int getOptions(byte[] packetWithHeader) {
+        if (getHeaderVersion(packetWithHeader) == HEADER_VERSION_2) {
+            return getInt(packetWithHeader, 32);
+        }
+        return 0;
+    }
+
+    /**
+     * Get the options of a request that the server accepts: the supported options, and the digest algorithm if the
+     * server knows it (otherwise, the 16-bit checksum is used).
+     *
+     * @param requestedOptions is the options in the request of the client.
+     * @return the accepted options.
+     */
+    public static int acceptOptions(int requestedOptions) {
+        int acceptedOptions = requestedOptions & SUPPORTED_OPTIONS;
+        if (DigestAlgorithm.fromId((requestedOptions & DIGEST_MASK) >>> DIGEST_SHIFT) != null) {
+            acceptedOptions = acceptedOptions | (requestedOptions & DIGEST_MASK);
+        }
+        if (getNumberOfStreams(requestedOptions) > 1 && getStreamIndex(requestedOptions) < getNumberOfStreams(requestedOptions)) {
+            acceptedOptions = acceptedOptions | (requestedOptions & STREAM_MASK);
+        }
+        // every fragment size fits in the packet buffers of the server, so the size that the client probed is accepted:
+        acceptedOptions = acceptedOptions | (requestedOptions & FRAGMENT_SIZE_MASK);
+        return acceptedOptions;
+    }
+
+    /**
+     * Add the stream of a file that is transferred over several streams to the options of a request.
+     *
+     * @param options         is the options of the request.
+     * @param streamIndex     is the index of the stream (starting at 0).
+     * @param numberOfStreams is the number of streams over which the file is transferred.
+     * @return the options including the stream.
+     */
+    public static int addStream(int options, int streamIndex, int numberOfStreams) {
+        return (options & ~STREAM_MASK) | (streamIndex << STREAM_INDEX_SHIFT) | (numberOfStreams << STREAM_COUNT_SHIFT);
+    }
+
+    /**
+     * Get the index of the stream that a connection carries, if the file is transferred over several streams.
+     *
+     * @param options is the options that are used by the connection.
+     * @return the index of the stream (starting at 0).
+     */
+    public static int getStreamIndex(int options) {
+        return (options >>> STREAM_INDEX_SHIFT) & 0xff;
+    }
+
+    /**
+     * Get the number of streams over which the file of a connection is transferred.
+     *
+     * @param options is the options that are used by the connection.
+     * @return the number of streams, which is 1 if the file is transferred over this connection only.
+     */
+    public static int getNumberOfStreams(int options) {
+        return Math.max(1, options >>> STREAM_COUNT_SHIFT);
+    }
+
+    /**
+     * Add the fragment size of a connection to the options of a request. The largest size of FRAGMENT_SIZES that is not
+     * larger than the given size is used (but at least MIN_FRAGMENT_SIZE).
+     *
+     * @param options      is the options of the request.
+     * @param fragmentSize is the largest size of a packet that the path carries, such as the result of a probe.
+     * @return the options including the fragment size.
+     */
+    public static int addFragmentSize(int options, int fragmentSize) {
+        int index = 1;
+        for (int i = 2; i < FRAGMENT_SIZES.length; i++) {
+            if (FRAGMENT_SIZES[i] <= fragmentSize) {
+                index = i;
+            }
+        }
+        return (options & ~FRAGMENT_SIZE_MASK) | (index << FRAGMENT_SIZE_SHIFT);
+    }
+
+    /**
+     * Get the size of the data packets (header, payload and CRC32C) of a connection.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return the fragment size, which is LEGACY_FRAGMENT_SIZE if the connection did not agree on a fragment size.
+     */
+    public static int getFragmentSize(int headerVersion, int options) {
+        if (headerVersion != HEADER_VERSION_2) {
+            return LEGACY_FRAGMENT_SIZE;
+        }
+        return FRAGMENT_SIZES[(options & FRAGMENT_SIZE_MASK) >>> FRAGMENT_SIZE_SHIFT];
+    }
+
+    /**
+     * Get the algorithm of the digest of the total file that a connection uses.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return the algorithm, which is the 16-bit checksum if the connection did not agree on an algorithm.
+     */
+    public static DigestAlgorithm getDigestAlgorithm(int headerVersion, int options) {
+        DigestAlgorithm algorithm = DigestAlgorithm.fromId((options & DIGEST_MASK) >>> DIGEST_SHIFT);
+        if (headerVersion != HEADER_VERSION_2 || algorithm == null) {
+            return DigestAlgorithm.CHECKSUM;
+        }
+        return algorithm;
+    }
+
+    /**
+     * Check whether the data packets of a connection end with a CRC32C over the header and payload.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return true if the data packets carry a CRC32C, false if not.
+     */
+    public static boolean isCrc32cUsed(int headerVersion, int options) {
+        return headerVersion == HEADER_VERSION_2 && (options & OPTION_CRC32C) != 0;
+    }
+
+    /**
+     * Check whether a connection repairs only the chunks of a file that differ if the digest of the total file is
+     * incorrect, instead of failing the transfer.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return true if the connection repairs chunks, false if not.
+     */
+    public static boolean isChunkRepairUsed(int headerVersion, int options) {
+        return headerVersion == HEADER_VERSION_2 && (options & OPTION_CHUNK_REPAIR) != 0;
+    }
+
+    /**
+     * Check whether an upload or download request is a request for a batch of files instead of a single file.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return true if a batch of files is transferred, false if not.
+     */
+    public static boolean isBatchUsed(int headerVersion, int options) {
+        return headerVersion == HEADER_VERSION_2 && (options & OPTION_BATCH) != 0;
+    }
+
+    /**
+     * Check whether the receiver of a connection acknowledges the data packets with selective acknowledgements.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return true if selective acknowledgements are used, false if every packet is acknowledged separately.
+     */
+    public static boolean isSackUsed(int headerVersion, int options) {
+        return headerVersion == HEADER_VERSION_2 && (options & OPTION_SACK) != 0;
+    }
+
+    /**
+     * Check whether the sender of a connection compresses the payload of the data packets.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return true if the data packets can be compressed, false if they are always sent as is.
+     */
+    public static boolean isCompressionUsed(int headerVersion, int options) {
+        return headerVersion == HEADER_VERSION_2 && (options & OPTION_COMPRESSION) != 0;
+    }
+
+    /**
+     * Check whether a connection uploads files to the chunk store of the server.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return true if only the chunks that the server does not have yet are uploaded, false if the total file is.
+     */
+    public static boolean isDeduplicationUsed(int headerVersion, int options) {
+        return headerVersion == HEADER_VERSION_2 && (options & OPTION_DEDUPLICATION) != 0;
+    }
+
+    /**
+     * Check whether the payload of a data packet is compressed.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @return true if the payload is compressed, false if not.
+     */
+    public static boolean isCompressed(byte[] packetWithHeader) {
+        return (getOptions(packetWithHeader) & OPTION_COMPRESSED) != 0;
+    }
+
+    /**
+     * Check whether a packet is a selective acknowledgement.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @return true if the packet is a selective acknowledgement, false if not.
+     */
+    public static boolean isSelectiveAcknowledgement(byte[] packetWithHeader) {
+        return getFlag(packetWithHeader) == ACK && (getOptions(packetWithHeader) & OPTION_SACK) != 0;
+    }
+
+    /**
+     * Get the number of ranges that a selective acknowledgement carries.
+     *
+     * @param packetWithHeader is the selective acknowledgement.
+     * @param packetLength     is the length of the selective acknowledgement, including the CRC32C.
+     * @return the number of ranges.
+     */
+    public static int getNumberOfSackRanges(byte[] packetWithHeader, int packetLength) {
+        return Math.max(0, Math.min(MAX_SACK_RANGES, (packetLength - HEADER_SIZE_V2 - CRC32C_LENGTH) / SACK_RANGE_SIZE));
+    }
+
+    /**
+     * Get the sequence number of the first packet of a range in a selective acknowledgement.
+     *
+     * @param packetWithHeader is the selective acknowledgement.
+     * @param rangeIndex       is the index of the range (starting at 0).
+     * @return the sequence number of the first packet in the range.
+     */
+    public static int getSackRangeStart(byte[] packetWithHeader, int rangeIndex) {
+        return getInt(packetWithHeader, HEADER_SIZE_V2 + rangeIndex * SACK_RANGE_SIZE);
+    }
+
+    /**
+     * Get the sequence number after the last packet of a range in a selective acknowledgement.
+     *
+     * @param packetWithHeader is the selective acknowledgement.
+     * @param rangeIndex       is the index of the range (starting at 0).
+     * @return the sequence number after the last packet in the range.
+     */
+    public static int getSackRangeEnd(byte[] packetWithHeader, int rangeIndex) {
+        return getInt(packetWithHeader, HEADER_SIZE_V2 + rangeIndex * SACK_RANGE_SIZE + 4);
     }
 
     /**
@@ -126,7 +526,7 @@ public final class PacketProtocol {
      * @return the sequence number.
      */
     public static int getSequenceNumber(byte[] packetWithHeader) {
-        return (((packetWithHeader[4] & 0xff) << 24) | ((packetWithHeader[5] & 0xff) << 16) | ((packetWithHeader[6] & 0xff) << 8) | (packetWithHeader[7] & 0xff));
+        return getInt(packetWithHeader, 4);
     }
 
     /**
@@ -136,17 +536,37 @@ public final class PacketProtocol {
      * @return the acknowledgement number.
      */
     public static int getAcknowledgementNumber(byte[] packetWithHeader) {
-        return (((packetWithHeader[8] & 0xff) << 24) | ((packetWithHeader[9] & 0xff) << 16) | ((packetWithHeader[10] & 0xff) << 8) | (packetWithHeader[11] & 0xff));
+        return getInt(packetWithHeader, 8);
     }
 
     /**
      * Get the information on the flags that are set from the header.
      *
      * @param packetWithHeader is the packet that includes the header.
-     * @return the flag(s) that is/are set.
+     * @return the flag(s) that is/are set (without the bits of the header version).
      */
     public static int getFlag(byte[] packetWithHeader) {
-        return (((packetWithHeader[12] & 0xff) << 8) | (packetWithHeader[13] & 0xff));
+        return (((packetWithHeader[12] & 0xff) << 8) | (packetWithHeader[13] & 0xff)) & ~VERSION_MASK;
+    }
+
+    /**
+     * Get the flag of a request from the header, without the RESUME flag that an UPLOAD or DOWNLOAD request can carry.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @return the flag of the request.
+     */
+    public static int getRequestFlag(byte[] packetWithHeader) {
+        return getFlag(packetWithHeader) & ~RESUME;
+    }
+
+    /**
+     * Check whether a request (of version 2) asks to continue an interrupted transfer.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @return true if the request carries the RESUME flag, false if not.
+     */
+    public static boolean isResumeRequested(byte[] packetWithHeader) {
+        return getHeaderVersion(packetWithHeader) == HEADER_VERSION_2 && (getFlag(packetWithHeader) & RESUME) != 0;
     }
 
     /**
@@ -0,0 +1,74 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketException;
+
+/**
+ * Represents a socket via which the packets of a single connection between client and server are sent and received.
+ * The protocols only depend on this interface, so the same protocol code can run on a plain UDP socket (client) and on a
+ * session of the server, which shares one UDP socket between all connected clients.
+ */
+public interface PacketSocket {
+
+    /**
+     * Send a packet to the address and port that are set in the packet.
+     *
+     * @param packet is the packet to send.
+     * @throws IOException if the packet could not be sent.
+     */
+    void send(DatagramPacket packet) throws IOException;
+
+    /**
+     * Receive a packet. Blocks until a packet is received or the time-out (if set) expires.
+     *
+     * @param packet is the packet in which the received data, length, address and port are stored.
+     * @throws java.net.SocketTimeoutException if the time-out expired before a packet was received.
+     * @throws IOException                     if no packet could be received (for example as the socket is closed).
+     */
+    void receive(DatagramPacket packet) throws IOException;
+
+    /**
+     * Receive a packet only if one is already waiting, without blocking. This lets a protocol handle all packets that
+     * arrived at once before it responds. A socket that cannot check this without blocking always returns false, so the
+     * protocol then receives every packet with receive.
+     *
+     * @param packet is the packet in which the received data, length, address and port are stored.
+     * @return true if a packet is received, false if no packet was waiting.
+     * @throws IOException if no packet could be received (for example as the socket is closed).
+     */
+    default boolean receiveIfAvailable(DatagramPacket packet) throws IOException {
+        return false;
+    }
+
+    /**
+     * Check whether the operating system is asked not to fragment the packets that are sent via this socket (the DF bit
+     * is set). If not, a packet that is larger than the MTU of the path is fragmented instead of dropped, so probing
+     * the path MTU cannot tell whether a larger packet fits.
+     *
+     * @return true if the packets are not fragmented, false if they can be.
+     */
+    default boolean isDontFragmentSet() {
+        return false;
+    }
+
+    /**
+     * Set the time-out for receiving packets.
+     *
+     * @param timeout is the time-out in ms, or 0 to wait without time-out.
+     * @throws SocketException if the time-out could not be set.
+     */
+    void setSoTimeout(int timeout) throws SocketException;
+
+    /**
+     * Check whether the socket is closed.
+     *
+     * @return true if the socket is closed, false if not.
+     */
+    boolean isClosed();
+
+    /**
+     * Close the socket. Any thread that is waiting to receive a packet stops waiting.
+     */
+    void close();
+}
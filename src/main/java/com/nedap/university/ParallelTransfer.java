@@ -0,0 +1,126 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents a file that is received over several streams at the same time (see ParallelTransferProtocol). The streams
+ * are handled by threads of their own, which share the file to which they write their range and the statistics of the
+ * total file. The first stream that starts creates the file; the last stream that finishes stores the file under its
+ * actual name if the ranges of all streams are correct, or removes it if not. If a stream never starts (as its request
+ * is lost or the other side is gone), the transfer expires once no stream is active for a time-out, and the file is
+ * removed as well.
+ */
+public class ParallelTransfer {
+    private final String filePath;
+    private final String fileName;
+    private final int numberOfStreams;
+    private final StatisticsProtocol totalStatistics = new StatisticsProtocol();
+    private FileFragmentSink file;
+    private int numberOfStartedStreams;
+    private int numberOfFinishedStreams;
+    private long lastActivity = System.nanoTime();
+    private boolean areAllRangesCorrect = true;
+    private boolean isStored;
+
+    /**
+     * Create a file that is received over several streams.
+     *
+     * @param filePath        is the path where the received file needs to be stored.
+     * @param fileName        is the name of the received file.
+     * @param numberOfStreams is the number of streams over which the file is received.
+     */
+    public ParallelTransfer(String filePath, String fileName, int numberOfStreams) {
+        this.filePath = filePath;
+        this.fileName = fileName;
+        this.numberOfStreams = numberOfStreams;
+    }
+
+    /**
+     * Get the file to which a stream writes its range, which is created by the first stream.
+     *
+     * @param totalFileSize is the total size of the file.
+     * @return the file, or null if it could not be created, all streams already finished or the size differs from the
+     * size of the file that the other streams write to.
+     */
+    public synchronized FileFragmentSink open(long totalFileSize) {
+        numberOfStartedStreams++;
+        lastActivity = System.nanoTime();
+        if (numberOfFinishedStreams == numberOfStreams) {
+            return null;
+        }
+        if (file == null) {
+            file = FileProtocol.createFileToReceive(filePath, fileName, totalFileSize);
+            totalStatistics.startProgress(totalFileSize);
+        }
+        if (file == null || file.getSize() != totalFileSize) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Get the statistics of the total file, to which every stream adds its progress.
+     *
+     * @return the statistics.
+     */
+    public StatisticsProtocol getTotalStatistics() {
+        return totalStatistics;
+    }
+
+    /**
+     * Mark a stream as finished. If it is the last stream, store the file under its actual name if the ranges of all
+     * streams are correct, and remove it if not.
+     *
+     * @param isRangeCorrect is true if the range of the stream is received and its digest was correct, false if not.
+     * @return true if this was the last stream, false if other streams are still busy.
+     */
+    public synchronized boolean finishStream(boolean isRangeCorrect) {
+        areAllRangesCorrect = areAllRangesCorrect && isRangeCorrect;
+        numberOfFinishedStreams++;
+        lastActivity = System.nanoTime();
+        if (numberOfFinishedStreams < numberOfStreams) {
+            return false;
+        }
+        if (file != null) {
+            try (FileFragmentSink receivedFile = file) {
+                if (areAllRangesCorrect) {
+                    receivedFile.commit();
+                    isStored = true;
+                }
+            } catch (IOException e) {
+                System.out.println("Could not store " + fileName + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Expire the transfer if none of its streams is active and the last stream started or finished longer than the
+     * time-out ago, as the streams that did not start yet will not come anymore. The file is removed, and a stream that
+     * starts after all cannot open it.
+     *
+     * @param timeout is the time-out in ms.
+     * @return true if the transfer is expired, false if it is still busy (or already finished).
+     */
+    public synchronized boolean expire(long timeout) {
+        if (numberOfFinishedStreams == numberOfStreams || numberOfStartedStreams > numberOfFinishedStreams
+                || System.nanoTime() - lastActivity <= TimeUnit.MILLISECONDS.toNanos(timeout)) {
+            return false;
+        }
+        numberOfFinishedStreams = numberOfStreams;
+        if (file != null) {
+            file.abort();
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the file is received completely over all streams and stored under its actual name.
+     *
+     * @return true if the file is stored, false if not (yet).
+     */
+    public synchronized boolean isStored() {
+        return isStored;
+    }
+}
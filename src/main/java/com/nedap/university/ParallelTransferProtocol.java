@@ -0,0 +1,106 @@
+package com.nedap.university;
+
+/**
+ * Represents the protocol for transferring one file over several streams at the same time, as a single stream (handled
+ * by one thread) does not use all of the link and of the cores. The file is divided in as many ranges as there are
+ * streams, and every stream is a connection of its own (with its own socket, and therefore its own session on the
+ * server) that transfers one range as if it is a file of its own:
+ * 1. the stream sends the usual request, with its index and the number of streams in the options (see PacketProtocol);
+ * 2. the other side responds with the usual acknowledgement, including the same options if it accepts the stream;
+ * 3. the range is sent (using the Selective Repeat protocol), followed by the digest of that range.
+ * The receiver writes the ranges of all streams to the same file, each at its own position, and only stores the file
+ * under its actual name once the digests of all ranges are correct (see ParallelTransfer).
+ */
+public final class ParallelTransferProtocol {
+    public static final int MAX_STREAMS = 16;
+
+
+//          --- RANGES ---
+
+    /**
+     * Get the position in the file at which the range of a stream starts. The ranges differ at most one byte in length.
+     *
+     * @param totalFileSize   is the total size of the file.
+     * @param numberOfStreams is the number of streams over which the file is transferred.
+     * @param streamIndex     is the index of the stream (starting at 0).
+     * @return the position at which the range starts.
+     */
+    public static long getRangeOffset(long totalFileSize, int numberOfStreams, int streamIndex) {
+        return ((totalFileSize / numberOfStreams) * streamIndex) + Math.min(streamIndex, totalFileSize % numberOfStreams);
+    }
+
+    /**
+     * Get the length of the range of a stream.
+     *
+     * @param totalFileSize   is the total size of the file.
+     * @param numberOfStreams is the number of streams over which the file is transferred.
+     * @param streamIndex     is the index of the stream (starting at 0).
+     * @return the length of the range in bytes.
+     */
+    public static long getRangeLength(long totalFileSize, int numberOfStreams, int streamIndex) {
+        return getRangeOffset(totalFileSize, numberOfStreams, streamIndex + 1) - getRangeOffset(totalFileSize, numberOfStreams, streamIndex);
+    }
+
+    /**
+     * Create the range of the file that a connection transfers, based on the stream in its options.
+     *
+     * @param file     is the data of the file.
+     * @param fileSink is the destination of the file, or null if the range is only read.
+     * @param options  is the options that are used by the connection.
+     * @return the range of the stream.
+     */
+    public static FragmentRange createRange(FragmentSource file, FragmentSink fileSink, int options) {
+        int numberOfStreams = PacketProtocol.getNumberOfStreams(options);
+        int streamIndex = PacketProtocol.getStreamIndex(options);
+        long offset = getRangeOffset(file.getSize(), numberOfStreams, streamIndex);
+        return new FragmentRange(file, fileSink, offset, getRangeLength(file.getSize(), numberOfStreams, streamIndex));
+    }
+
+
+//          --- SENDER ---
+
+    /**
+     * Send the range of the file of a stream, followed by the digest of the range.
+     *
+     * @param context           is the context of the connection of the stream.
+     * @param file              is the source from which the data of the file is read.
+     * @param lastReceivedSeqNr is the last sequence number received from the other side.
+     * @param lastReceivedAckNr is the last acknowledgement number received from the other side.
+     * @param totalStatistics   is the statistics of the total file to which the progress of the stream is added, or
+     *                          null if the stream shows its own progress.
+     * @return true if the other side received the range and its digest was correct, false if not.
+     */
+    public static boolean sendRange(TransferContext context, FragmentSource file, int lastReceivedSeqNr, int lastReceivedAckNr, StatisticsProtocol totalStatistics) {
+        FragmentRange range = createRange(file, null, context.getOptions());
+        FileDigest digest = context.createFileDigest();
+        context.getStatistics().setTotalStatistics(totalStatistics);
+        boolean isSent = SelectiveRepeatProtocol.sendFile(range, lastReceivedSeqNr, lastReceivedAckNr, context, SelectiveRepeatProtocol.DEFAULT_WINDOW_SIZE, digest);
+        context.getStatistics().setTotalStatistics(null);
+        return isSent && ChunkRepairProtocol.sendDigestAndRepair(context, range, digest);
+    }
+
+
+//          --- RECEIVER ---
+
+    /**
+     * Receive the range of the file of a stream and write it at its position in the file, followed by the digest of
+     * the range.
+     *
+     * @param <S>               is the type of the received file, from which the received data can also be read.
+     * @param context           is the context of the connection of the stream.
+     * @param file              is the file to which the ranges of all streams are written.
+     * @param lastReceivedSeqNr is the last sequence number received from the sender (the first packet of the range has
+     *                          the next sequence number).
+     * @param totalStatistics   is the statistics of the total file to which the progress of the stream is added, or
+     *                          null if the stream shows its own progress.
+     * @return true if the range is received and its digest was correct, false if not.
+     */
+    public static <S extends FragmentSink & FragmentSource> boolean receiveRange(TransferContext context, S file, int lastReceivedSeqNr, StatisticsProtocol totalStatistics) {
+        FragmentRange range = createRange(file, file, context.getOptions());
+        FileDigest digest = context.createFileDigest();
+        context.getStatistics().setTotalStatistics(totalStatistics);
+        boolean isReceived = SelectiveRepeatProtocol.receiveFile(context, range.getSize(), lastReceivedSeqNr, range, digest);
+        context.getStatistics().setTotalStatistics(null);
+        return isReceived && ChunkRepairProtocol.receiveDigestAndRepair(context, range, digest);
+    }
+}
@@ -0,0 +1,121 @@
+package com.nedap.university;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Represents the metadata of a file that is not received completely, so an interrupted transfer can be continued
+ * instead of starting over. The received data itself is kept in the partial file of the destination (see
+ * FileFragmentSink); the metadata is stored next to it and holds the total size of the file and the length of the data
+ * that is received without gaps from the start of the file.
+ */
+public class PartialTransfer {
+    private static final int METADATA_LENGTH = 16;
+    private final long size;
+    private final long receivedLength;
+
+    /**
+     * Create the metadata of a partial transfer.
+     *
+     * @param size           is the total size of the file.
+     * @param receivedLength is the length of the data that is received without gaps from the start of the file.
+     */
+    public PartialTransfer(long size, long receivedLength) {
+        this.size = size;
+        this.receivedLength = receivedLength;
+    }
+
+    /**
+     * Get the total size of the file.
+     *
+     * @return the size in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the length of the data that is received without gaps from the start of the file, which is the offset from
+     * which the transfer can be continued.
+     *
+     * @return the received length in bytes.
+     */
+    public long getReceivedLength() {
+        return receivedLength;
+    }
+
+    /**
+     * Get the file in which the received data of a destination is kept until it is received completely. The name
+     * starts with a dot and ends with the partial file extension, so it is not listed as a stored file.
+     *
+     * @param destination is the file in which the received data should eventually be stored.
+     * @return the partial file.
+     */
+    public static Path getPartialFile(File destination) {
+        return destination.toPath().toAbsolutePath().resolveSibling("." + destination.getName() + FileProtocol.PARTIAL_FILE_EXTENSION);
+    }
+
+    /**
+     * Get the file in which the metadata of the partial transfer of a destination is stored.
+     *
+     * @param destination is the file in which the received data should eventually be stored.
+     * @return the metadata file.
+     */
+    public static Path getMetadataFile(File destination) {
+        return destination.toPath().toAbsolutePath().resolveSibling("." + destination.getName() + FileProtocol.RESUME_FILE_EXTENSION);
+    }
+
+    /**
+     * Read the metadata of the partial transfer of a destination.
+     *
+     * @param destination is the file in which the received data should eventually be stored.
+     * @return the metadata, or null if there is no (readable) partial transfer of this destination.
+     */
+    public static PartialTransfer read(File destination) {
+        Path metadataFile = getMetadataFile(destination);
+        if (!Files.isRegularFile(metadataFile) || !Files.isRegularFile(getPartialFile(destination))) {
+            return null;
+        }
+        try {
+            byte[] metadata = Files.readAllBytes(metadataFile);
+            if (metadata.length != METADATA_LENGTH) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(metadata);
+            long size = buffer.getLong();
+            long receivedLength = buffer.getLong();
+            if (size < 0 || receivedLength < 0 || receivedLength > size) {
+                return null;
+            }
+            return new PartialTransfer(size, receivedLength);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Store the metadata of the partial transfer of a destination, replacing the metadata that was stored before.
+     *
+     * @param destination is the file in which the received data should eventually be stored.
+     * @throws IOException if the metadata could not be written.
+     */
+    public void write(File destination) throws IOException {
+        ByteBuffer metadata = ByteBuffer.allocate(METADATA_LENGTH);
+        metadata.putLong(size);
+        metadata.putLong(receivedLength);
+        Files.write(getMetadataFile(destination), metadata.array());
+    }
+
+    /**
+     * Remove the metadata of the partial transfer of a destination, as the transfer is finished.
+     *
+     * @param destination is the file in which the received data should eventually be stored.
+     * @throws IOException if the metadata could not be removed.
+     */
+    public static void delete(File destination) throws IOException {
+        Files.deleteIfExists(getMetadataFile(destination));
+    }
+}
@@ -0,0 +1,171 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the protocol for probing the largest packet that the path between the client and the server carries (the
+ * Path MTU), so a connection can use the largest fragment size that is not fragmented by IP. The client sends probes of
+ * increasing size (the sizes of PacketProtocol.FRAGMENT_SIZES, up to the maximum for the destination) and the server
+ * answers every probe that arrives whole with a reply of the same size, so the path is confirmed in both directions. A
+ * probe is only counted as lost after PROBE_ATTEMPTS attempts, after which the client falls back to the largest size
+ * that was confirmed. The sockets of the client ask the operating system not to fragment packets (where Java supports
+ * it), so a probe that does not fit is dropped like it would be with the DF bit set. Without the DF bit, a probe that
+ * is larger than the MTU is fragmented and still answered, so the probes then stop at DEFAULT_FRAGMENT_SIZE.
+ */
+public class PathMtuProtocol {
+    public static final int PROBE_ATTEMPTS = 2; // the number of times a probe is sent before its size counts as lost.
+    public static final int MAX_FRAGMENT_SIZE = 9000 - PacketProtocol.IP_UDP_HEADER_SIZE; // which fits in jumbo frames.
+
+    /**
+     * Get the largest fragment size that is probed for a destination: datagrams of up to about 64 KB over the loopback
+     * interface, jumbo frames if the packets are sent with the DF bit set, and the size that fits in the MTU of
+     * Ethernet otherwise.
+     *
+     * @param address           is the address of the destination.
+     * @param isDontFragmentSet is true if the packets are sent with the DF bit set, false if they can be fragmented.
+     * @return the largest fragment size to probe.
+     */
+    public static int getMaxFragmentSize(InetAddress address, boolean isDontFragmentSet) {
+        if (address.isLoopbackAddress()) {
+            return PacketProtocol.MAX_PACKET_SIZE;
+        }
+        return isDontFragmentSet ? MAX_FRAGMENT_SIZE : PacketProtocol.DEFAULT_FRAGMENT_SIZE;
+    }
+
+    /**
+     * Probe the path to the destination of a connection with probes of increasing size, and stop at the first size of
+     * which no probe is answered.
+     *
+     * @param context is the context of the connection, of which the round trip time estimator provides the time-out.
+     * @return the largest fragment size that is confirmed, or DEFAULT_FRAGMENT_SIZE if no probe was answered (for
+     * example by a server that does not know the probes).
+     */
+    public static int probe(TransferContext context) {
+        int maxFragmentSize = getMaxFragmentSize(context.getAddress(), context.getSocket().isDontFragmentSet());
+        int confirmedFragmentSize = 0;
+        for (int index = 1; index < PacketProtocol.FRAGMENT_SIZES.length; index++) {
+            int fragmentSize = PacketProtocol.FRAGMENT_SIZES[index];
+            if (fragmentSize > maxFragmentSize || !sendProbeAndReceiveReply(context, index)) {
+                break;
+            }
+            confirmedFragmentSize = fragmentSize;
+        }
+        if (confirmedFragmentSize == 0) {
+            return PacketProtocol.DEFAULT_FRAGMENT_SIZE;
+        }
+        return confirmedFragmentSize;
+    }
+
+    /**
+     * Send a probe of a fragment size and try to receive its reply before the timer expires, at most PROBE_ATTEMPTS
+     * times. A lost probe does not back off the time-out of the connection, as a probe that is too large is dropped
+     * because of its size and not because of congestion.
+     *
+     * @param context is the context of the connection.
+     * @param index   is the index of the fragment size in PacketProtocol.FRAGMENT_SIZES.
+     * @return true if the reply is received, false if all probes are lost.
+     */
+    private static boolean sendProbeAndReceiveReply(TransferContext context, int index) {
+        PacketSocket socket = context.getSocket();
+        RttEstimator rttEstimator = context.getRttEstimator();
+        int probeId = PacketProtocol.generateRandomSequenceNumber();
+        ByteBuffer packetBuffer = PacketCodec.acquireBuffer(PacketProtocol.FRAGMENT_SIZES[index]);
+        DatagramPacket reply = new DatagramPacket(new byte[PacketProtocol.MAX_PACKET_SIZE], PacketProtocol.MAX_PACKET_SIZE);
+        boolean isReplyReceived = false;
+        try {
+            DatagramPacket probe = createProbe(packetBuffer, probeId, index, context.getAddress(), context.getPort());
+            for (int attempt = 0; attempt < PROBE_ATTEMPTS && !isReplyReceived && !socket.isClosed(); attempt++) {
+                long timeSent = System.nanoTime();
+                long deadline = timeSent + rttEstimator.getTimeoutInNanos();
+                try {
+                    socket.send(probe);
+                    // replies to earlier probes can still arrive, so only the reply to this probe counts:
+                    while (!isReplyReceived) {
+                        socket.setSoTimeout((int) Math.max(1, (deadline - System.nanoTime()) / 1000000L));
+                        reply.setLength(reply.getData().length);
+                        socket.receive(reply);
+                        isReplyReceived = isReplyToProbe(reply.getData(), reply.getLength(), probeId, index);
+                    }
+                    rttEstimator.addSample(System.nanoTime() - timeSent, attempt > 0);
+                } catch (IOException e) {
+                    // the reply did not arrive in time, or the probe was too large to be sent at all.
+                }
+            }
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            System.out.println("Could not reset the time-out of the socket: " + e.getMessage());
+        } finally {
+            PacketCodec.releaseBuffer(packetBuffer);
+        }
+        return isReplyReceived;
+    }
+
+    /**
+     * Create a probe of a fragment size: a packet that carries ACK and OPTION_PMTU_PROBE with the index of its size in
+     * the options, and is filled up to that size.
+     *
+     * @param packetBuffer is the buffer in which the probe is encoded.
+     * @param probeId      is the sequence number of the probe, which the reply acknowledges.
+     * @param index        is the index of the fragment size in PacketProtocol.FRAGMENT_SIZES.
+     * @param address      is the address to which the probe is sent.
+     * @param port         is the port to which the probe is sent.
+     * @return the probe.
+     */
+    static DatagramPacket createProbe(ByteBuffer packetBuffer, int probeId, int index, InetAddress address, int port) {
+        int fragmentSize = PacketProtocol.FRAGMENT_SIZES[index];
+        int options = PacketProtocol.OPTION_PMTU_PROBE | (index << PacketProtocol.FRAGMENT_SIZE_SHIFT);
+        PacketCodec.encodeHeader(packetBuffer, PacketProtocol.HEADER_VERSION_2, 0, 0, probeId, 0, PacketProtocol.ACK, options, fragmentSize - PacketProtocol.HEADER_SIZE_V2);
+        // the rest of the probe is filler, up to the fragment size:
+        packetBuffer.position(fragmentSize);
+        DatagramPacket probe = new DatagramPacket(packetBuffer.array(), 0, address, port);
+        PacketCodec.toDatagram(packetBuffer, probe);
+        return probe;
+    }
+
+    /**
+     * Check whether a packet is a probe that arrived whole, so it has the fragment size in its options.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @param packetLength     is the length of the packet.
+     * @return true if the packet is a probe of its size, false if not.
+     */
+    public static boolean isProbe(byte[] packetWithHeader, int packetLength) {
+        return packetLength >= PacketProtocol.HEADER_SIZE_V2 && PacketProtocol.getHeaderVersion(packetWithHeader) == PacketProtocol.HEADER_VERSION_2
+                && PacketProtocol.getFlag(packetWithHeader) == PacketProtocol.ACK && PacketProtocol.getAcknowledgementNumber(packetWithHeader) == 0
+                && (PacketProtocol.getOptions(packetWithHeader) & PacketProtocol.OPTION_PMTU_PROBE) != 0
+                && packetLength == PacketProtocol.getFragmentSize(PacketProtocol.HEADER_VERSION_2, PacketProtocol.getOptions(packetWithHeader));
+    }
+
+    /**
+     * Create the reply to a probe, which has the same size and options as the probe and acknowledges its sequence
+     * number.
+     *
+     * @param probe is the probe (see isProbe).
+     * @return the byte representation of the reply.
+     */
+    public static byte[] createProbeReply(DatagramPacket probe) {
+        byte[] probeData = probe.getData();
+        int options = PacketProtocol.getOptions(probeData) & (PacketProtocol.OPTION_PMTU_PROBE | PacketProtocol.FRAGMENT_SIZE_MASK);
+        byte[] reply = new byte[probe.getLength()];
+        PacketCodec.encodeHeader(ByteBuffer.wrap(reply), PacketProtocol.HEADER_VERSION_2, 0, 0, 0, PacketProtocol.getSequenceNumber(probeData), PacketProtocol.ACK, options, reply.length - PacketProtocol.HEADER_SIZE_V2);
+        return reply;
+    }
+
+    /**
+     * Check whether a packet is the reply to a probe, of the size of that probe.
+     *
+     * @param packetWithHeader is the packet that includes the header.
+     * @param packetLength     is the length of the packet.
+     * @param probeId          is the sequence number of the probe.
+     * @param index            is the index of the fragment size of the probe in PacketProtocol.FRAGMENT_SIZES.
+     * @return true if the packet is the reply to the probe, false if not.
+     */
+    static boolean isReplyToProbe(byte[] packetWithHeader, int packetLength, int probeId, int index) {
+        return packetLength == PacketProtocol.FRAGMENT_SIZES[index] && PacketProtocol.getFlag(packetWithHeader) == PacketProtocol.ACK
+                && PacketProtocol.getAcknowledgementNumber(packetWithHeader) == probeId
+                && (PacketProtocol.getOptions(packetWithHeader) & PacketProtocol.OPTION_PMTU_PROBE) != 0;
+    }
+}
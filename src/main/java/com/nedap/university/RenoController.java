@@ -0,0 +1,56 @@
+package com.nedap.university;
+
+/**
+ * Represents congestion control following TCP Reno (RFC 5681): in slow start the window grows with one packet for every
+ * acknowledged packet, and in congestion avoidance with one packet per round trip. After a loss that is detected by
+ * acknowledgements of later packets, the window is halved; after an expired timer, it is reduced to one packet. As
+ * every packet is acknowledged on its own, the window does not need to be inflated during fast recovery.
+ */
+public class RenoController implements CongestionController {
+    private final int maxWindow;
+    private double congestionWindow;
+    private int slowStartThreshold;
+
+    /**
+     * Create a controller that starts in slow start with the initial window.
+     *
+     * @param maxWindow is the maximum congestion window in packets.
+     */
+    public RenoController(int maxWindow) {
+        this.maxWindow = Math.max(1, maxWindow);
+        this.congestionWindow = Math.min(CongestionAlgorithm.INITIAL_WINDOW, this.maxWindow);
+        this.slowStartThreshold = this.maxWindow;
+    }
+
+    @Override
+    public int getCongestionWindow() {
+        return Math.max(1, (int) congestionWindow);
+    }
+
+    @Override
+    public int getSlowStartThreshold() {
+        return slowStartThreshold;
+    }
+
+    @Override
+    public void onAcknowledgement(long now, long rttInNanos) {
+        if (congestionWindow < slowStartThreshold) {
+            congestionWindow = congestionWindow + 1;
+        } else {
+            congestionWindow = congestionWindow + (1 / congestionWindow);
+        }
+        congestionWindow = Math.min(congestionWindow, maxWindow);
+    }
+
+    @Override
+    public void onPacketLoss(long now) {
+        slowStartThreshold = Math.max(2, (int) (congestionWindow / 2));
+        congestionWindow = slowStartThreshold;
+    }
+
+    @Override
+    public void onTimeout(long now) {
+        slowStartThreshold = Math.max(2, (int) (congestionWindow / 2));
+        congestionWindow = 1;
+    }
+}
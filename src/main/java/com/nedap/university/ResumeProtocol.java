@@ -0,0 +1,58 @@
+package com.nedap.university;
+
+import java.io.IOException;
+
+/**
+ * Represents the protocol for continuing an interrupted upload or download. The client adds the RESUME flag to its
+ * request, and the receiver of the file reports the length of the data it already has without gaps (see
+ * FileFragmentSink): the client in the offset field of its DOWNLOAD request, the server in the offset field of its
+ * response to an UPLOAD request. The sender then only sends the data from that offset (see FragmentRange). Both sides
+ * add the data before the offset to the digest of the total file themselves, so the digest still covers the total file
+ * and shows whether the data that was received before belongs to the same file.
+ */
+public final class ResumeProtocol {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Get the offset from which the server sends a file that the client wants to download. The offset of the request
+     * is only used if the client asks to resume and the file on the server still has the size that the client knows.
+     *
+     * @param request  is the DOWNLOAD request of the client.
+     * @param fileSize is the size of the file on the server.
+     * @return the offset from which the file is sent.
+     */
+    public static long getResumeOffset(byte[] request, long fileSize) {
+        if (!PacketProtocol.isResumeRequested(request) || PacketProtocol.getFileSizeInPacket(request) != fileSize) {
+            return 0;
+        }
+        long offset = PacketProtocol.getOffset(request);
+        return (offset >= 0 && offset <= fileSize) ? offset : 0;
+    }
+
+    /**
+     * Get the offset from which a file is sent, from the response to a request.
+     *
+     * @param response is the response to the request.
+     * @return the offset from which the file is sent, which is 0 if the transfer is not resumed.
+     */
+    public static long getResumeOffset(byte[] response) {
+        return Math.max(0, PacketProtocol.getOffset(response));
+    }
+
+    /**
+     * Add the data of a file before an offset to the digest of the total file, as this data is not sent again.
+     *
+     * @param file   is the data of the file.
+     * @param offset is the offset from which the file is sent.
+     * @param digest is the (empty) digest of the total file.
+     * @throws IOException if the data could not be read.
+     */
+    public static void addDataBeforeOffset(FragmentSource file, long offset, FileDigest digest) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, offset))];
+        for (long position = 0; position < offset; position = position + buffer.length) {
+            int length = (int) Math.min(buffer.length, offset - position);
+            file.read(position, buffer, 0, length);
+            digest.update(buffer, 0, length);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.nedap.university;
+
+/**
+ * Represents the estimation of the round trip time of a single connection, following the algorithm of Jacobson and
+ * Karels (as used by TCP, RFC 6298). The smoothed round trip time and its variance are updated with every measured round
+ * trip, and the retransmission time-out is calculated from these values.
+ */
+public class RttEstimator {
+    private static final double ALPHA = 0.125; // weight of a new sample in the smoothed round trip time.
+    private static final double BETA = 0.25; // weight of a new sample in the round trip time variance.
+    private static final int K = 4; // number of variances that is added to the smoothed round trip time.
+    private static final long FACTOR_MILLI_TO_NANO = 1000000L;
+    private final long minTimeout;
+    private final long maxTimeout;
+    private long smoothedRtt;
+    private long rttVariance;
+    private long timeout;
+    private boolean hasSample;
+
+    /**
+     * Create an estimator with the default minimum and maximum time-out as defined in the PacketProtocol.
+     */
+    public RttEstimator() {
+        this(PacketProtocol.MIN_TIMEOUT, PacketProtocol.MAX_TIMEOUT);
+    }
+
+    /**
+     * Create an estimator of which the retransmission time-out is always clamped between the given values.
+     *
+     * @param minTimeoutInMs is the minimum retransmission time-out in ms.
+     * @param maxTimeoutInMs is the maximum retransmission time-out in ms.
+     */
+    public RttEstimator(int minTimeoutInMs, int maxTimeoutInMs) {
+        this.minTimeout = minTimeoutInMs * FACTOR_MILLI_TO_NANO;
+        this.maxTimeout = Math.max(minTimeoutInMs, maxTimeoutInMs) * FACTOR_MILLI_TO_NANO;
+        this.timeout = clamp(PacketProtocol.INITIAL_TIMEOUT * FACTOR_MILLI_TO_NANO);
+    }
+
+    /**
+     * Add a measured round trip time to the estimate. According to Karn's rule, round trips of packets that were
+     * retransmitted are ignored, as it is unknown which transmission was acknowledged.
+     *
+     * @param rttInNanos      is the time between sending the packet and receiving its acknowledgement.
+     * @param isRetransmitted is true if the packet was sent more than once, false if not.
+     */
+    public void addSample(long rttInNanos, boolean isRetransmitted) {
+        if (isRetransmitted || rttInNanos < 0) {
+            return;
+        }
+        if (!hasSample) {
+            smoothedRtt = rttInNanos;
+            rttVariance = rttInNanos / 2;
+            hasSample = true;
+        } else {
+            rttVariance = (long) ((1 - BETA) * rttVariance + BETA * Math.abs(smoothedRtt - rttInNanos));
+            smoothedRtt = (long) ((1 - ALPHA) * smoothedRtt + ALPHA * rttInNanos);
+        }
+        timeout = clamp(smoothedRtt + K * rttVariance);
+    }
+
+    /**
+     * Double the retransmission time-out (up to the maximum) after a time-out has expired.
+     */
+    public void backOff() {
+        timeout = clamp(timeout * 2);
+    }
+
+    /**
+     * Clamp a time-out between the minimum and maximum time-out of this estimator.
+     *
+     * @param timeoutInNanos is the time-out to clamp.
+     * @return the clamped time-out.
+     */
+    private long clamp(long timeoutInNanos) {
+        return Math.max(minTimeout, Math.min(maxTimeout, timeoutInNanos));
+    }
+
+
+//          --- GETTERS ---
+
+    /**
+     * Get the current retransmission time-out.
+     *
+     * @return the retransmission time-out in ns.
+     */
+    public long getTimeoutInNanos() {
+        return timeout;
+    }
+
+    /**
+     * Get the current retransmission time-out, rounded up to whole milliseconds (as used for socket time-outs).
+     *
+     * @return the retransmission time-out in ms.
+     */
+    public int getTimeout() {
+        return (int) ((timeout + FACTOR_MILLI_TO_NANO - 1) / FACTOR_MILLI_TO_NANO);
+    }
+
+    /**
+     * Get the smoothed round trip time.
+     *
+     * @return the smoothed round trip time in ns, or 0 if no round trip time has been measured yet.
+     */
+    public long getSmoothedRttInNanos() {
+        return smoothedRtt;
+    }
+
+    /**
+     * Get the variance of the round trip time.
+     *
+     * @return the round trip time variance in ns, or 0 if no round trip time has been measured yet.
+     */
+    public long getRttVarianceInNanos() {
+        return rttVariance;
+    }
+
+    /**
+     * Check whether at least one round trip time has been measured.
+     *
+     * @return true if a round trip time has been measured, false if not.
+     */
+    public boolean hasSample() {
+        return hasSample;
+    }
+}
@@ -0,0 +1,382 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.zip.Inflater;
+
+/**
+ * Represents the protocol for sending and receiving packets according to the Selective Repeat ARQ protocol. The sender
+ * keeps a window of packets in flight, each with its own retransmission timer, and the receiver acknowledges every
+ * packet separately and places packets that arrive out of order directly at their position in the file. Positions in
+ * the file are 64-bit, and sequence numbers are compared relative to the first sequence number of the file (so they can
+ * wrap around), which means a file can have up to 2^31 - 1 packets. How the sender limits, paces and retransmits its
+ * packets is described in SelectiveRepeatSender, and how the receiver handles corrupted packets and acknowledges the
+ * packets it received is described in receiveFile.
+ */
+public class SelectiveRepeatProtocol {
+    public static final int DEFAULT_WINDOW_SIZE = 256;
+    public static final int MAX_WINDOW_SIZE = 1024;
+    public static final int DUPLICATE_ACK_THRESHOLD = 3; // as used by TCP for fast retransmit.
+    public static final int ACK_FREQUENCY = 2; // in packets, as used by TCP for delayed acknowledgements.
+    public static final int ACK_DELAY = 5; // in ms.
+    public static final int MAX_BATCH_SIZE = 64; // the number of waiting packets that is handled in one pass.
+
+    /**
+     * Send packets with file data using the default window size.
+     *
+     * @param fileInBytes       is the byte representation of the total file.
+     * @param lastReceivedSeqNr is the last received sequence number.
+     * @param lastReceivedAckNr is the last received acknowledgement number.
+     * @param context           is the context of the connection between the server and client.
+     * @return true if all packets are acknowledged, false if the file could not be sent completely.
+     */
+    public static boolean sendFile(byte[] fileInBytes, int lastReceivedSeqNr, int lastReceivedAckNr, TransferContext context) {
+        return sendFile(new ByteArrayFragmentSource(fileInBytes), lastReceivedSeqNr, lastReceivedAckNr, context, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Send packets with file data.
+     *
+     * @param fileInBytes       is the byte representation of the total file.
+     * @param lastReceivedSeqNr is the last received sequence number.
+     * @param lastReceivedAckNr is the last received acknowledgement number.
+     * @param context           is the context of the connection between the server and client.
+     * @param windowSize        is the maximum number of packets that can be sent without being acknowledged.
+     * @return true if all packets are acknowledged, false if the file could not be sent completely.
+     */
+    public static boolean sendFile(byte[] fileInBytes, int lastReceivedSeqNr, int lastReceivedAckNr, TransferContext context, int windowSize) {
+        return sendFile(new ByteArrayFragmentSource(fileInBytes), lastReceivedSeqNr, lastReceivedAckNr, context, windowSize);
+    }
+
+    /**
+     * Send packets with file data using the default window size.
+     *
+     * @param source            is the source from which the data of the file is read.
+     * @param lastReceivedSeqNr is the last received sequence number.
+     * @param lastReceivedAckNr is the last received acknowledgement number.
+     * @param context           is the context of the connection between the server and client.
+     * @return true if all packets are acknowledged, false if the file could not be sent completely.
+     */
+    public static boolean sendFile(FragmentSource source, int lastReceivedSeqNr, int lastReceivedAckNr, TransferContext context) {
+        return sendFile(source, lastReceivedSeqNr, lastReceivedAckNr, context, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Send packets with file data while keeping at most windowSize packets unacknowledged. Every packet has its own
+     * timer: only packets of which the timer has expired are retransmitted. The time-out is provided by the round trip
+     * time estimator, which is updated with the round trip time of every packet that is acknowledged. Afterwards, the
+     * last received sequence and acknowledgement numbers of the context are updated for the packet that follows. The
+     * data of a packet is read from the source when the packet is sent, directly into a packet buffer that is reused
+     * for every packet, so sending a packet does not allocate any memory.
+     *
+     * @param source            is the source from which the data of the file is read.
+     * @param lastReceivedSeqNr is the last received sequence number.
+     * @param lastReceivedAckNr is the last received acknowledgement number.
+     * @param context           is the context of the connection between the server and client.
+     * @param windowSize        is the maximum number of packets that can be sent without being acknowledged.
+     * @return true if all packets are acknowledged, false if the file could not be sent completely.
+     */
+    public static boolean sendFile(FragmentSource source, int lastReceivedSeqNr, int lastReceivedAckNr, TransferContext context, int windowSize) {
+        return sendFile(source, lastReceivedSeqNr, lastReceivedAckNr, context, windowSize, context.getDigestAlgorithm().createDigest());
+    }
+
+    /**
+     * Send packets with file data while keeping at most windowSize packets unacknowledged (see SelectiveRepeatSender),
+     * and add the data of every packet to the digest of the file when it is sent for the first time.
+     *
+     * @param source            is the source from which the data of the file is read.
+     * @param lastReceivedSeqNr is the last received sequence number.
+     * @param lastReceivedAckNr is the last received acknowledgement number.
+     * @param context           is the context of the connection between the server and client.
+     * @param windowSize        is the maximum number of packets that can be sent without being acknowledged.
+     * @param digest            is the (empty) digest to which the data of the file is added.
+     * @return true if all packets are acknowledged, false if the file could not be sent completely.
+     */
+    public static boolean sendFile(FragmentSource source, int lastReceivedSeqNr, int lastReceivedAckNr, TransferContext context, int windowSize, FileDigest digest) {
+        return new SelectiveRepeatSender(source, lastReceivedSeqNr, lastReceivedAckNr, context, windowSize, digest).send();
+    }
+
+    /**
+     * Receive packets with file data in memory. The received file is stored in the context.
+     *
+     * @param context           is the context of the connection between the server and client.
+     * @param totalFileSize     is the total size of the file that needs to be received.
+     * @param lastReceivedSeqNr is the last sequence number received from the sender (the first packet of the file has
+     *                          the next sequence number).
+     * @return true if the complete file is received, false if the socket was closed before that.
+     */
+    public static boolean receiveFile(TransferContext context, int totalFileSize, int lastReceivedSeqNr) {
+        ByteArrayFragmentSink sink = new ByteArrayFragmentSink(totalFileSize);
+        boolean isReceived = receiveFile(context, totalFileSize, lastReceivedSeqNr, sink, null);
+        context.setFileInBytes(sink.getData());
+        return isReceived;
+    }
+
+    /**
+     * Receive packets with file data and send an acknowledgement for every correctly received packet. Packets may
+     * arrive in any order: the data of each packet is written to the sink at its own position in the file (based on its
+     * sequence number, and in a header of version 2 also its offset) as soon as it is received, so no packets need to
+     * be buffered. A packet with a corrupted header is dropped; if only the CRC32C (when used) is incorrect, the packet
+     * is dropped and a negative acknowledgement is sent, so the sender can retransmit it right away. The data of the
+     * file is also added to the digest of the file in order while it is received, so the file does not need to be read
+     * completely again to check it: packets that arrive in order are added directly, and packets that arrived before a
+     * missing packet are read back from the sink (which still has them in its cache) as soon as the gap is filled. If
+     * the connection uses the SACK option, a selective acknowledgement is sent for every ACK_FREQUENCY packets (or
+     * after ACK_DELAY), and right away if a packet arrives out of order, so the sender only retransmits the packets
+     * that are really missing. The packets that are already waiting are handled in one batch (up to MAX_BATCH_SIZE)
+     * before that acknowledgement is sent. A receiver that checks the file in another way passes no digest, so the data
+     * is not hashed (or read back) for nothing. A compressed payload (see FragmentCompressor) is decompressed on its
+     * own before it is written.
+     * @param <S>               is the type of the sink, from which the received data can also be read.
+     * @param context           is the context of the connection between the server and client.
+     * @param totalFileSize     is the total size of the file that needs to be received.
+     * @param lastReceivedSeqNr is the last sequence number received from the sender (the first packet of the file has
+     *                          the next sequence number).
+     * @param sink              is the destination to which the data of the file is written.
+     * @param digest            is the (empty) digest to which the data of the file is added, or null if the data is not
+     *                          added to a digest.
+     * @return true if the complete file is received, false if the socket was closed or the data could not be written
+     * or read before that.
+     */
+    public static <S extends FragmentSink & FragmentSource> boolean receiveFile(TransferContext context, long totalFileSize, int lastReceivedSeqNr, S sink, FileDigest digest) {
+        PacketSocket socket = context.getSocket();
+        StatisticsProtocol statistics = context.getStatistics();
+        // start with creating variables that are updated during the file transmission:
+        int headerVersion = context.getHeaderVersion();
+        int headerSize = PacketProtocol.getHeaderSize(headerVersion);
+        int options = context.getOptions();
+        boolean isCrc32cUsed = PacketProtocol.isCrc32cUsed(headerVersion, options);
+        boolean isSackUsed = PacketProtocol.isSackUsed(headerVersion, options);
+        int trailerSize = isCrc32cUsed ? PacketProtocol.CRC32C_LENGTH : 0;
+        int payloadSize = getPayloadSize(headerVersion, options);
+        int totalNumberOfPackets = getNumberOfPackets(totalFileSize, payloadSize);
+        int firstSequenceNumber = lastReceivedSeqNr + 1;
+        // compressed payloads are decompressed into a block of their own:
+        Inflater inflater = PacketProtocol.isCompressionUsed(headerVersion, options) ? FragmentCompressor.createInflater() : null;
+        byte[] decompressedBlock = (inflater != null) ? new byte[payloadSize] : null;
+        BitSet receivedPackets = new BitSet(totalNumberOfPackets);
+        int numberOfReceivedPackets = 0;
+        long numberOfReceivedBytes = 0;
+        statistics.startProgress(totalFileSize);
+        int nextPacketInOrder = 0; // first packet that is not added to the digest yet.
+        int pendingAcknowledgements = 0; // packets that are received but not (selectively) acknowledged yet.
+        int lastReceivedAckNumber = 0; // acknowledgement number of the last packet that is received.
+        boolean isAckDue = false; // whether a selective acknowledgement is sent at the end of the batch.
+        int batchSize = 0; // the number of packets that is handled since the last packet that was waited for.
+        int timeout = 0;
+        boolean isFailed = false;
+        // every packet is received in the same buffer:
+        ByteBuffer packetBuffer = PacketCodec.acquireBuffer(context.getFragmentSize());
+        byte[] receivedPacket = packetBuffer.array();
+        DatagramPacket fileDataPacket = new DatagramPacket(receivedPacket, receivedPacket.length);
+        while (numberOfReceivedPackets < totalNumberOfPackets && !socket.isClosed()) {
+            try {
+                // the packets that are already waiting are handled in one batch, and only when no packet is waiting
+                // anymore, the selective acknowledgement that is due is sent (once for the whole batch):
+                fileDataPacket.setLength(receivedPacket.length);
+                if (batchSize >= MAX_BATCH_SIZE || !socket.receiveIfAvailable(fileDataPacket)) {
+                    if (isAckDue) {
+                        AcknowledgementProtocol.sendSelectiveAcknowledgement(lastReceivedAckNumber, firstSequenceNumber, receivedPackets, nextPacketInOrder, totalNumberOfPackets, context);
+                        pendingAcknowledgements = 0;
+                        isAckDue = false;
+                    }
+                    batchSize = 0;
+                    // if packets are waiting for a selective acknowledgement, wait at most ACK_DELAY for the next
+                    // packet:
+                    int newTimeout = (pendingAcknowledgements > 0) ? ACK_DELAY : 0;
+                    if (newTimeout != timeout) {
+                        socket.setSoTimeout(newTimeout);
+                        timeout = newTimeout;
+                    }
+                    fileDataPacket.setLength(receivedPacket.length);
+                    socket.receive(fileDataPacket);
+                }
+                batchSize++;
+                // check flags to see if file data is received; if not, don't execute any further actions but wait for
+                // the next packet to arrive (as the ack to the request or ack with file size could be lost too):
+                int receivedFlag = PacketProtocol.getFlag(receivedPacket);
+                // the digest of the total file is sent again if the negative acknowledgement to it was lost (see
+                // ChunkRepairProtocol), so send that acknowledgement again:
+                if (receivedFlag == PacketProtocol.CHECK) {
+                    AcknowledgementProtocol.resendAcknowledgement(context);
+                    continue;
+                }
+                if ((receivedFlag != PacketProtocol.MOREFRAGMENTS && receivedFlag != PacketProtocol.LAST)
+                        || PacketProtocol.getHeaderVersion(receivedPacket) != headerVersion) {
+                    continue;
+                }
+                int dataLengthInPacket = fileDataPacket.getLength() - headerSize - trailerSize;
+                int receivedSequenceNumber = PacketProtocol.getSequenceNumber(receivedPacket);
+                int receivedAckNumber = PacketProtocol.getAcknowledgementNumber(receivedPacket);
+                int packetNumber = receivedSequenceNumber - firstSequenceNumber;
+                // a packet of a transfer before this one (in the same direction) is sent again if its acknowledgement
+                // was lost, so acknowledge it again:
+                if (packetNumber < 0 && DataIntegrityProtocol.isChecksumCorrect(receivedPacket, dataLengthInPacket)) {
+                    AcknowledgementProtocol.sendAcknowledgement(0, receivedSequenceNumber, receivedAckNumber, context);
+                    continue;
+                }
+                // only accept packets with a correct checksum that belong to this file (a compressed payload is shorter
+                // than the original payload):
+                boolean isCompressed = inflater != null && PacketProtocol.isCompressed(receivedPacket);
+                int originalLength = (packetNumber >= 0 && packetNumber < totalNumberOfPackets) ? getPayloadLength(totalFileSize, packetNumber, payloadSize) : -1;
+                if (!DataIntegrityProtocol.isChecksumCorrect(receivedPacket, dataLengthInPacket) || packetNumber >= totalNumberOfPackets
+                        || (isCompressed ? dataLengthInPacket >= originalLength : dataLengthInPacket != originalLength)
+                        || (headerVersion == PacketProtocol.HEADER_VERSION_2 && (PacketProtocol.getOptions(receivedPacket) & ~PacketProtocol.OPTION_COMPRESSED) != options)) {
+                    continue;
+                }
+                // the header is correct, so if the payload is corrupted the sender can be asked to retransmit this
+                // packet right away:
+                if (isCrc32cUsed && !DataIntegrityProtocol.isCrc32cCorrect(receivedPacket, fileDataPacket.getLength())) {
+                    AcknowledgementProtocol.sendAcknowledgement(PacketProtocol.INCORRECT, receivedSequenceNumber, receivedAckNumber, context);
+                    continue;
+                }
+                long offset = (long) packetNumber * payloadSize;
+                // a header of version 2 also carries the offset, which should match the sequence number:
+                if (headerVersion == PacketProtocol.HEADER_VERSION_2 && PacketProtocol.getOffset(receivedPacket) != offset) {
+                    continue;
+                }
+                // the data of the packet is in the packet itself, or in the decompressed block:
+                byte[] data = receivedPacket;
+                int dataOffset = headerSize;
+                if (isCompressed && !receivedPackets.get(packetNumber)) {
+                    if (!FragmentCompressor.decompress(inflater, receivedPacket, headerSize, dataLengthInPacket, decompressedBlock, originalLength)) {
+                        continue;
+                    }
+                    data = decompressedBlock;
+                    dataOffset = 0;
+                }
+                dataLengthInPacket = originalLength;
+                // write the data of a new packet before it is acknowledged, so a packet is only acknowledged once it
+                // is stored:
+                if (!receivedPackets.get(packetNumber)) {
+                    sink.write(offset, data, dataOffset, dataLengthInPacket);
+                }
+                // acknowledge every packet, also the ones that were received before (as that acknowledgement could
+                // have been lost). Selective acknowledgements are sent below, as they need the state after this packet:
+                if (!isSackUsed) {
+                    AcknowledgementProtocol.sendAcknowledgement(0, receivedSequenceNumber, receivedAckNumber, context);
+                }
+                int firstMissingPacket = nextPacketInOrder;
+                if (!receivedPackets.get(packetNumber)) {
+                    receivedPackets.set(packetNumber);
+                    numberOfReceivedPackets++;
+                    // add the data to the digest if all packets before it are added. The buffer is not needed anymore
+                    // after the acknowledgement, so packets that follow are read back into it:
+                    if (packetNumber == nextPacketInOrder) {
+                        if (digest != null) {
+                            digest.update(data, dataOffset, dataLengthInPacket);
+                        }
+                        nextPacketInOrder++;
+                        while (nextPacketInOrder < totalNumberOfPackets && receivedPackets.get(nextPacketInOrder)) {
+                            if (digest != null) {
+                                int dataLengthInNextPacket = getPayloadLength(totalFileSize, nextPacketInOrder, payloadSize);
+                                sink.read((long) nextPacketInOrder * payloadSize, receivedPacket, 0, dataLengthInNextPacket);
+                                digest.update(receivedPacket, 0, dataLengthInNextPacket);
+                            }
+                            nextPacketInOrder++;
+                        }
+                    }
+                    numberOfReceivedBytes = numberOfReceivedBytes + dataLengthInPacket;
+                    statistics.updateProgress("Receiving", numberOfReceivedBytes);
+                }
+                if (isSackUsed) {
+                    // acknowledge every ACK_FREQUENCY packets that arrive in order, but at the end of the batch if a
+                    // packet arrives twice or out of order, fills a gap, leaves a gap or is the last missing packet of
+                    // the file:
+                    pendingAcknowledgements++;
+                    lastReceivedAckNumber = receivedAckNumber;
+                    if (pendingAcknowledgements >= ACK_FREQUENCY || packetNumber != firstMissingPacket || nextPacketInOrder != firstMissingPacket + 1
+                            || numberOfReceivedPackets != nextPacketInOrder || nextPacketInOrder == totalNumberOfPackets) {
+                        isAckDue = true;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                if (pendingAcknowledgements > 0) {
+                    // no packet arrived within ACK_DELAY, so acknowledge the packets that are waiting:
+                    AcknowledgementProtocol.sendSelectiveAcknowledgement(lastReceivedAckNumber, firstSequenceNumber, receivedPackets, nextPacketInOrder, totalNumberOfPackets, context);
+                    pendingAcknowledgements = 0;
+                } else {
+                    System.out.println("Could not receive packet, waiting for retransmission.");
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    System.out.println("Could not receive the file: " + e.getMessage());
+                }
+                isFailed = true;
+                break;
+            }
+        }
+        if (isAckDue && !isFailed) {
+            AcknowledgementProtocol.sendSelectiveAcknowledgement(lastReceivedAckNumber, firstSequenceNumber, receivedPackets, nextPacketInOrder, totalNumberOfPackets, context);
+        }
+        PacketCodec.releaseBuffer(packetBuffer);
+        if (inflater != null) {
+            inflater.end();
+        }
+        if (timeout != 0) {
+            try {
+                socket.setSoTimeout(0);
+            } catch (IOException e) {
+                // the socket is closed, so it does not receive anymore.
+            }
+        }
+        return !isFailed && numberOfReceivedPackets == totalNumberOfPackets;
+    }
+
+    /**
+     * Get the maximum length of the data that a packet carries, which is what remains of a packet of the fragment size
+     * of a connection without options (LEGACY_FRAGMENT_SIZE) after the header.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @return the maximum length of the data in a packet.
+     */
+    public static int getPayloadSize(int headerVersion) {
+        return getPayloadSize(headerVersion, 0);
+    }
+
+    /**
+     * Get the maximum length of the data that a packet carries, which is what remains of a packet of the fragment size
+     * of the connection after the header and (if the connection uses it) the CRC32C.
+     *
+     * @param headerVersion is the version of the header that is used by the connection.
+     * @param options       is the options that are used by the connection.
+     * @return the maximum length of the data in a packet.
+     */
+    public static int getPayloadSize(int headerVersion, int options) {
+        int trailerSize = PacketProtocol.isCrc32cUsed(headerVersion, options) ? PacketProtocol.CRC32C_LENGTH : 0;
+        return PacketProtocol.getFragmentSize(headerVersion, options) - PacketProtocol.getHeaderSize(headerVersion) - trailerSize;
+    }
+
+    /**
+     * Calculate the number of packets that is needed to send a file. A file always needs at least one packet (with the
+     * LAST flag), also when it is empty.
+     *
+     * @param totalFileSize is the total size of the file.
+     * @param payloadSize   is the maximum length of the data in a packet.
+     * @return the number of packets that is needed.
+     * @throws IllegalArgumentException if the file needs more packets than can be numbered.
+     */
+    public static int getNumberOfPackets(long totalFileSize, int payloadSize) {
+        long numberOfPackets = Math.max(1, (totalFileSize + payloadSize - 1) / payloadSize);
+        if (numberOfPackets > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A file of " + totalFileSize + " bytes needs too many packets.");
+        }
+        return (int) numberOfPackets;
+    }
+
+    /**
+     * Calculate the length of the data that a packet carries.
+     *
+     * @param totalFileSize is the total size of the file.
+     * @param packetNumber  is the number of the packet in the file (starting at 0).
+     * @param payloadSize   is the maximum length of the data in a packet.
+     * @return the length of the data in the packet.
+     */
+    public static int getPayloadLength(long totalFileSize, int packetNumber, int payloadSize) {
+        return (int) Math.min(payloadSize, totalFileSize - ((long) packetNumber * payloadSize));
+    }
+
+}
@@ -0,0 +1,407 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the sender of one file of the Selective Repeat protocol (see SelectiveRepeatProtocol). The sender keeps at
+ * most windowSize packets unacknowledged, each with its own retransmission timer, and the state of the packets in the
+ * window is kept in arrays that are used as ring buffer (position = packet number % window size). The number of packets
+ * in flight is also limited by the congestion window of the algorithm of the connection (see CongestionController), and
+ * the packets are not sent in bursts, but paced over the round trip time (see PacketPacer). Lost packets are found from
+ * the acknowledgements (fast retransmit) and from the timers of the packets. A sender is used for one transfer: its
+ * buffer is taken from the pool when it is created and returned when the file is sent.
+ */
+public class SelectiveRepeatSender {
+    private final TransferContext context;
+    private final PacketSocket socket;
+    private final RttEstimator rttEstimator;
+    private final StatisticsProtocol statistics;
+    private final FragmentSource source;
+    private final FileDigest digest;
+    private final CongestionController congestionController;
+    private final PacketPacer pacer;
+    private final int windowSize;
+    private final int headerSize;
+    private final int payloadSize;
+    private final int totalNumberOfPackets;
+    private final int firstSequenceNumber;
+    private final int acknowledgementNumber;
+    // the state of the packets in the window (position = packet number % window size):
+    private final long[] timeSent;
+    private final boolean[] acknowledged;
+    private final boolean[] retransmitted;
+    private final ByteBuffer packetBuffer;
+    private final DatagramPacket packetToSend;
+    private final DatagramPacket ackToReceive;
+    private final byte[] acknowledgement;
+    private final FragmentCompressor compressor;
+    private int base = 0; // first packet in the window that is not acknowledged yet.
+    private int nextPacketNumber = 0; // first packet that is not sent yet.
+    private int highestAcknowledged = -1; // highest packet that is acknowledged.
+    private int recoveryPoint = 0; // the congestion window is reduced at most once for the packets sent before this one.
+    private long lastTimeout = System.nanoTime(); // packets that were sent before the last expired timer are considered lost.
+    private int soTimeout = -1; // the time-out that is set on the socket.
+
+    /**
+     * Create the sender of a file.
+     *
+     * @param source            is the source from which the data of the file is read.
+     * @param lastReceivedSeqNr is the last received sequence number.
+     * @param lastReceivedAckNr is the last received acknowledgement number.
+     * @param context           is the context of the connection between the server and client.
+     * @param windowSize        is the maximum number of packets that can be sent without being acknowledged.
+     * @param digest            is the (empty) digest to which the data of the file is added.
+     */
+    public SelectiveRepeatSender(FragmentSource source, int lastReceivedSeqNr, int lastReceivedAckNr, TransferContext context, int windowSize, FileDigest digest) {
+        this.context = context;
+        this.socket = context.getSocket();
+        this.rttEstimator = context.getRttEstimator();
+        this.statistics = context.getStatistics();
+        this.source = source;
+        this.digest = digest;
+        this.windowSize = Math.max(1, Math.min(windowSize, SelectiveRepeatProtocol.MAX_WINDOW_SIZE));
+        this.congestionController = context.getCongestionAlgorithm().createController(this.windowSize);
+        this.pacer = new PacketPacer(context.getRateLimiter());
+        this.headerSize = PacketProtocol.getHeaderSize(context.getHeaderVersion());
+        this.payloadSize = SelectiveRepeatProtocol.getPayloadSize(context.getHeaderVersion(), context.getOptions());
+        this.totalNumberOfPackets = SelectiveRepeatProtocol.getNumberOfPackets(source.getSize(), payloadSize);
+        this.firstSequenceNumber = lastReceivedAckNr + 1;
+        this.acknowledgementNumber = lastReceivedSeqNr;
+        this.timeSent = new long[this.windowSize];
+        this.acknowledged = new boolean[this.windowSize];
+        this.retransmitted = new boolean[this.windowSize];
+        this.packetBuffer = PacketCodec.acquireBuffer(context.getFragmentSize());
+        this.packetToSend = new DatagramPacket(packetBuffer.array(), 0, context.getAddress(), context.getPort());
+        // the buffer is large enough for a selective acknowledgement:
+        this.ackToReceive = AcknowledgementProtocol.createAckWithMessagePacketToReceive();
+        this.acknowledgement = ackToReceive.getData();
+        // every file is compressed (or found incompressible) on its own:
+        this.compressor = PacketProtocol.isCompressionUsed(context.getHeaderVersion(), context.getOptions()) ? new FragmentCompressor() : null;
+    }
+
+    /**
+     * Send the file, and add the data of every packet to the digest of the file when it is sent for the first time
+     * (which happens in order). That way, the digest of the file is known as soon as the last packet is acknowledged,
+     * without reading the file again. The data of a packet is read from the source when the packet is sent, directly
+     * into a packet buffer that is reused for every packet, so sending a packet does not allocate any memory.
+     * Afterwards, the last received sequence and acknowledgement numbers of the context are updated for the packet that
+     * follows.
+     *
+     * @return true if all packets are acknowledged, false if the file could not be sent completely.
+     */
+    public boolean send() {
+        // set variables in the StatisticsProtocol file in order to measure some statistics on file transmission:
+        statistics.setOptimalNumberOfPackets(totalNumberOfPackets + 1); // add one as the packet count also starts at 1.
+        statistics.startTimer();
+        statistics.resetPacketCount();
+        statistics.resetCongestionEvents();
+        statistics.startProgress(source.getSize());
+        try {
+            while (base < totalNumberOfPackets) {
+                long timeOutInNanos = rttEstimator.getTimeoutInNanos();
+                pacer.update(congestionController, rttEstimator.getSmoothedRttInNanos(), headerSize + payloadSize);
+                int packetsInFlight = sendNewPackets(timeOutInNanos);
+                receiveAcknowledgements(getWaitTime(timeOutInNanos, packetsInFlight));
+                retransmitExpiredPackets(timeOutInNanos);
+                // slide the window over all packets that are acknowledged in order:
+                while (base < nextPacketNumber && acknowledged[base % windowSize]) {
+                    base++;
+                }
+                statistics.updateProgress("Sending", Math.min((long) base * payloadSize, source.getSize()));
+            }
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                System.out.println("Could not send the file: " + e.getMessage());
+            }
+        } finally {
+            PacketCodec.releaseBuffer(packetBuffer);
+            if (compressor != null) {
+                compressor.close();
+            }
+        }
+        // the next packet (with the checksum) continues after the sequence number of the last packet of the file:
+        context.setLastReceivedAckNr(firstSequenceNumber + totalNumberOfPackets - 1);
+        statistics.stopTimer();
+        statistics.setRoundTripTimeEstimate(rttEstimator);
+        statistics.setCongestionWindow(congestionController);
+        statistics.setCompression(compressor);
+        System.out.println(statistics.statisticsInMessage());
+        return base == totalNumberOfPackets;
+    }
+
+    /**
+     * Fill the window with new packets, as long as the number of packets in flight is below the congestion window and
+     * the pacer allows it.
+     *
+     * @param timeOutInNanos is the current time-out of the timers of the packets.
+     * @return the number of packets in flight afterwards.
+     * @throws IOException if the data could not be read or a packet could not be sent.
+     */
+    private int sendNewPackets(long timeOutInNanos) throws IOException {
+        long now = System.nanoTime();
+        int packetsInFlight = getNumberOfPacketsInFlight(now - timeOutInNanos);
+        while (canSendNewPacket(packetsInFlight) && pacer.getWaitTimeInNanos(now) == 0) {
+            int dataLengthInPacket = sendPacket(nextPacketNumber);
+            digest.update(packetBuffer.array(), headerSize, dataLengthInPacket);
+            now = System.nanoTime();
+            pacer.onPacketSent(packetToSend.getLength(), now);
+            timeSent[nextPacketNumber % windowSize] = now;
+            acknowledged[nextPacketNumber % windowSize] = false;
+            retransmitted[nextPacketNumber % windowSize] = false;
+            nextPacketNumber++;
+            packetsInFlight++;
+        }
+        return packetsInFlight;
+    }
+
+    /**
+     * Check whether a new packet may be sent: the file has packets left, and both the window and the congestion window
+     * have room for it.
+     *
+     * @param packetsInFlight is the number of packets in flight.
+     * @return true if a new packet may be sent, false if not.
+     */
+    private boolean canSendNewPacket(int packetsInFlight) {
+        return nextPacketNumber < totalNumberOfPackets && nextPacketNumber < base + windowSize && packetsInFlight < congestionController.getCongestionWindow();
+    }
+
+    /**
+     * Get the time to wait for an acknowledgement: until the first timer in the window expires, or until the pacer
+     * allows the next packet if the window is not full. The socket waits in whole ms, but a packet that is sent later
+     * than planned does not lower the rate, as the pacer keeps the tokens of the time it missed.
+     *
+     * @param timeOutInNanos  is the current time-out of the timers of the packets.
+     * @param packetsInFlight is the number of packets in flight.
+     * @return the time to wait in ms (at least 1).
+     */
+    private int getWaitTime(long timeOutInNanos, int packetsInFlight) {
+        long now = System.nanoTime();
+        long firstDeadline = Long.MAX_VALUE;
+        for (int packetNumber = base; packetNumber < nextPacketNumber; packetNumber++) {
+            if (!acknowledged[packetNumber % windowSize]) {
+                firstDeadline = Math.min(firstDeadline, timeSent[packetNumber % windowSize] + timeOutInNanos);
+            }
+        }
+        if (canSendNewPacket(packetsInFlight)) {
+            firstDeadline = Math.min(firstDeadline, now + pacer.getWaitTimeInNanos(now));
+        }
+        return (int) Math.max(1, (firstDeadline - now) / 1000000L);
+    }
+
+    /**
+     * Wait for an acknowledgement, and handle it together with the acknowledgements that are already waiting after it
+     * (up to MAX_BATCH_SIZE) in one pass, before the window is checked again.
+     *
+     * @param waitTime is the time to wait for the first acknowledgement in ms.
+     * @throws IOException if the data could not be read or a packet could not be sent or received.
+     */
+    private void receiveAcknowledgements(int waitTime) throws IOException {
+        try {
+            // the time-out is only set if it changes, as that can take a system call:
+            if (waitTime != soTimeout) {
+                socket.setSoTimeout(waitTime);
+                soTimeout = waitTime;
+            }
+            ackToReceive.setLength(acknowledgement.length);
+            socket.receive(ackToReceive);
+            int numberOfAcknowledgements = 0;
+            do {
+                handleAcknowledgement();
+                numberOfAcknowledgements++;
+                ackToReceive.setLength(acknowledgement.length);
+            } while (numberOfAcknowledgements < SelectiveRepeatProtocol.MAX_BATCH_SIZE && socket.receiveIfAvailable(ackToReceive));
+        } catch (SocketTimeoutException e) {
+            // no acknowledgement received in time, expired packets are retransmitted afterwards.
+        }
+    }
+
+    /**
+     * Handle an acknowledgement that is received. A positive acknowledgement of a single packet acknowledges that
+     * packet, and a negative acknowledgement (ACK + INCORRECT) of a packet that arrived corrupted retransmits it right
+     * away. A selective acknowledgement is handled by handleSelectiveAcknowledgement.
+     *
+     * @throws IOException if the data could not be read or a packet could not be sent.
+     */
+    private void handleAcknowledgement() throws IOException {
+        int receivedFlag = PacketProtocol.getFlag(acknowledgement);
+        // a selective acknowledgement of which the CRC32C is incorrect is ignored:
+        boolean isSelectiveAcknowledgement = PacketProtocol.isSelectiveAcknowledgement(acknowledgement);
+        if (isSelectiveAcknowledgement && DataIntegrityProtocol.isCrc32cCorrect(acknowledgement, ackToReceive.getLength())) {
+            handleSelectiveAcknowledgement();
+        } else if (!isSelectiveAcknowledgement && (receivedFlag == PacketProtocol.ACK || receivedFlag == PacketProtocol.ACK + PacketProtocol.INCORRECT)) {
+            // the acknowledgement number is the sequence number of the packet that is acknowledged (the subtraction
+            // also works when the sequence numbers have wrapped around):
+            int packetNumber = PacketProtocol.getAcknowledgementNumber(acknowledgement) - firstSequenceNumber;
+            if (packetNumber >= base && packetNumber < nextPacketNumber && !acknowledged[packetNumber % windowSize]) {
+                if (receivedFlag == PacketProtocol.ACK) {
+                    rttEstimator.addSample(System.nanoTime() - timeSent[packetNumber % windowSize], retransmitted[packetNumber % windowSize]);
+                    acknowledged[packetNumber % windowSize] = true;
+                    congestionController.onAcknowledgement(System.nanoTime(), rttEstimator.getSmoothedRttInNanos());
+                    context.setLastReceivedSeqNr(PacketProtocol.getSequenceNumber(acknowledgement));
+                    // a packet that is still not acknowledged while enough packets after it are, is lost:
+                    retransmitLostPackets(packetNumber);
+                } else {
+                    // the packet arrived corrupted, so retransmit it right away (and restart its timer):
+                    retransmit(packetNumber);
+                }
+            }
+        } else if ((receivedFlag == PacketProtocol.MOREFRAGMENTS || receivedFlag == PacketProtocol.LAST)
+                && PacketProtocol.getSequenceNumber(acknowledgement) - firstSequenceNumber < 0) {
+            // a packet of data that this side received before (see ChunkRepairProtocol) is sent again, as its
+            // acknowledgement was lost. Acknowledge it again, so the other side can stop sending it:
+            AcknowledgementProtocol.sendAcknowledgement(0, PacketProtocol.getSequenceNumber(acknowledgement), PacketProtocol.getAcknowledgementNumber(acknowledgement), context);
+        }
+    }
+
+    /**
+     * Handle a selective acknowledgement: acknowledge all packets up to its acknowledgement number and all packets in
+     * its ranges, and retransmit the holes in the ranges. Only the newest packet that is acknowledged gives a sample of
+     * the round trip time.
+     *
+     * @throws IOException if the data could not be read or a packet could not be sent.
+     */
+    private void handleSelectiveAcknowledgement() throws IOException {
+        int newestPacket = -1;
+        int numberOfRanges = PacketProtocol.getNumberOfSackRanges(acknowledgement, ackToReceive.getLength());
+        // range -1 is the range of the packets up to the acknowledgement number:
+        for (int range = -1; range < numberOfRanges; range++) {
+            int rangeStart = (range < 0) ? base : PacketProtocol.getSackRangeStart(acknowledgement, range) - firstSequenceNumber;
+            int rangeEnd = (range < 0) ? PacketProtocol.getAcknowledgementNumber(acknowledgement) - firstSequenceNumber + 1
+                    : PacketProtocol.getSackRangeEnd(acknowledgement, range) - firstSequenceNumber;
+            for (int packetNumber = Math.max(base, rangeStart); packetNumber < Math.min(rangeEnd, nextPacketNumber); packetNumber++) {
+                if (!acknowledged[packetNumber % windowSize]) {
+                    acknowledged[packetNumber % windowSize] = true;
+                    congestionController.onAcknowledgement(System.nanoTime(), rttEstimator.getSmoothedRttInNanos());
+                    newestPacket = Math.max(newestPacket, packetNumber);
+                }
+            }
+        }
+        if (newestPacket >= 0) {
+            rttEstimator.addSample(System.nanoTime() - timeSent[newestPacket % windowSize], retransmitted[newestPacket % windowSize]);
+            context.setLastReceivedSeqNr(PacketProtocol.getSequenceNumber(acknowledgement));
+            // the packets that are not acknowledged while enough packets after them are, are the holes in the ranges:
+            retransmitLostPackets(newestPacket);
+        }
+    }
+
+    /**
+     * Retransmit the packets that are lost according to a new acknowledgement: the packets that are still not
+     * acknowledged while at least DUPLICATE_ACK_THRESHOLD packets after them are (fast retransmit). Every lost packet
+     * is retransmitted once, and the congestion window is reduced at most once per window of packets. Afterwards, the
+     * newest packet that is acknowledged becomes the highest acknowledged packet.
+     *
+     * @param newestAcknowledged is the highest packet that the acknowledgement acknowledges.
+     * @throws IOException if the data could not be read or a packet could not be sent.
+     */
+    private void retransmitLostPackets(int newestAcknowledged) throws IOException {
+        int threshold = SelectiveRepeatProtocol.DUPLICATE_ACK_THRESHOLD;
+        int firstCandidate = Math.max(base, highestAcknowledged - threshold + 1);
+        for (int lostPacket = firstCandidate; lostPacket <= newestAcknowledged - threshold; lostPacket++) {
+            if (!acknowledged[lostPacket % windowSize] && !retransmitted[lostPacket % windowSize]) {
+                if (lostPacket >= recoveryPoint) {
+                    congestionController.onPacketLoss(System.nanoTime());
+                    statistics.addCongestionEvent();
+                    recoveryPoint = nextPacketNumber;
+                }
+                retransmit(lostPacket);
+            }
+        }
+        highestAcknowledged = Math.max(highestAcknowledged, newestAcknowledged);
+    }
+
+    /**
+     * Retransmit the packets in the window of which the timer has expired. The time-out is only doubled (and the
+     * congestion window reduced to one packet) when the timer of the oldest packet in the window expires, so this
+     * happens once per round of retransmissions instead of once for every packet in that round. From then on, all
+     * packets that were sent before are considered lost (as in TCP), and they are retransmitted as the congestion
+     * window grows again. The oldest packet is always retransmitted, the others only as long as the number of packets
+     * in flight is below the congestion window and the pacer allows it.
+     *
+     * @param timeOutInNanos is the current time-out of the timers of the packets.
+     * @throws IOException if the data could not be read or a packet could not be sent.
+     */
+    private void retransmitExpiredPackets(long timeOutInNanos) throws IOException {
+        long now = System.nanoTime();
+        if (!acknowledged[base % windowSize] && now - timeSent[base % windowSize] >= timeOutInNanos) {
+            rttEstimator.backOff();
+            congestionController.onTimeout(now);
+            statistics.addCongestionEvent();
+            recoveryPoint = nextPacketNumber;
+            lastTimeout = now;
+        }
+        int packetsInFlight = getNumberOfPacketsInFlight(now - timeOutInNanos);
+        for (int packetNumber = base; packetNumber < nextPacketNumber; packetNumber++) {
+            boolean isLost = now - timeSent[packetNumber % windowSize] >= timeOutInNanos || timeSent[packetNumber % windowSize] - lastTimeout < 0;
+            if (!acknowledged[packetNumber % windowSize] && isLost
+                    && (packetNumber == base || (packetsInFlight < congestionController.getCongestionWindow() && pacer.getWaitTimeInNanos(now) == 0))) {
+                retransmit(packetNumber);
+                packetsInFlight++;
+            }
+        }
+    }
+
+    /**
+     * Count the packets in the window that are sent but not acknowledged yet, and that are not considered lost: their
+     * timer did not expire, and they were sent after the last expired timer.
+     *
+     * @param expiryTime is the time after which a packet should have been sent to be in flight.
+     * @return the number of packets in flight.
+     */
+    private int getNumberOfPacketsInFlight(long expiryTime) {
+        int packetsInFlight = 0;
+        for (int packetNumber = base; packetNumber < nextPacketNumber; packetNumber++) {
+            long sent = timeSent[packetNumber % windowSize];
+            if (!acknowledged[packetNumber % windowSize] && sent - expiryTime > 0 && sent - lastTimeout >= 0) {
+                packetsInFlight++;
+            }
+        }
+        return packetsInFlight;
+    }
+
+    /**
+     * Retransmit a single packet of the file, and restart its timer.
+     *
+     * @param packetNumber is the number of the packet in the file (starting at 0).
+     * @throws IOException if the data could not be read or the packet could not be sent.
+     */
+    private void retransmit(int packetNumber) throws IOException {
+        sendPacket(packetNumber);
+        timeSent[packetNumber % windowSize] = System.nanoTime();
+        pacer.onPacketSent(packetToSend.getLength(), timeSent[packetNumber % windowSize]);
+        retransmitted[packetNumber % windowSize] = true;
+    }
+
+    /**
+     * Create and send a single packet of the file.
+     *
+     * @param packetNumber is the number of the packet in the file (starting at 0).
+     * @return the length of the data in the packet, which stays in the buffer after the header.
+     * @throws IOException if the data could not be read or the packet could not be sent.
+     */
+    private int sendPacket(int packetNumber) throws IOException {
+        statistics.addPacket();
+        // as long as the last packet of the file is not sent, the flag MOREFRAGMENTS will be sent as a sign for the
+        // receiver that more fragments will follow. Otherwise, the flag LAST will be sent.
+        int flag = (packetNumber == totalNumberOfPackets - 1) ? PacketProtocol.LAST : PacketProtocol.MOREFRAGMENTS;
+        int headerVersion = context.getHeaderVersion();
+        int options = context.getOptions();
+        long offset = (long) packetNumber * payloadSize;
+        int dataLengthInPacket = SelectiveRepeatProtocol.getPayloadLength(source.getSize(), packetNumber, payloadSize);
+        // encode the header in the buffer and read the data of the packet directly behind it:
+        PacketCodec.encodeHeader(packetBuffer, headerVersion, source.getSize(), offset, firstSequenceNumber + packetNumber, acknowledgementNumber, flag, options, dataLengthInPacket);
+        source.read(offset, packetBuffer.array(), headerSize, dataLengthInPacket);
+        packetBuffer.position(headerSize + dataLengthInPacket);
+        // a compressed packet is encoded in the buffer of the compressor, so the original data stays in the buffer:
+        ByteBuffer packet = (compressor != null) ? compressor.compress(packetBuffer, headerSize, dataLengthInPacket) : packetBuffer;
+        if (PacketProtocol.isCrc32cUsed(headerVersion, options)) {
+            PacketCodec.appendCrc32c(packet);
+        }
+        PacketCodec.toDatagram(packet, packetToSend);
+        socket.send(packetToSend);
+        return dataLengthInPacket;
+    }
+}
@@ -0,0 +1,34 @@
+package com.nedap.university;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Represents the SHA-256 digest of a file, which is calculated by the MessageDigest of the JVM.
+ */
+public class Sha256Digest implements FileDigest {
+    public static final int DIGEST_LENGTH = 32;
+    private final MessageDigest messageDigest;
+
+    /**
+     * Create an empty SHA-256 digest.
+     */
+    public Sha256Digest() {
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has to support SHA-256:
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        messageDigest.update(data, offset, length);
+    }
+
+    @Override
+    public byte[] digest() {
+        return messageDigest.digest();
+    }
+}
@@ -1,11 +1,29 @@
 package com.nedap.university;
 
+/**
+ * Represents the statistics of a file transmission. Every connection has its own statistics (see TransferContext), which
+ * are only updated by the thread that executes the transmission. If a file is transmitted over several streams at the
+ * same time, the statistics of every stream also add their progress to the statistics of the total file, which are
+ * shared by the threads of all streams.
+ */
 public class StatisticsProtocol {
-    public static int optimalNumberOfPackets;
-    public static int packetCount;
-    public static long startTime;
-    public static long endTime;
-    public static int FACTORNANOTOMILLI = 1000000;
+    public static final int FACTORNANOTOMILLI = 1000000;
+    private int optimalNumberOfPackets;
+    private int packetCount;
+    private long startTime;
+    private long endTime;
+    private long smoothedRtt;
+    private long retransmissionTimeout;
+    private int congestionWindow;
+    private int slowStartThreshold;
+    private int numberOfCongestionEvents;
+    private long originalPayloadLength;
+    private long compressedPayloadLength;
+    // the progress of the transmission in bytes, and the statistics of the total file if this is one of its streams:
+    private long transmittedBytes;
+    private long totalBytes;
+    private long lastProgress = -1;
+    private StatisticsProtocol totalStatistics;
 
     /**
      * Calculate the progress of transmission.
@@ -17,52 +35,172 @@ public class StatisticsProtocol {
      * @return the percentage that is being transmitted.
      */
     public static long calculateProgress(long part, long total) {
+        if (total == 0) {
+            return 100;
+        }
         return ((part * 100) / total);
     }
 
+    /**
+     * Start showing the progress of a new transmission.
+     *
+     * @param totalBytes is the total number of bytes that is transmitted.
+     */
+    public void startProgress(long totalBytes) {
+        this.transmittedBytes = 0;
+        this.totalBytes = totalBytes;
+        this.lastProgress = -1;
+    }
+
+    /**
+     * Update the progress of the transmission, and show it if the percentage changed. If the connection carries one of
+     * the streams of a file, the progress of the total file is shown instead.
+     *
+     * @param direction        is the direction of the transmission ("Sending" or "Receiving").
+     * @param transmittedBytes is the number of bytes that is transmitted so far.
+     */
+    public void updateProgress(String direction, long transmittedBytes) {
+        if (totalStatistics != null) {
+            totalStatistics.addTransmittedBytes(direction, transmittedBytes - this.transmittedBytes);
+            this.transmittedBytes = transmittedBytes;
+        } else {
+            addTransmittedBytes(direction, transmittedBytes - this.transmittedBytes);
+        }
+    }
+
+    /**
+     * Add bytes to the progress and show it if the percentage changed. Synchronized, as the statistics of a total file
+     * are updated by the threads of all of its streams.
+     *
+     * @param direction is the direction of the transmission ("Sending" or "Receiving").
+     * @param bytes     is the number of bytes that is added.
+     */
+    private synchronized void addTransmittedBytes(String direction, long bytes) {
+        transmittedBytes = transmittedBytes + bytes;
+        long progress = calculateProgress(transmittedBytes, totalBytes);
+        if (progress != lastProgress) {
+            System.out.println(direction + " progression: " + progress + "% complete.");
+            lastProgress = progress;
+        }
+    }
+
+    /**
+     * Let the progress of this connection count for the statistics of the total file, as the connection carries one of
+     * its streams.
+     *
+     * @param totalStatistics is the statistics of the total file, or null if the progress of this connection is shown
+     *                        on its own again.
+     */
+    public void setTotalStatistics(StatisticsProtocol totalStatistics) {
+        this.totalStatistics = totalStatistics;
+    }
+
     /**
      * Set the optimal number of packets to the minimal number of packets that is needed to receive the total file.
      *
      * @param totalNumberOfPackets is the total number of packets that minimally required to receive the total file.
      */
-    public static void setOptimalNumberOfPackets(int totalNumberOfPackets) {
-        StatisticsProtocol.optimalNumberOfPackets = totalNumberOfPackets;
+    public void setOptimalNumberOfPackets(int totalNumberOfPackets) {
+        this.optimalNumberOfPackets = totalNumberOfPackets;
     }
 
     /**
      * Set the start time of file transmission to the time this timer is started.
      */
-    public static void startTimer() {
-        StatisticsProtocol.startTime = System.nanoTime();
+    public void startTimer() {
+        this.startTime = System.nanoTime();
     }
 
     /**
      * Set the end time of file transmission to the time this timer is stopped.
      */
-    public static void stopTimer() {
-        StatisticsProtocol.endTime = System.nanoTime();
+    public void stopTimer() {
+        this.endTime = System.nanoTime();
     }
 
     /**
      * Add the packet count by one.
      */
-    public static void addPacket() {
+    public void addPacket() {
         packetCount++;
     }
 
     /**
      * Reset the packetCount to 0.
      */
-    public static void resetPacketCount() {
+    public void resetPacketCount() {
         packetCount = 1;
     }
 
+    /**
+     * Store the current round trip time estimate of the connection, in order to show it in the statistics.
+     *
+     * @param rttEstimator is the round trip time estimator of the connection.
+     */
+    public void setRoundTripTimeEstimate(RttEstimator rttEstimator) {
+        this.smoothedRtt = rttEstimator.getSmoothedRttInNanos();
+        this.retransmissionTimeout = rttEstimator.getTimeoutInNanos();
+    }
+
+    /**
+     * Store the current congestion window and slow start threshold of the sender, in order to show them in the
+     * statistics.
+     *
+     * @param congestionController is the congestion controller of the transfer.
+     */
+    public void setCongestionWindow(CongestionController congestionController) {
+        this.congestionWindow = congestionController.getCongestionWindow();
+        this.slowStartThreshold = congestionController.getSlowStartThreshold();
+    }
+
+    /**
+     * Set the length of the payloads of the last file transmission before and after compression.
+     *
+     * @param compressor is the compressor of the file, or null if the file is not compressed.
+     */
+    public void setCompression(FragmentCompressor compressor) {
+        this.originalPayloadLength = (compressor != null) ? compressor.getOriginalLength() : 0;
+        this.compressedPayloadLength = (compressor != null) ? compressor.getCompressedLength() : 0;
+    }
+
+    /**
+     * Count a reduction of the congestion window (after a lost packet or an expired timer).
+     */
+    public void addCongestionEvent() {
+        numberOfCongestionEvents++;
+    }
+
+    /**
+     * Reset the number of reductions of the congestion window before a new transmission starts.
+     */
+    public void resetCongestionEvents() {
+        numberOfCongestionEvents = 0;
+    }
+
+    /**
+     * Get the congestion window at the end of the transmission.
+     *
+     * @return the congestion window in packets.
+     */
+    public int getCongestionWindow() {
+        return congestionWindow;
+    }
+
+    /**
+     * Get the slow start threshold at the end of the transmission.
+     *
+     * @return the slow start threshold in packets.
+     */
+    public int getSlowStartThreshold() {
+        return slowStartThreshold;
+    }
+
     /**
      * Calculate the total file transmission time.
      *
      * @return the total file transmission time.
      */
-    public static long calculateTotalTransmissionTimeInMs() {
+    public long calculateTotalTransmissionTimeInMs() {
         return ((endTime - startTime)/FACTORNANOTOMILLI);
     }
 
@@ -71,7 +209,7 @@ public class StatisticsProtocol {
      *
      * @return the file transmission time per packet.
      */
-    public static long getTransmissionTimePerPacket() {
+    public long getTransmissionTimePerPacket() {
         long totalTransmissionTime = calculateTotalTransmissionTimeInMs();
         return totalTransmissionTime / packetCount;
     }
@@ -81,7 +219,7 @@ public class StatisticsProtocol {
      *
      * @return the total number of retransmitted packets.
      */
-    public static int getNumberOfRetransmittedPackets() {
+    public int getNumberOfRetransmittedPackets() {
         return (packetCount - optimalNumberOfPackets);
     }
 
@@ -90,16 +228,24 @@ public class StatisticsProtocol {
      *
      * @return the optimal file transmission time.
      */
-    public static long getOptimalTransmissionTime() {
+    public long getOptimalTransmissionTime() {
         return (getTransmissionTimePerPacket() * optimalNumberOfPackets)+1; // add one to adjust for rounding down.
     }
 
-    public static String statisticsInMessage() {
+    /**
+     * Create a message that describes the statistics of the last file transmission.
+     *
+     * @return the message with the statistics.
+     */
+    public String statisticsInMessage() {
         return ("   The total transmission time of the file was " + calculateTotalTransmissionTimeInMs() + " ms.\n" +
                 "   The total file could have been sent in an optimal total of " + optimalNumberOfPackets + " packets.\n" +
                 "   However, the total number of packets that were needed was " + packetCount + ".\n" +
                 "   This indicates a total number of " + getNumberOfRetransmittedPackets() + " retransmitted packets. \n" +
                 "   The mean transmission time per packet was " + getTransmissionTimePerPacket() + " ms per packet.\n" +
-                "   This indicates that the transmission of the total packet could optimally have taken place in " + getOptimalTransmissionTime() + " ms.\n");
+                "   This indicates that the transmission of the total packet could optimally have taken place in " + getOptimalTransmissionTime() + " ms.\n" +
+                "   The smoothed round trip time was " + ((double) smoothedRtt / FACTORNANOTOMILLI) + " ms, resulting in a time-out of " + ((double) retransmissionTimeout / FACTORNANOTOMILLI) + " ms.\n" +
+                "   The congestion window ended at " + congestionWindow + " packets with a slow start threshold of " + slowStartThreshold + " packets, after " + numberOfCongestionEvents + " reduction(s).\n" +
+                ((originalPayloadLength > 0) ? "   The compressed data was " + (compressedPayloadLength * 100 / originalPayloadLength) + "% of the original data.\n" : ""));
     }
 }
@@ -0,0 +1,95 @@
+package com.nedap.university;
+
+/**
+ * Represents a token bucket that limits the rate at which bytes are sent. The bucket fills with tokens (bytes) at the
+ * rate, up to its capacity, and every packet that is sent takes its length from the bucket. A packet may be sent as
+ * long as there are tokens left, so the bucket can go into debt by at most one packet, after which the sender waits
+ * until the debt is paid off. The capacity is the data of BURST_TIME (and at least MIN_BURST packets of the default
+ * size), which also absorbs the granularity of the time-outs of the sender: if it wakes up late, the tokens it missed
+ * are still in the bucket. The bucket is thread-safe, so one bucket can limit the total rate of several transfers (such
+ * as the streams of one client).
+ */
+public class TokenBucket {
+    public static final long BURST_TIME = 1000000L; // in ns (1 ms).
+    public static final int MIN_BURST = 2; // in packets.
+    private static final double NANOS_PER_SECOND = 1e9;
+    private double rate;
+    private double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Create a full token bucket.
+     *
+     * @param bytesPerSecond is the rate at which the bucket fills, or 0 if the rate is not limited.
+     */
+    public TokenBucket(double bytesPerSecond) {
+        setRate(bytesPerSecond);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Get the rate at which the bucket fills.
+     *
+     * @return the rate in bytes per second, or 0 if the rate is not limited.
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Set the rate at which the bucket fills (and the capacity that follows from it). The tokens that are in the bucket
+     * are kept, as far as they fit.
+     *
+     * @param bytesPerSecond is the rate in bytes per second, or 0 if the rate is not limited.
+     */
+    public synchronized void setRate(double bytesPerSecond) {
+        rate = Math.max(0, bytesPerSecond);
+        capacity = Math.max(MIN_BURST * PacketProtocol.DEFAULT_FRAGMENT_SIZE, rate * BURST_TIME / NANOS_PER_SECOND);
+        tokens = Math.min(tokens, capacity);
+    }
+
+    /**
+     * Get the time until the next packet may be sent.
+     *
+     * @param now is the current time in ns.
+     * @return the time to wait in ns, or 0 if a packet may be sent right away.
+     */
+    public synchronized long getWaitTimeInNanos(long now) {
+        if (rate == 0) {
+            return 0;
+        }
+        refill(now);
+        if (tokens > 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-tokens * NANOS_PER_SECOND / rate) + 1;
+    }
+
+    /**
+     * Take the length of a packet that is sent from the bucket, which may go into debt.
+     *
+     * @param length is the length of the packet in bytes.
+     * @param now    is the current time in ns.
+     */
+    public synchronized void consume(int length, long now) {
+        if (rate == 0) {
+            return;
+        }
+        refill(now);
+        tokens = tokens - length;
+    }
+
+    /**
+     * Add the tokens of the time since the last refill to the bucket.
+     *
+     * @param now is the current time in ns.
+     */
+    private void refill(long now) {
+        if (now - lastRefill > 0) {
+            tokens = Math.min(capacity, tokens + (rate * (now - lastRefill) / NANOS_PER_SECOND));
+            lastRefill = now;
+        }
+    }
+}
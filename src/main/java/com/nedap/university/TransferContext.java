@@ -0,0 +1,315 @@
+package com.nedap.university;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the state of the transfers between one client and the server: the socket and destination, the round trip
+ * time estimator, the congestion control algorithm and rate limiter, the version and options of the packet headers, the
+ * last received sequence and acknowledgement numbers, the last sent and received acknowledgements, the received file
+ * and the statistics. Every connection has its own context, so transfers of different connections can take place at the
+ * same time without sharing any state. A context is used by one thread at a time.
+ */
+public class TransferContext {
+    private final PacketSocket socket;
+    private final InetAddress address;
+    private final int port;
+    private final RttEstimator rttEstimator;
+    private final StatisticsProtocol statistics;
+    private final ByteBuffer acknowledgementBuffer;
+    private final DatagramPacket acknowledgementPacket;
+    private int headerVersion = PacketProtocol.CURRENT_HEADER_VERSION;
+    private int options;
+    private CongestionAlgorithm congestionAlgorithm = CongestionAlgorithm.CUBIC;
+    private TokenBucket rateLimiter;
+    private int lastReceivedSeqNr;
+    private int lastReceivedAckNr;
+    private byte[] lastReceivedAcknowledgement;
+    private DatagramPacket lastSentAcknowledgement;
+    private byte[] fileInBytes;
+
+    /**
+     * Create the context of a connection.
+     *
+     * @param socket       is the socket via which the client and server are connected.
+     * @param address      is the address to which the packets need to be sent.
+     * @param port         is the port to which the packets need to be sent.
+     * @param rttEstimator is the round trip time estimator of the connection.
+     */
+    public TransferContext(PacketSocket socket, InetAddress address, int port, RttEstimator rttEstimator) {
+        this.socket = socket;
+        this.address = address;
+        this.port = port;
+        this.rttEstimator = rttEstimator;
+        this.statistics = new StatisticsProtocol();
+        // acknowledgements are encoded in the same buffer and sent via the same packet every time (which is large
+        // enough for a selective acknowledgement):
+        this.acknowledgementBuffer = ByteBuffer.allocate(PacketProtocol.PACKET_WITH_MESSAGE_SIZE);
+        this.acknowledgementPacket = new DatagramPacket(acknowledgementBuffer.array(), 0, address, port);
+    }
+
+
+//          --- GETTERS AND SETTERS ---
+
+    /**
+     * Get the socket via which the client and server are connected.
+     *
+     * @return the socket.
+     */
+    public PacketSocket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Get the address to which the packets need to be sent.
+     *
+     * @return the address.
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the port to which the packets need to be sent.
+     *
+     * @return the port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the round trip time estimator of the connection.
+     *
+     * @return the round trip time estimator.
+     */
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    /**
+     * Get the statistics of the last file transmission of this connection.
+     *
+     * @return the statistics.
+     */
+    public StatisticsProtocol getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Get the buffer in which the acknowledgements of this connection are encoded.
+     *
+     * @return the acknowledgement buffer.
+     */
+    public ByteBuffer getAcknowledgementBuffer() {
+        return acknowledgementBuffer;
+    }
+
+    /**
+     * Get the packet via which the acknowledgements of this connection are sent, which refers to the acknowledgement
+     * buffer.
+     *
+     * @return the acknowledgement packet.
+     */
+    public DatagramPacket getAcknowledgementPacket() {
+        return acknowledgementPacket;
+    }
+
+    /**
+     * Get the version of the headers of the packets that are sent via this connection.
+     *
+     * @return the header version.
+     */
+    public int getHeaderVersion() {
+        return headerVersion;
+    }
+
+    /**
+     * Set the version of the headers of the packets that are sent via this connection. The server uses the version of
+     * the request of the client, so clients that only know version 1 keep working.
+     *
+     * @param headerVersion is the version of the headers.
+     */
+    public void setHeaderVersion(int headerVersion) {
+        this.headerVersion = headerVersion;
+    }
+
+    /**
+     * Get the options (of the header of version 2) that are used by this connection.
+     *
+     * @return the options.
+     */
+    public int getOptions() {
+        return options;
+    }
+
+    /**
+     * Set the options (of the header of version 2) that are used by this connection, such as the CRC32C of every data
+     * packet. Headers of version 1 do not have options, so the options are ignored for such connections.
+     *
+     * @param options are the options.
+     */
+    public void setOptions(int options) {
+        this.options = options;
+    }
+
+    /**
+     * Get the size of the data packets of this connection, which follows from the options.
+     *
+     * @return the fragment size.
+     */
+    public int getFragmentSize() {
+        return PacketProtocol.getFragmentSize(headerVersion, options);
+    }
+
+    /**
+     * Get the algorithm of the digest of the total file that this connection uses, which follows from the options.
+     *
+     * @return the digest algorithm.
+     */
+    public DigestAlgorithm getDigestAlgorithm() {
+        return PacketProtocol.getDigestAlgorithm(headerVersion, options);
+    }
+
+    /**
+     * Create an empty digest of the total file for a transfer of this connection. If the connection repairs chunks,
+     * this is a Merkle tree over the chunks of the file, of which the root is the digest of the total file.
+     *
+     * @return the digest.
+     */
+    public FileDigest createFileDigest() {
+        if (PacketProtocol.isChunkRepairUsed(headerVersion, options)) {
+            return new MerkleTreeDigest(getDigestAlgorithm(), ChunkRepairProtocol.CHUNK_SIZE);
+        }
+        return getDigestAlgorithm().createDigest();
+    }
+
+    /**
+     * Get the algorithm with which the congestion window of the transfers that this connection sends is controlled.
+     *
+     * @return the congestion control algorithm.
+     */
+    public CongestionAlgorithm getCongestionAlgorithm() {
+        return congestionAlgorithm;
+    }
+
+    /**
+     * Set the algorithm with which the congestion window of the transfers that this connection sends is controlled.
+     *
+     * @param congestionAlgorithm is the congestion control algorithm.
+     */
+    public void setCongestionAlgorithm(CongestionAlgorithm congestionAlgorithm) {
+        this.congestionAlgorithm = congestionAlgorithm;
+    }
+
+    /**
+     * Get the token bucket that limits the rate at which the transfers of this connection are sent.
+     *
+     * @return the rate limiter, or null if the rate is only limited by the congestion window.
+     */
+    public TokenBucket getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Set the token bucket that limits the rate at which the transfers of this connection are sent. The same bucket can
+     * be set for several connections, which then share its rate (for example all connections of one client).
+     *
+     * @param rateLimiter is the rate limiter, or null if the rate is only limited by the congestion window.
+     */
+    public void setRateLimiter(TokenBucket rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Get the last received sequence number.
+     *
+     * @return the last received sequence number.
+     */
+    public int getLastReceivedSeqNr() {
+        return lastReceivedSeqNr;
+    }
+
+    /**
+     * Set the last received sequence number.
+     *
+     * @param lastReceivedSeqNr is the sequence number that is last received.
+     */
+    public void setLastReceivedSeqNr(int lastReceivedSeqNr) {
+        this.lastReceivedSeqNr = lastReceivedSeqNr;
+    }
+
+    /**
+     * Get the last received acknowledgement number.
+     *
+     * @return the last received acknowledgement number.
+     */
+    public int getLastReceivedAckNr() {
+        return lastReceivedAckNr;
+    }
+
+    /**
+     * Set the last received acknowledgement number.
+     *
+     * @param lastReceivedAckNr is acknowledgement number that is last received.
+     */
+    public void setLastReceivedAckNr(int lastReceivedAckNr) {
+        this.lastReceivedAckNr = lastReceivedAckNr;
+    }
+
+    /**
+     * Get the byte representation of the last received acknowledgement packet.
+     *
+     * @return the byte representation of the last received acknowledgement packet.
+     */
+    public byte[] getLastReceivedAcknowledgement() {
+        return lastReceivedAcknowledgement;
+    }
+
+    /**
+     * Set the byte representation of the last received acknowledgement packet.
+     *
+     * @param acknowledgement is the byte representation of the last received acknowledgement packet.
+     */
+    public void setLastReceivedAcknowledgement(byte[] acknowledgement) {
+        this.lastReceivedAcknowledgement = acknowledgement;
+    }
+
+    /**
+     * Get the last sent acknowledgement packet.
+     *
+     * @return the last sent acknowledgement packet.
+     */
+    public DatagramPacket getLastSentAcknowledgement() {
+        return lastSentAcknowledgement;
+    }
+
+    /**
+     * Set the last sent acknowledgement packet.
+     *
+     * @param acknowledgement is the last sent acknowledgement packet.
+     */
+    public void setLastSentAcknowledgement(DatagramPacket acknowledgement) {
+        this.lastSentAcknowledgement = acknowledgement;
+    }
+
+    /**
+     * Get the byte representation of the received file.
+     *
+     * @return the byte representation of the received file.
+     */
+    public byte[] getFileInBytes() {
+        return fileInBytes;
+    }
+
+    /**
+     * Set the byte representation of the received file. The array is stored as is (it is not copied), as it is not
+     * changed after the file is received.
+     *
+     * @param fileInBytes is the byte representation of the received file.
+     */
+    public void setFileInBytes(byte[] fileInBytes) {
+        this.fileInBytes = fileInBytes;
+    }
+}
@@ -0,0 +1,47 @@
+package com.nedap.university;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+
+/**
+ * Represents a packet socket that directly sends and receives packets via its own UDP socket.
+ */
+public class UdpPacketSocket implements PacketSocket {
+    private final DatagramSocket socket;
+
+    /**
+     * Create a packet socket that uses the given UDP socket.
+     *
+     * @param socket is the UDP socket via which packets are sent and received.
+     */
+    public UdpPacketSocket(DatagramSocket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        socket.send(packet);
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        socket.receive(packet);
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,138 @@
+package com.nedap.university;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Represents the XXH64 hash of a file (with seed 0), a fast non-cryptographic 64-bit hash. The data is processed in
+ * stripes of 32 bytes by four independent lanes; bytes that do not fill a complete stripe yet are kept until the next
+ * part is added or the digest is calculated. The digest is the hash in network byte order.
+ */
+public class XxHash64Digest implements FileDigest {
+    public static final int DIGEST_LENGTH = 8;
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE_LENGTH = 32;
+    // XXH64 reads the data as little-endian words:
+    private static final VarHandle LONG_LITTLE_ENDIAN = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LITTLE_ENDIAN = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private long lane1 = PRIME_1 + PRIME_2;
+    private long lane2 = PRIME_2;
+    private long lane3 = 0;
+    private long lane4 = -PRIME_1;
+    private long totalLength;
+    private final byte[] stripe = new byte[STRIPE_LENGTH];
+    private int stripeLength;
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        totalLength = totalLength + length;
+        // first complete the stripe of the previous part (if any):
+        if (stripeLength > 0) {
+            int bytesToCopy = Math.min(length, STRIPE_LENGTH - stripeLength);
+            System.arraycopy(data, offset, stripe, stripeLength, bytesToCopy);
+            stripeLength = stripeLength + bytesToCopy;
+            offset = offset + bytesToCopy;
+            length = length - bytesToCopy;
+            if (stripeLength < STRIPE_LENGTH) {
+                return;
+            }
+            processStripe(stripe, 0);
+            stripeLength = 0;
+        }
+        // then process all complete stripes directly from the data, and keep the bytes that remain:
+        while (length >= STRIPE_LENGTH) {
+            processStripe(data, offset);
+            offset = offset + STRIPE_LENGTH;
+            length = length - STRIPE_LENGTH;
+        }
+        System.arraycopy(data, offset, stripe, 0, length);
+        stripeLength = length;
+    }
+
+    @Override
+    public byte[] digest() {
+        long hash;
+        if (totalLength >= STRIPE_LENGTH) {
+            hash = Long.rotateLeft(lane1, 1) + Long.rotateLeft(lane2, 7) + Long.rotateLeft(lane3, 12) + Long.rotateLeft(lane4, 18);
+            hash = mergeLane(hash, lane1);
+            hash = mergeLane(hash, lane2);
+            hash = mergeLane(hash, lane3);
+            hash = mergeLane(hash, lane4);
+        } else {
+            hash = PRIME_5;
+        }
+        hash = hash + totalLength;
+        // add the bytes that did not fill a complete stripe, per eight, four and one byte(s):
+        int i = 0;
+        while (i + 8 <= stripeLength) {
+            hash = hash ^ round(0, (long) LONG_LITTLE_ENDIAN.get(stripe, i));
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+            i = i + 8;
+        }
+        if (i + 4 <= stripeLength) {
+            hash = hash ^ (((int) INT_LITTLE_ENDIAN.get(stripe, i) & 0xffffffffL) * PRIME_1);
+            hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+            i = i + 4;
+        }
+        while (i < stripeLength) {
+            hash = hash ^ ((stripe[i] & 0xffL) * PRIME_5);
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+            i++;
+        }
+        // mix the bits of the hash (avalanche):
+        hash = hash ^ (hash >>> 33);
+        hash = hash * PRIME_2;
+        hash = hash ^ (hash >>> 29);
+        hash = hash * PRIME_3;
+        hash = hash ^ (hash >>> 32);
+        byte[] digest = new byte[DIGEST_LENGTH];
+        for (int j = 0; j < DIGEST_LENGTH; j++) {
+            digest[j] = (byte) (hash >>> (56 - (8 * j)));
+        }
+        return digest;
+    }
+
+    /**
+     * Add a stripe of 32 bytes to the four lanes.
+     *
+     * @param data   is the array that holds the stripe.
+     * @param offset is the position of the stripe in the array.
+     */
+    private void processStripe(byte[] data, int offset) {
+        lane1 = round(lane1, (long) LONG_LITTLE_ENDIAN.get(data, offset));
+        lane2 = round(lane2, (long) LONG_LITTLE_ENDIAN.get(data, offset + 8));
+        lane3 = round(lane3, (long) LONG_LITTLE_ENDIAN.get(data, offset + 16));
+        lane4 = round(lane4, (long) LONG_LITTLE_ENDIAN.get(data, offset + 24));
+    }
+
+    /**
+     * Add eight bytes of input to a lane.
+     *
+     * @param lane  is the value of the lane.
+     * @param input is the input.
+     * @return the new value of the lane.
+     */
+    private static long round(long lane, long input) {
+        lane = lane + (input * PRIME_2);
+        lane = Long.rotateLeft(lane, 31);
+        return lane * PRIME_1;
+    }
+
+    /**
+     * Merge a lane into the hash.
+     *
+     * @param hash is the hash so far.
+     * @param lane is the value of the lane.
+     * @return the new hash.
+     */
+    private static long mergeLane(long hash, long lane) {
+        hash = hash ^ round(0, lane);
+        return hash * PRIME_1 + PRIME_4;
+    }
+}
@@ -5,22 +5,24 @@ import com.nedap.university.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 
 /**
  * Represents the client for the file transfer.
  */
 public class Client implements Runnable {
     ClientTUI clientTUI;
-    private DatagramSocket clientSocket;
+    private PacketSocket clientSocket;
+    private TransferContext context;
     private boolean quit;
     private boolean tryToReceive;
     String fileName;
     String oldFileName;
     String newFileName;
     DatagramPacket requestPacket;
+    private int numberOfStreams = 1;
+    private FileBatch batch;
+    private volatile int fragmentSize = PacketProtocol.DEFAULT_FRAGMENT_SIZE;
 
     /**
      * Create a new client that contains a textual user interface for file transmission.
@@ -37,7 +39,9 @@ public class Client implements Runnable {
      */
     public boolean startClient() {
         try {
-            clientSocket = new DatagramSocket();
+            clientSocket = ChannelPacketSocket.open();
+            // the client only has one connection (with the server), so one context is used for all commands:
+            context = new TransferContext(clientSocket, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT, new RttEstimator());
             Thread clientThread = new Thread(this);
             clientThread.start();
             return true;
@@ -64,6 +68,9 @@ public class Client implements Runnable {
     @Override
     public void run() {
         quit = false;
+        // probe the path to the server once, so every request can ask for the largest fragment size that it carries:
+        fragmentSize = PathMtuProtocol.probe(context);
+        System.out.println("The packets to the server carry up to " + fragmentSize + " bytes.");
         while (!quit) {
             while (!tryToReceive) {
                 try {
@@ -72,114 +79,108 @@ public class Client implements Runnable {
                     System.out.println("Not able to sleep for one second due to interruption.");
                 }
             }
+            // a file that is transferred over several streams uses a connection of its own for every stream:
+            if (numberOfStreams > 1) {
+                transferInParallel(PacketProtocol.getRequestFlag(getRequestPacket().getData()), getFileName(), numberOfStreams);
+                System.out.println("Give the command you want to execute next:");
+                tryToReceive = false;
+                continue;
+            }
             // send request to the server and try to receive an ACK (if ACK not received in time, resend packet):
-            AcknowledgementProtocol.sendRequestAndReceiveAckWithMessage(clientSocket, getRequestPacket());
+            AcknowledgementProtocol.sendRequestAndReceiveAckWithMessage(context, getRequestPacket());
             // print the message from the server:
-            byte[] acknowledgement = AcknowledgementProtocol.getLastReceivedAcknowledgement();
-            String messageFromServer = new String(acknowledgement, PacketProtocol.HEADER_SIZE, (acknowledgement.length - PacketProtocol.HEADER_SIZE));
+            byte[] acknowledgement = context.getLastReceivedAcknowledgement();
+            int headerSize = PacketProtocol.getHeaderSize(acknowledgement);
+            String messageFromServer = new String(acknowledgement, headerSize, (acknowledgement.length - headerSize));
             System.out.println(messageFromServer.trim());
+            // use the options that the server accepted (a server that does not know them responds without options):
+            context.setOptions(PacketProtocol.getOptions(acknowledgement));
             // if the server responded with an acknowledgement, execute the command:
             int receivedFlag = PacketProtocol.getFlag(acknowledgement);
             if (receivedFlag == PacketProtocol.ACK) {
                 // first, get some information from the packet that is received:
                 int lastReceivedSeqNr = PacketProtocol.getSequenceNumber(acknowledgement);
                 int lastReceivedAckNr = PacketProtocol.getAcknowledgementNumber(acknowledgement);
-                int totalFileSize = PacketProtocol.getFileSizeInPacket(acknowledgement);
+                long totalFileSize = PacketProtocol.getFileSizeInPacket(acknowledgement);
                 // then, get the flag and name(s) of the file(s) that are sent in the initial request to the server be
                 // able to correctly execute that command:
-                int requestFlag = PacketProtocol.getFlag(getRequestPacket().getData());
+                int requestFlag = PacketProtocol.getRequestFlag(getRequestPacket().getData());
+                // if an interrupted transfer is continued, the file is sent from this offset:
+                long resumeOffset = ResumeProtocol.getResumeOffset(acknowledgement);
                 String fileName = getFileName();
                 String oldFileName = getOldFileName();
                 String newFileName = getNewFileName();
-                // create variable that can be used in multiple switch cases:
-                byte[] dataOfFileToSend;
                 // execute the steps that are needed per command:
                 switch (requestFlag) {
                     case PacketProtocol.UPLOAD:
-                        // create a byte representation from the (new) file that needs to be uploaded to the server:
-                        dataOfFileToSend = FileProtocol.fileToBytes(FileProtocol.CLIENT_FILEPATH, fileName);
-                        // send the byte representation of the file to the server:
-                        if (dataOfFileToSend != null) {
-                            try {
-                                StopAndWaitProtocol.sendFile(dataOfFileToSend, lastReceivedSeqNr, lastReceivedAckNr, clientSocket, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
-                            } catch (UnknownHostException e) {
-                                System.out.println("Check the destination address input (server address), as the destination could not be found.");
-                            }
-                            // calculate the checksum of the original file and send it to the server:
-                            int checksumOfTotalFile = DataIntegrityProtocol.calculateChecksum(dataOfFileToSend);
-                            lastReceivedSeqNr = StopAndWaitProtocol.getLastReceivedSeqNr();
-                            lastReceivedAckNr = StopAndWaitProtocol.getLastReceivedAckNr();
-                            // create packet with checksum of total file in it, send it to the server and try to receive an ACK:
-                            DatagramPacket checksumToSend = null;
-                            try {
-                                checksumToSend = DataIntegrityProtocol.createChecksumPacket(checksumOfTotalFile, lastReceivedSeqNr, lastReceivedAckNr, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
-                            } catch (UnknownHostException e) {
-                                System.out.println("Check the destination address input (server address), as the destination could not be found.");
-                            }
-                            if (AcknowledgementProtocol.sendChecksumAndReceiveAck(clientSocket, checksumToSend)) {
-                                System.out.println(fileName + " is successfully uploaded to the server.");
-                            } else {
-                                System.out.println("The upload of " + fileName + " was not successful. Please, try again.");
+                        if (batch != null) {
+                            transferBatch(requestFlag, lastReceivedSeqNr, lastReceivedAckNr);
+                            break;
+                        }
+                        // open the file that needs to be uploaded to the server and send it (including its checksum):
+                        try (FragmentSource source = FileProtocol.openFileToSend(FileProtocol.CLIENT_FILEPATH, fileName)) {
+                            if (source != null) {
+                                if (sendFileWithChecksum(source, resumeOffset, lastReceivedSeqNr, lastReceivedAckNr)) {
+                                    System.out.println(fileName + " is successfully uploaded to the server.");
+                                } else {
+                                    System.out.println("The upload of " + fileName + " was not successful. Please, try again.");
+                                }
                             }
+                        } catch (IOException e) {
+                            System.out.println("Could not read " + fileName + ": " + e.getMessage());
                         }
                         break;
                     case PacketProtocol.DOWNLOAD:
-                        // respond with an acknowledgement to the server, to let it know that download can start:
-                        try {
-                            AcknowledgementProtocol.sendAcknowledgement(0, lastReceivedSeqNr, lastReceivedAckNr, clientSocket, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
-                        } catch (UnknownHostException e) {
-                            System.out.println("Check the destination address input (server address), as the destination could not be found.");
+                        if (batch != null) {
+                            transferBatch(requestFlag, lastReceivedSeqNr, lastReceivedAckNr);
+                            break;
                         }
-                        // receive the file from the server:
-                        StopAndWaitProtocol.receiveFile(clientSocket, totalFileSize);
-                        File downloadedFile = FileProtocol.bytesToFile(FileProtocol.CLIENT_FILEPATH, fileName, StopAndWaitProtocol.getFileInBytes());
-                        try {
-                            if (DataIntegrityProtocol.receiveAndPerformTotalChecksum(clientSocket, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT, downloadedFile)) {
+                        // open the partial file to which the downloaded data is written directly (and in which an
+                        // interrupted download is continued). The file is only stored under its actual name if it is
+                        // received completely and its checksum is correct:
+                        try (FileFragmentSink downloadedFile = FileProtocol.openFileToResume(FileProtocol.CLIENT_FILEPATH, fileName, totalFileSize)) {
+                            if (downloadedFile == null) {
+                                break;
+                            }
+                            downloadedFile.resumeFrom(resumeOffset);
+                            // respond with an acknowledgement to the server, to let it know that download can start:
+                            AcknowledgementProtocol.sendAcknowledgement(0, lastReceivedSeqNr, lastReceivedAckNr, context);
+                            // the data before the offset is not sent again, so add it to the digest from the file itself:
+                            FileDigest digestOfDownloadedFile = context.createFileDigest();
+                            ResumeProtocol.addDataBeforeOffset(downloadedFile, resumeOffset, digestOfDownloadedFile);
+                            if (!SelectiveRepeatProtocol.receiveFile(context, totalFileSize - resumeOffset, lastReceivedSeqNr, new FragmentRange(downloadedFile, downloadedFile, resumeOffset), digestOfDownloadedFile)) {
+                                System.out.println("The download of " + fileName + " was interrupted. Download it again to continue where it stopped.");
+                            } else if (ChunkRepairProtocol.receiveDigestAndRepair(context, downloadedFile, digestOfDownloadedFile)) {
+                                downloadedFile.commit();
                                 System.out.println("The file is successfully downloaded.");
                             } else {
+                                downloadedFile.abort();
                                 System.out.println("The file that you downloaded is not the same as the original file on the server and is therefore not saved.");
                             }
                         } catch (IOException e) {
-                            System.out.println("Check the destination address input (server address), as the destination could not be found.");
+                            System.out.println("Could not store the downloaded file: " + e.getMessage());
                         }
                         break;
                     case PacketProtocol.REPLACE:
-                        dataOfFileToSend = FileProtocol.fileToBytes(FileProtocol.CLIENT_FILEPATH, newFileName);
-                        // send the byte representation of the file to the server:
-                        if (dataOfFileToSend != null) {
-                            try {
-                                StopAndWaitProtocol.sendFile(dataOfFileToSend, lastReceivedSeqNr, lastReceivedAckNr, clientSocket, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
-                            } catch (UnknownHostException e) {
-                                System.out.println("Check the destination address input (server address), as the destination could not be found.");
-                            }
-                            // calculate the checksum of the original file and send it to the server:
-                            int checksumOfTotalFile = DataIntegrityProtocol.calculateChecksum(dataOfFileToSend);
-                            lastReceivedSeqNr = StopAndWaitProtocol.getLastReceivedSeqNr();
-                            lastReceivedAckNr = StopAndWaitProtocol.getLastReceivedAckNr();
-                            // create packet with checksum of total file in it, send it to the server and try to receive an ACK:
-                            DatagramPacket checksumToSend = null;
-                            try {
-                                checksumToSend = DataIntegrityProtocol.createChecksumPacket(checksumOfTotalFile, lastReceivedSeqNr, lastReceivedAckNr, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
-                            } catch (UnknownHostException e) {
-                                System.out.println("Check the destination address input (server address), as the destination could not be found.");
-                            }
-                            if (AcknowledgementProtocol.sendChecksumAndReceiveAck(clientSocket, checksumToSend)) {
-                                System.out.println("The server successfully replaced " + oldFileName + " by " + newFileName + ".");
-                            } else {
-                                System.out.println("The replacement of " + oldFileName + " by " + newFileName + " was not successful. Please, try again (but be aware that " + oldFileName + " does not exist on the server anymore!)");
+                        // open the new file that needs to be uploaded to the server and send it (including its checksum):
+                        try (FragmentSource source = FileProtocol.openFileToSend(FileProtocol.CLIENT_FILEPATH, newFileName)) {
+                            if (source != null) {
+                                if (sendFileWithChecksum(source, 0, lastReceivedSeqNr, lastReceivedAckNr)) {
+                                    System.out.println("The server successfully replaced " + oldFileName + " by " + newFileName + ".");
+                                } else {
+                                    System.out.println("The replacement of " + oldFileName + " by " + newFileName + " was not successful. Please, try again (but be aware that " + oldFileName + " does not exist on the server anymore!)");
+                                }
                             }
+                        } catch (IOException e) {
+                            System.out.println("Could not read " + newFileName + ": " + e.getMessage());
                         }
                         break;
                     case PacketProtocol.LIST:
                         // respond with an acknowledgement to the server, to let it know that it can start sending the list:
-                        try {
-                            AcknowledgementProtocol.sendAcknowledgement(0, lastReceivedSeqNr, lastReceivedAckNr, clientSocket, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
-                        } catch (UnknownHostException e) {
-                            System.out.println("Check the destination address input (server address), as the destination could not be found.");
-                        }
+                        AcknowledgementProtocol.sendAcknowledgement(0, lastReceivedSeqNr, lastReceivedAckNr, context);
                         // receive the list from the server:
-                        StopAndWaitProtocol.receiveFile(clientSocket, totalFileSize);
-                        byte[] receivedList = StopAndWaitProtocol.getFileInBytes();
+                        StopAndWaitProtocol.receiveFile(context, (int) totalFileSize);
+                        byte[] receivedList = context.getFileInBytes();
                         // show the list:
                         String listOfFiles = new String(receivedList);
                         System.out.println(listOfFiles);
@@ -189,12 +190,7 @@ public class Client implements Runnable {
                         break;
                 }
             } else if (receivedFlag == PacketProtocol.LAST || receivedFlag == PacketProtocol.CHECK) {
-                byte[] lastAckSent = AcknowledgementProtocol.getLastSentAcknowledgement();
-                try {
-                    AcknowledgementProtocol.resendAcknowledgement(lastAckSent, clientSocket, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
-                } catch (UnknownHostException e) {
-                    System.out.println("Check the destination address input, as the destination could not be found.");
-                }
+                AcknowledgementProtocol.resendAcknowledgement(context);
                 // can be another flag if the acknowledgement to the last packet of a previous download or list was lost.
                 // If this one got lost, the last packet (in case of list) or checksum (in case of download) would be
                 // resent, although the client already handled the input from this packet. Therefore, no actions need
@@ -207,6 +203,133 @@ public class Client implements Runnable {
         }
     }
 
+    /**
+     * Send a file (from an offset) to the server, followed by the digest of the total file (of the algorithm that the
+     * server accepted). If the server stores files as chunks, only the chunks that it does not have yet are sent.
+     *
+     * @param source            is the source from which the data of the file is read.
+     * @param resumeOffset      is the offset from which the file is sent, as the server already has the data before it.
+     * @param lastReceivedSeqNr is the last sequence number received from the server.
+     * @param lastReceivedAckNr is the last acknowledgement number received from the server.
+     * @return true if the server received the file and its checksum was correct, false if not.
+     * @throws IOException if the data before the offset could not be read.
+     */
+    private boolean sendFileWithChecksum(FragmentSource source, long resumeOffset, int lastReceivedSeqNr, int lastReceivedAckNr) throws IOException {
+        if (PacketProtocol.isDeduplicationUsed(context.getHeaderVersion(), context.getOptions())) {
+            return DeduplicationProtocol.sendFile(context, source, lastReceivedSeqNr, lastReceivedAckNr);
+        }
+        // the digest of the original file is calculated while it is sent (the data before the offset is added first),
+        // and sent to the server afterwards:
+        FileDigest digest = context.createFileDigest();
+        ResumeProtocol.addDataBeforeOffset(source, resumeOffset, digest);
+        SelectiveRepeatProtocol.sendFile(new FragmentRange(source, null, resumeOffset), lastReceivedSeqNr, lastReceivedAckNr, context, SelectiveRepeatProtocol.DEFAULT_WINDOW_SIZE, digest);
+        // send the digest of the total file to the server and try to receive an ACK (if the server has chunks that
+        // differ, these are sent again):
+        return ChunkRepairProtocol.sendDigestAndRepair(context, source, digest);
+    }
+
+    /**
+     * Upload or download a file over several streams at the same time, each of which transfers its own range of the
+     * file on a thread of its own (see ParallelTransferProtocol). Wait until all streams are finished.
+     *
+     * @param flag            is UPLOAD or DOWNLOAD.
+     * @param fileName        is the name of the file.
+     * @param numberOfStreams is the number of streams over which the file is transferred.
+     */
+    private void transferInParallel(int flag, String fileName, int numberOfStreams) {
+        FragmentSource fileToUpload = null;
+        StatisticsProtocol totalStatistics = new StatisticsProtocol();
+        ParallelTransfer download = null;
+        if (flag == PacketProtocol.UPLOAD) {
+            fileToUpload = FileProtocol.openFileToSend(FileProtocol.CLIENT_FILEPATH, fileName);
+            if (fileToUpload == null) {
+                return;
+            }
+            totalStatistics.startProgress(fileToUpload.getSize());
+        } else {
+            download = new ParallelTransfer(FileProtocol.CLIENT_FILEPATH, fileName, numberOfStreams);
+        }
+        StreamHandler[] streams = new StreamHandler[numberOfStreams];
+        Thread[] streamThreads = new Thread[numberOfStreams];
+        for (int streamIndex = 0; streamIndex < numberOfStreams; streamIndex++) {
+            streams[streamIndex] = (fileToUpload != null)
+                    ? new StreamHandler(fileName, streamIndex, numberOfStreams, fileToUpload, totalStatistics, fragmentSize)
+                    : new StreamHandler(fileName, streamIndex, numberOfStreams, download, fragmentSize);
+            streamThreads[streamIndex] = new Thread(streams[streamIndex]);
+            streamThreads[streamIndex].start();
+        }
+        boolean areAllRangesCorrect = true;
+        for (int streamIndex = 0; streamIndex < numberOfStreams; streamIndex++) {
+            try {
+                streamThreads[streamIndex].join();
+            } catch (InterruptedException e) {
+                System.out.println("Not able to wait for stream " + (streamIndex + 1) + " due to interruption.");
+                Thread.currentThread().interrupt();
+            }
+            areAllRangesCorrect = areAllRangesCorrect && streams[streamIndex].isRangeCorrect();
+        }
+        if (fileToUpload != null) {
+            try {
+                fileToUpload.close();
+            } catch (IOException e) {
+                System.out.println("Could not close " + fileName + ": " + e.getMessage());
+            }
+            if (areAllRangesCorrect) {
+                System.out.println(fileName + " is successfully uploaded to the server over " + numberOfStreams + " streams.");
+            } else {
+                System.out.println("The upload of " + fileName + " was not successful. Please, try again.");
+            }
+        } else if (download.isStored()) {
+            System.out.println("The file is successfully downloaded over " + numberOfStreams + " streams.");
+        } else {
+            System.out.println("The file that you downloaded is not the same as the original file on the server and is therefore not saved.");
+        }
+    }
+
+    /**
+     * Upload or download a batch of files in this session (see BatchProtocol): send the manifest of the batch, receive
+     * which files the server transfers and transfer the data of these files after each other.
+     *
+     * @param flag              is UPLOAD or DOWNLOAD.
+     * @param lastReceivedSeqNr is the last sequence number received from the server.
+     * @param lastReceivedAckNr is the last acknowledgement number received from the server (the sequence number of the
+     *                          request).
+     */
+    private void transferBatch(int flag, int lastReceivedSeqNr, int lastReceivedAckNr) {
+        if (!PacketProtocol.isBatchUsed(context.getHeaderVersion(), context.getOptions())) {
+            System.out.println("The server does not accept batches of files.");
+            return;
+        }
+        FileBatch reply = BatchProtocol.sendManifestAndReceiveReply(context, batch, lastReceivedSeqNr, lastReceivedAckNr);
+        if (reply == null) {
+            System.out.println("The batch could not be sent to the server. Please, try again.");
+            return;
+        }
+        for (int i = 0; i < reply.getNumberOfFiles(); i++) {
+            if (reply.getSize(i) < 0 && flag == PacketProtocol.UPLOAD) {
+                System.out.println(reply.getFileName(i) + " is already stored on the server (or its name cannot be used) and is therefore not uploaded.");
+            } else if (reply.getSize(i) < 0) {
+                System.out.println(reply.getFileName(i) + " does not exist on the server and is therefore not downloaded.");
+            }
+        }
+        int numberOfFiles = reply.getNumberOfTransferredFiles();
+        if (numberOfFiles == 0) {
+            return;
+        }
+        int dataSequenceNumber = BatchProtocol.getDataSequenceNumber(context, lastReceivedAckNr, batch.toManifest().length, batch.getNumberOfFiles());
+        if (flag == PacketProtocol.UPLOAD) {
+            if (BatchProtocol.sendFiles(context, FileProtocol.CLIENT_FILEPATH, reply, dataSequenceNumber)) {
+                System.out.println(numberOfFiles + " file(s) are successfully uploaded to the server.");
+            } else {
+                System.out.println("The upload of the batch was not successful. Please, try again.");
+            }
+        } else if (BatchProtocol.receiveFiles(context, FileProtocol.CLIENT_FILEPATH, reply, dataSequenceNumber)) {
+            System.out.println(numberOfFiles + " file(s) are successfully downloaded.");
+        } else {
+            System.out.println("The files that you downloaded are not the same as the original files on the server and are therefore not saved.");
+        }
+    }
+
 
 //          --- METHODS USED IN SWITCH OF CLIENT-TUI ---
 
@@ -217,13 +340,42 @@ public class Client implements Runnable {
      *                            to do something.
      * @param flag                represents the command that the client wants to execute.
      */
-    public void sendRequest(String fileNameFromRequest, int flag, int fileSize) {
+    public void sendRequest(String fileNameFromRequest, int flag, long fileSize) {
+        sendRequest(fileNameFromRequest, flag, fileSize, 1);
+    }
+
+    /**
+     * Send the initial request to the server, for a file that is uploaded or downloaded over one or more streams.
+     *
+     * @param fileNameFromRequest is the name of the file (from the request of the user) with which the server needs
+     *                            to do something.
+     * @param flag                represents the command that the client wants to execute.
+     * @param numberOfStreams     is the number of streams over which the file is transferred.
+     */
+    public void sendRequest(String fileNameFromRequest, int flag, long fileSize, int numberOfStreams) {
+        this.numberOfStreams = numberOfStreams;
+        this.batch = null;
         byte[] fileData = fileNameFromRequest.getBytes();
         // as this is the first message from the client to the server, the sequence number can be randomly generated:
         int sequenceNumber = PacketProtocol.generateRandomSequenceNumber();
-        // create the request packet and try to send it to the server. Furthermore, activate the run() to receive the
-        // response to the request by the server and execute the command of the user:
-        byte[] request = PacketProtocol.createPacketWithHeader(fileSize, sequenceNumber, 0, flag, fileData);
+        // an upload or download continues where a previous transfer of the file was interrupted. For a download, the
+        // client reports the size of the file and the length of the data that it already has:
+        long offset = 0;
+        if (flag == PacketProtocol.DOWNLOAD) {
+            PartialTransfer partialTransfer = FileProtocol.getPartialTransfer(FileProtocol.CLIENT_FILEPATH, fileNameFromRequest);
+            if (partialTransfer != null) {
+                fileSize = partialTransfer.getSize();
+                offset = partialTransfer.getReceivedLength();
+            }
+        }
+        if (flag == PacketProtocol.UPLOAD || flag == PacketProtocol.DOWNLOAD) {
+            flag = flag + PacketProtocol.RESUME;
+        }
+        // create the request packet (asking for the options that the client wants to use) and try to send it to the
+        // server. Furthermore, activate the run() to receive the response to the request by the server and execute the
+        // command of the user:
+        context.setOptions(getRequestedOptions());
+        byte[] request = PacketProtocol.createPacketWithHeader(context, fileSize, offset, sequenceNumber, 0, flag, fileData);
         try {
             DatagramPacket requestPacket = new DatagramPacket(request, request.length, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
             setRequestPacket(requestPacket);
@@ -234,6 +386,32 @@ public class Client implements Runnable {
         }
     }
 
+    /**
+     * Send the request for uploading or downloading a batch of files to the server. The request carries the length of
+     * the manifest of the batch, which is sent after the server acknowledged the request.
+     *
+     * @param batch is the batch of files (with their sizes for an upload, or -1 for a download).
+     * @param flag  is UPLOAD or DOWNLOAD.
+     */
+    public void sendBatchRequest(FileBatch batch, int flag) {
+        this.numberOfStreams = 1;
+        this.batch = batch;
+        // as this is the first message from the client to the server, the sequence number can be randomly generated:
+        int sequenceNumber = PacketProtocol.generateRandomSequenceNumber();
+        // create the request packet (asking for the options that the client wants to use, including the batch) and try
+        // to send it to the server. Furthermore, activate the run() to receive the response to the request by the
+        // server and execute the command of the user:
+        context.setOptions(getRequestedOptions() | PacketProtocol.OPTION_BATCH);
+        byte[] request = PacketProtocol.createPacketWithHeader(context, batch.toManifest().length, 0, sequenceNumber, 0, flag, new byte[0]);
+        try {
+            DatagramPacket requestPacket = new DatagramPacket(request, request.length, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
+            setRequestPacket(requestPacket);
+            activateTryToReceive();
+        } catch (IOException e) {
+            System.out.println("Check the destination address input (server address), as the destination could not be found.");
+        }
+    }
+
     /**
      * Send replace request to server (flag is internally set).
      *
@@ -242,13 +420,17 @@ public class Client implements Runnable {
      * @param newFileNameFromRequest is the name of the new file (from the request of the user) that the server needs
      *                               to upload.
      */
-    public void sendReplaceRequest(String oldFileNameFromRequest, String newFileNameFromRequest, int fileSize) {
+    public void sendReplaceRequest(String oldFileNameFromRequest, String newFileNameFromRequest, long fileSize) {
+        this.numberOfStreams = 1;
+        this.batch = null;
         byte[] fileData = (oldFileNameFromRequest + " " + newFileNameFromRequest).getBytes();
         // as this is the first message from the client to the server, the sequence number can be randomly generated:
         int sequenceNumber = PacketProtocol.generateRandomSequenceNumber();
-        // create the request packet and try to send it to the server. Furthermore, activate the run() to receive the
-        // response to the request by the server and execute the command of the user:
-        byte[] request = PacketProtocol.createPacketWithHeader(fileSize, sequenceNumber, 0, PacketProtocol.REPLACE, fileData);
+        // create the request packet (asking for the options that the client wants to use) and try to send it to the
+        // server. Furthermore, activate the run() to receive the response to the request by the server and execute the
+        // command of the user:
+        context.setOptions(getRequestedOptions());
+        byte[] request = PacketProtocol.createPacketWithHeader(context, fileSize, 0, sequenceNumber, 0, PacketProtocol.REPLACE, fileData);
         try {
             DatagramPacket requestPacket = new DatagramPacket(request, request.length, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
             setRequestPacket(requestPacket);
@@ -264,11 +446,15 @@ public class Client implements Runnable {
      * Send list request to server (flag is internally set and no file name(s) are needed here).
      */
     public void sendListOrCloseRequest(int flag) {
+        this.numberOfStreams = 1;
+        this.batch = null;
         // as this is the first message from the client to the server, the sequence number can be randomly generated:
         int sequenceNumber = PacketProtocol.generateRandomSequenceNumber();
-        // create the request packet and try to send it to the server. Furthermore, activate the run() to receive the
-        // response to the request by the server and execute the command of the user:
-        byte[] request = PacketProtocol.createHeader(0, sequenceNumber, 0, flag, 0);
+        // create the request packet (asking for the options that the client wants to use) and try to send it to the
+        // server. Furthermore, activate the run() to receive the response to the request by the server and execute the
+        // command of the user:
+        context.setOptions(getRequestedOptions());
+        byte[] request = PacketProtocol.createPacketWithHeader(context, 0, 0, sequenceNumber, 0, flag, new byte[0]);
         try {
             DatagramPacket requestPacket = new DatagramPacket(request, request.length, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT);
             setRequestPacket(requestPacket);
@@ -281,6 +467,16 @@ public class Client implements Runnable {
 
 //          --- GETTERS AND SETTERS ---
 
+    /**
+     * Get the options that the client asks for in a request, including the fragment size that the probe of the path to
+     * the server found.
+     *
+     * @return the requested options.
+     */
+    private int getRequestedOptions() {
+        return PacketProtocol.addFragmentSize(PacketProtocol.REQUESTED_OPTIONS, fragmentSize);
+    }
+
     /**
      * Set the boolean sendToServer to true when user has given input via TUI that needs to be communicated to the
      * server.
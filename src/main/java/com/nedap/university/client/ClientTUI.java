@@ -1,9 +1,20 @@
 package com.nedap.university.client;
 
+import com.nedap.university.BatchProtocol;
+import com.nedap.university.FileBatch;
 import com.nedap.university.FileProtocol;
 import com.nedap.university.PacketProtocol;
+import com.nedap.university.ParallelTransferProtocol;
 
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.Scanner;
+import java.util.Set;
 
 /**
  * Represents the textual user interface of the client for interaction with the server.
@@ -42,34 +53,54 @@ public class ClientTUI {
             String fileName = null;
             String oldFileName = null;
             String newFileName = null;
+            int numberOfStreams = 1;
             if (split.length == 2) {
                 fileName = split[1];
             } else if (split.length > 2) {
                 oldFileName = split[1];
                 newFileName = split[2];
+                // an upload or download can be followed by the number of streams over which the file is transferred:
+                if (command.equals("UPLOAD") || command.equals("DOWNLOAD")) {
+                    fileName = split[1];
+                    numberOfStreams = getNumberOfStreams(split[2]);
+                }
             }
+            // an upload or download of several files, or of the files that match a pattern (such as *.txt), is a batch:
+            boolean isBatch = (command.equals("UPLOAD") || command.equals("DOWNLOAD")) && split.length > 1
+                    && (isPattern(split[1]) || split.length > 3 || (split.length == 3 && !split[2].matches("\\d+")));
+            String[] fileNamesInBatch = isBatch ? Arrays.copyOfRange(split, 1, split.length) : null;
             switch (command) {
                 case "UPLOAD":
-                    if (fileName == null) {
-                        System.out.println("File name should be added in the upload request. See OPTIONS for the correct format. \n" +
+                    if (isBatch) {
+                        FileBatch batch = createUploadBatch(fileNamesInBatch);
+                        if (batch != null) {
+                            client.sendBatchRequest(batch, PacketProtocol.UPLOAD);
+                        }
+                    } else if (fileName == null || numberOfStreams < 1) {
+                        System.out.println("File name (and optionally a number of streams up to " + ParallelTransferProtocol.MAX_STREAMS + ") should be added in the upload request. See OPTIONS for the correct format. \n" +
                                 "Give the command you want to execute next:");
                     } else if (!FileProtocol.doesFileExist(fileName, FileProtocol.createFilePath(FileProtocol.CLIENT_FILEPATH))) {
                         System.out.println("The file " + fileName + " does not exist in your local folder " + FileProtocol.CLIENT_FILEPATH + ", and can therefore not be uploaded to the server. \n" +
                                 "Give the command you want to execute next:");
                     } else {
-                        client.sendRequest(fileName, PacketProtocol.UPLOAD, FileProtocol.getFileSize(FileProtocol.CLIENT_FILEPATH, fileName));
+                        client.sendRequest(fileName, PacketProtocol.UPLOAD, FileProtocol.getFileSize(FileProtocol.CLIENT_FILEPATH, fileName), numberOfStreams);
                     }
                     break;
                 case "DOWNLOAD":
-                    if (fileName == null) {
-                        System.out.println("File name should be added in the download request. See OPTIONS for the correct format. \n" +
+                    if (isBatch) {
+                        FileBatch batch = createDownloadBatch(fileNamesInBatch);
+                        if (batch != null) {
+                            client.sendBatchRequest(batch, PacketProtocol.DOWNLOAD);
+                        }
+                    } else if (fileName == null || numberOfStreams < 1) {
+                        System.out.println("File name (and optionally a number of streams up to " + ParallelTransferProtocol.MAX_STREAMS + ") should be added in the download request. See OPTIONS for the correct format. \n" +
                                 "Give the command you want to execute next:");
                     } else {
                         if (FileProtocol.doesFileExist(fileName, FileProtocol.createFilePath(FileProtocol.CLIENT_FILEPATH))) {
                             System.out.println("The file " + fileName + " already exists in your local folder " + FileProtocol.CLIENT_FILEPATH + ", you can therefore not download this file again. \n" +
                                     "Give the command you want to execute next:");
                         } else {
-                            client.sendRequest(fileName, PacketProtocol.DOWNLOAD, 0);
+                            client.sendRequest(fileName, PacketProtocol.DOWNLOAD, 0, numberOfStreams);
                         }
                     }
                     break;
@@ -111,13 +142,121 @@ public class ClientTUI {
         }
     }
 
+    /**
+     * Get the number of streams over which a file is transferred from the input of the user.
+     *
+     * @param input is the number of streams as given by the user.
+     * @return the number of streams, or -1 if the input is not a number from 1 up to the maximum number of streams.
+     */
+    private int getNumberOfStreams(String input) {
+        try {
+            int numberOfStreams = Integer.parseInt(input);
+            return (numberOfStreams >= 1 && numberOfStreams <= ParallelTransferProtocol.MAX_STREAMS) ? numberOfStreams : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Check whether a file name from the input of the user is a pattern that can match several files.
+     *
+     * @param fileName is the file name as given by the user.
+     * @return true if it is a pattern, false if not.
+     */
+    private boolean isPattern(String fileName) {
+        return fileName.contains("*") || fileName.contains("?");
+    }
+
+    /**
+     * Create the batch of files that the user wants to upload. A pattern is replaced by the files in the local folder
+     * that match it; files that do not exist are left out.
+     *
+     * @param fileNames is the names of the files and the patterns as given by the user.
+     * @return the batch with the size of every file, or null if no file can be uploaded.
+     */
+    private FileBatch createUploadBatch(String[] fileNames) {
+        File folder = FileProtocol.createFilePath(FileProtocol.CLIENT_FILEPATH);
+        File[] storedFiles = FileProtocol.getStoredFiles(folder);
+        Arrays.sort(storedFiles, Comparator.comparing(File::getName));
+        Set<String> fileNamesToUpload = new LinkedHashSet<>();
+        for (String fileName : fileNames) {
+            if (isPattern(fileName)) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + fileName);
+                for (File file : storedFiles) {
+                    if (file.isFile() && FileProtocol.isValidFileName(file.getName()) && matcher.matches(Paths.get(file.getName()))) {
+                        fileNamesToUpload.add(file.getName());
+                    }
+                }
+            } else if (FileProtocol.doesFileExist(fileName, folder)) {
+                fileNamesToUpload.add(fileName);
+            } else {
+                System.out.println("The file " + fileName + " does not exist in your local folder " + FileProtocol.CLIENT_FILEPATH + ", and can therefore not be uploaded to the server.");
+            }
+        }
+        String[] names = fileNamesToUpload.toArray(new String[0]);
+        long[] sizes = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            sizes[i] = FileProtocol.getFileSize(FileProtocol.CLIENT_FILEPATH, names[i]);
+        }
+        return checkBatch(new FileBatch(names, sizes), "uploaded");
+    }
+
+    /**
+     * Create the batch of files that the user wants to download. Files that already exist in the local folder are left
+     * out.
+     *
+     * @param fileNames is the names of the files as given by the user.
+     * @return the batch (in which every size is -1, as the server knows the sizes), or null if no file can be
+     * downloaded.
+     */
+    private FileBatch createDownloadBatch(String[] fileNames) {
+        File folder = FileProtocol.createFilePath(FileProtocol.CLIENT_FILEPATH);
+        Set<String> fileNamesToDownload = new LinkedHashSet<>();
+        for (String fileName : fileNames) {
+            if (isPattern(fileName)) {
+                System.out.println("Patterns can only be used to upload files; use LIST to see which files are stored on the server.");
+            } else if (FileProtocol.doesFileExist(fileName, folder)) {
+                System.out.println("The file " + fileName + " already exists in your local folder " + FileProtocol.CLIENT_FILEPATH + ", you can therefore not download this file again.");
+            } else {
+                fileNamesToDownload.add(fileName);
+            }
+        }
+        String[] names = fileNamesToDownload.toArray(new String[0]);
+        long[] sizes = new long[names.length];
+        Arrays.fill(sizes, -1);
+        return checkBatch(new FileBatch(names, sizes), "downloaded");
+    }
+
+    /**
+     * Check whether a batch contains any files and whether its manifest is not too long.
+     *
+     * @param batch     is the batch of files.
+     * @param direction is "uploaded" or "downloaded", which is used in the message to the user.
+     * @return the batch, or null if it cannot be transferred.
+     */
+    private FileBatch checkBatch(FileBatch batch, String direction) {
+        if (batch.getNumberOfFiles() == 0) {
+            System.out.println("There are no files that can be " + direction + ". \n" +
+                    "Give the command you want to execute next:");
+            return null;
+        }
+        if (batch.toManifest().length > BatchProtocol.MAX_MANIFEST_LENGTH) {
+            System.out.println("The batch contains too many files; split it in smaller batches. \n" +
+                    "Give the command you want to execute next:");
+            return null;
+        }
+        return batch;
+    }
+
     /**
      * Show the options of the commands that can be used in this TUI.
      */
     public void showOptions() {
         System.out.println("   Commands:\n" +
-                "          upload <file> ...................... upload <file> to server\n" +
-                "          download <file> .................... download <file> from server\n" +
+                "          upload <file> [streams] ............ upload <file> to server (over several streams)\n" +
+                "          download <file> [streams] .......... download <file> from server (over several streams)\n" +
+                "          upload <file> <file> ... ........... upload several files (or a pattern, like *.txt) to server\n" +
+                "          download <file> <file> ... ......... download several files from server\n" +
                 "          remove <file> ...................... remove <file> from server\n" +
                 "          replace <old file> <new file>  ..... replace <old file> by <new file> on server\n" +
                 "          list ............................... list all files stored on server\n" +
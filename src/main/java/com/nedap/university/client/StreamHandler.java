@@ -0,0 +1,147 @@
+package com.nedap.university.client;
+
+import com.nedap.university.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+
+/**
+ * Represents the handler of one of the streams over which the client uploads or downloads a file (see
+ * ParallelTransferProtocol). Every handler runs on its own thread and has its own socket, so the server handles every
+ * stream in a session of its own.
+ */
+public class StreamHandler implements Runnable {
+    private final int flag;
+    private final String fileName;
+    private final int streamIndex;
+    private final int numberOfStreams;
+    private final FragmentSource fileToUpload;
+    private final StatisticsProtocol totalStatistics;
+    private final ParallelTransfer download;
+    private final int fragmentSize;
+    private boolean isRangeCorrect;
+
+    /**
+     * Create the handler of a stream that uploads its range of a file.
+     *
+     * @param fileName        is the name of the file.
+     * @param streamIndex     is the index of the stream (starting at 0).
+     * @param numberOfStreams is the number of streams over which the file is uploaded.
+     * @param fileToUpload    is the source from which the data of the file is read, which is shared by all streams.
+     * @param totalStatistics is the statistics of the total file, to which the stream adds its progress.
+     * @param fragmentSize    is the fragment size that the stream asks for (which the client found by probing the path).
+     */
+    public StreamHandler(String fileName, int streamIndex, int numberOfStreams, FragmentSource fileToUpload, StatisticsProtocol totalStatistics, int fragmentSize) {
+        this.flag = PacketProtocol.UPLOAD;
+        this.fileName = fileName;
+        this.streamIndex = streamIndex;
+        this.numberOfStreams = numberOfStreams;
+        this.fileToUpload = fileToUpload;
+        this.totalStatistics = totalStatistics;
+        this.download = null;
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * Create the handler of a stream that downloads its range of a file.
+     *
+     * @param fileName        is the name of the file.
+     * @param streamIndex     is the index of the stream (starting at 0).
+     * @param numberOfStreams is the number of streams over which the file is downloaded.
+     * @param download        is the file to which all streams write their range.
+     * @param fragmentSize    is the fragment size that the stream asks for (which the client found by probing the path).
+     */
+    public StreamHandler(String fileName, int streamIndex, int numberOfStreams, ParallelTransfer download, int fragmentSize) {
+        this.flag = PacketProtocol.DOWNLOAD;
+        this.fileName = fileName;
+        this.streamIndex = streamIndex;
+        this.numberOfStreams = numberOfStreams;
+        this.fileToUpload = null;
+        this.totalStatistics = download.getTotalStatistics();
+        this.download = download;
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * Send the request of the stream to the server and transfer the range of the stream. A downloaded range is marked
+     * as finished afterwards, also if the stream failed.
+     */
+    @Override
+    public void run() {
+        PacketSocket socket = null;
+        try {
+            socket = ChannelPacketSocket.open();
+            TransferContext context = new TransferContext(socket, InetAddress.getByName(PacketProtocol.PI_ADDRESS), PacketProtocol.PI_PORT, new RttEstimator());
+            isRangeCorrect = sendRequestAndTransferRange(context);
+        } catch (IOException e) {
+            System.out.println("Stream " + (streamIndex + 1) + " could not be started: " + e.getMessage());
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            if (download != null) {
+                download.finishStream(isRangeCorrect);
+            }
+        }
+    }
+
+    /**
+     * Send the request of the stream (including the stream in the options) to the server and, if the server accepts
+     * the stream, transfer its range.
+     *
+     * @param context is the context of the connection of the stream.
+     * @return true if the range is transferred and its digest was correct, false if not.
+     */
+    private boolean sendRequestAndTransferRange(TransferContext context) {
+        // as this is the first message from the stream to the server, the sequence number can be randomly generated:
+        int sequenceNumber = PacketProtocol.generateRandomSequenceNumber();
+        long fileSize = (fileToUpload != null) ? fileToUpload.getSize() : 0;
+        context.setOptions(PacketProtocol.addFragmentSize(PacketProtocol.addStream(PacketProtocol.REQUESTED_OPTIONS, streamIndex, numberOfStreams), fragmentSize));
+        byte[] request = PacketProtocol.createPacketWithHeader(context, fileSize, 0, sequenceNumber, 0, flag, fileName.getBytes());
+        AcknowledgementProtocol.sendRequestAndReceiveAckWithMessage(context, new DatagramPacket(request, request.length, context.getAddress(), context.getPort()));
+        byte[] acknowledgement = context.getLastReceivedAcknowledgement();
+        // the server only transfers the range of the stream if it responds with the same stream:
+        context.setOptions(PacketProtocol.getOptions(acknowledgement));
+        if (PacketProtocol.getFlag(acknowledgement) != PacketProtocol.ACK) {
+            printMessage(acknowledgement);
+            return false;
+        }
+        if (PacketProtocol.getNumberOfStreams(context.getOptions()) != numberOfStreams || PacketProtocol.getStreamIndex(context.getOptions()) != streamIndex) {
+            System.out.println("The server does not accept transfers over several streams.");
+            return false;
+        }
+        int lastReceivedSeqNr = PacketProtocol.getSequenceNumber(acknowledgement);
+        int lastReceivedAckNr = PacketProtocol.getAcknowledgementNumber(acknowledgement);
+        if (fileToUpload != null) {
+            return ParallelTransferProtocol.sendRange(context, fileToUpload, lastReceivedSeqNr, lastReceivedAckNr, totalStatistics);
+        }
+        // the first stream that receives the size of the file creates the file to which all streams write:
+        FileFragmentSink downloadedFile = download.open(PacketProtocol.getFileSizeInPacket(acknowledgement));
+        if (downloadedFile == null) {
+            return false;
+        }
+        // respond with an acknowledgement to the server, to let it know that download of the range can start:
+        AcknowledgementProtocol.sendAcknowledgement(0, lastReceivedSeqNr, lastReceivedAckNr, context);
+        return ParallelTransferProtocol.receiveRange(context, downloadedFile, lastReceivedSeqNr, totalStatistics);
+    }
+
+    /**
+     * Print the message of the server in an acknowledgement.
+     *
+     * @param acknowledgement is the acknowledgement of the server.
+     */
+    private void printMessage(byte[] acknowledgement) {
+        int headerSize = PacketProtocol.getHeaderSize(acknowledgement);
+        System.out.println(new String(acknowledgement, headerSize, (acknowledgement.length - headerSize)).trim());
+    }
+
+    /**
+     * Check whether the range of the stream is transferred and its digest was correct.
+     *
+     * @return true if the range is correct, false if not.
+     */
+    public boolean isRangeCorrect() {
+        return isRangeCorrect;
+    }
+}
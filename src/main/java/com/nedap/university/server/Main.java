@@ -1,6 +1,10 @@
 package com.nedap.university.server;
 
+import java.util.Arrays;
+
 public class Main {
+    public static final String VIRTUAL_THREADS_ARGUMENT = "--virtual-threads";
+    public static final String CLIENT_RATE_LIMIT_ARGUMENT = "--client-rate-limit="; // followed by bytes per second.
     private static boolean keepAlive = true;
     private static boolean running = false;
 
@@ -15,7 +19,7 @@ public class Main {
         while (keepAlive) {
             try {
                 // create and start server:
-                Server server = new Server();
+                Server server = new Server(Arrays.asList(args).contains(VIRTUAL_THREADS_ARGUMENT), getClientRateLimit(args));
                 server.start();
 
                 Thread.sleep(1000);
@@ -27,6 +31,19 @@ public class Main {
         running = false;
     }
 
+    private static double getClientRateLimit(String[] args) {
+        for (String argument : args) {
+            if (argument.startsWith(CLIENT_RATE_LIMIT_ARGUMENT)) {
+                try {
+                    return Double.parseDouble(argument.substring(CLIENT_RATE_LIMIT_ARGUMENT.length()));
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid client rate limit " + argument + "; the rate of the clients is not limited.");
+                }
+            }
+        }
+        return 0;
+    }
+
     private static void initShutdownHook() {
         final Thread shutdownThread = new Thread() {
             @Override
@@ -5,48 +5,138 @@ import com.nedap.university.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Represents the server on the Raspberry Pi.
+ * Represents the server on the Raspberry Pi. All packets are received by a single receive loop on a non-blocking
+ * DatagramChannel, which waits on a Selector until packets arrive or the idle sessions need to be checked. The packets
+ * are read into one direct buffer and handed over to the sessions of the clients, so only sessions that are executing
+ * a request have a thread. The loop only receives: the handler of every request that is executed runs on a thread of
+ * its own, which sends its packets and waits for its acknowledgements (with the time-outs of its retransmission and
+ * acknowledgement timers) on the queue of its session (see Session).
  */
 public class Server {
     private final int port;
+    private final boolean useVirtualThreads;
     private boolean isOpen;
-    private DatagramSocket serverSocket;
+    private volatile DatagramChannel serverChannel;
+    private volatile Selector selector;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(PacketProtocol.MAX_PACKET_SIZE);
+    private SessionDispatcher dispatcher;
     private final File filePath;
+    // the chunks of the files that are uploaded with deduplication, which are stored once however many files have them:
+    private final ChunkStore chunkStore;
+    // the files that are uploaded over several streams, per address of the client and name of the file:
+    private final Map<String, ParallelTransfer> parallelUploads = new ConcurrentHashMap<>();
+    // the bandwidth that each client may use for downloads (0 if it is not limited), and the token buckets that limit
+    // it per address of the client, so all streams and sessions of one client share the same rate:
+    private final double clientRateLimit;
+    private final Map<String, TokenBucket> clientRateLimiters = new ConcurrentHashMap<>();
 
     /**
      * Create the server with the port and address of the Raspberry Pi.
      */
     public Server() {
+        this(false);
+    }
+
+    /**
+     * Create the server with the port and address of the Raspberry Pi.
+     *
+     * @param useVirtualThreads is true if the sessions of the clients should be handled on virtual threads, false if
+     *                          platform threads should be used.
+     */
+    public Server(boolean useVirtualThreads) {
+        this(useVirtualThreads, 0);
+    }
+
+    /**
+     * Create the server with the port and address of the Raspberry Pi.
+     *
+     * @param useVirtualThreads is true if the sessions of the clients should be handled on virtual threads, false if
+     *                          platform threads should be used.
+     * @param clientRateLimit   is the maximum rate in bytes per second at which files are sent to one client, or 0 if
+     *                          the rate is only limited by the congestion window.
+     */
+    public Server(boolean useVirtualThreads, double clientRateLimit) {
         // the port on which the server is listening on:
         port = PacketProtocol.PI_PORT;
+        this.useVirtualThreads = useVirtualThreads;
+        this.clientRateLimit = clientRateLimit;
         // after creating the server, it is not opened yet:
         isOpen = false;
         filePath = FileProtocol.createFilePath(FileProtocol.SERVER_FILEPATH);
+        chunkStore = new ChunkStore(FileProtocol.SERVER_FILEPATH);
     }
 
     /**
-     * Start the server. Can only be done when server is not open for connections yet. A new DatagramSocket should start
-     * with the port of the Raspberry Pi as input. This socket can be connected to the client to only accept packets
-     * that are sent by that client. The boolean isOpen should be set on true as the server is now open for connections.
-     * Furthermore, the filepath is created where files are stored on the Raspberry Pi.
+     * Start the server. Can only be done when server is not open for connections yet. A new DatagramChannel is bound to
+     * the port of the Raspberry Pi and registered with a Selector. The boolean isOpen should be set on true as the
+     * server is now open for connections. As long as the channel is open, the receive loop waits until packets are
+     * received (or the idle check interval has passed), receives all packets that are waiting and divides them over the
+     * sessions of the clients by the dispatcher.
      */
     public void start() {
         if (isOpenForConnection()) {
             System.out.println("Server on raspberry Pi is already in use.");
         } else {
-            try {
-                serverSocket = new DatagramSocket(port);
-                ClientHandler clientHandler = new ClientHandler(serverSocket, this);
-                clientHandler.start();
+            // remove the chunks of uploads that were interrupted too long ago to be continued (see ChunkStore):
+            chunkStore.removeUnusedChunks(ChunkStore.UNUSED_CHUNK_AGE);
+            try (DatagramChannel channel = DatagramChannel.open(); Selector channelSelector = Selector.open()) {
+                channel.bind(new InetSocketAddress(port));
+                channel.configureBlocking(false);
+                channel.register(channelSelector, SelectionKey.OP_READ);
+                serverChannel = channel;
+                selector = channelSelector;
+                dispatcher = new SessionDispatcher(channel, this, useVirtualThreads);
                 isOpen = true;
+                while (channel.isOpen()) {
+                    channelSelector.select(SessionDispatcher.IDLE_CHECK_INTERVAL);
+                    channelSelector.selectedKeys().clear();
+                    DatagramPacket receivedPacket = receivePacket();
+                    while (receivedPacket != null) {
+                        dispatcher.dispatch(receivedPacket);
+                        receivedPacket = receivePacket();
+                    }
+                    dispatcher.closeIdleSessions();
+                    closeIdleUploads();
+                }
             } catch (SocketException e) {
                 System.out.println("Raspberry Pi already uses this port; try another port.");
+            } catch (IOException e) {
+                System.out.println("Could not open the server: " + e.getMessage());
+            } finally {
+                if (dispatcher != null) {
+                    dispatcher.shutdown();
+                }
+                isOpen = false;
             }
         }
     }
 
+    /**
+     * Stop the server by closing its channel, which also closes all sessions.
+     */
+    public void stop() {
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the server: " + e.getMessage());
+            }
+        }
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
     /**
      * Check whether the server is currently open for accepting connections.
      *
@@ -57,19 +147,32 @@ public class Server {
     }
 
     /**
-     * Receive the request packet from the client in order to be able to execute the request.
+     * Receive a packet from any client, if one is waiting. The packet is read into the direct buffer of the server and
+     * copied into an array that is handed over to the session of the client. A packet of up to the legacy fragment size
+     * is copied into a buffer of the pool (see PacketCodec.acquireBuffer), which is returned to the pool when the
+     * session (or the dispatcher) is done with the packet, so receiving such a packet does not allocate a new buffer. A
+     * larger packet is copied into an array of its own length instead of a buffer of about 64 KB, so a queue of jumbo
+     * frames only holds the memory of the frames.
      *
-     * @return the Datagram Packet that is received. Return null if the server could not receive a packet.
+     * @return the Datagram Packet that is received. Return null if no packet is waiting (or the server could not
+     * receive a packet).
      */
-    public DatagramPacket receiveRequest() {
-        byte[] requestPacket = new byte[PacketProtocol.PACKET_WITH_MESSAGE_SIZE];
-        DatagramPacket packetToReceive = new DatagramPacket(requestPacket, requestPacket.length);
+    public DatagramPacket receivePacket() {
         try {
-            serverSocket.receive(packetToReceive);
+            receiveBuffer.clear();
+            SocketAddress sender = serverChannel.receive(receiveBuffer);
+            if (!(sender instanceof InetSocketAddress)) {
+                return null;
+            }
+            receiveBuffer.flip();
+            int length = receiveBuffer.remaining();
+            byte[] receivedPacket = (length <= PacketProtocol.LEGACY_FRAGMENT_SIZE) ? PacketCodec.BUFFER_POOL.acquire().array() : new byte[length];
+            receiveBuffer.get(receivedPacket, 0, length);
+            InetSocketAddress senderAddress = (InetSocketAddress) sender;
+            return new DatagramPacket(receivedPacket, length, senderAddress.getAddress(), senderAddress.getPort());
         } catch (IOException e) {
             return null;
         }
-        return packetToReceive;
     }
 
     /**
@@ -78,24 +181,153 @@ public class Server {
      * @param fileName          is the name of the file to be received.
      * @param totalFileSize     is the total size of the file to be received.
      * @param lastReceivedSeqNr is the last sequence number received from the client.
-     * @param inetAddress       is the address of the client that sent the request.
-     * @param port              is the port the client that sent the request uses to connect to the Raspberry Pi.
-     * @param serverSocket      is the socket via which the server and client are connected.
+     * @param resume            is true if the client asks to continue an interrupted upload of the file.
+     * @param context           is the context of the connection with the client that sent the request.
      */
-    public void receiveFile(String fileName, int totalFileSize, int lastReceivedSeqNr, InetAddress inetAddress, int port, DatagramSocket serverSocket) {
-        if (!FileProtocol.doesFileExist(fileName, filePath)) {
-            // if the file not exists on the server yet, it can be uploaded. Create a message that can be sent in the
-            // acknowledgement and send this acknowledgement to the server:
+    public void receiveFile(String fileName, long totalFileSize, int lastReceivedSeqNr, boolean resume, TransferContext context) {
+        if (fileName == null || !FileProtocol.isValidFileName(fileName)) {
+            // the name is checked before anything is stored, so it cannot refer to a file outside the folder of the
+            // server (or in the chunk store):
+            String responseMessage = (fileName + " is not a valid name for a file on the server.");
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.INCORRECT, 0, lastReceivedSeqNr, responseMessage, context);
+        } else if (!FileProtocol.doesFileExist(fileName, filePath) && PacketProtocol.getNumberOfStreams(context.getOptions()) > 1) {
+            // the request is one of the streams over which the client uploads the file:
+            receiveRange(fileName, totalFileSize, lastReceivedSeqNr, context);
+        } else if (!FileProtocol.doesFileExist(fileName, filePath) && PacketProtocol.isDeduplicationUsed(context.getHeaderVersion(), context.getOptions())) {
+            // an upload is never continued from an offset: an interrupted upload keeps the chunks that were complete,
+            // and the client only sends the chunks that are not stored yet:
+            String responseMessage = ("Server successfully received the request for uploading " + fileName);
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, context);
+            receiveAndStoreChunks(fileName, totalFileSize, lastReceivedSeqNr, context);
+        } else if (!FileProtocol.doesFileExist(fileName, filePath)) {
+            // if the file not exists on the server yet, it can be uploaded. Open the partial file to which the received
+            // data is written, which is kept if the upload is interrupted:
+            FileFragmentSink uploadedFile = FileProtocol.openFileToResume(FileProtocol.SERVER_FILEPATH, fileName, totalFileSize);
+            if (uploadedFile == null) {
+                String responseMessage = (fileName + " could not be stored on the server.");
+                AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.INCORRECT, 0, lastReceivedSeqNr, responseMessage, context);
+                return;
+            }
+            // if the client asks for it, continue from the data that an interrupted upload already stored:
+            long resumeOffset = resume ? uploadedFile.getReceivedLength() : 0;
+            uploadedFile.resumeFrom(resumeOffset);
+            // create a message that can be sent in the acknowledgement (together with the offset from which the client
+            // needs to send the file) and send this acknowledgement to the client:
             String responseMessage = ("Server successfully received the request for uploading " + fileName);
-            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
+            if (resumeOffset > 0) {
+                responseMessage = responseMessage + " (continuing after " + resumeOffset + " bytes)";
+            }
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, resumeOffset, lastReceivedSeqNr, responseMessage, context);
             // receive the file that the client wants to upload:
-            StopAndWaitProtocol.receiveFile(serverSocket, totalFileSize);
-            File uploadedFile = FileProtocol.bytesToFile(FileProtocol.SERVER_FILEPATH, fileName, StopAndWaitProtocol.getFileInBytes());
-            // perform check on integrity.
-            DataIntegrityProtocol.receiveAndPerformTotalChecksum(serverSocket, inetAddress, port, uploadedFile);
+            receiveAndStoreFile(uploadedFile, totalFileSize, resumeOffset, lastReceivedSeqNr, context);
         } else {
             String responseMessage = (fileName + " is already stored on the server. You can therefore not upload this file.");
-            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESALREADYEXIST, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESALREADYEXIST, 0, lastReceivedSeqNr, responseMessage, context);
+        }
+    }
+
+    /**
+     * Receive the range of a file of one of the streams over which the client uploads the file. The streams of the same
+     * file write to the same temporary file, which is stored under its actual name when the last stream finished and
+     * the ranges of all streams are correct.
+     *
+     * @param fileName          is the name of the file to be received.
+     * @param totalFileSize     is the total size of the file to be received.
+     * @param lastReceivedSeqNr is the last sequence number received from the client.
+     * @param context           is the context of the connection of the stream.
+     */
+    private void receiveRange(String fileName, long totalFileSize, int lastReceivedSeqNr, TransferContext context) {
+        int numberOfStreams = PacketProtocol.getNumberOfStreams(context.getOptions());
+        int streamIndex = PacketProtocol.getStreamIndex(context.getOptions());
+        String uploadKey = context.getAddress().getHostAddress() + "/" + fileName;
+        ParallelTransfer upload = parallelUploads.computeIfAbsent(uploadKey, key -> new ParallelTransfer(FileProtocol.SERVER_FILEPATH, fileName, numberOfStreams));
+        FileFragmentSink uploadedFile = upload.open(totalFileSize);
+        if (uploadedFile == null) {
+            String responseMessage = (fileName + " could not be stored on the server.");
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.INCORRECT, 0, lastReceivedSeqNr, responseMessage, context);
+            finishRange(uploadKey, upload, false);
+            return;
+        }
+        String responseMessage = ("Server successfully received the request for uploading " + fileName + " (stream " + (streamIndex + 1) + " of " + numberOfStreams + ")");
+        AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, context);
+        finishRange(uploadKey, upload, ParallelTransferProtocol.receiveRange(context, uploadedFile, lastReceivedSeqNr, upload.getTotalStatistics()));
+    }
+
+    /**
+     * Forget the uploads over several streams of which no stream is active for longer than the session time-out, and
+     * remove their temporary files, as the streams that did not start yet (for example as their request was lost or the
+     * client is gone) will not come anymore.
+     */
+    private void closeIdleUploads() {
+        for (Map.Entry<String, ParallelTransfer> upload : parallelUploads.entrySet()) {
+            if (upload.getValue().expire(SessionDispatcher.SESSION_TIMEOUT)) {
+                parallelUploads.remove(upload.getKey(), upload.getValue());
+                System.out.println("The upload of " + upload.getKey() + " expired, as not all streams started.");
+            }
+        }
+    }
+
+    /**
+     * Mark a stream of an upload as finished, and forget the upload once its last stream finished.
+     *
+     * @param uploadKey      is the key of the upload.
+     * @param upload         is the file that is uploaded over several streams.
+     * @param isRangeCorrect is true if the range of the stream is received and its digest was correct, false if not.
+     */
+    private void finishRange(String uploadKey, ParallelTransfer upload, boolean isRangeCorrect) {
+        if (upload.finishStream(isRangeCorrect)) {
+            parallelUploads.remove(uploadKey, upload);
+            if (upload.isStored()) {
+                System.out.println(uploadKey + " is successfully uploaded over all streams.");
+            } else {
+                System.out.println("The upload of " + uploadKey + " was not successful.");
+            }
+        }
+    }
+
+    /**
+     * Receive a file from the client and write it directly to disk. The file is only stored under its actual name if it
+     * is received completely and its checksum is correct. If its checksum is incorrect, the received data is removed;
+     * if the transfer is interrupted, a partial file is kept so the upload can be continued later.
+     *
+     * @param receivedFile      is the (partial or temporary) file to which the received data is written.
+     * @param totalFileSize     is the total size of the file to be received.
+     * @param resumeOffset      is the offset from which the client sends the file.
+     * @param lastReceivedSeqNr is the last sequence number received from the client.
+     * @param context           is the context of the connection with the client that sent the request.
+     */
+    private void receiveAndStoreFile(FileFragmentSink receivedFile, long totalFileSize, long resumeOffset, int lastReceivedSeqNr, TransferContext context) {
+        try (FileFragmentSink file = receivedFile) {
+            // the data before the offset is not sent again, so add it to the digest from the file itself:
+            FileDigest digest = context.createFileDigest();
+            ResumeProtocol.addDataBeforeOffset(file, resumeOffset, digest);
+            // receive the (rest of the) file and perform check on integrity:
+            if (SelectiveRepeatProtocol.receiveFile(context, totalFileSize - resumeOffset, lastReceivedSeqNr, new FragmentRange(file, file, resumeOffset), digest)) {
+                if (ChunkRepairProtocol.receiveDigestAndRepair(context, file, digest)) {
+                    file.commit();
+                } else if (!context.getSocket().isClosed()) {
+                    file.abort();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not store the received file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receive the chunks of a file that the chunk store does not have yet, and store the file as its manifest (see
+     * DeduplicationProtocol).
+     *
+     * @param fileName          is the name of the file to be received.
+     * @param totalFileSize     is the total size of the file to be received.
+     * @param lastReceivedSeqNr is the last sequence number received from the client.
+     * @param context           is the context of the connection with the client that sent the request.
+     */
+    private void receiveAndStoreChunks(String fileName, long totalFileSize, int lastReceivedSeqNr, TransferContext context) {
+        if (DeduplicationProtocol.receiveFile(context, chunkStore, fileName, totalFileSize, lastReceivedSeqNr)) {
+            System.out.println(fileName + " is successfully uploaded and stored as chunks.");
+        } else if (!context.getSocket().isClosed()) {
+            System.out.println("The upload of " + fileName + " was not successful.");
         }
     }
 
@@ -104,78 +336,201 @@ public class Server {
      *
      * @param fileName          is the name of the file to be sent.
      * @param lastReceivedSeqNr is the last sequence number received from the client.
-     * @param inetAddress       is the address of the client that sent the request.
-     * @param port              is the port the client that sent the request uses to connect to the Raspberry Pi.
-     * @param serverSocket      is the socket via which the server and client are connected.
+     * @param request           is the request of the client, which can ask to continue an interrupted download.
+     * @param context           is the context of the connection with the client that sent the request.
      */
-    public void sendFile(String fileName, int lastReceivedSeqNr, InetAddress inetAddress, int port, DatagramSocket serverSocket) {
+    public void sendFile(String fileName, int lastReceivedSeqNr, byte[] request, TransferContext context) {
         if (!FileProtocol.doesFileExist(fileName, filePath)) {
             String responseMessage = (fileName + " does not exist on the server and can therefore not be downloaded.");
-            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESNOTEXIST, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESNOTEXIST, 0, lastReceivedSeqNr, responseMessage, context);
+        } else if (context.getHeaderVersion() == PacketProtocol.HEADER_VERSION_1
+                && FileProtocol.getFileSize(FileProtocol.SERVER_FILEPATH, fileName) > Integer.MAX_VALUE) {
+            // the size of the file does not fit in the header of the first version, so the client cannot download it:
+            String responseMessage = (fileName + " is too large to be downloaded by this version of the client.");
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.INCORRECT, 0, lastReceivedSeqNr, responseMessage, context);
         } else {
             // get the size of the file to send and create a response message. Try to send an acknowledgement to the
             // client with this information in it, and try to receive an acknowledgement as sign that the server can
             // start sending the file. If the acknowledgement is not received in time, the acknowledgement of the server
-            // (with fileSize and message) will be sent again.
-            int fileSize = FileProtocol.getFileSize(FileProtocol.SERVER_FILEPATH, fileName);
+            // (with fileSize and message) will be sent again. If the client asks to continue an interrupted download,
+            // the acknowledgement also carries the offset from which the file is sent:
+            long fileSize = FileProtocol.getFileSize(FileProtocol.SERVER_FILEPATH, fileName);
+            long resumeOffset = ResumeProtocol.getResumeOffset(request, fileSize);
             String responseMessage = ("Server successfully received the request for downloading " + fileName);
-            AcknowledgementProtocol.sendAckWithFileSizeAndReceiveAck(0, fileSize, lastReceivedSeqNr, responseMessage, inetAddress, port, serverSocket);
-            byte[] ackReceived = AcknowledgementProtocol.getLastReceivedAcknowledgement();
-            while (PacketProtocol.getFlag(ackReceived) != PacketProtocol.ACK) {
-                try {
-                    System.out.println("sleep in server");
-                    Thread.sleep(1000);
-                    DatagramPacket newAck = AcknowledgementProtocol.createAckPacketToReceive();
-                    serverSocket.receive(newAck);
-                    ackReceived = newAck.getData();
-                } catch (InterruptedException e) {
-                    System.out.println("could not sleep");
-                } catch (IOException e) {
-                    System.out.println("could not receive new ack");;
-                }
-            }
+            AcknowledgementProtocol.sendAckWithFileSizeAndReceiveAck(0, fileSize, resumeOffset, lastReceivedSeqNr, responseMessage, context);
+            byte[] ackReceived = receiveAckOfFileSize(context);
             if (PacketProtocol.getFlag(ackReceived) == PacketProtocol.ACK) {
                 // first, get some information from the acknowledgement that is received:
                 lastReceivedSeqNr = PacketProtocol.getSequenceNumber(ackReceived);
                 int lastReceivedAckNr = PacketProtocol.getAcknowledgementNumber(ackReceived);
-                // create a byte representation from the (new) file that needs to be uploaded to the server:
-                byte[] fileToSendInBytes = FileProtocol.fileToBytes(FileProtocol.SERVER_FILEPATH, fileName);
-                // send the byte representation of the file to the client:
-                if (fileToSendInBytes != null) {
-                    StopAndWaitProtocol.sendFile(fileToSendInBytes, lastReceivedSeqNr, lastReceivedAckNr, serverSocket, inetAddress, port);
-                    // calculate the checksum of the original file and send it to the server:
-                    int checksumOfTotalFile = DataIntegrityProtocol.calculateChecksum(fileToSendInBytes);
-                    lastReceivedSeqNr = StopAndWaitProtocol.getLastReceivedSeqNr();
-                    lastReceivedAckNr = StopAndWaitProtocol.getLastReceivedAckNr();
-                    // create packet with checksum of total file in it, send it to the server and try to receive an ACK:
-                    DatagramPacket checksumToSend = DataIntegrityProtocol.createChecksumPacket(checksumOfTotalFile, lastReceivedSeqNr, lastReceivedAckNr, inetAddress, port);
-                    if (AcknowledgementProtocol.sendChecksumAndReceiveAck(serverSocket, checksumToSend)) {
-                        System.out.println(fileName + " is successfully downloaded by the client.");
-                    } else {
-                        System.out.println("The download of " + fileName + " was not successful.");
+                // open the file that needs to be sent to the client. Its fragments are read from disk while they are
+                // sent, so the file is never loaded into memory completely:
+                FragmentSource fileToSend = FileProtocol.openFileToSend(FileProtocol.SERVER_FILEPATH, fileName);
+                if (fileToSend == null) {
+                    return;
+                }
+                context.setRateLimiter(getClientRateLimiter(context));
+                try (FragmentSource source = fileToSend) {
+                    if (PacketProtocol.getNumberOfStreams(context.getOptions()) > 1) {
+                        // the request is one of the streams over which the client downloads the file, so only send
+                        // the range of this stream (followed by the digest of that range):
+                        if (ParallelTransferProtocol.sendRange(context, source, lastReceivedSeqNr, lastReceivedAckNr, null)) {
+                            System.out.println("Stream " + (PacketProtocol.getStreamIndex(context.getOptions()) + 1) + " of " + fileName + " is successfully downloaded by the client.");
+                        }
+                        return;
+                    }
+                    // send the (rest of the) file to the client while calculating its digest. The data before the
+                    // offset is not sent again, so it is added to the digest first:
+                    FileDigest digest = context.createFileDigest();
+                    ResumeProtocol.addDataBeforeOffset(source, resumeOffset, digest);
+                    if (SelectiveRepeatProtocol.sendFile(new FragmentRange(source, null, resumeOffset), lastReceivedSeqNr, lastReceivedAckNr, context, SelectiveRepeatProtocol.DEFAULT_WINDOW_SIZE, digest)) {
+                        // send the digest of the original file to the client and try to receive an ACK (if the client
+                        // has chunks that differ, these are sent again):
+                        if (ChunkRepairProtocol.sendDigestAndRepair(context, source, digest)) {
+                            System.out.println(fileName + " is successfully downloaded by the client.");
+                        } else {
+                            System.out.println("The download of " + fileName + " was not successful.");
+                        }
                     }
+                } catch (IOException e) {
+                    System.out.println("Could not read " + fileName + ": " + e.getMessage());
                 }
             }
         }
     }
 
+    /**
+     * Receive a batch of files from the client in this session (see BatchProtocol). Files that already exist on the
+     * server (or of which the name cannot be used) are refused, the other files are received after each other.
+     *
+     * @param manifestLength    is the length of the manifest of the batch.
+     * @param lastReceivedSeqNr is the last sequence number received from the client (the sequence number of the
+     *                          request).
+     * @param context           is the context of the connection with the client that sent the request.
+     */
+    public void receiveBatch(long manifestLength, int lastReceivedSeqNr, TransferContext context) {
+        FileBatch batch = receiveManifest(manifestLength, "uploading", lastReceivedSeqNr, context);
+        if (batch == null) {
+            return;
+        }
+        // refuse the files that are already stored, and files that appear more than once in the batch:
+        Set<String> storedFileNames = new HashSet<>();
+        for (File file : FileProtocol.getStoredFiles(filePath)) {
+            storedFileNames.add(file.getName());
+        }
+        long[] sizes = new long[batch.getNumberOfFiles()];
+        long totalSize = 0;
+        for (int i = 0; i < batch.getNumberOfFiles(); i++) {
+            long size = batch.getSize(i);
+            if (size >= 0 && size <= Long.MAX_VALUE - totalSize && FileProtocol.isValidFileName(batch.getFileName(i)) && storedFileNames.add(batch.getFileName(i))) {
+                sizes[i] = size;
+                totalSize = totalSize + size;
+            } else {
+                sizes[i] = -1;
+            }
+        }
+        FileBatch reply = batch.withSizes(sizes);
+        if (!BatchProtocol.sendReply(context, reply, lastReceivedSeqNr, (int) manifestLength) || reply.getNumberOfTransferredFiles() == 0) {
+            return;
+        }
+        int dataSequenceNumber = BatchProtocol.getDataSequenceNumber(context, lastReceivedSeqNr, (int) manifestLength, batch.getNumberOfFiles());
+        if (BatchProtocol.receiveFiles(context, FileProtocol.SERVER_FILEPATH, reply, dataSequenceNumber)) {
+            System.out.println(reply.getNumberOfTransferredFiles() + " file(s) of the batch are successfully uploaded by client " + context.getAddress().getHostAddress() + ".");
+        } else {
+            System.out.println("The upload of the batch of client " + context.getAddress().getHostAddress() + " was not successful.");
+        }
+    }
+
+    /**
+     * Send a batch of files to the client in this session (see BatchProtocol). Files that do not exist on the server
+     * are refused, the other files are sent after each other.
+     *
+     * @param manifestLength    is the length of the manifest of the batch.
+     * @param lastReceivedSeqNr is the last sequence number received from the client (the sequence number of the
+     *                          request).
+     * @param context           is the context of the connection with the client that sent the request.
+     */
+    public void sendBatch(long manifestLength, int lastReceivedSeqNr, TransferContext context) {
+        FileBatch batch = receiveManifest(manifestLength, "downloading", lastReceivedSeqNr, context);
+        if (batch == null) {
+            return;
+        }
+        long[] sizes = new long[batch.getNumberOfFiles()];
+        for (int i = 0; i < batch.getNumberOfFiles(); i++) {
+            sizes[i] = FileProtocol.isValidFileName(batch.getFileName(i)) ? FileProtocol.getFileSize(FileProtocol.SERVER_FILEPATH, batch.getFileName(i)) : -1;
+        }
+        FileBatch reply = batch.withSizes(sizes);
+        if (!BatchProtocol.sendReply(context, reply, lastReceivedSeqNr, (int) manifestLength) || reply.getNumberOfTransferredFiles() == 0) {
+            return;
+        }
+        int dataSequenceNumber = BatchProtocol.getDataSequenceNumber(context, lastReceivedSeqNr, (int) manifestLength, batch.getNumberOfFiles());
+        context.setRateLimiter(getClientRateLimiter(context));
+        if (BatchProtocol.sendFiles(context, FileProtocol.SERVER_FILEPATH, reply, dataSequenceNumber)) {
+            System.out.println(reply.getNumberOfTransferredFiles() + " file(s) of the batch are successfully downloaded by client " + context.getAddress().getHostAddress() + ".");
+        } else {
+            System.out.println("The download of the batch of client " + context.getAddress().getHostAddress() + " was not successful.");
+        }
+    }
+
+    /**
+     * Get the token bucket that limits the rate at which files are sent to the client of a connection. The bucket is
+     * shared by all connections from the address of the client, so a client cannot get more bandwidth by downloading
+     * over several streams (or in several sessions) at the same time.
+     *
+     * @param context is the context of the connection with the client.
+     * @return the rate limiter of the client, or null if the rate of the clients is not limited.
+     */
+    private TokenBucket getClientRateLimiter(TransferContext context) {
+        if (clientRateLimit <= 0) {
+            return null;
+        }
+        return clientRateLimiters.computeIfAbsent(context.getAddress().getHostAddress(), address -> new TokenBucket(clientRateLimit));
+    }
+
+    /**
+     * Acknowledge the request for a batch of files and receive the manifest of the batch.
+     *
+     * @param manifestLength    is the length of the manifest of the batch.
+     * @param direction         is "uploading" or "downloading", which is used in the message to the client.
+     * @param lastReceivedSeqNr is the last sequence number received from the client (the sequence number of the
+     *                          request).
+     * @param context           is the context of the connection with the client that sent the request.
+     * @return the batch, or null if the manifest is too long or could not be received.
+     */
+    private FileBatch receiveManifest(long manifestLength, String direction, int lastReceivedSeqNr, TransferContext context) {
+        if (manifestLength <= 0 || manifestLength > BatchProtocol.MAX_MANIFEST_LENGTH) {
+            String responseMessage = ("The batch contains too many files to be handled by the server.");
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.INCORRECT, 0, lastReceivedSeqNr, responseMessage, context);
+            return null;
+        }
+        String responseMessage = ("Server successfully received the request for " + direction + " a batch of files");
+        AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, context);
+        FileBatch batch = BatchProtocol.receiveManifest(context, (int) manifestLength, lastReceivedSeqNr);
+        if (batch == null && !context.getSocket().isClosed()) {
+            System.out.println("The manifest of the batch of client " + context.getAddress().getHostAddress() + " is not correct.");
+        }
+        return batch;
+    }
+
     /**
      * Remove a file from the server (Raspberry Pi).
      *
      * @param fileName          is the name of the file to be sent.
      * @param lastReceivedSeqNr is the last sequence number received from the client.
-     * @param inetAddress       is the address of the client that sent the request.
-     * @param port              is the port the client that sent the request uses to connect to the Raspberry Pi.
-     * @param serverSocket      is the socket via which the server and client are connected.
+     * @param context           is the context of the connection with the client that sent the request.
      */
-    public void removeFile(String fileName, int lastReceivedSeqNr, InetAddress inetAddress, int port, DatagramSocket
-            serverSocket) {
-        if (isFileRemoved(fileName, filePath)) {
+    public void removeFile(String fileName, int lastReceivedSeqNr, TransferContext context) {
+        if (fileName == null || !FileProtocol.isValidFileName(fileName)) {
+            // the name is checked before the chunk store is touched, so it cannot refer to a manifest outside the
+            // folder of the server:
+            String responseMessage = (fileName + " is not a valid name for a file on the server.");
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.INCORRECT, 0, lastReceivedSeqNr, responseMessage, context);
+        } else if (isFileRemoved(fileName, filePath)) {
             String responseMessage = ("Server successfully received the request for removing " + fileName + ". File is removed.");
-            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, context);
         } else {
             String responseMessage = (fileName + " cannot be removed by the server as it does not exist.");
-            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESNOTEXIST, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESNOTEXIST, 0, lastReceivedSeqNr, responseMessage, context);
         }
     }
 
@@ -186,23 +541,35 @@ public class Server {
      * @param newFileName       is the new file to be received.
      * @param totalFileSize     is the total size of the file to be received.
      * @param lastReceivedSeqNr is the last sequence number received from the client.
-     * @param inetAddress       is the address of the client that sent the request.
-     * @param port              is the port the client that sent the request uses to connect to the Raspberry Pi.
-     * @param serverSocket      is the socket via which the server and client are connected.
+     * @param context           is the context of the connection with the client that sent the request.
      */
-    public void replaceFile(String oldFileName, String newFileName, int totalFileSize,
-                            int lastReceivedSeqNr, InetAddress inetAddress,
-                            int port, DatagramSocket serverSocket) {
+    public void replaceFile(String oldFileName, String newFileName, long totalFileSize,
+                            int lastReceivedSeqNr, TransferContext context) {
+        if (oldFileName == null || newFileName == null || !FileProtocol.isValidFileName(oldFileName) || !FileProtocol.isValidFileName(newFileName)) {
+            String responseMessage = (oldFileName + " cannot be replaced by " + newFileName + " as it is not a valid name for a file on the server.");
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.INCORRECT, 0, lastReceivedSeqNr, responseMessage, context);
+            return;
+        }
         // if the old file exists on the server, first try to remove it. Then, try to receive the new file from the client.
         if (isFileRemoved(oldFileName, filePath)) {
+            if (PacketProtocol.isDeduplicationUsed(context.getHeaderVersion(), context.getOptions())) {
+                String responseMessage = ("Server successfully received the request for replacing " + oldFileName + " by " + newFileName + ".");
+                AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, context);
+                receiveAndStoreChunks(newFileName, totalFileSize, lastReceivedSeqNr, context);
+                return;
+            }
+            FileFragmentSink replacingFile = FileProtocol.createFileToReceive(FileProtocol.SERVER_FILEPATH, newFileName, totalFileSize);
+            if (replacingFile == null) {
+                String responseMessage = (newFileName + " could not be stored on the server.");
+                AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.INCORRECT, 0, lastReceivedSeqNr, responseMessage, context);
+                return;
+            }
             String responseMessage = ("Server successfully received the request for replacing " + oldFileName + " by " + newFileName + ".");
-            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
-            StopAndWaitProtocol.receiveFile(serverSocket, totalFileSize);
-            File replacingFile = FileProtocol.bytesToFile(FileProtocol.SERVER_FILEPATH, newFileName, StopAndWaitProtocol.getFileInBytes());
-            DataIntegrityProtocol.receiveAndPerformTotalChecksum(serverSocket, inetAddress, port, replacingFile);
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, context);
+            receiveAndStoreFile(replacingFile, totalFileSize, 0, lastReceivedSeqNr, context);
         } else {
             String responseMessage = (oldFileName + " cannot be replaced by the server as it does not exist.");
-            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESNOTEXIST, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESNOTEXIST, 0, lastReceivedSeqNr, responseMessage, context);
         }
     }
 
@@ -211,14 +578,12 @@ public class Server {
      * List the files that are located on the server (Raspberry Pi).
      *
      * @param lastReceivedSeqNr is the last sequence number received from the client.
-     * @param inetAddress       is the address of the client that sent the request.
-     * @param port              is the port the client that sent the request uses to connect to the Raspberry Pi.
-     * @param serverSocket      is the socket via which the server and client are connected.
+     * @param context           is the context of the connection with the client that sent the request.
      */
-    public void listFiles(int lastReceivedSeqNr, InetAddress inetAddress, int port, DatagramSocket serverSocket) {
+    public void listFiles(int lastReceivedSeqNr, TransferContext context) {
         if (!FileProtocol.areFilesStoredOnServer(filePath)) {
             String responseMessage = ("There are no files stored on the server yet.");
-            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESNOTEXIST, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
+            AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(PacketProtocol.DOESNOTEXIST, 0, lastReceivedSeqNr, responseMessage, context);
         } else {
             // get the size of the list to send and create a response message. Try to send an acknowledgement to the
             // client with this information in it, and try to receive an acknowledgement as sign that the server can
@@ -228,52 +593,69 @@ public class Server {
             byte[] listOfFilesInBytes = listOfFileNames.getBytes();
             int fileSize = listOfFilesInBytes.length;
             String responseMessage = ("Server successfully received the request for listing all files.");
-            AcknowledgementProtocol.sendAckWithFileSizeAndReceiveAck(0, fileSize, lastReceivedSeqNr, responseMessage, inetAddress, port, serverSocket);
+            AcknowledgementProtocol.sendAckWithFileSizeAndReceiveAck(0, fileSize, lastReceivedSeqNr, responseMessage, context);
             // get information from the received acknowledgement and send the list of stored files:
-            byte[] ackReceived = AcknowledgementProtocol.getLastReceivedAcknowledgement();
-            while (PacketProtocol.getFlag(ackReceived) != PacketProtocol.ACK) {
-                try {
-                    System.out.println("sleep in server");
-                    Thread.sleep(1000);
-                    DatagramPacket newAck = AcknowledgementProtocol.createAckPacketToReceive();
-                    serverSocket.receive(newAck);
-                    ackReceived = newAck.getData();
-                } catch (InterruptedException e) {
-                    System.out.println("could not sleep");
-                } catch (IOException e) {
-                    System.out.println("could not receive new ack");
-                    ;
-                }
-            }
+            byte[] ackReceived = receiveAckOfFileSize(context);
             if (PacketProtocol.getFlag(ackReceived) == PacketProtocol.ACK) {
                 int lastReceivedAckNr = PacketProtocol.getAcknowledgementNumber(ackReceived);
                 lastReceivedSeqNr = PacketProtocol.getSequenceNumber(ackReceived);
-                StopAndWaitProtocol.sendFile(listOfFilesInBytes, lastReceivedSeqNr, lastReceivedAckNr, serverSocket, inetAddress, port);
+                StopAndWaitProtocol.sendFile(listOfFilesInBytes, lastReceivedSeqNr, lastReceivedAckNr, context);
+            }
+        }
+    }
+
+    /**
+     * Wait until the client acknowledges the acknowledgement with the file size. Other packets of the client are
+     * skipped, and if no packet is received before the time-out, the acknowledgement with the file size is sent again.
+     *
+     * @param context is the context of the connection with the client, which holds the last received acknowledgement.
+     * @return the acknowledgement of the client, or the last received packet if the session is closed before that.
+     */
+    private byte[] receiveAckOfFileSize(TransferContext context) {
+        PacketSocket socket = context.getSocket();
+        byte[] ackReceived = context.getLastReceivedAcknowledgement();
+        DatagramPacket newAck = AcknowledgementProtocol.createAckPacketToReceive();
+        while (PacketProtocol.getFlag(ackReceived) != PacketProtocol.ACK && !socket.isClosed()) {
+            try {
+                socket.setSoTimeout(context.getRttEstimator().getTimeout());
+                socket.receive(newAck);
+                ackReceived = newAck.getData();
+                socket.setSoTimeout(0);
+            } catch (SocketTimeoutException e) {
+                AcknowledgementProtocol.resendAcknowledgement(context);
+            } catch (IOException e) {
+                System.out.println("could not receive new ack");
             }
         }
+        return ackReceived;
     }
 
     /**
      * Let the client know that the server received the message that the client is disconnecting.
      *
      * @param lastReceivedSeqNr is the last sequence number received from the client.
-     * @param inetAddress       is the address of the client that sent the request.
-     * @param port              is the port the client that sent the request uses to connect to the Raspberry Pi.
-     * @param serverSocket      is the socket via which the server and client are connected.
+     * @param context           is the context of the connection with the client that sent the request.
      */
-    public void respondToClosingClient(int lastReceivedSeqNr, InetAddress inetAddress, int port, DatagramSocket
-            serverSocket) {
+    public void respondToClosingClient(int lastReceivedSeqNr, TransferContext context) {
         String responseMessage = ("Server successfully received that you are closing the application.");
-        AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, serverSocket, inetAddress, port);
+        AcknowledgementProtocol.sendInitialAcknowledgementWithMessage(0, 0, lastReceivedSeqNr, responseMessage, context);
     }
 
     /**
-     * Remove the file if this file actually exists.
+     * Remove the file if this file actually exists. A file that is stored as chunks is removed from the chunk store of
+     * the server.
      *
      * @param fileName is the name of the file.
-     * @return true if the file existed and could be removed, false if not.
+     * @return true if the file existed and could be removed, false if not (or the name is not a valid file name).
      */
     public boolean isFileRemoved(String fileName, File filePath) {
+        if (!FileProtocol.isValidFileName(fileName)) {
+            return false;
+        }
+        if (chunkStore.isStored(fileName) && !new File(filePath, fileName).isFile()) {
+            // a file that is stored as chunks is removed with its manifest (and the chunks that no other file has):
+            return chunkStore.removeFile(fileName);
+        }
         if (FileProtocol.doesFileExist(fileName, filePath)) {
         File[] listOfFiles = filePath.listFiles();
             for (File file : listOfFiles) {
@@ -0,0 +1,293 @@
+package com.nedap.university.server;
+
+import com.nedap.university.PacketCodec;
+import com.nedap.university.PacketProtocol;
+import com.nedap.university.PacketSocket;
+import com.nedap.university.RttEstimator;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents the session of a single request of a client. All packets that the server receives from this client are
+ * put in the queue of the session by the dispatcher, so the handler of the request only receives its own packets. The
+ * packets that the handler sends go out via the shared (non-blocking) channel of the server, from a direct buffer of the
+ * session. The buffers of the session start at the legacy fragment size and only grow if the handler sends a larger
+ * packet, so they fit the fragment size that is negotiated with the client.
+ */
+public class Session implements PacketSocket {
+    public static final int MAX_QUEUED_PACKETS = 4096; // which is enough for a few full windows of the sender.
+    public static final int MAX_QUEUED_BYTES = MAX_QUEUED_PACKETS * PacketProtocol.LEGACY_FRAGMENT_SIZE; // also for larger packets.
+    public static final int SEND_RETRIES = 100; // the number of times a packet is offered to a full send buffer.
+    public static final long SEND_RETRY_INTERVAL = 100000L; // in ns (0.1 ms).
+    private static final DatagramPacket CLOSED = new DatagramPacket(new byte[0], 0);
+    private final SessionKey key;
+    private final int requestId;
+    private final DatagramChannel serverChannel;
+    private final InetSocketAddress clientAddress;
+    private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(PacketProtocol.LEGACY_FRAGMENT_SIZE);
+    private final RttEstimator rttEstimator;
+    private final BlockingQueue<DatagramPacket> receivedPackets;
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+    private volatile int timeout;
+    private volatile boolean closed;
+    private volatile boolean finished;
+    private volatile long lastActivity;
+    private byte[] firstSentPacket;
+    private byte[] lastSentPacket = new byte[PacketProtocol.LEGACY_FRAGMENT_SIZE];
+    private int lastSentPacketLength;
+
+    /**
+     * Create the session of a request.
+     *
+     * @param key           is the key (address and port) of the client.
+     * @param requestId     is the id of the request, which is the sequence number of the request packet.
+     * @param serverChannel is the channel of the server via which packets are sent.
+     * @param rttEstimator  is the round trip time estimator of the connection with the client.
+     */
+    public Session(SessionKey key, int requestId, DatagramChannel serverChannel, RttEstimator rttEstimator) {
+        this.key = key;
+        this.requestId = requestId;
+        this.serverChannel = serverChannel;
+        this.clientAddress = new InetSocketAddress(key.getAddress(), key.getPort());
+        this.rttEstimator = rttEstimator;
+        // the queue is backed by an array, so delivering a packet does not allocate any memory:
+        this.receivedPackets = new ArrayBlockingQueue<>(MAX_QUEUED_PACKETS);
+        this.lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Deliver a packet that is received from the client to this session. If the queue is full, the packet is dropped
+     * (just like the socket buffer of the operating system would do) and the sender will retransmit it. The queue is
+     * full at MAX_QUEUED_PACKETS packets or MAX_QUEUED_BYTES bytes, so a session that receives jumbo frames does not
+     * hold more memory than a session that receives packets of the legacy fragment size. The buffer of the packet is
+     * returned to the pool (see PacketCodec.acquireBuffer) when it is dropped or received by the handler.
+     *
+     * @param packet is the received packet.
+     */
+    public void deliver(DatagramPacket packet) {
+        lastActivity = System.nanoTime();
+        if (closed) {
+            PacketCodec.releaseBuffer(packet.getData());
+        } else if (queuedBytes.addAndGet(packet.getLength()) > MAX_QUEUED_BYTES || !receivedPackets.offer(packet)) {
+            queuedBytes.addAndGet(-packet.getLength());
+            PacketCodec.releaseBuffer(packet.getData());
+        }
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        if (closed) {
+            throw new SocketException("Session with " + key + " is closed.");
+        }
+        // the packet is copied into the direct buffer of the session, so the channel does not need to copy it again:
+        if (packet.getLength() > sendBuffer.capacity()) {
+            sendBuffer = ByteBuffer.allocateDirect(packet.getLength());
+        }
+        sendBuffer.clear();
+        sendBuffer.put(packet.getData(), packet.getOffset(), packet.getLength());
+        sendBuffer.flip();
+        sendToClient(sendBuffer);
+        // remember the response to the request and the last packet that is sent, so they can be sent again if the
+        // client retransmits a packet after the handler has finished. The last packet is copied into the same buffer
+        // every time, so sending a packet does not allocate any memory:
+        synchronized (this) {
+            if (firstSentPacket == null) {
+                firstSentPacket = new byte[packet.getLength()];
+                System.arraycopy(packet.getData(), packet.getOffset(), firstSentPacket, 0, packet.getLength());
+            }
+            if (packet.getLength() > lastSentPacket.length) {
+                lastSentPacket = new byte[packet.getLength()];
+            }
+            System.arraycopy(packet.getData(), packet.getOffset(), lastSentPacket, 0, packet.getLength());
+            lastSentPacketLength = packet.getLength();
+        }
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        DatagramPacket receivedPacket;
+        try {
+            if (timeout == 0) {
+                receivedPacket = receivedPackets.take();
+            } else {
+                receivedPacket = receivedPackets.poll(timeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketException("Interrupted while receiving a packet for " + key + ".");
+        }
+        if (receivedPacket == null) {
+            throw new SocketTimeoutException("Receive timed out");
+        }
+        copyReceivedPacket(receivedPacket, packet);
+    }
+
+    @Override
+    public boolean receiveIfAvailable(DatagramPacket packet) throws IOException {
+        DatagramPacket receivedPacket = receivedPackets.poll();
+        if (receivedPacket == null) {
+            return false;
+        }
+        copyReceivedPacket(receivedPacket, packet);
+        return true;
+    }
+
+    /**
+     * Copy a packet from the queue into the packet of the handler.
+     *
+     * @param receivedPacket is the packet that is taken from the queue.
+     * @param packet         is the packet in which the received data, length, address and port are stored.
+     * @throws SocketException if the session is closed.
+     */
+    private void copyReceivedPacket(DatagramPacket receivedPacket, DatagramPacket packet) throws SocketException {
+        if (receivedPacket == CLOSED) {
+            // put the marker back, so any following receive stops immediately too:
+            receivedPackets.offer(CLOSED);
+            throw new SocketException("Session with " + key + " is closed.");
+        }
+        int length = Math.min(receivedPacket.getLength(), packet.getData().length - packet.getOffset());
+        System.arraycopy(receivedPacket.getData(), receivedPacket.getOffset(), packet.getData(), packet.getOffset(), length);
+        packet.setLength(length);
+        packet.setAddress(receivedPacket.getAddress());
+        packet.setPort(receivedPacket.getPort());
+        queuedBytes.addAndGet(-receivedPacket.getLength());
+        PacketCodec.releaseBuffer(receivedPacket.getData());
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // return the buffers of the packets that the handler did not receive to the pool:
+        DatagramPacket queuedPacket;
+        while ((queuedPacket = receivedPackets.poll()) != null) {
+            if (queuedPacket != CLOSED) {
+                PacketCodec.releaseBuffer(queuedPacket.getData());
+            }
+        }
+        receivedPackets.offer(CLOSED);
+    }
+
+    /**
+     * Resend a packet that was sent before in this session.
+     *
+     * @param sentPacket is the byte representation of the packet.
+     * @param length     is the length of the packet.
+     */
+    private void resend(byte[] sentPacket, int length) {
+        if (sentPacket != null && length > 0) {
+            try {
+                sendToClient(ByteBuffer.wrap(sentPacket, 0, length));
+            } catch (IOException e) {
+                System.out.println("Could not resend packet to " + key + ".");
+            }
+        }
+    }
+
+    /**
+     * Send a packet to the client via the channel of the server. As the channel is non-blocking, a packet is not sent if
+     * the send buffer of the operating system is full: then it is offered again after a short pause, and dropped after
+     * SEND_RETRIES attempts (just like a full buffer in the network would), after which the sender retransmits it.
+     *
+     * @param packet is the buffer with the packet, from its position to its limit.
+     * @throws IOException if the packet could not be sent (for example as the channel is closed).
+     */
+    private void sendToClient(ByteBuffer packet) throws IOException {
+        for (int attempt = 0; attempt < SEND_RETRIES && serverChannel.send(packet, clientAddress) == 0; attempt++) {
+            LockSupport.parkNanos(SEND_RETRY_INTERVAL);
+        }
+    }
+
+    /**
+     * Resend the response to the request, as the client retransmitted its request (the response could have been lost).
+     */
+    public synchronized void resendResponse() {
+        if (firstSentPacket != null) {
+            resend(firstSentPacket, firstSentPacket.length);
+        }
+    }
+
+    /**
+     * Resend the last packet that is sent in this session, as the client retransmitted a packet after the handler has
+     * finished (the last acknowledgement could have been lost).
+     */
+    public synchronized void resendLastPacket() {
+        resend(lastSentPacket, lastSentPacketLength);
+    }
+
+    /**
+     * Mark the session as finished: the handler has executed the request.
+     */
+    public void finish() {
+        finished = true;
+        lastActivity = System.nanoTime();
+    }
+
+
+//          --- GETTERS ---
+
+    /**
+     * Get the key (address and port) of the client of this session.
+     *
+     * @return the key of the session.
+     */
+    public SessionKey getKey() {
+        return key;
+    }
+
+    /**
+     * Get the id of the request that is handled in this session.
+     *
+     * @return the request id.
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Get the round trip time estimator of the connection with the client.
+     *
+     * @return the round trip time estimator.
+     */
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    /**
+     * Check whether the handler has finished executing the request.
+     *
+     * @return true if the request is executed, false if not.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Get the time at which the last packet of the client was received (or the handler finished).
+     *
+     * @return the time of the last activity, as given by System.nanoTime().
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+}
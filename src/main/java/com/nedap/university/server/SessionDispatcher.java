@@ -0,0 +1,218 @@
+package com.nedap.university.server;
+
+import com.nedap.university.DataIntegrityProtocol;
+import com.nedap.university.PacketCodec;
+import com.nedap.university.PacketProtocol;
+import com.nedap.university.PathMtuProtocol;
+import com.nedap.university.RttEstimator;
+
+import java.lang.reflect.Method;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the dispatcher of the server, which divides all received packets over the sessions of the clients. A new
+ * request of a client starts a new session, which is handled by its own worker, so multiple clients can upload and
+ * download files at the same time without receiving each other's packets. The worker stops as soon as the request is
+ * executed, so a session that waits for its next request (or until it is idle for too long) does not use a thread. A
+ * packet is only treated as a request if its header checksum is correct, and a request of which the id belongs to one of
+ * the last requests that the client finished (a duplicate that arrives late) is dropped, so neither closes the session
+ * of the current request of the client.
+ */
+public class SessionDispatcher {
+    public static final int IDLE_CHECK_INTERVAL = 1000; // in ms.
+    public static final long SESSION_TIMEOUT = 2L * PacketProtocol.MAX_TIMEOUT; // in ms, which is longer than the maximum time-out of the sender.
+    public static final int FINISHED_REQUESTS = 16; // the number of finished request ids that is kept per client.
+    private final Map<SessionKey, Session> sessions;
+    private final Map<SessionKey, Deque<Integer>> finishedRequests;
+    private final DatagramChannel serverChannel;
+    private final Server server;
+    private final ExecutorService workers;
+    private long lastIdleCheck;
+
+    /**
+     * Create the dispatcher of the server.
+     *
+     * @param serverChannel     is the channel of the server via which all packets are sent and received.
+     * @param server            is the server that executes the requests.
+     * @param useVirtualThreads is true if every session should be handled on a virtual thread (if the Java version
+     *                          supports this), false if a pool of platform threads should be used.
+     */
+    public SessionDispatcher(DatagramChannel serverChannel, Server server, boolean useVirtualThreads) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.finishedRequests = new ConcurrentHashMap<>();
+        this.serverChannel = serverChannel;
+        this.server = server;
+        this.workers = createWorkers(useVirtualThreads);
+        this.lastIdleCheck = System.nanoTime();
+    }
+
+    /**
+     * Create the executor on which the sessions are handled. Virtual threads are only available from Java 21 onwards,
+     * so they are looked up at runtime and platform threads are used if they are not available.
+     *
+     * @param useVirtualThreads is true if virtual threads should be used, false if not.
+     * @return the executor for the workers of the sessions.
+     */
+    private static ExecutorService createWorkers(boolean useVirtualThreads) {
+        if (useVirtualThreads) {
+            try {
+                Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads are not supported by this Java version, platform threads are used instead.");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Check whether the flag of a packet represents a new request of a client.
+     *
+     * @param flag is the flag of the packet.
+     * @return true if the packet is a request, false if not.
+     */
+    public static boolean isRequest(int flag) {
+        return flag == PacketProtocol.UPLOAD || flag == PacketProtocol.DOWNLOAD || flag == PacketProtocol.REMOVE
+                || flag == PacketProtocol.REPLACE || flag == PacketProtocol.LIST || flag == PacketProtocol.CLOSE;
+    }
+
+    /**
+     * Check whether a packet is a new request of a client: its flag is a request, and its header checksum is correct.
+     * Otherwise, a packet of which the flag is corrupted could be taken for a request.
+     *
+     * @param packet is the packet that is received.
+     * @return true if the packet is a request, false if not.
+     */
+    public static boolean isRequest(DatagramPacket packet) {
+        byte[] dataOfReceivedPacket = packet.getData();
+        int headerSize = PacketProtocol.getHeaderSize(dataOfReceivedPacket);
+        return packet.getLength() >= headerSize && isRequest(PacketProtocol.getRequestFlag(dataOfReceivedPacket))
+                && DataIntegrityProtocol.isChecksumCorrect(dataOfReceivedPacket, packet.getLength() - headerSize);
+    }
+
+    /**
+     * Dispatch a received packet to the session it belongs to. A request with a new request id starts a new session
+     * (and closes a previous session of the same client, as the client only sends a new request when it is done with
+     * the previous one). The request ids are random, so a request is new if its id is not the id of the current session
+     * or of one of the last FINISHED_REQUESTS requests of the client. All other packets are delivered to the current
+     * session of the client, except for the probes of the path MTU, which are answered right away (also if the client
+     * has no session). The buffer of a packet that is not delivered (or handed to a new handler) is returned to the
+     * pool right away, and the session returns the buffer of a delivered packet once the handler received it.
+     *
+     * @param packet is the packet that is received.
+     */
+    public void dispatch(DatagramPacket packet) {
+        SessionKey key = new SessionKey(packet.getAddress(), packet.getPort());
+        byte[] dataOfReceivedPacket = packet.getData();
+        int flag = PacketProtocol.getFlag(dataOfReceivedPacket);
+        Session session = sessions.get(key);
+        if (PathMtuProtocol.isProbe(dataOfReceivedPacket, packet.getLength())) {
+            answerProbe(packet);
+            PacketCodec.releaseBuffer(dataOfReceivedPacket);
+            return;
+        }
+        if (isRequest(packet)) {
+            int requestId = PacketProtocol.getSequenceNumber(dataOfReceivedPacket);
+            if (session != null && session.getRequestId() == requestId) {
+                // the client retransmitted its request, as the response to it could have been lost:
+                session.resendResponse();
+                PacketCodec.releaseBuffer(dataOfReceivedPacket);
+                return;
+            }
+            Deque<Integer> finished = finishedRequests.computeIfAbsent(key, k -> new ArrayDeque<>());
+            if (finished.contains(requestId)) {
+                // a retransmission of an earlier request that arrives after the client already sent a new one:
+                PacketCodec.releaseBuffer(dataOfReceivedPacket);
+                return;
+            }
+            RttEstimator rttEstimator = (session != null) ? session.getRttEstimator() : new RttEstimator();
+            if (session != null) {
+                session.close();
+                if (finished.size() == FINISHED_REQUESTS) {
+                    finished.removeFirst();
+                }
+                finished.addLast(session.getRequestId());
+            }
+            Session newSession = new Session(key, requestId, serverChannel, rttEstimator);
+            sessions.put(key, newSession);
+            workers.execute(new ClientHandler(newSession, server, packet));
+        } else if (session != null && !session.isFinished()) {
+            session.deliver(packet);
+        } else {
+            if (session != null && (flag == PacketProtocol.MOREFRAGMENTS || flag == PacketProtocol.LAST || flag == PacketProtocol.CHECK)) {
+                // the handler has finished, but the client retransmitted a packet as the last acknowledgement could
+                // have been lost:
+                session.resendLastPacket();
+            }
+            PacketCodec.releaseBuffer(dataOfReceivedPacket);
+        }
+    }
+
+    /**
+     * Answer a probe of the path MTU with a reply of the same size. If the reply does not fit in the send buffer, it is
+     * dropped, which the client handles as a lost probe.
+     *
+     * @param probe is the probe that is received.
+     */
+    private void answerProbe(DatagramPacket probe) {
+        try {
+            serverChannel.send(ByteBuffer.wrap(PathMtuProtocol.createProbeReply(probe)), probe.getSocketAddress());
+        } catch (IOException e) {
+            System.out.println("Could not answer the probe of " + probe.getSocketAddress() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close and remove all sessions in which no packet is received for longer than the session time-out, as the client
+     * is probably gone. Only checked once per idle check interval.
+     */
+    public void closeIdleSessions() {
+        long now = System.nanoTime();
+        if (now - lastIdleCheck < TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL)) {
+            return;
+        }
+        lastIdleCheck = now;
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            if (now - session.getLastActivity() > TimeUnit.MILLISECONDS.toNanos(SESSION_TIMEOUT)) {
+                session.close();
+                iterator.remove();
+                // a retransmission of one of its requests cannot arrive this late anymore:
+                finishedRequests.remove(session.getKey());
+            }
+        }
+    }
+
+    /**
+     * Close all sessions and stop the workers.
+     */
+    public void shutdown() {
+        for (Session session : sessions.values()) {
+            session.close();
+        }
+        sessions.clear();
+        finishedRequests.clear();
+        workers.shutdown();
+    }
+
+    /**
+     * Get the number of sessions that the dispatcher currently keeps track of.
+     *
+     * @return the number of sessions.
+     */
+    public int getNumberOfSessions() {
+        return sessions.size();
+    }
+}
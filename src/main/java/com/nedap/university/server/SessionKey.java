@@ -0,0 +1,64 @@
+package com.nedap.university.server;
+
+import java.net.InetAddress;
+import java.util.Objects;
+
+/**
+ * Represents the key by which the server finds the session of a client: the address and port from which the client
+ * sends its packets.
+ */
+public final class SessionKey {
+    private final InetAddress address;
+    private final int port;
+
+    /**
+     * Create the key of the session of a client.
+     *
+     * @param address is the address of the client.
+     * @param port    is the port of the client.
+     */
+    public SessionKey(InetAddress address, int port) {
+        this.address = address;
+        this.port = port;
+    }
+
+    /**
+     * Get the address of the client.
+     *
+     * @return the address of the client.
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the port of the client.
+     *
+     * @return the port of the client.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SessionKey)) {
+            return false;
+        }
+        SessionKey other = (SessionKey) o;
+        return port == other.port && address.equals(other.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(address, port);
+    }
+
+    @Override
+    public String toString() {
+        return address.getHostAddress() + ":" + port;
+    }
+}
@@ -0,0 +1,134 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the manifest of a batch of files is read back correctly, and whether the files of a batch that are
+ * transferred after each other in one session are stored as exact copies.
+ */
+public class BatchTest {
+
+    /**
+     * Test whether a batch is the same after creating its manifest and reading it back, and whether a position in the
+     * data of the batch belongs to the correct file (also when files in between are empty or not transferred).
+     */
+    @Test
+    public void testManifest() {
+        FileBatch batch = new FileBatch(new String[]{"a.txt", "empty.txt", "refused.txt", "b.pdf"}, new long[]{10, 0, -1, 5});
+        FileBatch readBatch = FileBatch.fromManifest(batch.toManifest());
+        assertNotNull(readBatch);
+        assertEquals(4, readBatch.getNumberOfFiles());
+        assertEquals("b.pdf", readBatch.getFileName(3));
+        assertEquals(-1, readBatch.getSize(2));
+        assertEquals(15, readBatch.getTotalSize());
+        assertEquals(3, readBatch.getNumberOfTransferredFiles());
+        assertEquals(0, batch.getFileIndex(9));
+        assertEquals(3, batch.getFileIndex(10));
+        assertEquals(3, batch.getFileIndex(14));
+        assertArrayEquals(new long[]{10, 0, -1, 5}, FileBatch.fromReply(batch.toReply()));
+        // a manifest that is cut off is refused:
+        byte[] manifest = batch.toManifest();
+        assertNull(FileBatch.fromManifest(Arrays.copyOf(manifest, manifest.length - 1)));
+    }
+
+    /**
+     * Test whether a batch of many small files and one larger file is uploaded in one session, and whether a file that
+     * the server refuses is left out.
+     */
+    @Test
+    public void testUploadBatch() throws Exception {
+        transferBatch(true);
+    }
+
+    /**
+     * Test whether a batch is downloaded in one session, in which the server sends the reply and the data of the files
+     * after each other.
+     */
+    @Test
+    public void testDownloadBatch() throws Exception {
+        transferBatch(false);
+    }
+
+    /**
+     * Transfer a batch of files between two contexts on the loopback address, following the steps of the client and
+     * the server.
+     *
+     * @param isUpload is true if the client sends the data of the files, false if the server does.
+     */
+    private void transferBatch(boolean isUpload) throws Exception {
+        File sourceFolder = Files.createTempDirectory("batch-source").toFile();
+        File destinationFolder = Files.createTempDirectory("batch-destination").toFile();
+        Random random = new Random(17);
+        int numberOfFiles = 200;
+        String[] fileNames = new String[numberOfFiles];
+        long[] sizes = new long[numberOfFiles];
+        byte[][] contents = new byte[numberOfFiles][];
+        for (int i = 0; i < numberOfFiles; i++) {
+            fileNames[i] = "file" + i + ".bin";
+            contents[i] = new byte[(i == 7) ? 250001 : random.nextInt(300)];
+            random.nextBytes(contents[i]);
+            sizes[i] = contents[i].length;
+            Files.write(new File(sourceFolder, fileNames[i]).toPath(), contents[i]);
+        }
+        String sourcePath = sourceFolder.getPath() + File.separator;
+        String destinationPath = destinationFolder.getPath() + File.separator;
+        FileBatch batch = new FileBatch(fileNames, isUpload ? sizes : new long[numberOfFiles]);
+        int manifestLength = batch.toManifest().length;
+        int requestSequenceNumber = 41;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket clientSocket = new DatagramSocket(0, loopback); DatagramSocket serverSocket = new DatagramSocket(0, loopback)) {
+            TransferContext clientContext = new TransferContext(new UdpPacketSocket(clientSocket), loopback, serverSocket.getLocalPort(), new RttEstimator());
+            TransferContext serverContext = new TransferContext(new UdpPacketSocket(serverSocket), loopback, clientSocket.getLocalPort(), new RttEstimator());
+            clientContext.setOptions(PacketProtocol.REQUESTED_OPTIONS | PacketProtocol.OPTION_BATCH);
+            serverContext.setOptions(PacketProtocol.acceptOptions(PacketProtocol.REQUESTED_OPTIONS | PacketProtocol.OPTION_BATCH));
+            boolean[] isServerDone = new boolean[1];
+            Thread server = new Thread(() -> {
+                FileBatch receivedBatch = BatchProtocol.receiveManifest(serverContext, manifestLength, requestSequenceNumber);
+                long[] replySizes = new long[numberOfFiles];
+                for (int i = 0; i < numberOfFiles; i++) {
+                    // the server refuses the third file, and knows the sizes of the files in a download itself:
+                    replySizes[i] = (i == 2) ? -1 : (isUpload ? receivedBatch.getSize(i) : new File(sourceFolder, receivedBatch.getFileName(i)).length());
+                }
+                FileBatch reply = receivedBatch.withSizes(replySizes);
+                int dataSequenceNumber = BatchProtocol.getDataSequenceNumber(serverContext, requestSequenceNumber, manifestLength, numberOfFiles);
+                isServerDone[0] = BatchProtocol.sendReply(serverContext, reply, requestSequenceNumber, manifestLength)
+                        && (isUpload ? BatchProtocol.receiveFiles(serverContext, destinationPath, reply, dataSequenceNumber)
+                        : BatchProtocol.sendFiles(serverContext, sourcePath, reply, dataSequenceNumber));
+            });
+            server.start();
+            FileBatch reply = BatchProtocol.sendManifestAndReceiveReply(clientContext, batch, 3, requestSequenceNumber);
+            assertNotNull(reply);
+            assertEquals(numberOfFiles - 1, reply.getNumberOfTransferredFiles());
+            int dataSequenceNumber = BatchProtocol.getDataSequenceNumber(clientContext, requestSequenceNumber, manifestLength, numberOfFiles);
+            assertTrue(isUpload ? BatchProtocol.sendFiles(clientContext, sourcePath, reply, dataSequenceNumber)
+                    : BatchProtocol.receiveFiles(clientContext, destinationPath, reply, dataSequenceNumber));
+            server.join();
+            assertTrue(isServerDone[0]);
+        }
+        for (int i = 0; i < numberOfFiles; i++) {
+            File receivedFile = new File(destinationFolder, fileNames[i]);
+            if (i == 2) {
+                assertFalse(receivedFile.exists());
+            } else {
+                assertArrayEquals(contents[i], Files.readAllBytes(receivedFile.toPath()));
+            }
+        }
+        // only the files themselves are stored, the temporary file with the data of the batch is removed:
+        assertEquals(numberOfFiles - 1, destinationFolder.list().length);
+        for (File folder : new File[]{sourceFolder, destinationFolder}) {
+            for (File file : folder.listFiles()) {
+                file.delete();
+            }
+            folder.delete();
+        }
+    }
+}
@@ -36,7 +36,7 @@ class BitShiftingTest {
      */
     @Test
     public void getFileSize() {
-        int fileSizeFromHeader = PacketProtocol.getFileSizeInPacket(packetWithHeader);
+        long fileSizeFromHeader = PacketProtocol.getFileSizeInPacket(packetWithHeader);
         assertEquals(fileSize, fileSizeFromHeader);
     }
 
@@ -0,0 +1,143 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the Merkle tree over the chunks of a file shows which chunks differ, and whether only those chunks are
+ * sent again if the digest of the total file is incorrect.
+ */
+public class ChunkRepairTest {
+    private static final int SMALL_CHUNK_SIZE = 1000;
+
+    /**
+     * Test whether the root of the tree is the same if the data is added part by part (with parts that do not end at
+     * the end of a chunk) or at once.
+     */
+    @Test
+    public void testRootPerPartIsSameAsAtOnce() {
+        byte[] data = new byte[4500];
+        new Random(10).nextBytes(data);
+        MerkleTreeDigest atOnce = new MerkleTreeDigest(DigestAlgorithm.XXHASH64, SMALL_CHUNK_SIZE);
+        atOnce.update(data, 0, data.length);
+        MerkleTreeDigest perPart = new MerkleTreeDigest(DigestAlgorithm.XXHASH64, SMALL_CHUNK_SIZE);
+        for (int offset = 0; offset < data.length; offset = offset + 777) {
+            perPart.update(data, offset, Math.min(777, data.length - offset));
+        }
+        assertArrayEquals(atOnce.digest(), perPart.digest());
+        assertEquals(5 * DigestAlgorithm.XXHASH64.getDigestLength(), atOnce.getLeafDigests().length);
+        assertEquals(5, MerkleTreeDigest.getNumberOfChunks(data.length, SMALL_CHUNK_SIZE));
+        assertEquals(1, MerkleTreeDigest.getNumberOfChunks(0, SMALL_CHUNK_SIZE));
+    }
+
+    /**
+     * Test whether one changed byte changes the root and exactly one leaf, and whether the root is correct again after
+     * that leaf is calculated again over the repaired data.
+     */
+    @Test
+    public void testChangedByteChangesOneChunk() throws IOException {
+        byte[] data = new byte[4500];
+        new Random(11).nextBytes(data);
+        MerkleTreeDigest original = new MerkleTreeDigest(DigestAlgorithm.SHA256, SMALL_CHUNK_SIZE);
+        original.update(data, 0, data.length);
+        byte[] originalRoot = original.digest();
+        byte[] changedData = data.clone();
+        changedData[2345] ^= 0x40;
+        MerkleTreeDigest changed = new MerkleTreeDigest(DigestAlgorithm.SHA256, SMALL_CHUNK_SIZE);
+        changed.update(changedData, 0, changedData.length);
+        assertFalse(Arrays.equals(originalRoot, changed.digest()));
+        assertArrayEquals(new byte[]{0x04}, changed.getDifferentChunks(original.getLeafDigests()));
+        changed.updateLeaf(new ByteArrayFragmentSource(data), 2, new byte[300]);
+        assertArrayEquals(originalRoot, changed.digest());
+    }
+
+    /**
+     * Test whether a selection of chunks (including the shorter last chunk) is read and written at the right positions
+     * in the file.
+     */
+    @Test
+    public void testChunkSelection() throws IOException {
+        byte[] data = new byte[4500];
+        new Random(12).nextBytes(data);
+        ChunkSelection selection = new ChunkSelection(new ByteArrayFragmentSource(data), null, SMALL_CHUNK_SIZE, new byte[]{0x12});
+        assertArrayEquals(new int[]{1, 4}, selection.getSelectedChunks());
+        assertEquals(1500, selection.getSize());
+        byte[] selectedData = new byte[1500];
+        selection.read(0, selectedData, 0, 700);
+        selection.read(700, selectedData, 700, 800);
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 2000), Arrays.copyOfRange(selectedData, 0, 1000));
+        assertArrayEquals(Arrays.copyOfRange(data, 4000, 4500), Arrays.copyOfRange(selectedData, 1000, 1500));
+        ByteArrayFragmentSink file = new ByteArrayFragmentSink(data.length);
+        ChunkSelection destination = new ChunkSelection(file, file, SMALL_CHUNK_SIZE, new byte[]{0x12});
+        destination.write(0, selectedData, 0, selectedData.length);
+        assertArrayEquals(Arrays.copyOfRange(data, 4000, 4500), Arrays.copyOfRange(file.getData(), 4000, 4500));
+    }
+
+    /**
+     * Test whether a file of which one byte is corrupted when it is written is repaired by sending only the chunk that
+     * holds that byte again, so the received file is an exact copy.
+     */
+    @Test
+    public void testRepairOverLoopback() throws Exception {
+        byte[] fileInBytes = new byte[3 * ChunkRepairProtocol.CHUNK_SIZE + 5];
+        new Random(13).nextBytes(fileInBytes);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket receiverSocket = new DatagramSocket(0, loopback);
+             DatagramSocket senderSocket = new DatagramSocket(0, loopback)) {
+            TransferContext receiverContext = new TransferContext(new UdpPacketSocket(receiverSocket), loopback, senderSocket.getLocalPort(), new RttEstimator());
+            TransferContext senderContext = new TransferContext(new UdpPacketSocket(senderSocket), loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            receiverContext.setOptions(PacketProtocol.REQUESTED_OPTIONS);
+            senderContext.setOptions(PacketProtocol.REQUESTED_OPTIONS);
+            CorruptingSink sink = new CorruptingSink(fileInBytes.length, ChunkRepairProtocol.CHUNK_SIZE + 10);
+            boolean[] received = new boolean[1];
+            Thread receiver = new Thread(() -> {
+                FileDigest digest = receiverContext.createFileDigest();
+                received[0] = SelectiveRepeatProtocol.receiveFile(receiverContext, fileInBytes.length, 99, sink, digest)
+                        && ChunkRepairProtocol.receiveDigestAndRepair(receiverContext, sink, digest);
+            });
+            receiver.start();
+            FragmentSource source = new ByteArrayFragmentSource(fileInBytes);
+            FileDigest digest = senderContext.createFileDigest();
+            assertTrue(digest instanceof MerkleTreeDigest);
+            assertTrue(SelectiveRepeatProtocol.sendFile(source, 7, 99, senderContext, SelectiveRepeatProtocol.DEFAULT_WINDOW_SIZE, digest));
+            assertTrue(ChunkRepairProtocol.sendDigestAndRepair(senderContext, source, digest));
+            receiver.join();
+            assertTrue(received[0]);
+            assertArrayEquals(fileInBytes, sink.getData());
+            // the file is written once, and only the corrupted chunk is written a second time:
+            assertEquals(fileInBytes.length + ChunkRepairProtocol.CHUNK_SIZE, sink.numberOfWrittenBytes);
+        }
+    }
+
+    /**
+     * Represents a file in memory that corrupts one byte of the received data the first time that it is written (as if
+     * it was corrupted on the way without the CRC32C noticing it).
+     */
+    private static class CorruptingSink extends ByteArrayFragmentSink {
+        private final long corruptedPosition;
+        private boolean isCorrupted;
+        private long numberOfWrittenBytes;
+
+        CorruptingSink(int size, long corruptedPosition) {
+            super(size);
+            this.corruptedPosition = corruptedPosition;
+        }
+
+        @Override
+        public void write(long position, byte[] source, int offset, int length) {
+            if (!isCorrupted && corruptedPosition >= position && corruptedPosition < position + length) {
+                isCorrupted = true;
+                source[offset + (int) (corruptedPosition - position)] ^= 0x01;
+            }
+            super.write(position, source, offset, length);
+            numberOfWrittenBytes = numberOfWrittenBytes + length;
+        }
+    }
+}
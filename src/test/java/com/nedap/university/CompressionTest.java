@@ -0,0 +1,179 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the payloads of data packets are compressed on their own, whether files that are compressed already are
+ * detected, and whether a compressed file is received as an exact copy.
+ */
+public class CompressionTest {
+    private static final int PAYLOAD_SIZE = 1400;
+
+    /**
+     * Test whether a compressible payload is compressed into a packet that carries OPTION_COMPRESSED and a correct
+     * checksum, and whether it is decompressed to the original payload.
+     */
+    @Test
+    public void testCompressAndDecompressPayload() {
+        byte[] payload = createLogLines(PAYLOAD_SIZE, 1);
+        ByteBuffer packetBuffer = encodePacket(payload);
+        FragmentCompressor compressor = new FragmentCompressor();
+        ByteBuffer compressedPacket = compressor.compress(packetBuffer, PacketProtocol.HEADER_SIZE_V2, payload.length);
+        int compressedLength = compressedPacket.position() - PacketProtocol.HEADER_SIZE_V2;
+        assertNotSame(packetBuffer, compressedPacket);
+        assertTrue(compressedLength < payload.length / 2);
+        byte[] compressed = compressedPacket.array();
+        assertTrue(PacketProtocol.isCompressed(compressed));
+        assertTrue(DataIntegrityProtocol.isChecksumCorrect(compressed, compressedLength));
+        assertEquals(42, PacketProtocol.getSequenceNumber(compressed));
+        // the original payload is still in the buffer of the packet:
+        assertFalse(PacketProtocol.isCompressed(packetBuffer.array()));
+        byte[] block = new byte[payload.length];
+        Inflater inflater = FragmentCompressor.createInflater();
+        assertTrue(FragmentCompressor.decompress(inflater, compressed, PacketProtocol.HEADER_SIZE_V2, compressedLength, block, payload.length));
+        assertArrayEquals(payload, block);
+        // a corrupted payload is not decompressed to its original length:
+        compressed[PacketProtocol.HEADER_SIZE_V2] ^= 0x55;
+        assertFalse(FragmentCompressor.decompress(inflater, compressed, PacketProtocol.HEADER_SIZE_V2, compressedLength, block, payload.length));
+        inflater.end();
+        compressor.close();
+    }
+
+    /**
+     * Test whether the compressor stops trying to compress a file of which the sampled payloads do not get smaller (as
+     * with PNG and PDF files), and keeps compressing a file of which they do.
+     */
+    @Test
+    public void testSkipIncompressibleFile() {
+        byte[] randomPayload = new byte[PAYLOAD_SIZE];
+        new Random(11).nextBytes(randomPayload);
+        FragmentCompressor compressor = new FragmentCompressor();
+        for (int i = 0; i < FragmentCompressor.SAMPLE_BLOCKS; i++) {
+            ByteBuffer packetBuffer = encodePacket(randomPayload);
+            assertSame(packetBuffer, compressor.compress(packetBuffer, PacketProtocol.HEADER_SIZE_V2, randomPayload.length));
+        }
+        assertTrue(compressor.isSkipped());
+        assertEquals(compressor.getOriginalLength(), compressor.getCompressedLength());
+        compressor.close();
+        compressor = new FragmentCompressor();
+        for (int i = 0; i < 2 * FragmentCompressor.SAMPLE_BLOCKS; i++) {
+            byte[] payload = createLogLines(PAYLOAD_SIZE, i);
+            ByteBuffer packetBuffer = encodePacket(payload);
+            assertNotSame(packetBuffer, compressor.compress(packetBuffer, PacketProtocol.HEADER_SIZE_V2, payload.length));
+        }
+        assertFalse(compressor.isSkipped());
+        assertTrue(compressor.getCompressedLength() < compressor.getOriginalLength() / 2);
+        compressor.close();
+    }
+
+    /**
+     * Test whether a compressible file is received as an exact copy if packets are lost on the way (so compressed
+     * packets are also retransmitted and arrive out of order), while far fewer bytes are sent than the file has.
+     */
+    @Test
+    public void testCompressedTransferOverLoopback() throws Exception {
+        byte[] fileInBytes = createLogLines(300000, 0);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket receiverSocket = new DatagramSocket(0, loopback);
+             DatagramSocket senderSocket = new DatagramSocket(0, loopback)) {
+            TransferContext receiverContext = new TransferContext(new UdpPacketSocket(receiverSocket), loopback, senderSocket.getLocalPort(), new RttEstimator());
+            CountingSocket countingSocket = new CountingSocket(new UdpPacketSocket(senderSocket));
+            TransferContext senderContext = new TransferContext(countingSocket, loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            int options = PacketProtocol.OPTION_CRC32C | PacketProtocol.OPTION_SACK | PacketProtocol.OPTION_COMPRESSION;
+            receiverContext.setOptions(options);
+            senderContext.setOptions(options);
+            ByteArrayFragmentSink sink = new ByteArrayFragmentSink(fileInBytes.length);
+            ChecksumAccumulator receivedChecksum = new ChecksumAccumulator();
+            Thread receiver = new Thread(() -> SelectiveRepeatProtocol.receiveFile(receiverContext, fileInBytes.length, 99, sink, receivedChecksum));
+            receiver.start();
+            assertTrue(SelectiveRepeatProtocol.sendFile(new ByteArrayFragmentSource(fileInBytes), 7, 99, senderContext, 64, new ChecksumAccumulator()));
+            receiver.join();
+            assertArrayEquals(fileInBytes, sink.getData());
+            assertEquals(DataIntegrityProtocol.calculateChecksum(fileInBytes), receivedChecksum.finish());
+            assertTrue(countingSocket.numberOfSentBytes < fileInBytes.length / 2);
+        }
+    }
+
+    /**
+     * Create lines of a log (which compress well) of a length.
+     *
+     * @param length is the length of the log in bytes.
+     * @param seed   is the seed of the values in the log.
+     * @return the byte representation of the log.
+     */
+    private static byte[] createLogLines(int length, int seed) {
+        Random random = new Random(seed);
+        StringBuilder log = new StringBuilder();
+        while (log.length() < length) {
+            log.append("2026-10-17 12:").append(random.nextInt(60)).append(" INFO  Session ").append(random.nextInt(100))
+                    .append(" received packet ").append(random.nextInt(100000)).append(" of file example.csv\n");
+        }
+        return log.substring(0, length).getBytes();
+    }
+
+    /**
+     * Encode a data packet with a header of version 2 and a payload.
+     *
+     * @param payload is the payload of the packet.
+     * @return the buffer in which the packet is encoded.
+     */
+    private static ByteBuffer encodePacket(byte[] payload) {
+        ByteBuffer packetBuffer = ByteBuffer.allocate(PacketProtocol.MAX_PACKET_SIZE);
+        PacketCodec.encodeHeader(packetBuffer, PacketProtocol.HEADER_VERSION_2, 100000, 0, 42, 7, PacketProtocol.MOREFRAGMENTS, PacketProtocol.OPTION_COMPRESSION, payload.length);
+        packetBuffer.put(payload);
+        return packetBuffer;
+    }
+
+    /**
+     * Represents a packet socket that counts the bytes that are sent and drops every tenth data packet.
+     */
+    private static class CountingSocket implements PacketSocket {
+        private final PacketSocket socket;
+        private int numberOfSentPackets;
+        private long numberOfSentBytes;
+
+        CountingSocket(PacketSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            numberOfSentPackets++;
+            numberOfSentBytes = numberOfSentBytes + packet.getLength();
+            if (numberOfSentPackets % 10 != 0 || PacketProtocol.getFlag(packet.getData()) != PacketProtocol.MOREFRAGMENTS) {
+                socket.send(packet);
+            }
+        }
+
+        @Override
+        public void receive(DatagramPacket packet) throws IOException {
+            socket.receive(packet);
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws SocketException {
+            socket.setSoTimeout(timeout);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return socket.isClosed();
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the congestion controllers grow the congestion window in slow start and congestion avoidance, and reduce
+ * it after a loss or an expired timer.
+ */
+public class CongestionControlTest {
+    private static final long MS = 1000000L;
+    private static final long RTT = 10 * MS;
+
+    /**
+     * Test whether both controllers start with the initial window, grow it with one packet per acknowledgement in slow
+     * start and never grow it beyond the maximum window.
+     */
+    @Test
+    public void testSlowStart() {
+        for (CongestionAlgorithm algorithm : CongestionAlgorithm.values()) {
+            CongestionController controller = algorithm.createController(64);
+            assertEquals(CongestionAlgorithm.INITIAL_WINDOW, controller.getCongestionWindow());
+            for (int i = 0; i < 10; i++) {
+                controller.onAcknowledgement(i * MS, RTT);
+            }
+            assertEquals(20, controller.getCongestionWindow());
+            for (int i = 0; i < 100; i++) {
+                controller.onAcknowledgement(i * MS, RTT);
+            }
+            assertEquals(64, controller.getCongestionWindow());
+        }
+    }
+
+    /**
+     * Test whether Reno halves the window after a loss, grows it with about one packet per window of acknowledgements
+     * afterwards, and reduces it to one packet after an expired timer.
+     */
+    @Test
+    public void testReno() {
+        CongestionController controller = CongestionAlgorithm.RENO.createController(256);
+        for (int i = 0; i < 30; i++) {
+            controller.onAcknowledgement(i * MS, RTT);
+        }
+        assertEquals(40, controller.getCongestionWindow());
+        controller.onPacketLoss(30 * MS);
+        assertEquals(20, controller.getCongestionWindow());
+        assertEquals(20, controller.getSlowStartThreshold());
+        // in congestion avoidance, about one window of acknowledgements grows the window with one packet:
+        for (int i = 0; i < 21; i++) {
+            controller.onAcknowledgement((31 + i) * MS, RTT);
+        }
+        assertEquals(21, controller.getCongestionWindow());
+        controller.onTimeout(60 * MS);
+        assertEquals(1, controller.getCongestionWindow());
+        assertEquals(10, controller.getSlowStartThreshold());
+    }
+
+    /**
+     * Test whether CUBIC reduces the window to 70% after a loss, and grows it back to about the window at the loss in
+     * the time that follows from the cubic function (K = cbrt(W_max * (1 - BETA) / C) seconds).
+     */
+    @Test
+    public void testCubic() {
+        CongestionController controller = CongestionAlgorithm.CUBIC.createController(256);
+        for (int i = 0; i < 90; i++) {
+            controller.onAcknowledgement(i * MS, RTT);
+        }
+        assertEquals(100, controller.getCongestionWindow());
+        controller.onPacketLoss(90 * MS);
+        assertEquals(70, controller.getCongestionWindow());
+        assertEquals(70, controller.getSlowStartThreshold());
+        // K = cbrt(100 * 0.3 / 0.4) = 4.2 s, so the window grows back to about 100 packets in that time (with one
+        // acknowledgement per ms, as if the link is full):
+        long now = 91 * MS;
+        while (now < 91 * MS + 4200 * MS) {
+            controller.onAcknowledgement(now, RTT);
+            now = now + MS;
+        }
+        assertTrue(controller.getCongestionWindow() >= 95 && controller.getCongestionWindow() <= 105, "window " + controller.getCongestionWindow());
+        // around the window at the loss, the window grows slowly:
+        int window = controller.getCongestionWindow();
+        for (int i = 0; i < 100; i++) {
+            controller.onAcknowledgement(now, RTT);
+            now = now + MS;
+        }
+        assertTrue(controller.getCongestionWindow() - window <= 1);
+        controller.onTimeout(now);
+        assertEquals(1, controller.getCongestionWindow());
+    }
+}
@@ -81,7 +81,7 @@ public class DataIntegrityTest {
     @Test
     public void testFileSize() {
         int pdfSize = 475231;
-        int getSize = FileProtocol.getFileSize(filePath_example_files, pdf);
+        long getSize = FileProtocol.getFileSize(filePath_example_files, pdf);
         assertEquals(pdfSize, getSize);
     }
 
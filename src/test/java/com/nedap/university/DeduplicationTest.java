@@ -0,0 +1,216 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether files that are uploaded with deduplication are stored as manifests of chunks that are stored once,
+ * whether only the chunks that the server does not have are sent, and whether the stored files can be read, listed and
+ * removed like other stored files.
+ */
+public class DeduplicationTest {
+
+    /**
+     * Test whether the store reports the chunks that it does not have, and reports a chunk that occurs twice in a file
+     * only once.
+     */
+    @Test
+    public void testMissingChunks() throws Exception {
+        Path folder = Files.createTempDirectory("deduplication");
+        try {
+            ChunkStore store = new ChunkStore(folder + File.separator);
+            byte[] fileInBytes = new byte[3 * ChunkStore.CHUNK_SIZE + 5];
+            new Random(20).nextBytes(fileInBytes);
+            // the third chunk is the same as the first one:
+            System.arraycopy(fileInBytes, 0, fileInBytes, 2 * ChunkStore.CHUNK_SIZE, ChunkStore.CHUNK_SIZE);
+            byte[] chunkIds = getChunkIds(fileInBytes);
+            assertEquals(4 * ChunkStore.CHUNK_ID_LENGTH, chunkIds.length);
+            byte[] missingChunks = store.getMissingChunks(chunkIds);
+            assertArrayEquals(new byte[]{0x0b}, missingChunks);
+            assertEquals(2 * ChunkStore.CHUNK_SIZE + 5, ChunkStore.getLengthOfChunks(fileInBytes.length, missingChunks));
+            assertEquals(1, DeduplicationProtocol.getBitmapLength(0));
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Test whether a file that is uploaded twice (under another name, with one changed byte) sends only the changed
+     * chunk the second time, whether both files are read back as exact copies, and whether removing a file keeps the
+     * chunks that the other file still has.
+     */
+    @Test
+    public void testUploadOverLoopback() throws Exception {
+        Path folder = Files.createTempDirectory("deduplication");
+        try {
+            String filePath = folder + File.separator;
+            ChunkStore store = new ChunkStore(filePath);
+            byte[] fileInBytes = new byte[3 * ChunkStore.CHUNK_SIZE + 5];
+            new Random(21).nextBytes(fileInBytes);
+            byte[] changedFileInBytes = fileInBytes.clone();
+            changedFileInBytes[ChunkStore.CHUNK_SIZE + 10] ^= 0x01;
+            assertTrue(uploadOverLoopback(store, "example.bin", fileInBytes));
+            assertEquals(4, countChunks(folder));
+            assertArrayEquals(new byte[]{0x02}, store.getMissingChunks(getChunkIds(changedFileInBytes)));
+            assertTrue(uploadOverLoopback(store, "changed.bin", changedFileInBytes));
+            assertEquals(5, countChunks(folder));
+            // the files are listed, sized and read like any other stored file:
+            assertTrue(FileProtocol.doesFileExist("example.bin", folder.toFile()));
+            assertEquals(2, FileProtocol.getStoredFiles(folder.toFile()).length);
+            assertEquals(fileInBytes.length, FileProtocol.getFileSize(filePath, "changed.bin"));
+            assertArrayEquals(fileInBytes, readFile(filePath, "example.bin"));
+            assertArrayEquals(changedFileInBytes, readFile(filePath, "changed.bin"));
+            assertFalse(FileProtocol.isValidFileName(".example.bin" + FileProtocol.MANIFEST_FILE_EXTENSION));
+            // a name that refers to another folder is not used, even if it leads back to a stored file:
+            String pathToFile = ".." + File.separator + folder.getFileName() + File.separator + "example.bin";
+            assertFalse(store.isStored(pathToFile));
+            assertFalse(store.removeFile(pathToFile));
+            assertTrue(store.isStored("example.bin"));
+            // only the chunk that no other file has is removed with the file:
+            assertTrue(store.removeFile("example.bin"));
+            assertFalse(FileProtocol.doesFileExist("example.bin", folder.toFile()));
+            assertEquals(4, countChunks(folder));
+            assertArrayEquals(changedFileInBytes, readFile(filePath, "changed.bin"));
+            assertTrue(store.removeFile("changed.bin"));
+            assertEquals(0, countChunks(folder));
+            assertFalse(store.removeFile("changed.bin"));
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Test whether the chunks that are received completely are stored right away, so an upload that is interrupted
+     * keeps them and the next upload of the file only sends the chunks that are still missing, and whether such unused
+     * chunks are only removed once they are older than the minimum age and no upload that has them is being received.
+     */
+    @Test
+    public void testInterruptedUploadKeepsChunks() throws Exception {
+        Path folder = Files.createTempDirectory("deduplication");
+        try {
+            ChunkStore store = new ChunkStore(folder + File.separator);
+            byte[] fileInBytes = new byte[3 * ChunkStore.CHUNK_SIZE + 5];
+            new Random(22).nextBytes(fileInBytes);
+            byte[] chunkIds = getChunkIds(fileInBytes);
+            byte[] missingChunks = store.getMissingChunks(chunkIds);
+            try (ChunkFragmentSink receivedChunks = new ChunkFragmentSink(store, chunkIds, fileInBytes.length, missingChunks, store.createChunksToReceive("example.bin", fileInBytes.length))) {
+                // the first chunk and a part of the second chunk arrive, in two fragments out of order:
+                receivedChunks.write(1000, fileInBytes, 1000, ChunkStore.CHUNK_SIZE + 1000);
+                receivedChunks.write(0, fileInBytes, 0, 1000);
+                assertTrue(receivedChunks.areChunksCorrect());
+            }
+            assertEquals(1, countChunks(folder));
+            assertFalse(store.isStored("example.bin"));
+            assertArrayEquals(new byte[]{0x0e}, store.getMissingChunks(chunkIds));
+            assertEquals(0, store.removeUnusedChunks(ChunkStore.UNUSED_CHUNK_AGE));
+            Thread.sleep(20);
+            try (ChunkFragmentSink receivedChunks = new ChunkFragmentSink(store, chunkIds, fileInBytes.length, store.getMissingChunks(chunkIds), store.createChunksToReceive("example.bin", 0))) {
+                assertEquals(0, store.removeUnusedChunks(0));
+                assertTrue(receivedChunks.areChunksCorrect());
+            }
+            assertEquals(1, store.removeUnusedChunks(0));
+            assertEquals(0, countChunks(folder));
+            // a name that refers to another folder is rejected before anything is stored:
+            assertThrows(IOException.class, () -> store.createChunksToReceive(".." + File.separator + "example.bin", 0));
+            assertThrows(IOException.class, () -> store.storeManifest(".." + File.separator + "example.bin", fileInBytes.length, chunkIds));
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Upload a file to a chunk store over the loopback address.
+     *
+     * @param store       is the chunk store of the receiver.
+     * @param fileName    is the name of the file.
+     * @param fileInBytes is the data of the file.
+     * @return true if both sides finished the upload successfully (and the file was stored before the sender finished),
+     * false if not.
+     */
+    private static boolean uploadOverLoopback(ChunkStore store, String fileName, byte[] fileInBytes) throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket receiverSocket = new DatagramSocket(0, loopback);
+             DatagramSocket senderSocket = new DatagramSocket(0, loopback)) {
+            TransferContext receiverContext = new TransferContext(new UdpPacketSocket(receiverSocket), loopback, senderSocket.getLocalPort(), new RttEstimator());
+            TransferContext senderContext = new TransferContext(new UdpPacketSocket(senderSocket), loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            receiverContext.setOptions(PacketProtocol.REQUESTED_OPTIONS);
+            senderContext.setOptions(PacketProtocol.REQUESTED_OPTIONS);
+            boolean[] received = new boolean[1];
+            Thread receiver = new Thread(() -> received[0] = DeduplicationProtocol.receiveFile(receiverContext, store, fileName, fileInBytes.length, 99));
+            receiver.start();
+            boolean isSent = DeduplicationProtocol.sendFile(senderContext, new ByteArrayFragmentSource(fileInBytes), 7, 99);
+            // the server only acknowledges the upload once the file is stored:
+            boolean isStoredWhenSent = store.isStored(fileName);
+            receiver.join();
+            return isSent && isStoredWhenSent && received[0];
+        }
+    }
+
+    /**
+     * Get the ids of the chunks of a file.
+     *
+     * @param fileInBytes is the data of the file.
+     * @return the ids of the chunks, one after the other.
+     */
+    private static byte[] getChunkIds(byte[] fileInBytes) {
+        MerkleTreeDigest chunkDigests = new MerkleTreeDigest(DigestAlgorithm.SHA256, ChunkStore.CHUNK_SIZE);
+        chunkDigests.update(fileInBytes, 0, fileInBytes.length);
+        chunkDigests.digest();
+        return chunkDigests.getLeafDigests();
+    }
+
+    /**
+     * Read a stored file completely.
+     *
+     * @param filePath is the path with folder in which the file is stored.
+     * @param fileName is the name of the file.
+     * @return the data of the file.
+     */
+    private static byte[] readFile(String filePath, String fileName) throws IOException {
+        try (FragmentSource source = FileProtocol.openFileToSend(filePath, fileName)) {
+            assertNotNull(source);
+            byte[] data = new byte[(int) source.getSize()];
+            // read in parts that do not end at the end of a chunk:
+            for (int position = 0; position < data.length; position = position + 100000) {
+                source.read(position, data, position, Math.min(100000, data.length - position));
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Count the chunks in the chunk folder.
+     *
+     * @param folder is the folder with stored files.
+     * @return the number of chunks.
+     */
+    private static long countChunks(Path folder) throws IOException {
+        try (Stream<Path> chunks = Files.list(folder.resolve(ChunkStore.CHUNK_FOLDER_NAME))) {
+            return chunks.filter(chunk -> !chunk.getFileName().toString().startsWith(".")).count();
+        }
+    }
+
+    /**
+     * Remove a folder with everything in it.
+     *
+     * @param folder is the folder.
+     */
+    private static void deleteFolder(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
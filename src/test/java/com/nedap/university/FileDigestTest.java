@@ -0,0 +1,102 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the digests of a total file are calculated correctly, also if the data is added in parts of any length.
+ */
+public class FileDigestTest {
+
+    /**
+     * Test whether the XXH64 hash gives the published results for some short inputs (which cover all paths: less than
+     * one stripe, and complete stripes followed by eight, four and single bytes).
+     */
+    @Test
+    public void testXxHash64KnownValues() {
+        assertEquals("ef46db3751d8e999", digestInHex(new XxHash64Digest(), ""));
+        assertEquals("d24ec4f1a98c6e5b", digestInHex(new XxHash64Digest(), "a"));
+        assertEquals("44bc2cf5ad770999", digestInHex(new XxHash64Digest(), "abc"));
+        assertEquals("fbcea83c8a378bf1", digestInHex(new XxHash64Digest(), "Nobody inspects the spammish repetition"));
+    }
+
+    /**
+     * Test whether the SHA-256 digest gives the published result for "abc".
+     */
+    @Test
+    public void testSha256KnownValue() {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", digestInHex(new Sha256Digest(), "abc"));
+    }
+
+    /**
+     * Test whether every digest algorithm gives the same result if the data is added in parts of different (also odd)
+     * lengths as when the data is added at once.
+     */
+    @Test
+    public void testDigestPerPartIsSameAsAtOnce() {
+        byte[] data = new byte[100003];
+        new Random(14).nextBytes(data);
+        for (DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+            FileDigest digestAtOnce = algorithm.createDigest();
+            digestAtOnce.update(data, 0, data.length);
+            FileDigest digestPerPart = algorithm.createDigest();
+            Random partLengths = new Random(15);
+            int position = 0;
+            while (position < data.length) {
+                int length = Math.min(partLengths.nextInt(100), data.length - position);
+                digestPerPart.update(data, position, length);
+                position = position + length;
+            }
+            byte[] digest = digestPerPart.digest();
+            assertEquals(algorithm.getDigestLength(), digest.length);
+            assertArrayEquals(digestAtOnce.digest(), digest, algorithm.name());
+        }
+    }
+
+    /**
+     * Test whether the digest of the 16-bit checksum is the byte representation of the checksum over the data.
+     */
+    @Test
+    public void testChecksumDigestIsChecksum() {
+        byte[] data = new byte[1001];
+        new Random(16).nextBytes(data);
+        FileDigest digest = DigestAlgorithm.CHECKSUM.createDigest();
+        digest.update(data, 0, data.length);
+        assertArrayEquals(DataIntegrityProtocol.checksumOfTotalFileInBytes(DataIntegrityProtocol.calculateChecksum(data)), digest.digest());
+    }
+
+    /**
+     * Test whether the server only accepts digest algorithms that it knows, and whether connections with a header of
+     * version 1 always use the 16-bit checksum.
+     */
+    @Test
+    public void testNegotiateDigestAlgorithm() {
+        int acceptedOptions = PacketProtocol.acceptOptions(PacketProtocol.REQUESTED_OPTIONS);
+        assertEquals(PacketProtocol.REQUESTED_OPTIONS, acceptedOptions);
+        assertEquals(DigestAlgorithm.XXHASH64, PacketProtocol.getDigestAlgorithm(PacketProtocol.HEADER_VERSION_2, acceptedOptions));
+        assertEquals(DigestAlgorithm.CHECKSUM, PacketProtocol.getDigestAlgorithm(PacketProtocol.HEADER_VERSION_1, acceptedOptions));
+        int unknownAlgorithm = 15 << PacketProtocol.DIGEST_SHIFT;
+        assertEquals(PacketProtocol.OPTION_CRC32C, PacketProtocol.acceptOptions(unknownAlgorithm | PacketProtocol.OPTION_CRC32C));
+        assertEquals(DigestAlgorithm.CHECKSUM, PacketProtocol.getDigestAlgorithm(PacketProtocol.HEADER_VERSION_2, 0));
+    }
+
+    /**
+     * Calculate the digest of a text and write it in hexadecimal notation.
+     *
+     * @param digest is the (empty) digest.
+     * @param text   is the text of which the digest is calculated.
+     * @return the digest in hexadecimal notation.
+     */
+    private static String digestInHex(FileDigest digest, String text) {
+        byte[] data = text.getBytes();
+        digest.update(data, 0, data.length);
+        StringBuilder digestInHex = new StringBuilder();
+        for (byte digestByte : digest.digest()) {
+            digestInHex.append(String.format("%02x", digestByte));
+        }
+        return digestInHex.toString();
+    }
+}
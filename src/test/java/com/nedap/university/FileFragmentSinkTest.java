@@ -0,0 +1,84 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether fragments that are received out of order are written to the correct position in the file, and whether
+ * the file is only stored under its actual name after it is committed.
+ */
+public class FileFragmentSinkTest {
+
+    /**
+     * Test whether a file of which the fragments are written in reverse order is stored correctly after committing.
+     */
+    @Test
+    public void testWriteOutOfOrderAndCommit() throws IOException {
+        byte[] fileInBytes = new byte[5000];
+        new Random(8).nextBytes(fileInBytes);
+        File destination = new File(Files.createTempDirectory("fragment-sink").toFile(), "received.bin");
+        try (FileFragmentSink sink = new FileFragmentSink(destination, fileInBytes.length, FsyncPolicy.DATA)) {
+            for (int position = 4000; position >= 0; position = position - 1000) {
+                sink.write(position, fileInBytes, position, 1000);
+            }
+            assertFalse(destination.exists());
+            assertEquals(DataIntegrityProtocol.calculateChecksum(fileInBytes), DataIntegrityProtocol.calculateChecksum(sink));
+            sink.commit();
+        }
+        assertArrayEquals(fileInBytes, Files.readAllBytes(destination.toPath()));
+        assertEquals(1, destination.getParentFile().list().length);
+        destination.delete();
+        destination.getParentFile().delete();
+    }
+
+    /**
+     * Test whether no file is left behind if the file is not committed.
+     */
+    @Test
+    public void testCloseWithoutCommit() throws IOException {
+        File destination = new File(Files.createTempDirectory("fragment-sink").toFile(), "received.bin");
+        try (FileFragmentSink sink = new FileFragmentSink(destination, 100, FsyncPolicy.NONE)) {
+            sink.write(0, new byte[50], 0, 50);
+        }
+        assertFalse(destination.exists());
+        assertEquals(0, destination.getParentFile().list().length);
+        destination.getParentFile().delete();
+    }
+
+    /**
+     * Test whether a partial file that is closed without commit keeps the data that is received without gaps, so a
+     * transfer that opens it again can continue from that length.
+     */
+    @Test
+    public void testResumePartialFile() throws IOException {
+        byte[] fileInBytes = new byte[5000];
+        new Random(9).nextBytes(fileInBytes);
+        File destination = new File(Files.createTempDirectory("fragment-sink").toFile(), "received.bin");
+        try (FileFragmentSink sink = FileFragmentSink.openPartial(destination, fileInBytes.length, FsyncPolicy.NONE)) {
+            // the fragment at 3000 is received after a gap, which is only filled up to 2000:
+            sink.write(1000, fileInBytes, 1000, 1000);
+            sink.write(3000, fileInBytes, 3000, 1000);
+            sink.write(0, fileInBytes, 0, 1000);
+            assertEquals(2000, sink.getReceivedLength());
+        }
+        assertFalse(destination.exists());
+        assertEquals(2000, PartialTransfer.read(destination).getReceivedLength());
+        try (FileFragmentSink sink = FileFragmentSink.openPartial(destination, fileInBytes.length, FsyncPolicy.NONE)) {
+            assertEquals(2000, sink.getReceivedLength());
+            sink.write(2000, fileInBytes, 2000, 3000);
+            assertEquals(fileInBytes.length, sink.getReceivedLength());
+            sink.commit();
+        }
+        assertArrayEquals(fileInBytes, Files.readAllBytes(destination.toPath()));
+        assertNull(PartialTransfer.read(destination));
+        assertEquals(1, destination.getParentFile().list().length);
+        destination.delete();
+        destination.getParentFile().delete();
+    }
+}
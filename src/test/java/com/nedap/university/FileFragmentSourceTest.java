@@ -0,0 +1,66 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the fragments of a file are read correctly from disk, and whether the checksum of a file that is read in
+ * chunks is the same as the checksum over the complete byte representation of the file.
+ */
+public class FileFragmentSourceTest {
+
+    /**
+     * Test whether a fragment that is read from a file is the same as that part of the file.
+     */
+    @Test
+    public void testReadFragment() throws IOException {
+        byte[] fileInBytes = new byte[10000];
+        new Random(6).nextBytes(fileInBytes);
+        File file = createTemporaryFile(fileInBytes);
+        try (FragmentSource source = new FileFragmentSource(file)) {
+            assertEquals(fileInBytes.length, source.getSize());
+            byte[] fragment = new byte[1484];
+            source.read(2968, fragment, 0, fragment.length);
+            for (int i = 0; i < fragment.length; i++) {
+                assertEquals(fileInBytes[2968 + i], fragment[i]);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test whether the checksum that is calculated in chunks is the same as the checksum over the complete file, also
+     * for a file with an odd length that is larger than one chunk.
+     */
+    @Test
+    public void testChecksumInChunks() throws IOException {
+        byte[] fileInBytes = new byte[(DataIntegrityProtocol.CHECKSUM_CHUNK_SIZE * 2) + 1001];
+        new Random(7).nextBytes(fileInBytes);
+        File file = createTemporaryFile(fileInBytes);
+        try (FragmentSource source = new FileFragmentSource(file)) {
+            assertEquals(DataIntegrityProtocol.calculateChecksum(fileInBytes), DataIntegrityProtocol.calculateChecksum(source));
+        } finally {
+            file.delete();
+        }
+        assertEquals(DataIntegrityProtocol.calculateChecksum(fileInBytes), DataIntegrityProtocol.calculateChecksum(new ByteArrayFragmentSource(fileInBytes)));
+    }
+
+    /**
+     * Create a temporary file with the given content.
+     *
+     * @param fileInBytes is the content of the file.
+     * @return the temporary file.
+     */
+    private static File createTemporaryFile(byte[] fileInBytes) throws IOException {
+        File file = File.createTempFile("fragment-source", ".bin");
+        Files.write(file.toPath(), fileInBytes);
+        return file;
+    }
+}
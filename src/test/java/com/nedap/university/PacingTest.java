@@ -0,0 +1,92 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the token bucket limits the rate at which packets are sent, and whether the pacer spreads the congestion
+ * window over the round trip time.
+ */
+public class PacingTest {
+    private static final long MS = 1000000L;
+    private static final int PACKET_SIZE = 1000;
+
+    /**
+     * Test whether a full bucket allows a short burst, after which a packet may only be sent when the tokens it takes
+     * are refilled at the rate of the bucket.
+     */
+    @Test
+    public void testTokenBucket() {
+        // 1 MB/s, so the capacity is the minimum burst of MIN_BURST full packets:
+        TokenBucket bucket = new TokenBucket(1000000);
+        long start = System.nanoTime();
+        int burst = 0;
+        while (bucket.getWaitTimeInNanos(start) == 0) {
+            bucket.consume(PACKET_SIZE, start);
+            burst++;
+        }
+        assertEquals((int) Math.ceil((double) TokenBucket.MIN_BURST * PacketProtocol.DEFAULT_FRAGMENT_SIZE / PACKET_SIZE), burst);
+        // the bucket is in debt by less than one packet, which takes at most 1 ms to pay off at 1 MB/s:
+        long waitTime = bucket.getWaitTimeInNanos(start);
+        assertTrue(waitTime > 0 && waitTime <= MS + 1);
+        assertEquals(0, bucket.getWaitTimeInNanos(start + waitTime));
+        // after that, one packet can be sent every ms:
+        bucket.consume(PACKET_SIZE, start + waitTime);
+        assertTrue(bucket.getWaitTimeInNanos(start + waitTime + MS / 2) > 0);
+        assertEquals(0, bucket.getWaitTimeInNanos(start + waitTime + MS + 1));
+    }
+
+    /**
+     * Test whether a bucket without a rate never makes the sender wait.
+     */
+    @Test
+    public void testUnlimitedBucket() {
+        long start = System.nanoTime();
+        TokenBucket bucket = new TokenBucket(0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, bucket.getWaitTimeInNanos(start));
+            bucket.consume(PACKET_SIZE, start);
+        }
+    }
+
+    /**
+     * Test whether the pacer does not pace before the round trip time is known, paces the window of the congestion
+     * controller over the round trip time afterwards, and also respects the rate limiter of the connection.
+     */
+    @Test
+    public void testPacer() {
+        CongestionController controller = CongestionAlgorithm.RENO.createController(256);
+        PacketPacer pacer = new PacketPacer(null);
+        long start = System.nanoTime();
+        pacer.update(controller, 0, PACKET_SIZE);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, pacer.getWaitTimeInNanos(start));
+            pacer.onPacketSent(PACKET_SIZE, start);
+        }
+        // in slow start, the window of 10 packets is sent at twice its rate over a round trip time of 10 ms, so one
+        // packet per 0.5 ms once the burst is used:
+        pacer = new PacketPacer(null);
+        start = System.nanoTime();
+        pacer.update(controller, 10 * MS, PACKET_SIZE);
+        while (pacer.getWaitTimeInNanos(start) == 0) {
+            pacer.onPacketSent(PACKET_SIZE, start);
+        }
+        long now = start + pacer.getWaitTimeInNanos(start);
+        pacer.onPacketSent(PACKET_SIZE, now);
+        assertTrue(pacer.getWaitTimeInNanos(now + MS / 4) > 0);
+        assertEquals(0, pacer.getWaitTimeInNanos(now + MS / 2 + 1));
+        // a rate limiter of 100 kB/s limits the rate to one packet per 10 ms:
+        TokenBucket rateLimiter = new TokenBucket(100000);
+        pacer = new PacketPacer(rateLimiter);
+        start = System.nanoTime();
+        pacer.update(controller, 10 * MS, PACKET_SIZE);
+        while (pacer.getWaitTimeInNanos(start) == 0) {
+            pacer.onPacketSent(PACKET_SIZE, start);
+        }
+        now = start + pacer.getWaitTimeInNanos(start);
+        pacer.onPacketSent(PACKET_SIZE, now);
+        assertTrue(pacer.getWaitTimeInNanos(now + MS / 2 + 1) > 0);
+        assertEquals(0, pacer.getWaitTimeInNanos(now + 10 * MS + 1));
+    }
+}
@@ -1,6 +1,11 @@
 package com.nedap.university;
 
 import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -78,4 +83,115 @@ public class PacketChecksumTest {
         byte[] packetHeader = PacketProtocol.createHeader(totalFileSize, sequenceNumber, acknowledgementNumber, flag, payloadLength);
         assertTrue(DataIntegrityProtocol.isChecksumCorrect(packetHeader, payloadLength));
     }
+
+    /**
+     * Test whether the checksum that adds eight bytes at a time gives the same result as adding the data word by word
+     * (as the checksum was calculated before), for every length up to a few hundred bytes, including odd lengths.
+     */
+    @Test
+    public void testChecksumIsSameAsWordByWord() {
+        Random random = new Random(11);
+        for (int length = 0; length < 300; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertEquals(calculateChecksumWordByWord(data), DataIntegrityProtocol.calculateChecksum(data), "length " + length);
+        }
+        byte[] largeData = new byte[1000003];
+        random.nextBytes(largeData);
+        assertEquals(calculateChecksumWordByWord(largeData), DataIntegrityProtocol.calculateChecksum(largeData));
+    }
+
+    /**
+     * Test whether the checksum keeps the behaviour of the last byte of data with an odd length: that byte is added as
+     * a signed value, so a last byte of 0x80 or more is added without wrapping the carry around.
+     */
+    @Test
+    public void testChecksumOfOddLengthIsSameAsWordByWord() {
+        for (int lastByte = 0; lastByte < 256; lastByte++) {
+            for (byte filler : new byte[]{0, 0x12, (byte) 0x80, (byte) 0xff}) {
+                byte[] data = new byte[17];
+                Arrays.fill(data, filler);
+                data[16] = (byte) lastByte;
+                assertEquals(calculateChecksumWordByWord(data), DataIntegrityProtocol.calculateChecksum(data), "last byte " + lastByte);
+            }
+        }
+    }
+
+    /**
+     * Test whether the carries are wrapped around in the same way as word by word when all words are at their maximum,
+     * and whether data without any set bits still has the inverse of zero as checksum.
+     */
+    @Test
+    public void testChecksumOfExtremeDataIsSameAsWordByWord() {
+        for (int length : new int[]{8, 64, 65536, 65537}) {
+            byte[] ones = new byte[length];
+            Arrays.fill(ones, (byte) 0xff);
+            assertEquals(calculateChecksumWordByWord(ones), DataIntegrityProtocol.calculateChecksum(ones));
+            byte[] zeros = new byte[length];
+            assertEquals(calculateChecksumWordByWord(zeros), DataIntegrityProtocol.calculateChecksum(zeros));
+        }
+    }
+
+    /**
+     * Test whether the checksum of data that is read in chunks from a source is the same as word by word over the
+     * complete data.
+     */
+    @Test
+    public void testChecksumOfSourceIsSameAsWordByWord() throws IOException {
+        byte[] data = new byte[(3 * DataIntegrityProtocol.CHECKSUM_CHUNK_SIZE) + 5];
+        new Random(12).nextBytes(data);
+        data[data.length - 1] = (byte) 0xc3;
+        assertEquals(calculateChecksumWordByWord(data), DataIntegrityProtocol.calculateChecksum(new ByteArrayFragmentSource(data)));
+    }
+
+    /**
+     * Test whether the checksum that is calculated part by part gives the same result as the checksum over the
+     * complete data, also if parts have an odd length.
+     */
+    @Test
+    public void testChecksumPerPartIsSameAsOverCompleteData() {
+        byte[] data = new byte[10001];
+        new Random(13).nextBytes(data);
+        data[data.length - 1] = (byte) 0x9a;
+        ChecksumAccumulator checksum = new ChecksumAccumulator();
+        int position = 0;
+        for (int length : new int[]{1, 2, 3, 1464, 0, 7, 4000, 1}) {
+            checksum.update(data, position, length);
+            position = position + length;
+        }
+        checksum.update(data, position, data.length - position);
+        assertEquals(DataIntegrityProtocol.calculateChecksum(data), checksum.finish());
+        checksum.reset();
+        assertEquals(DataIntegrityProtocol.calculateChecksum(new byte[0]), checksum.finish());
+    }
+
+    /**
+     * Calculate the checksum by adding the data word by word, as DataIntegrityProtocol did before it added eight bytes
+     * at a time. This is the reference for the tests above.
+     *
+     * @param checksumInput is the input for the checksum.
+     * @return the inverse result of the checksum.
+     */
+    private static int calculateChecksumWordByWord(byte[] checksumInput) {
+        int checksum = 0;
+        int length = checksumInput.length;
+        int i = 0;
+        while (length > 1) {
+            checksum = checksum + (((checksumInput[i] & 0xff) << 8) | (checksumInput[i + 1] & 0xff));
+            if ((checksum & 0xffff0000) > 0) {
+                checksum = checksum & 0xffff;
+                checksum++;
+            }
+            i = i + 2;
+            length = length - 2;
+        }
+        if (length == 1) {
+            checksum = checksum + (checksumInput[i] << 8);
+            if ((checksum & 0xffff0000) > 0) {
+                checksum = checksum & 0xffff;
+                checksum++;
+            }
+        }
+        return (~checksum & 0xffff);
+    }
 }
@@ -0,0 +1,186 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether packets are encoded correctly in reused buffers, and whether encoding, sending, receiving and decoding
+ * packets does not allocate any memory once the buffers are in use.
+ */
+public class PacketCodecTest {
+    private static final int ITERATIONS = 20000;
+
+    /**
+     * Test whether a header that is encoded in a pooled buffer can be decoded again.
+     */
+    @Test
+    public void testEncodeAndDecode() {
+        ByteBuffer packet = PacketCodec.BUFFER_POOL.acquire();
+        byte[] payload = "payload".getBytes();
+        int headerSize = PacketCodec.encodeHeader(packet, PacketProtocol.HEADER_VERSION_2, 1L << 34, 2928, 41, 42, PacketProtocol.LAST, 0, payload.length);
+        packet.put(payload);
+        byte[] data = packet.array();
+        assertEquals(PacketProtocol.HEADER_SIZE_V2, headerSize);
+        assertEquals(headerSize + payload.length, packet.position());
+        assertEquals(1L << 34, PacketProtocol.getFileSizeInPacket(data));
+        assertEquals(2928, PacketProtocol.getOffset(data));
+        assertEquals(41, PacketProtocol.getSequenceNumber(data));
+        assertEquals(42, PacketProtocol.getAcknowledgementNumber(data));
+        assertEquals(PacketProtocol.LAST, PacketProtocol.getFlag(data));
+        assertTrue(DataIntegrityProtocol.isChecksumCorrect(data, payload.length));
+        PacketCodec.BUFFER_POOL.release(packet);
+    }
+
+    /**
+     * Test whether the checksum that is calculated directly over the header is the same as the checksum over the
+     * separate checksum input, for both header versions.
+     */
+    @Test
+    public void testHeaderChecksumInPlace() {
+        for (int headerVersion = PacketProtocol.HEADER_VERSION_1; headerVersion <= PacketProtocol.HEADER_VERSION_2; headerVersion++) {
+            byte[] header = PacketProtocol.createHeader(headerVersion, 500, 0, 32768, 765, PacketProtocol.INCORRECT, 0, 32768);
+            int checksumOverInput = DataIntegrityProtocol.calculateChecksum(DataIntegrityProtocol.getChecksumInput(header, 32768));
+            assertEquals(checksumOverInput, DataIntegrityProtocol.calculateHeaderChecksum(header, 32768));
+            assertEquals(checksumOverInput, PacketProtocol.getChecksum(header));
+        }
+    }
+
+    /**
+     * Test whether the CRC32C at the end of a packet is correct, and whether it detects a corrupted payload (which the
+     * checksum in the header does not cover).
+     */
+    @Test
+    public void testCrc32cCoversPayload() {
+        ByteBuffer packet = PacketCodec.BUFFER_POOL.acquire();
+        byte[] payload = "payload".getBytes();
+        PacketCodec.encodeHeader(packet, PacketProtocol.HEADER_VERSION_2, payload.length, 0, 41, 42, PacketProtocol.LAST, PacketProtocol.OPTION_CRC32C, payload.length);
+        packet.put(payload);
+        PacketCodec.appendCrc32c(packet);
+        byte[] data = packet.array();
+        int packetLength = packet.position();
+        assertEquals(PacketProtocol.HEADER_SIZE_V2 + payload.length + PacketProtocol.CRC32C_LENGTH, packetLength);
+        assertEquals(PacketProtocol.OPTION_CRC32C, PacketProtocol.getOptions(data));
+        assertTrue(DataIntegrityProtocol.isCrc32cCorrect(data, packetLength));
+        data[PacketProtocol.HEADER_SIZE_V2 + 3] ^= 0x10;
+        assertTrue(DataIntegrityProtocol.isChecksumCorrect(data, payload.length));
+        assertFalse(DataIntegrityProtocol.isCrc32cCorrect(data, packetLength));
+        assertFalse(DataIntegrityProtocol.isCrc32cCorrect(data, PacketProtocol.HEADER_SIZE_V2));
+        PacketCodec.BUFFER_POOL.release(packet);
+    }
+
+    /**
+     * Test whether the pool never keeps more buffers than its capacity.
+     */
+    @Test
+    public void testPoolIsBounded() {
+        PacketBufferPool pool = new PacketBufferPool(2, PacketProtocol.MAX_PACKET_SIZE);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        ByteBuffer third = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2, pool.getAvailable());
+        assertSame(first, pool.acquire());
+    }
+
+    /**
+     * Test whether encoding, sending, receiving and decoding data packets and acknowledgements does not allocate memory
+     * once the buffers are in use (less than one byte per round trip is allowed for the measurement itself).
+     */
+    @Test
+    public void testSteadyStateWithoutAllocation() {
+        LoopbackSocket socket = new LoopbackSocket();
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        TransferContext context = new TransferContext(socket, loopback, PacketProtocol.PI_PORT, new RttEstimator());
+        ByteBuffer packetBuffer = PacketCodec.BUFFER_POOL.acquire();
+        DatagramPacket packetToSend = new DatagramPacket(packetBuffer.array(), 0, loopback, PacketProtocol.PI_PORT);
+        byte[] receivedData = new byte[PacketProtocol.MAX_PACKET_SIZE];
+        DatagramPacket receivedPacket = new DatagramPacket(receivedData, receivedData.length);
+        byte[] payload = new byte[SelectiveRepeatProtocol.getPayloadSize(PacketProtocol.CURRENT_HEADER_VERSION, PacketProtocol.OPTION_CRC32C)];
+        // warm up, so the measurement does not include the allocations of loading and compiling the code:
+        assertTrue(sendAndReceive(socket, context, packetBuffer, packetToSend, receivedPacket, payload));
+        assertTrue(sendAndReceive(socket, context, packetBuffer, packetToSend, receivedPacket, payload));
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        boolean correct = sendAndReceive(socket, context, packetBuffer, packetToSend, receivedPacket, payload);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        PacketCodec.BUFFER_POOL.release(packetBuffer);
+        assertTrue(correct);
+        assertTrue(allocated < ITERATIONS, "allocated " + allocated + " bytes for " + ITERATIONS + " round trips");
+    }
+
+    /**
+     * Send data packets and acknowledgements over a loopback socket and decode them again.
+     *
+     * @param socket         is the loopback socket.
+     * @param context        is the context of the connection, which sends the acknowledgements.
+     * @param packetBuffer   is the buffer in which the data packets are encoded.
+     * @param packetToSend   is the datagram packet via which the data packets are sent.
+     * @param receivedPacket is the datagram packet in which all packets are received.
+     * @param payload        is the data that every data packet carries.
+     * @return true if all packets were decoded correctly, false if not.
+     */
+    private static boolean sendAndReceive(LoopbackSocket socket, TransferContext context, ByteBuffer packetBuffer, DatagramPacket packetToSend, DatagramPacket receivedPacket, byte[] payload) {
+        boolean correct = true;
+        byte[] receivedData = receivedPacket.getData();
+        for (int i = 0; i < ITERATIONS; i++) {
+            // encode and send a data packet, and receive and decode it:
+            PacketCodec.encodeHeader(packetBuffer, context.getHeaderVersion(), 1L << 33, (long) i * payload.length, i, 7, PacketProtocol.MOREFRAGMENTS, PacketProtocol.OPTION_CRC32C, payload.length);
+            packetBuffer.put(payload);
+            PacketCodec.appendCrc32c(packetBuffer);
+            PacketCodec.toDatagram(packetBuffer, packetToSend);
+            socket.send(packetToSend);
+            socket.receive(receivedPacket);
+            int payloadLength = receivedPacket.getLength() - PacketProtocol.getHeaderSize(receivedData) - PacketProtocol.CRC32C_LENGTH;
+            correct &= DataIntegrityProtocol.isChecksumCorrect(receivedData, payloadLength) && PacketProtocol.getSequenceNumber(receivedData) == i
+                    && DataIntegrityProtocol.isCrc32cCorrect(receivedData, receivedPacket.getLength());
+            // acknowledge it, and receive and decode the acknowledgement:
+            AcknowledgementProtocol.sendAcknowledgement(0, i, 7, context);
+            socket.receive(receivedPacket);
+            correct &= PacketProtocol.getFlag(receivedData) == PacketProtocol.ACK && PacketProtocol.getAcknowledgementNumber(receivedData) == i
+                    && DataIntegrityProtocol.isChecksumCorrect(receivedData, 0);
+        }
+        return correct;
+    }
+
+    /**
+     * Represents a socket that receives the last packet that it has sent, without allocating any memory.
+     */
+    private static class LoopbackSocket implements PacketSocket {
+        private final byte[] lastPacket = new byte[PacketProtocol.MAX_PACKET_SIZE];
+        private int lastPacketLength;
+
+        @Override
+        public void send(DatagramPacket packet) {
+            System.arraycopy(packet.getData(), packet.getOffset(), lastPacket, 0, packet.getLength());
+            lastPacketLength = packet.getLength();
+        }
+
+        @Override
+        public void receive(DatagramPacket packet) {
+            System.arraycopy(lastPacket, 0, packet.getData(), packet.getOffset(), lastPacketLength);
+            packet.setLength(lastPacketLength);
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,5 +1,83 @@
 package com.nedap.university;
 
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether headers of both versions are created and read correctly, and whether headers of the first version
+ * (as sent by older clients) are still understood.
+ */
 class PacketProtocolTest {
 
-}
\ No newline at end of file
+    /**
+     * Test whether a header of the second version carries a file size and offset that do not fit in 32 bits.
+     */
+    @Test
+    public void testLargeFileSizeAndOffset() {
+        long fileSize = 6L * 1024 * 1024 * 1024 + 3;
+        long offset = 5L * 1024 * 1024 * 1024 + 1464;
+        byte[] data = "data".getBytes();
+        byte[] packet = PacketProtocol.createPacketWithHeader(PacketProtocol.HEADER_VERSION_2, fileSize, offset, 12345678, 87654321, PacketProtocol.MOREFRAGMENTS, 0, data);
+        assertEquals(PacketProtocol.HEADER_SIZE_V2 + data.length, packet.length);
+        assertEquals(PacketProtocol.HEADER_VERSION_2, PacketProtocol.getHeaderVersion(packet));
+        assertEquals(fileSize, PacketProtocol.getFileSizeInPacket(packet));
+        assertEquals(offset, PacketProtocol.getOffset(packet));
+        assertEquals(12345678, PacketProtocol.getSequenceNumber(packet));
+        assertEquals(87654321, PacketProtocol.getAcknowledgementNumber(packet));
+        assertEquals(PacketProtocol.MOREFRAGMENTS, PacketProtocol.getFlag(packet));
+        assertTrue(DataIntegrityProtocol.isChecksumCorrect(packet, data.length));
+    }
+
+    /**
+     * Test whether a header of the first version keeps its original layout, so older clients can still be served.
+     */
+    @Test
+    public void testFirstVersionIsUnchanged() {
+        byte[] packet = PacketProtocol.createPacketWithHeader(100, 1, 2, PacketProtocol.UPLOAD, "file.pdf".getBytes());
+        assertEquals(PacketProtocol.HEADER_SIZE + "file.pdf".length(), packet.length);
+        assertEquals(PacketProtocol.HEADER_VERSION_1, PacketProtocol.getHeaderVersion(packet));
+        // the flag field only carries the flag, as the version bits are 0:
+        assertEquals(PacketProtocol.UPLOAD, ((packet[12] & 0xff) << 8) | (packet[13] & 0xff));
+        assertEquals(100, PacketProtocol.getFileSizeInPacket(packet));
+        assertEquals(-1, PacketProtocol.getOffset(packet));
+        assertEquals(0, PacketProtocol.getOptions(packet));
+    }
+
+    /**
+     * Test whether a change in one of the 64-bit fields is detected by the checksum of the header.
+     */
+    @Test
+    public void testChecksumCoversSecondVersionFields() {
+        byte[] header = PacketProtocol.createHeader(PacketProtocol.HEADER_VERSION_2, 1L << 33, 1464, 1, 1, PacketProtocol.LAST, 0, 0);
+        assertTrue(DataIntegrityProtocol.isChecksumCorrect(header, 0));
+        header[30] = (byte) (header[30] + 1);
+        assertFalse(DataIntegrityProtocol.isChecksumCorrect(header, 0));
+    }
+
+    /**
+     * Test whether a file size that does not fit in a header of the first version is refused.
+     */
+    @Test
+    public void testFirstVersionRefusesLargeFileSize() {
+        assertThrows(IllegalArgumentException.class, () -> PacketProtocol.createHeader(PacketProtocol.HEADER_VERSION_1, 1L << 32, 0, 1, 1, PacketProtocol.ACK, 0, 0));
+    }
+
+    /**
+     * Test whether the RESUME flag is combined with a request, and whether the offset of a DOWNLOAD request is only used
+     * if the client knows the current size of the file.
+     */
+    @Test
+    public void testResumeRequest() {
+        int flag = PacketProtocol.DOWNLOAD + PacketProtocol.RESUME;
+        byte[] request = PacketProtocol.createPacketWithHeader(PacketProtocol.HEADER_VERSION_2, 5000, 3000, 1, 0, flag, 0, "file.pdf".getBytes());
+        assertEquals(PacketProtocol.DOWNLOAD, PacketProtocol.getRequestFlag(request));
+        assertTrue(PacketProtocol.isResumeRequested(request));
+        assertEquals(3000, ResumeProtocol.getResumeOffset(request, 5000));
+        assertEquals(0, ResumeProtocol.getResumeOffset(request, 6000));
+        byte[] oldRequest = PacketProtocol.createPacketWithHeader(5000, 1, 0, PacketProtocol.DOWNLOAD, "file.pdf".getBytes());
+        assertFalse(PacketProtocol.isResumeRequested(oldRequest));
+        assertEquals(0, ResumeProtocol.getResumeOffset(oldRequest, 5000));
+        assertEquals(0, ResumeProtocol.getResumeOffset(oldRequest));
+    }
+}
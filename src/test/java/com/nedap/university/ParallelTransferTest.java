@@ -0,0 +1,125 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether a file is divided in ranges that cover the total file, and whether a file that is received over several
+ * streams at the same time is stored as an exact copy.
+ */
+public class ParallelTransferTest {
+
+    /**
+     * Test whether the ranges of all streams follow each other without gaps and differ at most one byte in length.
+     */
+    @Test
+    public void testRangesCoverFile() {
+        long totalFileSize = 6L * 1024 * 1024 * 1024 + 5;
+        long position = 0;
+        for (int streamIndex = 0; streamIndex < 4; streamIndex++) {
+            assertEquals(position, ParallelTransferProtocol.getRangeOffset(totalFileSize, 4, streamIndex));
+            long length = ParallelTransferProtocol.getRangeLength(totalFileSize, 4, streamIndex);
+            assertTrue(length == totalFileSize / 4 || length == totalFileSize / 4 + 1);
+            position = position + length;
+        }
+        assertEquals(totalFileSize, position);
+        assertEquals(0, ParallelTransferProtocol.getRangeLength(2, 3, 2));
+    }
+
+    /**
+     * Test whether the server accepts the stream of a request, and whether a request without a stream is a single
+     * stream.
+     */
+    @Test
+    public void testStreamOptions() {
+        int options = PacketProtocol.addStream(PacketProtocol.REQUESTED_OPTIONS, 2, 3);
+        int acceptedOptions = PacketProtocol.acceptOptions(options);
+        assertEquals(2, PacketProtocol.getStreamIndex(acceptedOptions));
+        assertEquals(3, PacketProtocol.getNumberOfStreams(acceptedOptions));
+        assertEquals(PacketProtocol.REQUESTED_OPTIONS, acceptedOptions & ~PacketProtocol.STREAM_MASK);
+        assertEquals(1, PacketProtocol.getNumberOfStreams(PacketProtocol.acceptOptions(PacketProtocol.REQUESTED_OPTIONS)));
+        // a stream that does not belong to the number of streams is refused:
+        assertEquals(1, PacketProtocol.getNumberOfStreams(PacketProtocol.acceptOptions(PacketProtocol.addStream(0, 3, 3))));
+    }
+
+    /**
+     * Test whether a file that is sent over three streams at the same time (each on its own pair of sockets) is stored
+     * under its actual name only after the last stream finished.
+     */
+    @Test
+    public void testTransferOverThreeStreams() throws Exception {
+        int numberOfStreams = 3;
+        byte[] fileInBytes = new byte[300001];
+        new Random(14).nextBytes(fileInBytes);
+        File folder = Files.createTempDirectory("parallel-transfer").toFile();
+        ParallelTransfer transfer = new ParallelTransfer(folder.getPath() + File.separator, "received.bin", numberOfStreams);
+        FragmentSource source = new ByteArrayFragmentSource(fileInBytes);
+        StatisticsProtocol totalStatistics = new StatisticsProtocol();
+        totalStatistics.startProgress(fileInBytes.length);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        Thread[] receivers = new Thread[numberOfStreams];
+        boolean[] isSent = new boolean[numberOfStreams];
+        Thread[] senders = new Thread[numberOfStreams];
+        DatagramSocket[] sockets = new DatagramSocket[2 * numberOfStreams];
+        for (int streamIndex = 0; streamIndex < numberOfStreams; streamIndex++) {
+            DatagramSocket receiverSocket = new DatagramSocket(0, loopback);
+            DatagramSocket senderSocket = new DatagramSocket(0, loopback);
+            sockets[2 * streamIndex] = receiverSocket;
+            sockets[(2 * streamIndex) + 1] = senderSocket;
+            int options = PacketProtocol.addStream(PacketProtocol.REQUESTED_OPTIONS, streamIndex, numberOfStreams);
+            TransferContext receiverContext = new TransferContext(new UdpPacketSocket(receiverSocket), loopback, senderSocket.getLocalPort(), new RttEstimator());
+            TransferContext senderContext = new TransferContext(new UdpPacketSocket(senderSocket), loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            receiverContext.setOptions(options);
+            senderContext.setOptions(options);
+            receivers[streamIndex] = new Thread(() -> {
+                FileFragmentSink file = transfer.open(fileInBytes.length);
+                transfer.finishStream(ParallelTransferProtocol.receiveRange(receiverContext, file, 99, transfer.getTotalStatistics()));
+            });
+            int index = streamIndex;
+            senders[streamIndex] = new Thread(() -> isSent[index] = ParallelTransferProtocol.sendRange(senderContext, source, 7, 99, totalStatistics));
+            receivers[streamIndex].start();
+            senders[streamIndex].start();
+        }
+        for (int streamIndex = 0; streamIndex < numberOfStreams; streamIndex++) {
+            senders[streamIndex].join();
+            receivers[streamIndex].join();
+            assertTrue(isSent[streamIndex]);
+        }
+        for (DatagramSocket socket : sockets) {
+            socket.close();
+        }
+        assertTrue(transfer.isStored());
+        File receivedFile = new File(folder, "received.bin");
+        assertArrayEquals(fileInBytes, Files.readAllBytes(receivedFile.toPath()));
+        assertEquals(1, folder.list().length);
+        receivedFile.delete();
+        folder.delete();
+    }
+
+    /**
+     * Test whether a transfer of which a stream never starts expires once no stream is active for the time-out, and
+     * whether its temporary file is removed then.
+     */
+    @Test
+    public void testExpireWhenStreamNeverStarts() throws Exception {
+        File folder = Files.createTempDirectory("parallel-transfer").toFile();
+        ParallelTransfer transfer = new ParallelTransfer(folder.getPath() + File.separator, "received.bin", 2);
+        assertNotNull(transfer.open(1000));
+        assertFalse(transfer.expire(0));
+        transfer.finishStream(true);
+        assertFalse(transfer.expire(60000));
+        Thread.sleep(20);
+        assertTrue(transfer.expire(10));
+        assertEquals(0, folder.list().length);
+        assertNull(transfer.open(1000));
+        assertFalse(transfer.isStored());
+        folder.delete();
+    }
+}
@@ -0,0 +1,122 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the fragment size of a connection is negotiated in the options, whether the probes find the largest
+ * fragment size that the path carries, and whether a file is transferred with the negotiated fragment size.
+ */
+public class PathMtuTest {
+
+    /**
+     * Test whether a fragment size is added to the options as the largest known size that fits, whether the server
+     * accepts it, and whether connections without a fragment size (or with headers of the first version) keep using
+     * packets of the legacy size.
+     */
+    @Test
+    public void testFragmentSizeInOptions() throws IOException {
+        assertEquals(PacketProtocol.LEGACY_FRAGMENT_SIZE, PacketProtocol.getFragmentSize(PacketProtocol.HEADER_VERSION_2, 0));
+        int options = PacketProtocol.addFragmentSize(PacketProtocol.REQUESTED_OPTIONS, PacketProtocol.DEFAULT_FRAGMENT_SIZE);
+        assertEquals(PacketProtocol.DEFAULT_FRAGMENT_SIZE, PacketProtocol.getFragmentSize(PacketProtocol.HEADER_VERSION_2, options));
+        assertEquals(PacketProtocol.LEGACY_FRAGMENT_SIZE, PacketProtocol.getFragmentSize(PacketProtocol.HEADER_VERSION_1, options));
+        assertEquals(options, PacketProtocol.acceptOptions(options));
+        // a size in between is rounded down, and a size below the minimum is raised to the minimum:
+        options = PacketProtocol.addFragmentSize(options, 9000);
+        assertEquals(PathMtuProtocol.MAX_FRAGMENT_SIZE, PacketProtocol.getFragmentSize(PacketProtocol.HEADER_VERSION_2, options));
+        options = PacketProtocol.addFragmentSize(options, 500);
+        assertEquals(PacketProtocol.MIN_FRAGMENT_SIZE, PacketProtocol.getFragmentSize(PacketProtocol.HEADER_VERSION_2, options));
+        // the payload of a data packet is what remains of the fragment size after the header and CRC32C:
+        assertEquals(PacketProtocol.MIN_FRAGMENT_SIZE - PacketProtocol.HEADER_SIZE_V2 - PacketProtocol.CRC32C_LENGTH, SelectiveRepeatProtocol.getPayloadSize(PacketProtocol.HEADER_VERSION_2, options));
+        // without the DF bit, only the loopback interface is probed beyond the size that fits in the MTU of Ethernet:
+        assertEquals(PacketProtocol.MAX_PACKET_SIZE, PathMtuProtocol.getMaxFragmentSize(InetAddress.getLoopbackAddress(), false));
+        assertEquals(PacketProtocol.DEFAULT_FRAGMENT_SIZE, PathMtuProtocol.getMaxFragmentSize(InetAddress.getByAddress(new byte[]{10, 0, 0, 1}), false));
+        assertEquals(PathMtuProtocol.MAX_FRAGMENT_SIZE, PathMtuProtocol.getMaxFragmentSize(InetAddress.getByAddress(new byte[]{10, 0, 0, 1}), true));
+        // a probe is never accepted as an option of a connection:
+        assertEquals(0, PacketProtocol.acceptOptions(PacketProtocol.OPTION_PMTU_PROBE) & PacketProtocol.OPTION_PMTU_PROBE);
+    }
+
+    /**
+     * Test whether the probes over the loopback address find datagrams of about 64 KB, and whether the client falls
+     * back to the largest size that is answered if larger probes are lost.
+     */
+    @Test
+    public void testProbeOverLoopback() throws Exception {
+        assertEquals(PacketProtocol.MAX_PACKET_SIZE, probeOverLoopback(PacketProtocol.MAX_PACKET_SIZE));
+        assertEquals(PathMtuProtocol.MAX_FRAGMENT_SIZE, probeOverLoopback(PathMtuProtocol.MAX_FRAGMENT_SIZE));
+        assertEquals(PacketProtocol.DEFAULT_FRAGMENT_SIZE, probeOverLoopback(PacketProtocol.DEFAULT_FRAGMENT_SIZE));
+    }
+
+    /**
+     * Test whether a file that is sent with the largest fragment size over the loopback address is received as an exact
+     * copy, in fewer packets than with the legacy fragment size.
+     */
+    @Test
+    public void testTransferWithLargeFragmentsOverLoopback() throws Exception {
+        byte[] fileInBytes = new byte[1000000];
+        new Random(10).nextBytes(fileInBytes);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        ChannelPacketSocket receiverSocket = ChannelPacketSocket.open();
+        ChannelPacketSocket senderSocket = ChannelPacketSocket.open();
+        try {
+            TransferContext receiverContext = new TransferContext(receiverSocket, loopback, senderSocket.getLocalPort(), new RttEstimator());
+            TransferContext senderContext = new TransferContext(senderSocket, loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            int options = PacketProtocol.addFragmentSize(PacketProtocol.OPTION_SACK | PacketProtocol.OPTION_CRC32C, PacketProtocol.MAX_PACKET_SIZE);
+            receiverContext.setOptions(options);
+            senderContext.setOptions(options);
+            ByteArrayFragmentSink sink = new ByteArrayFragmentSink(fileInBytes.length);
+            Thread receiver = new Thread(() -> SelectiveRepeatProtocol.receiveFile(receiverContext, fileInBytes.length, 99, sink, new ChecksumAccumulator()));
+            receiver.start();
+            assertTrue(SelectiveRepeatProtocol.sendFile(new ByteArrayFragmentSource(fileInBytes), 7, 99, senderContext, 64, new ChecksumAccumulator()));
+            receiver.join();
+            assertArrayEquals(fileInBytes, sink.getData());
+            assertEquals(16, SelectiveRepeatProtocol.getNumberOfPackets(fileInBytes.length, SelectiveRepeatProtocol.getPayloadSize(PacketProtocol.HEADER_VERSION_2, options)));
+        } finally {
+            receiverSocket.close();
+            senderSocket.close();
+        }
+    }
+
+    /**
+     * Probe the path to a socket on the loopback address that answers the probes up to a size, and drops larger probes
+     * (like a path with a smaller MTU does).
+     *
+     * @param maxAnsweredSize is the size of the largest probe that is answered.
+     * @return the fragment size that the probes find.
+     */
+    private static int probeOverLoopback(int maxAnsweredSize) throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket serverSocket = new DatagramSocket(0, loopback)) {
+            Thread responder = new Thread(() -> {
+                DatagramPacket probe = new DatagramPacket(new byte[PacketProtocol.MAX_PACKET_SIZE], PacketProtocol.MAX_PACKET_SIZE);
+                try {
+                    while (!serverSocket.isClosed()) {
+                        probe.setLength(PacketProtocol.MAX_PACKET_SIZE);
+                        serverSocket.receive(probe);
+                        if (PathMtuProtocol.isProbe(probe.getData(), probe.getLength()) && probe.getLength() <= maxAnsweredSize) {
+                            byte[] reply = PathMtuProtocol.createProbeReply(probe);
+                            serverSocket.send(new DatagramPacket(reply, reply.length, probe.getSocketAddress()));
+                        }
+                    }
+                } catch (IOException e) {
+                    // the socket is closed.
+                }
+            });
+            responder.start();
+            ChannelPacketSocket clientSocket = ChannelPacketSocket.open();
+            try {
+                TransferContext context = new TransferContext(clientSocket, loopback, serverSocket.getLocalPort(), new RttEstimator());
+                return PathMtuProtocol.probe(context);
+            } finally {
+                clientSocket.close();
+            }
+        }
+    }
+}
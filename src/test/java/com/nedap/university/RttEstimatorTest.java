@@ -0,0 +1,62 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the round trip time estimator follows the Jacobson/Karels algorithm, applies Karn's rule and keeps the
+ * retransmission time-out between its minimum and maximum.
+ */
+public class RttEstimatorTest {
+    private static final long MS = 1000000L;
+
+    /**
+     * Test whether the first sample sets the smoothed round trip time to the sample and the variance to half of it.
+     */
+    @Test
+    public void testFirstSample() {
+        RttEstimator rttEstimator = new RttEstimator(1, 60000);
+        rttEstimator.addSample(100 * MS, false);
+        assertEquals(100 * MS, rttEstimator.getSmoothedRttInNanos());
+        assertEquals(50 * MS, rttEstimator.getRttVarianceInNanos());
+        assertEquals(300, rttEstimator.getTimeout()); // 100 + 4 * 50.
+    }
+
+    /**
+     * Test whether a following sample moves the smoothed round trip time by one eighth and the variance by one fourth.
+     */
+    @Test
+    public void testFollowingSample() {
+        RttEstimator rttEstimator = new RttEstimator(1, 60000);
+        rttEstimator.addSample(100 * MS, false);
+        rttEstimator.addSample(180 * MS, false);
+        assertEquals(110 * MS, rttEstimator.getSmoothedRttInNanos()); // 7/8 * 100 + 1/8 * 180.
+        assertEquals(57500000L, rttEstimator.getRttVarianceInNanos()); // 3/4 * 50 + 1/4 * 80.
+    }
+
+    /**
+     * Test whether samples of retransmitted packets are ignored (Karn's rule).
+     */
+    @Test
+    public void testKarnsRule() {
+        RttEstimator rttEstimator = new RttEstimator(1, 60000);
+        rttEstimator.addSample(100 * MS, true);
+        assertFalse(rttEstimator.hasSample());
+        assertEquals(PacketProtocol.INITIAL_TIMEOUT, rttEstimator.getTimeout());
+    }
+
+    /**
+     * Test whether the time-out is clamped between the minimum and maximum, also after backing off repeatedly.
+     */
+    @Test
+    public void testClampedTimeout() {
+        RttEstimator rttEstimator = new RttEstimator(200, 1500);
+        rttEstimator.addSample(MS / 10, false);
+        assertEquals(200, rttEstimator.getTimeout());
+        for (int i = 0; i < 10; i++) {
+            rttEstimator.backOff();
+        }
+        assertEquals(1500, rttEstimator.getTimeout());
+    }
+}
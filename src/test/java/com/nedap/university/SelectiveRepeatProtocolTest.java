@@ -0,0 +1,321 @@
+package com.nedap.university;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether files are split into the correct packets and whether a file that is sent using the Selective Repeat
+ * protocol is received completely and in the correct order.
+ */
+public class SelectiveRepeatProtocolTest {
+
+    /**
+     * Test whether the number of packets is rounded up, and whether an empty file still needs one packet.
+     */
+    @Test
+    public void testNumberOfPackets() {
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(PacketProtocol.CURRENT_HEADER_VERSION);
+        assertEquals(1, SelectiveRepeatProtocol.getNumberOfPackets(0, payloadSize));
+        assertEquals(1, SelectiveRepeatProtocol.getNumberOfPackets(payloadSize, payloadSize));
+        assertEquals(2, SelectiveRepeatProtocol.getNumberOfPackets(payloadSize + 1, payloadSize));
+    }
+
+    /**
+     * Test whether only the last packet of a file carries less data than the maximum payload size.
+     */
+    @Test
+    public void testPayloadLength() {
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(PacketProtocol.CURRENT_HEADER_VERSION);
+        assertEquals(payloadSize, SelectiveRepeatProtocol.getPayloadLength(payloadSize + 10, 0, payloadSize));
+        assertEquals(10, SelectiveRepeatProtocol.getPayloadLength(payloadSize + 10, 1, payloadSize));
+    }
+
+    /**
+     * Test whether the packets of a file that is larger than 4 GB are counted and sized without overflow.
+     */
+    @Test
+    public void testPacketsOfLargeFile() {
+        int payloadSize = SelectiveRepeatProtocol.getPayloadSize(PacketProtocol.HEADER_VERSION_2);
+        long totalFileSize = 5L * 1024 * 1024 * 1024 + 7;
+        int numberOfPackets = SelectiveRepeatProtocol.getNumberOfPackets(totalFileSize, payloadSize);
+        assertEquals((totalFileSize + payloadSize - 1) / payloadSize, numberOfPackets);
+        assertEquals(payloadSize, SelectiveRepeatProtocol.getPayloadLength(totalFileSize, numberOfPackets - 2, payloadSize));
+        assertEquals(totalFileSize - (long) (numberOfPackets - 1) * payloadSize, SelectiveRepeatProtocol.getPayloadLength(totalFileSize, numberOfPackets - 1, payloadSize));
+    }
+
+    /**
+     * Test whether a file that is sent over the loopback address is received as an exact copy.
+     */
+    @Test
+    public void testTransferOverLoopback() throws Exception {
+        byte[] fileInBytes = new byte[50000];
+        new Random(2).nextBytes(fileInBytes);
+        assertArrayEquals(fileInBytes, transferOverLoopback(fileInBytes));
+    }
+
+    /**
+     * Test whether a file is also received as an exact copy if the connection uses headers of the first version (as
+     * older clients do).
+     */
+    @Test
+    public void testTransferOverLoopbackWithFirstHeaderVersion() throws Exception {
+        byte[] fileInBytes = new byte[50000];
+        new Random(5).nextBytes(fileInBytes);
+        assertArrayEquals(fileInBytes, transferOverLoopback(fileInBytes, PacketProtocol.HEADER_VERSION_1));
+    }
+
+    /**
+     * Test whether a file is received as an exact copy if the payload of some packets is corrupted on the way, as those
+     * packets are dropped (and retransmitted) because of their CRC32C, and whether the checksum of the file is still
+     * calculated correctly while the packets arrive out of order.
+     */
+    @Test
+    public void testTransferWithCorruptedPayloadOverLoopback() throws Exception {
+        byte[] fileInBytes = new byte[50001];
+        new Random(6).nextBytes(fileInBytes);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket receiverSocket = new DatagramSocket(0, loopback);
+             DatagramSocket senderSocket = new DatagramSocket(0, loopback)) {
+            TransferContext receiverContext = new TransferContext(new UdpPacketSocket(receiverSocket), loopback, senderSocket.getLocalPort(), new RttEstimator());
+            CorruptingSocket corruptingSocket = new CorruptingSocket(new UdpPacketSocket(senderSocket));
+            TransferContext senderContext = new TransferContext(corruptingSocket, loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            receiverContext.setOptions(PacketProtocol.OPTION_CRC32C);
+            senderContext.setOptions(PacketProtocol.OPTION_CRC32C);
+            ByteArrayFragmentSink sink = new ByteArrayFragmentSink(fileInBytes.length);
+            ChecksumAccumulator receivedChecksum = new ChecksumAccumulator();
+            ChecksumAccumulator sentChecksum = new ChecksumAccumulator();
+            Thread receiver = new Thread(() -> SelectiveRepeatProtocol.receiveFile(receiverContext, fileInBytes.length, 99, sink, receivedChecksum));
+            receiver.start();
+            assertTrue(SelectiveRepeatProtocol.sendFile(new ByteArrayFragmentSource(fileInBytes), 7, 99, senderContext, 16, sentChecksum));
+            receiver.join();
+            assertTrue(corruptingSocket.numberOfCorruptedPackets > 0);
+            assertArrayEquals(fileInBytes, sink.getData());
+            // the checksums that are calculated while sending and while receiving (partly out of order) are the same as
+            // the checksum over the complete file:
+            assertEquals(DataIntegrityProtocol.calculateChecksum(fileInBytes), sentChecksum.finish());
+            assertEquals(DataIntegrityProtocol.calculateChecksum(fileInBytes), receivedChecksum.finish());
+        }
+    }
+
+    /**
+     * Test whether a selective acknowledgement acknowledges the packets before the first missing packet, and carries the
+     * ranges of the packets that are received after it.
+     */
+    @Test
+    public void testSelectiveAcknowledgement() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            TransferContext context = new TransferContext(new UdpPacketSocket(socket), InetAddress.getLoopbackAddress(), socket.getLocalPort(), new RttEstimator());
+            BitSet receivedPackets = new BitSet();
+            receivedPackets.set(0, 3);
+            receivedPackets.set(5, 7);
+            receivedPackets.set(9);
+            DatagramPacket ack = AcknowledgementProtocol.createSelectiveAckToSend(20, 100, receivedPackets, 3, 10, context);
+            byte[] acknowledgement = ack.getData();
+            assertTrue(PacketProtocol.isSelectiveAcknowledgement(acknowledgement));
+            assertTrue(DataIntegrityProtocol.isCrc32cCorrect(acknowledgement, ack.getLength()));
+            assertEquals(21, PacketProtocol.getSequenceNumber(acknowledgement));
+            assertEquals(102, PacketProtocol.getAcknowledgementNumber(acknowledgement));
+            assertEquals(2, PacketProtocol.getNumberOfSackRanges(acknowledgement, ack.getLength()));
+            assertEquals(105, PacketProtocol.getSackRangeStart(acknowledgement, 0));
+            assertEquals(107, PacketProtocol.getSackRangeEnd(acknowledgement, 0));
+            assertEquals(109, PacketProtocol.getSackRangeStart(acknowledgement, 1));
+            assertEquals(110, PacketProtocol.getSackRangeEnd(acknowledgement, 1));
+            // the ranges are limited to what fits in a packet with message:
+            receivedPackets.clear();
+            for (int packetNumber = 1; packetNumber < 200; packetNumber = packetNumber + 2) {
+                receivedPackets.set(packetNumber);
+            }
+            ack = AcknowledgementProtocol.createSelectiveAckToSend(20, 100, receivedPackets, 0, 200, context);
+            assertTrue(ack.getLength() <= PacketProtocol.PACKET_WITH_MESSAGE_SIZE);
+            assertEquals(PacketProtocol.MAX_SACK_RANGES, PacketProtocol.getNumberOfSackRanges(ack.getData(), ack.getLength()));
+        }
+    }
+
+    /**
+     * Test whether a file is received as an exact copy if the connection uses selective acknowledgements and some
+     * packets are lost, and whether the receiver sends fewer acknowledgements than packets.
+     */
+    @Test
+    public void testTransferWithSelectiveAcknowledgementsOverLoopback() throws Exception {
+        byte[] fileInBytes = new byte[200000];
+        new Random(8).nextBytes(fileInBytes);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket receiverSocket = new DatagramSocket(0, loopback);
+             DatagramSocket senderSocket = new DatagramSocket(0, loopback)) {
+            CorruptingSocket countingSocket = new CorruptingSocket(new UdpPacketSocket(receiverSocket), 0);
+            TransferContext receiverContext = new TransferContext(countingSocket, loopback, senderSocket.getLocalPort(), new RttEstimator());
+            CorruptingSocket droppingSocket = new CorruptingSocket(new UdpPacketSocket(senderSocket), 7);
+            droppingSocket.isDropped = true;
+            TransferContext senderContext = new TransferContext(droppingSocket, loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            receiverContext.setOptions(PacketProtocol.OPTION_SACK);
+            senderContext.setOptions(PacketProtocol.OPTION_SACK);
+            ByteArrayFragmentSink sink = new ByteArrayFragmentSink(fileInBytes.length);
+            Thread receiver = new Thread(() -> SelectiveRepeatProtocol.receiveFile(receiverContext, fileInBytes.length, 99, sink, new ChecksumAccumulator()));
+            receiver.start();
+            assertTrue(SelectiveRepeatProtocol.sendFile(new ByteArrayFragmentSource(fileInBytes), 7, 99, senderContext, 64, new ChecksumAccumulator()));
+            receiver.join();
+            assertTrue(droppingSocket.numberOfCorruptedPackets > 0);
+            assertArrayEquals(fileInBytes, sink.getData());
+            assertTrue(countingSocket.numberOfSentPackets < droppingSocket.numberOfSentPackets);
+        }
+    }
+
+    /**
+     * Test whether a file that is sent between two non-blocking channels (which receive the waiting packets in batches)
+     * is received as an exact copy, and whether the receiver sends fewer acknowledgements than the sender sends packets.
+     */
+    @Test
+    public void testBatchedTransferOverChannels() throws Exception {
+        byte[] fileInBytes = new byte[300000];
+        new Random(9).nextBytes(fileInBytes);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        ChannelPacketSocket receiverSocket = ChannelPacketSocket.open();
+        ChannelPacketSocket senderSocket = ChannelPacketSocket.open();
+        try {
+            CorruptingSocket countingReceiverSocket = new CorruptingSocket(receiverSocket, 0);
+            CorruptingSocket countingSenderSocket = new CorruptingSocket(senderSocket, 0);
+            TransferContext receiverContext = new TransferContext(countingReceiverSocket, loopback, senderSocket.getLocalPort(), new RttEstimator());
+            TransferContext senderContext = new TransferContext(countingSenderSocket, loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            receiverContext.setOptions(PacketProtocol.OPTION_SACK);
+            senderContext.setOptions(PacketProtocol.OPTION_SACK);
+            ByteArrayFragmentSink sink = new ByteArrayFragmentSink(fileInBytes.length);
+            Thread receiver = new Thread(() -> SelectiveRepeatProtocol.receiveFile(receiverContext, fileInBytes.length, 99, sink, new ChecksumAccumulator()));
+            receiver.start();
+            assertTrue(SelectiveRepeatProtocol.sendFile(new ByteArrayFragmentSource(fileInBytes), 7, 99, senderContext, 64, new ChecksumAccumulator()));
+            receiver.join();
+            assertArrayEquals(fileInBytes, sink.getData());
+            assertTrue(countingReceiverSocket.numberOfSentPackets < countingSenderSocket.numberOfSentPackets);
+        } finally {
+            receiverSocket.close();
+            senderSocket.close();
+        }
+    }
+
+    /**
+     * Test whether two files that are sent at the same time (each with its own context) are both received as an exact
+     * copy, as the transfers do not share any state.
+     */
+    @Test
+    public void testParallelTransfersOverLoopback() throws Exception {
+        byte[] firstFileInBytes = new byte[60000];
+        byte[] secondFileInBytes = new byte[40000];
+        new Random(3).nextBytes(firstFileInBytes);
+        new Random(4).nextBytes(secondFileInBytes);
+        byte[][] received = new byte[2][];
+        Thread firstTransfer = new Thread(() -> received[0] = transferOverLoopback(firstFileInBytes));
+        firstTransfer.start();
+        received[1] = transferOverLoopback(secondFileInBytes);
+        firstTransfer.join();
+        assertArrayEquals(firstFileInBytes, received[0]);
+        assertArrayEquals(secondFileInBytes, received[1]);
+    }
+
+    /**
+     * Send a file from one socket to another over the loopback address, using the current header version.
+     *
+     * @param fileInBytes is the byte representation of the file to send.
+     * @return the byte representation of the received file, or null if the sockets could not be created.
+     */
+    private static byte[] transferOverLoopback(byte[] fileInBytes) {
+        return transferOverLoopback(fileInBytes, PacketProtocol.CURRENT_HEADER_VERSION);
+    }
+
+    /**
+     * Send a file from one socket to another over the loopback address.
+     *
+     * @param fileInBytes   is the byte representation of the file to send.
+     * @param headerVersion is the version of the headers of the packets.
+     * @return the byte representation of the received file, or null if the sockets could not be created.
+     */
+    private static byte[] transferOverLoopback(byte[] fileInBytes, int headerVersion) {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket receiverSocket = new DatagramSocket(0, loopback);
+             DatagramSocket senderSocket = new DatagramSocket(0, loopback)) {
+            TransferContext receiverContext = new TransferContext(new UdpPacketSocket(receiverSocket), loopback, senderSocket.getLocalPort(), new RttEstimator());
+            TransferContext senderContext = new TransferContext(new UdpPacketSocket(senderSocket), loopback, receiverSocket.getLocalPort(), new RttEstimator());
+            receiverContext.setHeaderVersion(headerVersion);
+            senderContext.setHeaderVersion(headerVersion);
+            Thread receiver = new Thread(() -> SelectiveRepeatProtocol.receiveFile(receiverContext, fileInBytes.length, 99));
+            receiver.start();
+            SelectiveRepeatProtocol.sendFile(fileInBytes, 7, 99, senderContext, 16);
+            receiver.join();
+            return receiverContext.getFileInBytes();
+        } catch (IOException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Represents a socket that corrupts one byte of the payload of every fifth packet that it sends (if that packet
+     * carries file data), or of every packet at another interval. The packet itself is restored afterwards, so its
+     * retransmission can arrive correctly. If packets are dropped, those packets are not sent at all.
+     */
+    private static class CorruptingSocket implements PacketSocket {
+        private final PacketSocket socket;
+        private final int interval;
+        private boolean isDropped;
+        private int numberOfSentPackets;
+        private int numberOfCorruptedPackets;
+
+        CorruptingSocket(PacketSocket socket) {
+            this(socket, 5);
+        }
+
+        CorruptingSocket(PacketSocket socket, int interval) {
+            this.socket = socket;
+            this.interval = interval;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            numberOfSentPackets++;
+            byte[] data = packet.getData();
+            int position = packet.getOffset() + PacketProtocol.HEADER_SIZE_V2;
+            if (interval > 0 && numberOfSentPackets % interval == 0 && PacketProtocol.getFlag(data) == PacketProtocol.MOREFRAGMENTS) {
+                numberOfCorruptedPackets++;
+                if (isDropped) {
+                    return;
+                }
+                data[position] ^= 0x01;
+                socket.send(packet);
+                data[position] ^= 0x01;
+            } else {
+                socket.send(packet);
+            }
+        }
+
+        @Override
+        public void receive(DatagramPacket packet) throws IOException {
+            socket.receive(packet);
+        }
+
+        @Override
+        public boolean receiveIfAvailable(DatagramPacket packet) throws IOException {
+            return socket.receiveIfAvailable(packet);
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws SocketException {
+            socket.setSoTimeout(timeout);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return socket.isClosed();
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.nedap.university;
+
+import com.nedap.university.server.Server;
+import com.nedap.university.server.Session;
+import com.nedap.university.server.SessionDispatcher;
+import com.nedap.university.server.SessionKey;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether packets that are delivered to the session of a client are received by its handler, and whether only
+ * new requests start a new session.
+ */
+public class SessionTest {
+
+    /**
+     * Test whether a delivered packet is received as an exact copy, and whether a time-out occurs if no packet is
+     * delivered.
+     */
+    @Test
+    public void testDeliverAndReceive() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramChannel serverChannel = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0))) {
+            Session session = new Session(new SessionKey(loopback, 1234), 1, serverChannel, new RttEstimator());
+            byte[] data = PacketProtocol.createHeader(0, 5, 6, PacketProtocol.ACK, 0);
+            session.deliver(new DatagramPacket(data, data.length, loopback, 1234));
+            byte[] buffer = new byte[PacketProtocol.MAX_PACKET_SIZE];
+            DatagramPacket received = new DatagramPacket(buffer, buffer.length);
+            session.receive(received);
+            assertEquals(data.length, received.getLength());
+            assertEquals(5, PacketProtocol.getSequenceNumber(received.getData()));
+            assertEquals(1234, received.getPort());
+            session.setSoTimeout(10);
+            assertThrows(SocketTimeoutException.class, () -> session.receive(received));
+        }
+    }
+
+    /**
+     * Test whether a packet that the handler sends goes out via the non-blocking channel of the server, and whether the
+     * session sends it again when the client retransmits a packet after the handler has finished.
+     */
+    @Test
+    public void testSendViaChannel() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramChannel serverChannel = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+             DatagramSocket clientSocket = new DatagramSocket(0, loopback)) {
+            serverChannel.configureBlocking(false);
+            clientSocket.setSoTimeout(1000);
+            Session session = new Session(new SessionKey(loopback, clientSocket.getLocalPort()), 1, serverChannel, new RttEstimator());
+            byte[] data = PacketProtocol.createHeader(0, 7, 8, PacketProtocol.ACK, 0);
+            session.send(new DatagramPacket(data, data.length, loopback, clientSocket.getLocalPort()));
+            DatagramPacket received = new DatagramPacket(new byte[PacketProtocol.MAX_PACKET_SIZE], PacketProtocol.MAX_PACKET_SIZE);
+            clientSocket.receive(received);
+            assertEquals(data.length, received.getLength());
+            assertEquals(7, PacketProtocol.getSequenceNumber(received.getData()));
+            assertEquals(serverChannel.socket().getLocalPort(), received.getPort());
+            session.finish();
+            session.resendLastPacket();
+            clientSocket.receive(received);
+            assertEquals(8, PacketProtocol.getAcknowledgementNumber(received.getData()));
+        }
+    }
+
+    /**
+     * Test whether a closed session stops a handler that is waiting for a packet, and returns the buffers of the packets
+     * that were still queued to the pool.
+     */
+    @Test
+    public void testReceiveAfterClose() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramChannel serverChannel = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0))) {
+            Session session = new Session(new SessionKey(loopback, 1234), 1, serverChannel, new RttEstimator());
+            byte[] queuedPacket = PacketCodec.BUFFER_POOL.acquire().array();
+            int available = PacketCodec.BUFFER_POOL.getAvailable();
+            session.deliver(new DatagramPacket(queuedPacket, PacketProtocol.LEGACY_FRAGMENT_SIZE, loopback, 1234));
+            session.close();
+            assertEquals(available + 1, PacketCodec.BUFFER_POOL.getAvailable());
+            DatagramPacket received = new DatagramPacket(new byte[PacketProtocol.MAX_PACKET_SIZE], PacketProtocol.MAX_PACKET_SIZE);
+            assertTrue(session.isClosed());
+            assertThrows(IOException.class, () -> session.receive(received));
+        }
+    }
+
+    /**
+     * Test whether the queue of a session that receives jumbo frames is full at MAX_QUEUED_BYTES, instead of holding
+     * MAX_QUEUED_PACKETS of them.
+     */
+    @Test
+    public void testQueueIsBoundedByBytes() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramChannel serverChannel = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0))) {
+            Session session = new Session(new SessionKey(loopback, 1234), 1, serverChannel, new RttEstimator());
+            int jumboFrameSize = 9000;
+            int numberOfFrames = Session.MAX_QUEUED_BYTES / jumboFrameSize;
+            for (int i = 0; i <= numberOfFrames; i++) {
+                session.deliver(new DatagramPacket(new byte[jumboFrameSize], jumboFrameSize, loopback, 1234));
+            }
+            DatagramPacket received = new DatagramPacket(new byte[jumboFrameSize], jumboFrameSize);
+            int numberOfReceivedFrames = 0;
+            while (session.receiveIfAvailable(received)) {
+                numberOfReceivedFrames++;
+            }
+            assertEquals(numberOfFrames, numberOfReceivedFrames);
+            // the queue has room again once the handler received the frames:
+            session.deliver(new DatagramPacket(new byte[jumboFrameSize], jumboFrameSize, loopback, 1234));
+            assertTrue(session.receiveIfAvailable(received));
+        }
+    }
+
+    /**
+     * Test whether only requests of a client are recognized as requests.
+     */
+    @Test
+    public void testIsRequest() {
+        assertTrue(SessionDispatcher.isRequest(PacketProtocol.UPLOAD));
+        assertTrue(SessionDispatcher.isRequest(PacketProtocol.LIST));
+        assertFalse(SessionDispatcher.isRequest(PacketProtocol.ACK));
+        assertFalse(SessionDispatcher.isRequest(PacketProtocol.MOREFRAGMENTS));
+    }
+
+    /**
+     * Test whether a request of which the header is corrupted, and a late retransmission of a request that the client
+     * already finished, do not start a new session, while a new request does.
+     */
+    @Test
+    public void testCorruptedAndFinishedRequests() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramChannel serverChannel = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+             DatagramSocket clientSocket = new DatagramSocket(0, loopback)) {
+            serverChannel.configureBlocking(false);
+            clientSocket.setSoTimeout(1000);
+            SessionDispatcher dispatcher = new SessionDispatcher(serverChannel, new Server(), false);
+            DatagramPacket response = new DatagramPacket(new byte[PacketProtocol.MAX_PACKET_SIZE], PacketProtocol.MAX_PACKET_SIZE);
+            try {
+                DatagramPacket corruptedRequest = createCloseRequest(3, clientSocket.getLocalPort());
+                corruptedRequest.getData()[4] ^= 0x01;
+                assertFalse(SessionDispatcher.isRequest(corruptedRequest));
+                dispatcher.dispatch(corruptedRequest);
+                assertEquals(0, dispatcher.getNumberOfSessions());
+                dispatcher.dispatch(createCloseRequest(1, clientSocket.getLocalPort()));
+                clientSocket.receive(response);
+                assertEquals(1, PacketProtocol.getAcknowledgementNumber(response.getData()));
+                dispatcher.dispatch(createCloseRequest(2, clientSocket.getLocalPort()));
+                clientSocket.receive(response);
+                assertEquals(2, PacketProtocol.getAcknowledgementNumber(response.getData()));
+                // the first request arrives again after the second one, which should not start a new session:
+                dispatcher.dispatch(createCloseRequest(1, clientSocket.getLocalPort()));
+                clientSocket.setSoTimeout(200);
+                assertThrows(SocketTimeoutException.class, () -> clientSocket.receive(response));
+                assertEquals(1, dispatcher.getNumberOfSessions());
+            } finally {
+                dispatcher.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Create the request of a client that is closing the application.
+     *
+     * @param requestId is the id (sequence number) of the request.
+     * @param port      is the port of the client.
+     * @return the request.
+     */
+    private static DatagramPacket createCloseRequest(int requestId, int port) {
+        byte[] request = PacketProtocol.createPacketWithHeader(0, requestId, 0, PacketProtocol.CLOSE, new byte[0]);
+        return new DatagramPacket(request, request.length, InetAddress.getLoopbackAddress(), port);
+    }
+}